@@ -0,0 +1,282 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Author;
+import gestore_libreria.model.Book;
+import gestore_libreria.model.BookCounts;
+import gestore_libreria.model.Genre;
+import gestore_libreria.model.MergeResult;
+import gestore_libreria.model.Page;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SearchResult;
+import gestore_libreria.model.SortCriteria;
+import gestore_libreria.model.ThumbnailSize;
+
+import javax.swing.SwingUtilities;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Facciata asincrona di un {@link BookManager}: ogni operazione viene eseguita su un thread virtuale e restituisce
+ * un {@link CompletableFuture}, così il thread che la richiede (di solito l'Event Dispatch Thread di Swing)
+ * non esegue mai JDBC.
+ *
+ * I future vengono completati tramite l'esecutore di consegna, per default {@link SwingUtilities#invokeLater}:
+ * le azioni collegate con {@code thenAccept} o {@code whenComplete} vengono quindi eseguite sull'EDT
+ * e possono aggiornare direttamente l'interfaccia.
+ *
+ * Le ricerche che sostituiscono la lista mostrata (tutti i libri, filtri, ricerche e la prima pagina di un elenco)
+ * si annullano a vicenda: quando ne parte una nuova, il future della precedente viene cancellato e il suo risultato,
+ * se arriva, viene scartato. La query in corso non viene interrotta, perché JDBC non si interrompe in modo sicuro.
+ * Le modifiche vengono eseguite una alla volta nell'ordine in cui sono richieste e non vengono mai annullate.
+ */
+public class AsyncBookManager implements AutoCloseable {
+
+    private final BookManager delegate;
+    private final ExecutorService workers;
+    private final Executor delivery;
+
+    //la ricerca di cui l'interfaccia aspetta il risultato
+    private CompletableFuture<?> currentQuery;
+    //ultima modifica accodata: la successiva parte quando questa è terminata
+    private CompletableFuture<Void> lastWrite = CompletableFuture.completedFuture(null);
+
+    /**
+     * Crea la facciata con un thread virtuale per operazione e consegna dei risultati sull'EDT.
+     *
+     * @param delegate il manager che esegue le operazioni
+     * @pre delegate non deve essere null
+     */
+    public AsyncBookManager(BookManager delegate) {
+        this(delegate, Executors.newVirtualThreadPerTaskExecutor(), SwingUtilities::invokeLater);
+    }
+
+    /**
+     * @param delegate il manager che esegue le operazioni
+     * @param workers  l'esecutore delle operazioni, viene chiuso da {@link #close()}
+     * @param delivery l'esecutore su cui vengono completati i future
+     * @throws IllegalArgumentException se uno dei parametri è null
+     */
+    public AsyncBookManager(BookManager delegate, ExecutorService workers, Executor delivery) {
+        if (delegate == null || workers == null || delivery == null) {
+            throw new IllegalArgumentException("Manager, esecutore e consegna sono obbligatori");
+        }
+        this.delegate = delegate;
+        this.workers = workers;
+        this.delivery = delivery;
+    }
+
+    public BookManager getDelegate() {
+        return delegate;
+    }
+
+    //esegue l'operazione su un thread di lavoro e completa il future tramite l'esecutore di consegna;
+    //finished viene completato sul thread di lavoro, senza aspettare la consegna
+    private <T> CompletableFuture<T> submit(CompletableFuture<T> result, Supplier<T> operation, CompletableFuture<Void> finished) {
+        try {
+            workers.execute(() -> {
+                try {
+                    if (result.isDone()) {
+                        return;     //annullata prima di partire
+                    }
+                    T value = operation.get();
+                    delivery.execute(() -> result.complete(value));
+                } catch (Throwable e) {
+                    //anche un Error deve completare il future, altrimenti chi aspetta il risultato resta bloccato
+                    delivery.execute(() -> result.completeExceptionally(e));
+                } finally {
+                    finished.complete(null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            finished.complete(null);
+        }
+        return result;
+    }
+
+    private <T> CompletableFuture<T> submit(CompletableFuture<T> result, Supplier<T> operation) {
+        return submit(result, operation, new CompletableFuture<>());
+    }
+
+    /**
+     * Esegue una ricerca che sostituisce la lista mostrata, annullando quella precedente se non è ancora terminata.
+     *
+     * @param query la ricerca da eseguire sul manager
+     * @return il future del risultato, cancellato se nel frattempo parte un'altra ricerca
+     */
+    public <T> CompletableFuture<T> query(Supplier<T> query) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<?> previous;
+        synchronized (this) {
+            previous = currentQuery;
+            currentQuery = result;
+        }
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        return submit(result, query);
+    }
+
+    /**
+     * Accoda una modifica: viene eseguita dopo tutte quelle richieste in precedenza.
+     *
+     * @param operation la modifica da eseguire, ad esempio un undo
+     * @return il future completato quando la modifica è terminata
+     */
+    public CompletableFuture<Void> execute(Runnable operation) {
+        return enqueue(() -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    //accoda nella stessa coda delle modifiche un'operazione che restituisce un risultato
+    private synchronized <T> CompletableFuture<T> enqueue(Supplier<T> operation) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<Void> finished = new CompletableFuture<>();
+        //anche se la modifica precedente è fallita la coda prosegue
+        lastWrite.whenComplete((ignored, error) -> submit(result, operation, finished));
+        lastWrite = finished;
+        return result;
+    }
+
+    // ---------------------------------------------------------------- ricerche
+
+    public CompletableFuture<List<Book>> getAllBook(SortCriteria criteria) {
+        return query(() -> delegate.getAllBook(criteria));
+    }
+
+    /**
+     * Legge una pagina. La prima pagina di un elenco sostituisce la lista mostrata e annulla le ricerche precedenti;
+     * le pagine successive proseguono l'elenco corrente e non annullano nulla.
+     */
+    public CompletableFuture<Page> loadPage(SortCriteria criteria, PageCursor cursor, int limit) {
+        if (cursor != null && cursor.isFirst()) {
+            return query(() -> delegate.loadPage(criteria, cursor, limit));
+        }
+        return submit(new CompletableFuture<>(), () -> delegate.loadPage(criteria, cursor, limit));
+    }
+
+    public CompletableFuture<List<Book>> findBookByTitle(String title, SortCriteria criteria) {
+        return query(() -> delegate.findBookByTitle(title, criteria));
+    }
+
+    public CompletableFuture<List<Book>> findBookByAuthor(String author, SortCriteria criteria) {
+        return query(() -> delegate.findBookByAuthor(author, criteria));
+    }
+
+    public CompletableFuture<List<Book>> findBookByAuthorId(int authorId, SortCriteria criteria) {
+        return query(() -> delegate.findBookByAuthorId(authorId, criteria));
+    }
+
+    /**
+     * Elenca gli autori. Non sostituisce la lista mostrata, quindi non annulla le ricerche in corso.
+     */
+    public CompletableFuture<List<Author>> listAuthors() {
+        return submit(new CompletableFuture<>(), delegate::listAuthors);
+    }
+
+    public CompletableFuture<List<Genre>> listGenres() {
+        return submit(new CompletableFuture<>(), delegate::listGenres);
+    }
+
+    public CompletableFuture<List<Book>> filterBookByRating(int rating, SortCriteria criteria) {
+        return query(() -> delegate.filterBookByRating(rating, criteria));
+    }
+
+    public CompletableFuture<List<Book>> filterBookByReadingState(String readingState, SortCriteria criteria) {
+        return query(() -> delegate.filterBookByReadingState(readingState, criteria));
+    }
+
+    public CompletableFuture<List<Book>> findBooks(BookQuery query) {
+        return query(() -> delegate.findBooks(query));
+    }
+
+    /**
+     * Conta i libri. Non sostituisce la lista mostrata, quindi non annulla le ricerche in corso.
+     */
+    public CompletableFuture<BookCounts> countBooks() {
+        return submit(new CompletableFuture<>(), delegate::countBooks);
+    }
+
+    /**
+     * Legge le miniature di un gruppo di libri. Non sostituisce la lista mostrata: ogni pagina chiede le proprie.
+     */
+    public CompletableFuture<Map<Integer, byte[]>> loadThumbnails(List<Book> books, ThumbnailSize size) {
+        return submit(new CompletableFuture<>(), () -> delegate.loadThumbnails(books, size));
+    }
+
+    public CompletableFuture<List<SearchResult>> fullTextSearch(String query, SortCriteria criteria) {
+        return query(() -> delegate.fullTextSearch(query, criteria));
+    }
+
+    // ---------------------------------------------------------------- modifiche
+
+    public CompletableFuture<Void> addBook(Book book) {
+        return execute(() -> delegate.addBook(book));
+    }
+
+    public CompletableFuture<Void> updateBook(Book oldBook, Book book) {
+        return execute(() -> delegate.updateBook(oldBook, book));
+    }
+
+    public CompletableFuture<Void> deleteBook(Book book) {
+        return execute(() -> delegate.deleteBook(book));
+    }
+
+    public CompletableFuture<Void> addBooks(Collection<Book> books) {
+        return execute(() -> delegate.addBooks(books));
+    }
+
+    public CompletableFuture<Void> updateBooks(List<Book> oldBooks, List<Book> books) {
+        return execute(() -> delegate.updateBooks(oldBooks, books));
+    }
+
+    public CompletableFuture<Void> deleteBooks(Collection<Book> books) {
+        return execute(() -> delegate.deleteBooks(books));
+    }
+
+    /**
+     * Unisce alla libreria i libri di un altro database, dopo le modifiche già accodate.
+     *
+     * @return il future con il numero di libri inseriti, aggiornati e scartati
+     */
+    public CompletableFuture<MergeResult> importBooks(Path source) {
+        return enqueue(() -> delegate.importBooks(source));
+    }
+
+    /**
+     * Attende le modifiche accodate e chiude l'esecutore; le ricerche ancora in corso vengono abbandonate.
+     */
+    @Override
+    public void close() {
+        CompletableFuture<Void> pending;
+        synchronized (this) {
+            pending = lastWrite;
+        }
+        try {
+            pending.get(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("Modifiche non terminate alla chiusura: " + e.getMessage());
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
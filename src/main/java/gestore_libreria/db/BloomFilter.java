@@ -0,0 +1,84 @@
+package gestore_libreria.db;
+
+/**
+ * Filtro di Bloom per stringhe: risponde se un valore potrebbe essere stato aggiunto, senza conservarlo.
+ * Una risposta negativa è certa, una positiva va verificata (falso positivo con probabilità circa pari a quella
+ * scelta finché non si supera la capacità). I valori non si possono rimuovere: dopo un'eliminazione il filtro
+ * resta valido, dà solo qualche falso positivo in più.
+ *
+ * Non è thread-safe: va usato sotto il lock di chi lo possiede.
+ */
+final class BloomFilter {
+
+    private final long[] bits;
+    private final int bitCount;
+    private final int hashCount;
+    private final int capacity;
+    private int size;
+
+    /**
+     * @param capacity il numero di valori per cui il filtro è dimensionato
+     * @param falsePositiveRate la probabilità di falso positivo con {@code capacity} valori, tra 0 e 1 esclusi
+     * @throws IllegalArgumentException se i parametri non sono validi
+     */
+    BloomFilter(int capacity, double falsePositiveRate) {
+        if (capacity <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Capacità o probabilità di falso positivo non valide");
+        }
+        //dimensioni ottime: m = -n ln p / (ln 2)^2 bit e k = m/n ln 2 funzioni di hash
+        long optimalBits = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bitCount = (int) Math.min(Math.max(optimalBits, 64), Integer.MAX_VALUE - 63);
+        this.bits = new long[(bitCount + 63) >>> 6];
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * Math.log(2)));
+        this.capacity = capacity;
+    }
+
+    void add(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+        size++;
+    }
+
+    /**
+     * @return false se il valore non è mai stato aggiunto; true se potrebbe esserlo stato
+     */
+    boolean mightContain(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true se sono stati aggiunti più valori della capacità: i falsi positivi crescono e conviene ricostruirlo
+     */
+    boolean isSaturated() {
+        return size > capacity;
+    }
+
+    //FNV-1a a 64 bit seguito dal mescolamento finale di MurmurHash3: le due metà sono gli hash del double hashing
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash | 1L << 32;     //seconda metà dispari: i k indici non ricadono tutti sullo stesso bit
+    }
+}
@@ -0,0 +1,164 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.BookChange;
+import gestore_libreria.model.BookChangeEvent;
+import gestore_libreria.observer.BookChangeListener;
+import org.sqlite.SQLiteCommitListener;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.SQLiteUpdateListener;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Raccoglie le modifiche alle righe di {@code books} con gli hook di update e di commit di SQLite e le pubblica
+ * come {@link BookChangeEvent}, uno per transazione confermata. Gli hook vedono ogni scrittura della connessione,
+ * anche quelle dei trigger, degli import e del ripristino della cronologia; le transazioni annullate vengono scartate.
+ *
+ * L'hook di commit viene chiamato prima che il commit sia completato, che può ancora fallire (ad esempio con
+ * SQLITE_BUSY), e al suo interno la connessione non si può usare: le modifiche restano in sospeso finché chi ha scritto
+ * non chiama {@link #confirm()} dopo il commit riuscito, o {@link #discard()} se è fallito. Gli eventi confermati
+ * restano in coda finché non viene chiamato {@link #publish()} a scrittura terminata.
+ * Un id può comparire anche se un singolo statement che lo modificava è fallito senza annullare la transazione:
+ * chi lo rilegge trova comunque il valore attuale.
+ */
+final class BookChangeFeed implements SQLiteUpdateListener, SQLiteCommitListener {
+
+    private static final String DATABASE = "main";
+    private static final String TABLE = "books";
+
+    private final List<BookChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final Queue<BookChangeEvent> committed = new ConcurrentLinkedQueue<>();
+    //modifiche della transazione in corso, per id del libro
+    private final Map<Integer, BookChange.Type> pending = new LinkedHashMap<>();
+    //modifiche delle transazioni il cui commit è iniziato ma non ancora confermato
+    private final List<List<BookChange>> staged = new ArrayList<>();
+    private final Object dispatchLock = new Object();
+    private long transactions;
+    private Connection attached;
+
+    void addListener(BookChangeListener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    void removeListener(BookChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return true se qualcuno ascolta: solo allora conviene registrare gli hook
+     */
+    boolean isActive() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Registra gli hook sulla connessione di scrittura, una sola volta per connessione.
+     *
+     * @pre va chiamato fuori da una transazione, prima di scrivere
+     */
+    synchronized void attach(Connection connection) throws SQLException {
+        if (connection == attached) {
+            return;
+        }
+        SQLiteConnection sqlite = connection.unwrap(SQLiteConnection.class);
+        sqlite.addUpdateListener(this);
+        sqlite.addCommitListener(this);
+        attached = connection;
+        pending.clear();
+        staged.clear();
+    }
+
+    @Override
+    public synchronized void onUpdate(Type type, String database, String table, long rowId) {
+        if (!DATABASE.equals(database) || !TABLE.equalsIgnoreCase(table)) {
+            return;
+        }
+        int id = (int) rowId;
+        BookChange.Type previous = pending.get(id);
+        switch (type) {
+            case INSERT ->
+                //un id eliminato e reinserito nella stessa transazione è un aggiornamento
+                pending.put(id, previous == BookChange.Type.DELETED ? BookChange.Type.UPDATED : BookChange.Type.INSERTED);
+            case UPDATE -> {
+                if (previous == null) {
+                    pending.put(id, BookChange.Type.UPDATED);
+                }
+            }
+            case DELETE -> {
+                if (previous == BookChange.Type.INSERTED) {
+                    pending.remove(id);
+                } else {
+                    pending.put(id, BookChange.Type.DELETED);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onCommit() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<BookChange> changes = new ArrayList<>(pending.size());
+        pending.forEach((id, type) -> changes.add(new BookChange(type, id)));
+        pending.clear();
+        staged.add(changes);
+    }
+
+    //un commit fallito viene seguito dall'annullamento della transazione
+    @Override
+    public synchronized void onRollback() {
+        pending.clear();
+        staged.clear();
+    }
+
+    /**
+     * Da chiamare quando il commit è terminato con successo: le modifiche in sospeso diventano eventi da pubblicare.
+     */
+    synchronized void confirm() {
+        for (List<BookChange> changes : staged) {
+            committed.add(new BookChangeEvent(++transactions, changes));
+        }
+        staged.clear();
+    }
+
+    /**
+     * Da chiamare quando il commit è fallito: le modifiche in sospeso non vengono pubblicate.
+     */
+    synchronized void discard() {
+        pending.clear();
+        staged.clear();
+    }
+
+    /**
+     * Consegna ai listener gli eventi delle transazioni confermate, nell'ordine dei commit.
+     * Un listener che lancia un'eccezione non impedisce la consegna agli altri.
+     */
+    void publish() {
+        if (committed.isEmpty()) {
+            return;
+        }
+        synchronized (dispatchLock) {
+            BookChangeEvent event;
+            while ((event = committed.poll()) != null) {
+                for (BookChangeListener listener : listeners) {
+                    try {
+                        listener.onChange(event);
+                    } catch (RuntimeException e) {
+                        System.err.println("Errore nella notifica delle modifiche ai libri: " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.SortCriteria;
+import org.sqlite.Function;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConnection;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Regole con cui due righe vengono riconosciute come lo stesso libro quando si unisce un'altra libreria:
+ * stesso ISBN normalizzato, se entrambi ne hanno uno, oppure stessi titolo e autore.
+ * Un ISBN-10 e l'ISBN-13 corrispondente sono lo stesso ISBN.
+ * Le chiavi sono calcolate allo stesso modo in Java e in SQL, così il database e i repository in memoria
+ * riconoscono gli stessi doppioni.
+ */
+final class BookIdentity {
+
+    //separatore tra titolo e autore nella chiave: non compare nei testi digitati dall'utente
+    private static final char KEY_SEPARATOR = '\u001f';
+
+    private BookIdentity() {
+    }
+
+    /**
+     * Come l'espressione di {@link #isbnSql(String)}: gli ISBN validi sono ridotti alla forma canonica di {@link #isbnKey(String)},
+     * gli altri sono scritti senza trattini e spazi, con le lettere ASCII in maiuscolo.
+     *
+     * @param isbn l'ISBN così come è stato inserito, può essere null
+     * @return l'ISBN normalizzato, stringa vuota se assente
+     */
+    static String normalizeIsbn(String isbn) {
+        String key = isbnKey(isbn);
+        return key != null ? key : stripIsbn(isbn);
+    }
+
+    /**
+     * Forma canonica di un ISBN: le 13 cifre dell'ISBN-13, senza separatori. Un ISBN-10 valido viene convertito
+     * nell'ISBN-13 corrispondente (prefisso 978 e nuova cifra di controllo), così le due forme dello stesso libro
+     * hanno la stessa chiave. È la chiave dell'indice univoco {@code idx_books_isbn_key}.
+     *
+     * @param isbn l'ISBN così come è stato inserito, può essere null
+     * @return l'ISBN-13 canonico, null se isbn è assente o non è un ISBN valido (lunghezza o cifra di controllo errata)
+     */
+    static String isbnKey(String isbn) {
+        String digits = stripIsbn(isbn);
+        if (digits.length() == 10 && isValidIsbn10(digits)) {
+            String isbn13 = "978" + digits.substring(0, 9);
+            return isbn13 + isbn13CheckDigit(isbn13);
+        }
+        if (digits.length() == 13 && isDigits(digits, 13) && (digits.startsWith("978") || digits.startsWith("979"))
+                && isbn13CheckDigit(digits) == digits.charAt(12)) {
+            return digits;
+        }
+        return null;
+    }
+
+    private static String stripIsbn(String isbn) {
+        if (isbn == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder(isbn.length());
+        for (int i = 0; i < isbn.length(); i++) {
+            char c = isbn.charAt(i);
+            if (c == '-' || c == ' ') {
+                continue;
+            }
+            normalized.append(c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c);
+        }
+        return normalized.toString();
+    }
+
+    private static boolean isDigits(String value, int length) {
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //pesi da 10 a 1, l'ultima cifra può essere X (10): la somma deve essere divisibile per 11
+    private static boolean isValidIsbn10(String digits) {
+        if (!isDigits(digits, 9)) {
+            return false;
+        }
+        char last = digits.charAt(9);
+        int sum = last == 'X' ? 10 : last >= '0' && last <= '9' ? last - '0' : -1;
+        if (sum < 0) {
+            return false;
+        }
+        for (int i = 0; i < 9; i++) {
+            sum += (digits.charAt(i) - '0') * (10 - i);
+        }
+        return sum % 11 == 0;
+    }
+
+    //pesi alternati 1 e 3 sulle prime dodici cifre
+    private static char isbn13CheckDigit(String digits) {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            sum += (digits.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+        }
+        return (char) ('0' + (10 - sum % 10) % 10);
+    }
+
+    /**
+     * Come l'espressione di {@link #titleAuthorSql(String, String)}: LOWER(TRIM()) di titolo e autore.
+     */
+    static String titleAuthorKey(Book book) {
+        return SortCriteria.sqlLower(trimSpaces(book.getTitle())) + KEY_SEPARATOR + SortCriteria.sqlLower(trimSpaces(book.getAuthor()));
+    }
+
+    //TRIM() di SQLite senza secondo argomento toglie solo gli spazi
+    private static String trimSpaces(String value) {
+        int start = 0;
+        int end = value.length();
+        while (start < end && value.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && value.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return value.substring(start, end);
+    }
+
+    /**
+     * L'espressione SQL di {@link #normalizeIsbn(String)}. Usa la funzione {@code isbn_key}, che va prima registrata
+     * sulla connessione con {@link #registerIsbnKey(Connection)}.
+     */
+    static String isbnSql(String column) {
+        return "COALESCE(isbn_key(" + column + "), UPPER(REPLACE(REPLACE(COALESCE(" + column + ", ''), '-', ''), ' ', '')))";
+    }
+
+    /**
+     * Registra sulla connessione la funzione SQL deterministica {@code isbn_key(isbn)}, che calcola {@link #isbnKey(String)}:
+     * la verifica della cifra di controllo non si può scrivere in modo leggibile con le sole funzioni di SQLite.
+     *
+     * @param connection una connessione SQLite, anche avvolta da un proxy che supporta unwrap
+     * @throws SQLException se la connessione non è di SQLite
+     */
+    static void registerIsbnKey(Connection connection) throws SQLException {
+        Function.create(connection.unwrap(SQLiteConnection.class), "isbn_key", new Function() {
+            @Override
+            protected void xFunc() throws SQLException {
+                String key = isbnKey(value_text(0));
+                if (key == null) {
+                    result();
+                } else {
+                    result(key);
+                }
+            }
+        }, 1, Function.FLAG_DETERMINISTIC);
+    }
+
+    static String titleAuthorSql(String title, String author) {
+        return "LOWER(TRIM(" + title + ")) || char(31) || LOWER(TRIM(" + author + "))";
+    }
+
+    static boolean isBlank(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    /**
+     * Completa i dati bibliografici mancanti del libro già presente con quelli del libro importato.
+     * Valutazione e stato di lettura sono dati personali e restano quelli della libreria corrente.
+     *
+     * @param existing il libro della libreria corrente
+     * @param incoming lo stesso libro nella libreria importata
+     * @return il libro completato, null se non c'è nulla da aggiungere
+     */
+    static Book fill(Book existing, Book incoming) {
+        boolean isbn = isBlank(existing.getIsbn()) && !isBlank(incoming.getIsbn());
+        boolean genre = isBlank(existing.getGenre()) && !isBlank(incoming.getGenre());
+        boolean cover = isBlank(existing.getCoverPath()) && !isBlank(incoming.getCoverPath());
+        if (!isbn && !genre && !cover) {
+            return null;
+        }
+        return new Book.Builder(existing.getTitle(), existing.getAuthor())
+                .id(existing.getId())
+                .isbn(isbn ? incoming.getIsbn() : existing.getIsbn())
+                .genre(genre ? incoming.getGenre() : existing.getGenre())
+                .coverPath(cover ? incoming.getCoverPath() : existing.getCoverPath())
+                .rating(existing.getRating())
+                .readingState(existing.getReadingState())
+                .build();
+    }
+
+    /**
+     * Legge in sola lettura i libri di un altro file di database, senza modificarlo.
+     *
+     * @param source il file della libreria da leggere
+     * @return i libri in ordine di id
+     * @throws SQLException se il file non può essere aperto o non contiene la tabella books
+     */
+    static List<Book> readBooks(Path source) throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        try (Connection connection = config.createConnection("jdbc:sqlite:" + source.toAbsolutePath());
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM books ORDER BY id");
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            List<Book> books = new ArrayList<>();
+            BookRowMapper mapper = BookRowMapper.INSTANCE.bind(resultSet);
+            while (resultSet.next()) {
+                books.add(mapper.map(resultSet));
+            }
+            return books;
+        }
+    }
+}
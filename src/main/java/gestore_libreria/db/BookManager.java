@@ -1,9 +1,21 @@
 package gestore_libreria.db;
 
+import gestore_libreria.model.Author;
 import gestore_libreria.model.Book;
+import gestore_libreria.model.BookCounts;
+import gestore_libreria.model.Genre;
+import gestore_libreria.model.MergeResult;
+import gestore_libreria.model.Page;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SearchResult;
 import gestore_libreria.model.SortCriteria;
+import gestore_libreria.model.ThumbnailSize;
 
+import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 
 public interface BookManager {
@@ -12,6 +24,8 @@ public interface BookManager {
 
     List<Book> getAllBook(SortCriteria criteria);
 
+    Page loadPage(SortCriteria criteria, PageCursor cursor, int limit);
+
     List<Book> findBookByTitle(String title, SortCriteria criteria);
 
     List<Book> filterBookByRating(int rating, SortCriteria criteria);
@@ -20,8 +34,34 @@ public interface BookManager {
 
     List<Book> findBookByAuthor(String author, SortCriteria criteria);
 
+    List<Book> findBookByAuthorId(int authorId, SortCriteria criteria);
+
+    List<Author> listAuthors();
+
+    List<Genre> listGenres();
+
+    List<Book> findBooks(BookQuery query);
+
+    BookCounts countBooks();
+
+    MergeResult importBooks(Path source);
+
+    Stream<Book> streamAllBooks(SortCriteria criteria);
+
+    boolean appendBooks(Collection<Book> books);
+
+    Map<Integer, byte[]> loadThumbnails(Collection<Book> books, ThumbnailSize size);
+
     void updateBook(Book oldBook, Book book);
 
     void deleteBook(Book book);
 
+    void addBooks(Collection<Book> books);
+
+    void updateBooks(List<Book> oldBooks, List<Book> books);
+
+    void deleteBooks(Collection<Book> books);
+
+    List<SearchResult> fullTextSearch(String query, SortCriteria criteria);
+
 }
\ No newline at end of file
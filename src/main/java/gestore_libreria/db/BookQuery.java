@@ -0,0 +1,423 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.SortCriteria;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Ricerca su più criteri combinati in AND, con ordinamento e numero massimo di risultati.
+ * Ogni condizione confronta un campo del libro con uno o più valori: uguaglianza, intervallo,
+ * contenimento ({@code LIKE '%...%'}) o appartenenza a un elenco ({@code IN}).
+ * I campi di testo sono confrontati ignorando maiuscole e minuscole come fa {@code LOWER()} di SQLite,
+ * così il database e i repository in memoria ({@link #matches(Book)}) restituiscono gli stessi libri.
+ *
+ * Il database traduce la ricerca in un'unica query parametrizzata: due ricerche con la stessa
+ * {@link #shape() forma} e valori diversi producono lo stesso SQL e riusano lo stesso statement.
+ */
+public final class BookQuery {
+
+    /**
+     * I campi del libro su cui si può filtrare.
+     */
+    public enum Field {
+        ID("id", true, Book::getId),
+        TITLE("title", false, Book::getTitle),
+        AUTHOR("author", false, Book::getAuthor),
+        ISBN("isbn", false, Book::getIsbn),
+        GENRE("genre", false, Book::getGenre),
+        RATING("rating", true, Book::getRating),
+        READING_STATE("readingState", false, Book::getReadingState),
+        COVER_PATH("coverPath", false, Book::getCoverPath),
+        ;
+
+        private final String column;
+        private final boolean numeric;
+        private final Function<Book, Object> getter;
+
+        Field(String column, boolean numeric, Function<Book, Object> getter) {
+            this.column = column;
+            this.numeric = numeric;
+            this.getter = getter;
+        }
+
+        public boolean isNumeric() {
+            return numeric;
+        }
+
+        //per i testi la stessa espressione degli indici, altrimenti SQLite non potrebbe usarli
+        private String expression() {
+            return numeric ? column : "LOWER(" + column + ")";
+        }
+
+        private String parameter() {
+            return numeric ? "?" : "LOWER(?)";
+        }
+    }
+
+    /**
+     * Il tipo di confronto di una condizione.
+     */
+    public enum Operator {
+        EQUALS,
+        AT_LEAST,
+        AT_MOST,
+        BETWEEN,
+        CONTAINS,
+        IN,
+    }
+
+    /**
+     * Una condizione della ricerca. I valori sono {@link Integer} per i campi numerici e {@link String} per gli altri.
+     */
+    public record Predicate(Field field, Operator operator, List<Object> values) {
+
+        public Predicate {
+            values = List.copyOf(values);
+        }
+
+        /**
+         * @param book il libro da valutare
+         * @return {@code true} se il libro soddisfa la condizione; un campo null non soddisfa mai, come in SQL
+         */
+        public boolean test(Book book) {
+            Object value = field.getter.apply(book);
+            if (value == null) {
+                return false;
+            }
+            switch (operator) {
+                case CONTAINS:
+                    return SqlLike.contains((String) value, (String) values.get(0));
+                case EQUALS:
+                    return compare(value, values.get(0)) == 0;
+                case AT_LEAST:
+                    return compare(value, values.get(0)) >= 0;
+                case AT_MOST:
+                    return compare(value, values.get(0)) <= 0;
+                case BETWEEN:
+                    return compare(value, values.get(0)) >= 0 && compare(value, values.get(1)) <= 0;
+                default:
+                    for (Object candidate : values) {
+                        if (compare(value, candidate) == 0) {
+                            return true;
+                        }
+                    }
+                    return false;
+            }
+        }
+
+        private int compare(Object value, Object parameter) {
+            if (field.numeric) {
+                return Integer.compare((Integer) value, (Integer) parameter);
+            }
+            return SortCriteria.sqlLower((String) value).compareTo(SortCriteria.sqlLower((String) parameter));
+        }
+
+        //numero di segnaposto: per IN l'elenco è arrotondato alla potenza di due successiva, così le forme restano poche
+        private int arity() {
+            switch (operator) {
+                case BETWEEN:
+                    return 2;
+                case IN:
+                    return values.size() == 1 ? 1 : Integer.highestOneBit(values.size() - 1) << 1;
+                default:
+                    return 1;
+            }
+        }
+
+        private String toSql() {
+            String expression = field.expression();
+            String parameter = field.parameter();
+            switch (operator) {
+                case EQUALS:
+                    return expression + " = " + parameter;
+                case AT_LEAST:
+                    return expression + " >= " + parameter;
+                case AT_MOST:
+                    return expression + " <= " + parameter;
+                case BETWEEN:
+                    return expression + " BETWEEN " + parameter + " AND " + parameter;
+                case CONTAINS:
+                    return expression + " LIKE " + parameter;
+                default:
+                    return expression + " IN (" + String.join(", ", Collections.nCopies(arity(), parameter)) + ")";
+            }
+        }
+
+        //associa i valori a partire dall'indice indicato e restituisce il primo indice libero
+        private int bind(PreparedStatement preparedStatement, int index) throws SQLException {
+            int count = arity();
+            for (int i = 0; i < count; i++) {
+                //i segnaposto in più di IN ripetono l'ultimo valore, che non cambia il risultato
+                Object value = values.get(Math.min(i, values.size() - 1));
+                if (operator == Operator.CONTAINS) {
+                    preparedStatement.setString(index++, "%" + value + "%");
+                } else if (field.numeric) {
+                    preparedStatement.setInt(index++, (Integer) value);
+                } else {
+                    preparedStatement.setString(index++, (String) value);
+                }
+            }
+            return index;
+        }
+    }
+
+    private static final Comparator<Predicate> CANONICAL_ORDER =
+            Comparator.comparing(Predicate::field).thenComparing(Predicate::operator);
+
+    private final List<Predicate> predicates;
+    private final SortCriteria sort;
+    private final int limit;
+    private final String shape;
+
+    private BookQuery(Builder builder) {
+        List<Predicate> sorted = new ArrayList<>(builder.predicates);
+        //le condizioni sono in AND: l'ordine non conta, quello canonico fa coincidere le forme
+        sorted.sort(CANONICAL_ORDER);
+        this.predicates = List.copyOf(sorted);
+        this.sort = builder.sort;
+        this.limit = builder.limit;
+
+        StringBuilder key = new StringBuilder();
+        for (Predicate predicate : predicates) {
+            key.append(predicate.field()).append(' ').append(predicate.operator()).append(' ').append(predicate.arity()).append(';');
+        }
+        key.append(sort).append(hasLimit() ? ";LIMIT" : "");
+        this.shape = key.toString();
+    }
+
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    public SortCriteria getSort() {
+        return sort;
+    }
+
+    /**
+     * @return il numero massimo di libri restituiti, 0 se non c'è limite
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean hasLimit() {
+        return limit > 0;
+    }
+
+    /**
+     * @return {@code true} se la ricerca non contiene condizioni e restituisce tutti i libri
+     */
+    public boolean isEmpty() {
+        return predicates.isEmpty();
+    }
+
+    /**
+     * @param field il campo cercato
+     * @return {@code true} se almeno una condizione riguarda il campo
+     */
+    public boolean constrains(Field field) {
+        for (Predicate predicate : predicates) {
+            if (predicate.field() == field) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * La forma della ricerca: campi, operatori, numero di segnaposto, ordinamento e presenza del limite, senza i valori.
+     * Ricerche con la stessa forma producono lo stesso SQL.
+     *
+     * @return la chiave della forma
+     */
+    public String shape() {
+        return shape;
+    }
+
+    /**
+     * Valuta la ricerca su un libro, con le stesse regole della query SQL.
+     *
+     * @param book il libro da valutare
+     * @return {@code true} se il libro soddisfa tutte le condizioni
+     */
+    public boolean matches(Book book) {
+        for (Predicate predicate : predicates) {
+            if (!predicate.test(book)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applica la ricerca a un elenco di libri già ordinato secondo {@link #getSort()}.
+     *
+     * @param sorted i libri nell'ordine della ricerca
+     * @return i libri che soddisfano le condizioni, al massimo {@link #getLimit()}
+     */
+    public List<Book> filter(Iterable<Book> sorted) {
+        List<Book> books = new ArrayList<>();
+        for (Book book : sorted) {
+            if (hasLimit() && books.size() == limit) {
+                break;
+            }
+            if (matches(book)) {
+                books.add(book);
+            }
+        }
+        return books;
+    }
+
+    /**
+     * Traduce la ricerca in una query parametrizzata; i valori vanno associati con {@link #bind(PreparedStatement)}.
+     *
+     * @param select l'inizio della query, ad esempio {@code SELECT * FROM books}
+     * @param orderBy la clausola ORDER BY del criterio di ordinamento
+     * @return il testo SQL, uguale per tutte le ricerche con la stessa forma
+     */
+    String toSql(String select, String orderBy) {
+        StringBuilder sql = new StringBuilder(select);
+        for (int i = 0; i < predicates.size(); i++) {
+            sql.append(i == 0 ? " WHERE " : " AND ").append(predicates.get(i).toSql());
+        }
+        sql.append(orderBy);
+        if (hasLimit()) {
+            sql.append(" LIMIT ?");
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Associa i valori delle condizioni e il limite ai segnaposto della query prodotta da {@link #toSql(String, String)}.
+     */
+    void bind(PreparedStatement preparedStatement) throws SQLException {
+        int index = 1;
+        for (Predicate predicate : predicates) {
+            index = predicate.bind(preparedStatement, index);
+        }
+        if (hasLimit()) {
+            preparedStatement.setInt(index, limit);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BookQuery{" +
+                "predicates=" + predicates +
+                ", sort=" + sort +
+                ", limit=" + limit +
+                '}';
+    }
+
+    /**
+     * Builder della ricerca: ogni metodo aggiunge una condizione in AND alle precedenti.
+     */
+    public static class Builder {
+
+        private final List<Predicate> predicates = new ArrayList<>();
+        private SortCriteria sort = SortCriteria.NONE;
+        private int limit;
+
+        public Builder() {
+        }
+
+        /**
+         * Parte da una ricerca esistente, per aggiungere condizioni o cambiare ordinamento e limite.
+         *
+         * @pre query non deve essere null
+         */
+        public Builder(BookQuery query) {
+            predicates.addAll(query.predicates);
+            sort = query.sort;
+            limit = query.limit;
+        }
+
+        private Builder add(Field field, Operator operator, List<Object> values) {
+            if (field == null) {
+                throw new IllegalArgumentException("Il campo della condizione è obbligatorio");
+            }
+            if (values.isEmpty()) {
+                throw new IllegalArgumentException("La condizione " + operator + " su " + field + " richiede almeno un valore");
+            }
+            for (Object value : values) {
+                if (field.numeric ? !(value instanceof Integer) : !(value instanceof String)) {
+                    throw new IllegalArgumentException("Valore non valido per " + field + ": " + value);
+                }
+            }
+            predicates.add(new Predicate(field, operator, values));
+            return this;
+        }
+
+        public Builder equalTo(Field field, Object value) {
+            return add(field, Operator.EQUALS, Collections.singletonList(value));
+        }
+
+        public Builder atLeast(Field field, Object value) {
+            return add(field, Operator.AT_LEAST, Collections.singletonList(value));
+        }
+
+        public Builder atMost(Field field, Object value) {
+            return add(field, Operator.AT_MOST, Collections.singletonList(value));
+        }
+
+        /**
+         * Intervallo chiuso, come BETWEEN in SQL.
+         */
+        public Builder between(Field field, Object from, Object to) {
+            return add(field, Operator.BETWEEN, Arrays.asList(from, to));
+        }
+
+        /**
+         * Il campo deve contenere il testo; {@code %} e {@code _} mantengono il significato che hanno in LIKE.
+         *
+         * @throws IllegalArgumentException se il campo è numerico
+         */
+        public Builder contains(Field field, String text) {
+            if (field != null && field.numeric) {
+                throw new IllegalArgumentException("CONTAINS si applica solo ai campi di testo, non a " + field);
+            }
+            return add(field, Operator.CONTAINS, Collections.singletonList(text));
+        }
+
+        public Builder in(Field field, Collection<?> values) {
+            return add(field, Operator.IN, new ArrayList<>(values));
+        }
+
+        public Builder in(Field field, Object... values) {
+            return add(field, Operator.IN, Arrays.asList(values));
+        }
+
+        /**
+         * @param sort l'ordinamento, null equivale a {@code NONE}
+         */
+        public Builder sortBy(SortCriteria sort) {
+            this.sort = sort == null ? SortCriteria.NONE : sort;
+            return this;
+        }
+
+        /**
+         * @param limit il numero massimo di libri, 0 per nessun limite
+         * @throws IllegalArgumentException se il limite è negativo
+         */
+        public Builder limit(int limit) {
+            if (limit < 0) {
+                throw new IllegalArgumentException("Il limite non può essere negativo");
+            }
+            this.limit = limit;
+            return this;
+        }
+
+        public BookQuery build() {
+            return new BookQuery(this);
+        }
+    }
+}
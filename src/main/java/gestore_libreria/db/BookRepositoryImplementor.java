@@ -1,21 +1,373 @@
 package gestore_libreria.db;
 
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
 
+import gestore_libreria.model.Author;
 import gestore_libreria.model.Book;
+import gestore_libreria.model.BookCounts;
+import gestore_libreria.model.CoverThumbnail;
+import gestore_libreria.model.Genre;
+import gestore_libreria.model.MergeResult;
+import gestore_libreria.model.Page;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SearchResult;
 import gestore_libreria.model.SortCriteria;
+import gestore_libreria.model.ThumbnailSize;
+import gestore_libreria.observer.BookChangeListener;
 
 
 public interface BookRepositoryImplementor {
 
     //definisco i metodi che devono essere presenti nei database concreti
 
-    void save(Book book);
+    //le scritture restituiscono false se non sono state eseguite a causa di un errore: il database resta invariato
+    boolean save(Book book);
     List<Book> loadAll(SortCriteria criteria);
     List<Book> findByTitle(String title, SortCriteria criteria);
     List<Book> findByRating(int rating, SortCriteria criteria);
     List<Book> findByReadingState(String readingState, SortCriteria criteria);
     List<Book> findByAuthor(String author, SortCriteria criteria);
-    void delete(Book book);
-    void update(Book book);
+    boolean delete(Book book);
+    boolean update(Book book);
+
+    //operazioni massive: vengono eseguite in un'unica transazione
+    boolean saveAll(Collection<Book> books);
+    boolean updateAll(Collection<Book> books);
+    boolean deleteAll(Collection<Book> books);
+
+    /**
+     * Applica insieme inserimenti, aggiornamenti ed eliminazioni, nell'ordine.
+     * L'implementazione predefinita usa le tre operazioni massive; i database transazionali la ridefiniscono
+     * per eseguire tutto in un'unica transazione.
+     *
+     * @param inserts i libri da inserire, ricevono l'id assegnato
+     * @param updates i libri da aggiornare
+     * @param deletes i libri da eliminare
+     * @return {@code false} se le modifiche non sono state applicate a causa di un errore; senza transazione
+     * le operazioni massive precedenti a quella fallita restano applicate
+     */
+    default boolean applyChanges(Collection<Book> inserts, Collection<Book> updates, Collection<Book> deletes) {
+        return saveAll(inserts) && updateAll(updates) && deleteAll(deletes);
+    }
+
+    /**
+     * Cerca i libri che soddisfano tutte le condizioni della ricerca, nell'ordine e con il limite indicati.
+     * L'implementazione predefinita filtra il risultato di {@link #loadAll(SortCriteria)} con {@link BookQuery#matches(Book)}:
+     * i database la ridefiniscono per eseguire la ricerca con una sola query.
+     *
+     * @param query la ricerca
+     * @pre query non deve essere null
+     * @return una lista non null dei libri trovati
+     */
+    default List<Book> find(BookQuery query) {
+        return query.filter(loadAll(query.getSort()));
+    }
+
+    /**
+     * Conta i libri, in totale e per stato di lettura, valutazione e genere.
+     * L'implementazione predefinita scorre tutti i libri: i database la ridefiniscono con query GROUP BY
+     * e i repository in memoria ricavano i conteggi dai propri indici.
+     *
+     * @return i conteggi, mai null
+     */
+    default BookCounts countBooks() {
+        return BookCounts.of(loadAll(SortCriteria.NONE));
+    }
+
+    /**
+     * Inserisce i libri nuovi e completa quelli già presenti con lo stesso ISBN, confrontato nella forma canonica
+     * di {@link BookIdentity#isbnKey(String)} (un ISBN-10 e il suo ISBN-13 sono lo stesso libro). Come nell'unione
+     * di un'altra libreria, di un libro già presente si completano solo genere e copertina mancanti.
+     * I libri senza un ISBN valido vengono sempre inseriti. A ogni libro viene assegnato l'id della riga inserita
+     * o di quella già presente, così importare di nuovo lo stesso file non crea doppioni.
+     * L'implementazione predefinita confronta gli ISBN con {@link #loadAll(SortCriteria)} e scrive con {@link #applyChanges};
+     * i database SQL la ridefiniscono con INSERT ... ON CONFLICT sull'indice univoco delle chiavi ISBN.
+     *
+     * @param books i libri da inserire o completare
+     * @pre books non deve essere null
+     * @return il numero di libri inseriti, completati e già presenti senza nulla da aggiungere; null in caso di errore,
+     *         e allora nessun libro è stato scritto
+     */
+    default MergeResult upsertAll(Collection<Book> books) {
+        Map<String, Book> byKey = new HashMap<>();
+        for (Book book : loadAll(SortCriteria.NONE)) {
+            String key = BookIdentity.isbnKey(book.getIsbn());
+            if (key != null) {
+                byKey.putIfAbsent(key, book);
+            }
+        }
+        List<Book> inserts = new ArrayList<>();
+        Map<Integer, Book> updates = new LinkedHashMap<>();
+        Map<Book, Book> matches = new IdentityHashMap<>();
+        for (Book book : books) {
+            String key = BookIdentity.isbnKey(book.getIsbn());
+            Book existing = key == null ? null : byKey.get(key);
+            if (existing == null) {
+                inserts.add(book);
+                if (key != null) {
+                    byKey.put(key, book);
+                }
+                continue;
+            }
+            matches.put(book, existing);
+            //un ISBN ripetuto tra i libri da inserire non ha ancora un id: il doppione viene solo scartato
+            if (existing.getId() > 0) {
+                Book filled = BookIdentity.fill(updates.getOrDefault(existing.getId(), existing), book);
+                if (filled != null) {
+                    updates.put(existing.getId(), filled);
+                }
+            }
+        }
+        if (!applyChanges(inserts, new ArrayList<>(updates.values()), List.of())) {
+            return null;
+        }
+        matches.forEach((book, existing) -> book.setId(existing.getId()));
+        return new MergeResult(inserts.size(), updates.size(), books.size() - inserts.size() - updates.size());
+    }
+
+    /**
+     * Come {@link #upsertAll(Collection)} per un solo libro.
+     */
+    default MergeResult upsert(Book book) {
+        return upsertAll(List.of(book));
+    }
+
+    /**
+     * Elenca gli autori distinti della libreria con il numero dei loro libri, in ordine alfabetico.
+     * L'implementazione predefinita restituisce una lista vuota, per i repository che non tengono un elenco
+     * degli autori con un id per ciascuno: SQLite li normalizza in una tabella, i repository in memoria e a log
+     * in un {@link NameIndex}.
+     *
+     * @return una lista non null degli autori
+     */
+    default List<Author> listAuthors() {
+        return List.of();
+    }
+
+    /**
+     * Elenca i generi distinti della libreria con il numero dei loro libri, in ordine alfabetico.
+     * L'implementazione predefinita restituisce una lista vuota, come {@link #listAuthors()}.
+     *
+     * @return una lista non null dei generi
+     */
+    default List<Genre> listGenres() {
+        return List.of();
+    }
+
+    /**
+     * Cerca i libri di un autore elencato da {@link #listAuthors()}, confrontando l'id invece del nome.
+     *
+     * @param authorId l'id dell'autore
+     * @param criteria l'ordinamento dei libri
+     * @return una lista non null dei libri dell'autore, vuota se l'id non esiste
+     */
+    default List<Book> findByAuthorId(int authorId, SortCriteria criteria) {
+        return List.of();
+    }
+
+    /**
+     * Unisce alla libreria i libri di un altro file di database, senza sostituirla.
+     * Un libro importato è già presente se ha lo stesso ISBN normalizzato, oppure stessi titolo e autore:
+     * in quel caso vengono completati solo ISBN, genere e copertina mancanti, mentre valutazione e stato di lettura
+     * restano quelli della libreria corrente. I doppioni all'interno del file importato vengono scartati.
+     * L'implementazione predefinita legge il file e applica le modifiche con {@link #applyChanges};
+     * i database SQL la ridefiniscono per eseguire l'unione direttamente con query sull'altro file.
+     *
+     * @param source il file della libreria da importare, non viene modificato
+     * @pre source non deve essere null
+     * @return il numero di libri inseriti, aggiornati e scartati, null se l'importazione non è riuscita
+     */
+    default MergeResult importBooks(Path source) {
+        List<Book> incoming;
+        try {
+            incoming = BookIdentity.readBooks(source);
+        } catch (SQLException e) {
+            System.err.println("Errore nella lettura della libreria da importare: " + e.getMessage());
+            return null;
+        }
+        Map<String, Book> byIsbn = new HashMap<>();
+        Map<String, Book> byTitleAuthor = new HashMap<>();
+        for (Book book : loadAll(SortCriteria.NONE)) {
+            String isbn = BookIdentity.normalizeIsbn(book.getIsbn());
+            if (!isbn.isEmpty()) {
+                byIsbn.putIfAbsent(isbn, book);
+            }
+            byTitleAuthor.putIfAbsent(BookIdentity.titleAuthorKey(book), book);
+        }
+        Set<String> seenIsbn = new HashSet<>();
+        Set<String> seenTitleAuthor = new HashSet<>();
+        List<Book> inserts = new ArrayList<>();
+        Map<Integer, Book> updates = new LinkedHashMap<>();
+        int duplicates = 0;
+        int matched = 0;
+        for (Book book : incoming) {
+            String isbn = BookIdentity.normalizeIsbn(book.getIsbn());
+            String titleAuthor = BookIdentity.titleAuthorKey(book);
+            //i doppioni si confrontano con tutte le righe precedenti del file, anche quelle già scartate
+            boolean duplicate = (!isbn.isEmpty() && !seenIsbn.add(isbn)) | !seenTitleAuthor.add(titleAuthor);
+            if (duplicate) {
+                duplicates++;
+                continue;
+            }
+            Book existing = isbn.isEmpty() ? null : byIsbn.get(isbn);
+            if (existing == null) {
+                existing = byTitleAuthor.get(titleAuthor);
+            }
+            if (existing == null) {
+                inserts.add(new Book.Builder(book.getTitle(), book.getAuthor())
+                        .isbn(book.getIsbn())
+                        .genre(book.getGenre())
+                        .rating(book.getRating())
+                        .readingState(book.getReadingState())
+                        .coverPath(book.getCoverPath())
+                        .build());
+                continue;
+            }
+            matched++;
+            Book filled = BookIdentity.fill(updates.getOrDefault(existing.getId(), existing), book);
+            if (filled != null) {
+                updates.put(existing.getId(), filled);
+            }
+        }
+        if (!applyChanges(inserts, updates.values(), List.of())) {
+            return null;
+        }
+        return new MergeResult(inserts.size(), updates.size(), duplicates + matched - updates.size());
+    }
+
+    /**
+     * Legge con una sola query le miniature già generate dei libri indicati.
+     * L'implementazione predefinita non conserva miniature: solo i database con la tabella delle miniature la ridefiniscono.
+     *
+     * @param bookIds gli id dei libri
+     * @param size la dimensione richiesta
+     * @return le immagini codificate per id del libro; i libri senza miniatura non compaiono
+     */
+    default Map<Integer, byte[]> loadThumbnails(Collection<Integer> bookIds, ThumbnailSize size) {
+        return Map.of();
+    }
+
+    /**
+     * @param bookIds gli id dei libri
+     * @return l'impronta della copertina da cui è stata generata la miniatura di ciascun libro che ne ha una
+     */
+    default Map<Integer, String> loadThumbnailHashes(Collection<Integer> bookIds) {
+        return Map.of();
+    }
+
+    /**
+     * Salva le miniature in un'unica transazione, sostituendo quelle precedenti degli stessi libri.
+     * Le miniature di libri che nel frattempo sono stati eliminati vengono ignorate.
+     *
+     * @param thumbnails le miniature da salvare
+     * @return {@code false} se il repository non conserva miniature o il salvataggio non è riuscito
+     */
+    default boolean saveThumbnails(Collection<CoverThumbnail> thumbnails) {
+        return false;
+    }
+
+    /**
+     * Registra un listener che riceve, per ogni transazione confermata, gli id dei libri inseriti, aggiornati ed eliminati.
+     * L'implementazione predefinita non cattura le modifiche: solo i database che possono farlo la ridefiniscono.
+     *
+     * @param listener il listener da registrare, ignorato se già presente
+     * @return {@code false} se il repository non notifica le modifiche ai singoli libri
+     */
+    default boolean addChangeListener(BookChangeListener listener) {
+        return false;
+    }
+
+    /**
+     * @param listener il listener da rimuovere, ignorato se non è registrato
+     */
+    default void removeChangeListener(BookChangeListener listener) {
+    }
+
+    /**
+     * Varianti in streaming delle letture: i libri vengono letti uno alla volta mentre lo stream viene consumato,
+     * senza costruire la lista completa. Lo stream tiene aperte risorse del database e va sempre chiuso,
+     * ad esempio con un try-with-resources.
+     * Le implementazioni predefinite si appoggiano ai metodi che restituiscono una lista.
+     */
+    default Stream<Book> streamAll(SortCriteria criteria) {
+        return loadAll(criteria).stream();
+    }
+
+    default Stream<Book> streamByTitle(String title, SortCriteria criteria) {
+        return findByTitle(title, criteria).stream();
+    }
+
+    default Stream<Book> streamByRating(int rating, SortCriteria criteria) {
+        return findByRating(rating, criteria).stream();
+    }
+
+    default Stream<Book> streamByReadingState(String readingState, SortCriteria criteria) {
+        return findByReadingState(readingState, criteria).stream();
+    }
+
+    default Stream<Book> streamByAuthor(String author, SortCriteria criteria) {
+        return findByAuthor(author, criteria).stream();
+    }
+
+    /**
+     * Legge una pagina di libri a partire dal cursore, nell'ordine del criterio.
+     * L'implementazione predefinita ordina e filtra il risultato di {@link #loadAll(SortCriteria)}:
+     * i database che possono farlo con un indice la ridefiniscono con una query keyset.
+     *
+     * @param criteria l'ordinamento, null equivale a {@code NONE} (ordine di inserimento)
+     * @param cursor {@link PageCursor#first()} per la prima pagina, altrimenti il cursore della pagina precedente
+     * @param limit il numero massimo di libri della pagina
+     * @return la pagina, con il cursore della successiva se ci sono altri libri
+     * @throws IllegalArgumentException se il limite non è positivo o il cursore appartiene a un altro ordinamento
+     */
+    default Page loadPage(SortCriteria criteria, PageCursor cursor, int limit) {
+        SortCriteria sort = criteria == null ? SortCriteria.NONE : criteria;
+        PageCursor.checkArguments(sort, cursor, limit);
+        List<Book> fetched = new ArrayList<>();
+        for (Book book : loadAll(SortCriteria.NONE)) {
+            if (cursor.precedes(book)) {
+                fetched.add(book);
+            }
+        }
+        fetched.sort(sort.comparator());
+        return Page.of(fetched.size() > limit + 1 ? new ArrayList<>(fetched.subList(0, limit + 1)) : fetched, limit, sort);
+    }
+
+    /**
+     * Ricerca full-text su titolo, autore e genere con corrispondenza per prefisso.
+     * L'implementazione predefinita scorre tutti i libri: i database che dispongono di un indice full-text la ridefiniscono.
+     *
+     * @param query il testo cercato, diviso in parole che devono comparire tutte
+     * @param criteria l'ordinamento; con {@code NONE} i risultati sono ordinati per rilevanza
+     * @return una lista non null di risultati, vuota se la query non contiene parole
+     */
+    default List<SearchResult> fullTextSearch(String query, SortCriteria criteria) {
+        List<String> tokens = FullTextQuery.tokens(query);
+        List<SearchResult> results = new ArrayList<>();
+        if (tokens.isEmpty()) {
+            return results;
+        }
+        for (Book book : loadAll(criteria)) {
+            SearchResult result = FullTextQuery.match(book, tokens);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        if (criteria == null || criteria == SortCriteria.NONE) {
+            results.sort(Comparator.comparingDouble(SearchResult::getRank));
+        }
+        return results;
+    }
 }
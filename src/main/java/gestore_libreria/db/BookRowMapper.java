@@ -0,0 +1,134 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Converte le righe della tabella {@code books} in oggetti {@link Book}.
+ * Gli indici delle colonne vengono cercati una sola volta per ogni {@link ResultSet} tramite
+ * {@link #bind(ResultSet)}: le righe successive vengono lette per posizione, senza confrontare i nomi delle colonne.
+ * L'istanza condivisa {@link #INSTANCE} non è legata a nessun ResultSet e legge le colonne per nome.
+ * Un mapper creato con i dizionari di un database ({@link StringDictionary}) condivide autori e generi uguali
+ * tra tutti i libri letti: se il ResultSet contiene anche {@code author_id} e {@code genre_id}, il testo di un valore
+ * già visto non viene nemmeno decodificato.
+ */
+public final class BookRowMapper implements StatementCache.RowMapper<Book> {
+
+    public static final BookRowMapper INSTANCE = new BookRowMapper();
+
+    private static final int UNBOUND = -1;
+
+    private final int id;
+    private final int title;
+    private final int author;
+    private final int isbn;
+    private final int genre;
+    private final int rating;
+    private final int readingState;
+    private final int coverPath;
+    private final int authorId;
+    private final int genreId;
+    private final StringDictionary authors;
+    private final StringDictionary genres;
+
+    private BookRowMapper() {
+        this(null, null);
+    }
+
+    /**
+     * @param authors il dizionario degli autori del database, null per non condividere i valori
+     * @param genres il dizionario dei generi del database, null per non condividere i valori
+     */
+    BookRowMapper(StringDictionary authors, StringDictionary genres) {
+        this(UNBOUND, UNBOUND, UNBOUND, UNBOUND, UNBOUND, UNBOUND, UNBOUND, UNBOUND, UNBOUND, UNBOUND, authors, genres);
+    }
+
+    private BookRowMapper(int id, int title, int author, int isbn, int genre, int rating, int readingState, int coverPath,
+                          int authorId, int genreId, StringDictionary authors, StringDictionary genres) {
+        this.id = id;
+        this.title = title;
+        this.author = author;
+        this.isbn = isbn;
+        this.genre = genre;
+        this.rating = rating;
+        this.readingState = readingState;
+        this.coverPath = coverPath;
+        this.authorId = authorId;
+        this.genreId = genreId;
+        this.authors = authors;
+        this.genres = genres;
+    }
+
+    /**
+     * Restituisce un mapper che legge le colonne del ResultSet per posizione.
+     *
+     * @param resultSet il risultato della query, deve contenere tutte le colonne di {@code books};
+     *                  {@code author_id} e {@code genre_id} sono facoltative, mancano nei database delle versioni precedenti
+     * @return il mapper legato agli indici delle colonne di questo ResultSet
+     * @throws SQLException se manca una delle colonne
+     */
+    @Override
+    public BookRowMapper bind(ResultSet resultSet) throws SQLException {
+        int authorId = UNBOUND;
+        int genreId = UNBOUND;
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        for (int column = 1; column <= metaData.getColumnCount(); column++) {
+            String name = metaData.getColumnLabel(column);
+            if (name.equalsIgnoreCase("author_id")) {
+                authorId = column;
+            } else if (name.equalsIgnoreCase("genre_id")) {
+                genreId = column;
+            }
+        }
+        return new BookRowMapper(
+                resultSet.findColumn("id"),
+                resultSet.findColumn("title"),
+                resultSet.findColumn("author"),
+                resultSet.findColumn("isbn"),
+                resultSet.findColumn("genre"),
+                resultSet.findColumn("rating"),
+                resultSet.findColumn("readingState"),
+                resultSet.findColumn("coverPath"),
+                authorId, genreId, authors, genres);
+    }
+
+    public boolean isBound() {
+        return id != UNBOUND;
+    }
+
+    /**
+     * Converte la riga corrente del ResultSet in un libro.
+     *
+     * @post se lo stato di lettura è NULL il libro ha lo stato predefinito del {@link Book.Builder}
+     */
+    @Override
+    public Book map(ResultSet resultSet) throws SQLException {
+        if (!isBound()) {
+            return bind(resultSet).map(resultSet);
+        }
+        Book.Builder builder = new Book.Builder(resultSet.getString(title), read(resultSet, authors, authorId, author))
+                .id(resultSet.getInt(id))
+                .isbn(resultSet.getString(isbn))
+                .genre(read(resultSet, genres, genreId, genre))
+                .rating(resultSet.getInt(rating))
+                .coverPath(resultSet.getString(coverPath));
+        String state = resultSet.getString(readingState);
+        if (state != null) {
+            builder.readingState(state);
+        }
+        return builder.build();
+    }
+
+    private static String read(ResultSet resultSet, StringDictionary dictionary, int idColumn, int valueColumn) throws SQLException {
+        if (dictionary == null) {
+            return resultSet.getString(valueColumn);
+        }
+        if (idColumn == UNBOUND) {
+            return dictionary.intern(resultSet.getString(valueColumn));
+        }
+        return dictionary.read(resultSet, idColumn, valueColumn);
+    }
+}
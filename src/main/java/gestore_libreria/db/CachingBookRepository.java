@@ -0,0 +1,505 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Author;
+import gestore_libreria.model.Book;
+import gestore_libreria.model.BookCounts;
+import gestore_libreria.model.CoverThumbnail;
+import gestore_libreria.model.Genre;
+import gestore_libreria.model.MergeResult;
+import gestore_libreria.model.Page;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SearchResult;
+import gestore_libreria.model.SortCriteria;
+import gestore_libreria.model.ThumbnailSize;
+import gestore_libreria.observer.BookChangeListener;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Decoratore che tiene in memoria tutti i libri di un altro {@link BookRepositoryImplementor}.
+ * Al primo accesso carica la libreria una sola volta; da quel momento le letture non passano dal delegato.
+ * Mantiene una vista ordinata per ogni {@link SortCriteria} richiesto e indici hash su valutazione e stato di lettura.
+ * Le scritture vengono eseguite prima sul delegato (write-through) e poi applicate agli indici in modo incrementale.
+ *
+ * I risultati sono gli stessi del delegato SQLite: stesso ordinamento ({@link SortCriteria#comparator()}),
+ * stesse regole di confronto ({@link SqlLike}).
+ */
+public class CachingBookRepository implements BookRepositoryImplementor {
+
+    private final BookRepositoryImplementor delegate;
+
+    private boolean warm;
+    private final Map<Integer, Book> byId = new LinkedHashMap<>();
+    //le viste ordinate vengono costruite alla prima richiesta di ciascun criterio e poi mantenute
+    private final Map<SortCriteria, List<Book>> sortedViews = new EnumMap<>(SortCriteria.class);
+    private final Map<Integer, Set<Integer>> byRating = new HashMap<>();
+    private final Map<String, Set<Integer>> byReadingState = new HashMap<>();
+    //per il genere basta il numero di libri, aggiornato insieme agli altri indici
+    private final Map<String, Integer> genreCounts = new HashMap<>();
+
+    private long hitCount;
+    private long missCount;
+    private long indexUpdateCount;
+
+    /**
+     * @param delegate il repository da cui leggere e su cui scrivere i libri
+     * @pre delegate non deve essere null
+     */
+    public CachingBookRepository(BookRepositoryImplementor delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Il repository delegato è obbligatorio");
+        }
+        this.delegate = delegate;
+    }
+
+    public BookRepositoryImplementor getDelegate() {
+        return delegate;
+    }
+
+    //carica la libreria dal delegato alla prima lettura
+    private void ensureWarm() {
+        if (warm) {
+            return;
+        }
+        missCount++;
+        for (Book book : delegate.loadAll(SortCriteria.NONE)) {
+            index(book);
+        }
+        warm = true;
+    }
+
+    /**
+     * Scarta il contenuto della cache: la prossima lettura ricarica tutto dal delegato.
+     * Da usare se il database è stato modificato senza passare da questo repository.
+     */
+    public synchronized void invalidate() {
+        warm = false;
+        byId.clear();
+        sortedViews.clear();
+        byRating.clear();
+        byReadingState.clear();
+        genreCounts.clear();
+    }
+
+    //restituisce la vista ordinata del criterio, costruendola se non esiste ancora
+    private List<Book> view(SortCriteria criteria) {
+        ensureWarm();
+        SortCriteria sort = criteria == null ? SortCriteria.NONE : criteria;
+        List<Book> view = sortedViews.get(sort);
+        if (view == null) {
+            missCount++;
+            view = new ArrayList<>(byId.values());
+            view.sort(sort.comparator());
+            sortedViews.put(sort, view);
+        } else {
+            hitCount++;
+        }
+        return view;
+    }
+
+    //come LOWER(readingState): solo il valore cercato viene ripulito dagli spazi, non quello salvato
+    private static String stateKey(String readingState) {
+        return SortCriteria.sqlLower(readingState);
+    }
+
+    //aggiunge il libro a tutti gli indici
+    private void index(Book book) {
+        byId.put(book.getId(), book);
+        byRating.computeIfAbsent(book.getRating(), rating -> new LinkedHashSet<>()).add(book.getId());
+        byReadingState.computeIfAbsent(stateKey(book.getReadingState()), state -> new LinkedHashSet<>()).add(book.getId());
+        if (book.getGenre() != null) {
+            genreCounts.merge(SortCriteria.sqlLower(book.getGenre()), 1, Integer::sum);
+        }
+        for (Map.Entry<SortCriteria, List<Book>> entry : sortedViews.entrySet()) {
+            List<Book> view = entry.getValue();
+            int position = Collections.binarySearch(view, book, entry.getKey().comparator());
+            view.add(position < 0 ? -position - 1 : position, book);
+        }
+        indexUpdateCount++;
+    }
+
+    //rimuove da tutti gli indici la versione in cache del libro con questo id
+    private void unindex(int id) {
+        Book cached = byId.remove(id);
+        if (cached == null) {
+            return;
+        }
+        removeFromIndex(byRating, cached.getRating(), id);
+        removeFromIndex(byReadingState, stateKey(cached.getReadingState()), id);
+        if (cached.getGenre() != null) {
+            //merge con null elimina il genere quando il conteggio arriva a zero
+            genreCounts.merge(SortCriteria.sqlLower(cached.getGenre()), -1, (count, delta) -> count + delta == 0 ? null : count + delta);
+        }
+        for (Map.Entry<SortCriteria, List<Book>> entry : sortedViews.entrySet()) {
+            List<Book> view = entry.getValue();
+            int position = Collections.binarySearch(view, cached, entry.getKey().comparator());
+            if (position >= 0) {
+                view.remove(position);
+            }
+        }
+        indexUpdateCount++;
+    }
+
+    private static <K> void removeFromIndex(Map<K, Set<Integer>> index, K key, int id) {
+        Set<Integer> ids = index.get(key);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    //libri dell'indice ordinati secondo il criterio
+    private <K> List<Book> sortedSubset(K key, Map<K, Set<Integer>> index, SortCriteria criteria) {
+        ensureWarm();
+        hitCount++;
+        Set<Integer> ids = index.get(key);
+        List<Book> books = new ArrayList<>();
+        if (ids != null) {
+            for (int id : ids) {
+                books.add(byId.get(id));
+            }
+        }
+        books.sort((criteria == null ? SortCriteria.NONE : criteria).comparator());
+        return books;
+    }
+
+    @Override
+    public synchronized boolean save(Book book) {
+        if (!delegate.save(book)) {
+            return false;
+        }
+        if (warm && book.getId() > 0) {
+            index(book);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean saveAll(Collection<Book> books) {
+        if (!delegate.saveAll(books)) {
+            return false;
+        }
+        if (warm) {
+            for (Book book : books) {
+                if (book.getId() > 0) {
+                    index(book);
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean update(Book book) {
+        if (!delegate.update(book)) {
+            return false;
+        }
+        if (warm && byId.containsKey(book.getId())) {
+            unindex(book.getId());
+            index(book);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean updateAll(Collection<Book> books) {
+        if (!delegate.updateAll(books)) {
+            return false;
+        }
+        if (warm) {
+            for (Book book : books) {
+                if (byId.containsKey(book.getId())) {
+                    unindex(book.getId());
+                    index(book);
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean delete(Book book) {
+        if (!delegate.delete(book)) {
+            return false;
+        }
+        if (warm) {
+            unindex(book.getId());
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean deleteAll(Collection<Book> books) {
+        if (!delegate.deleteAll(books)) {
+            return false;
+        }
+        if (warm) {
+            for (Book book : books) {
+                unindex(book.getId());
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean applyChanges(Collection<Book> inserts, Collection<Book> updates, Collection<Book> deletes) {
+        if (!delegate.applyChanges(inserts, updates, deletes)) {
+            return false;
+        }
+        if (warm) {
+            for (Book book : inserts) {
+                if (book.getId() > 0) {
+                    index(book);
+                }
+            }
+            for (Book book : updates) {
+                if (byId.containsKey(book.getId())) {
+                    unindex(book.getId());
+                    index(book);
+                }
+            }
+            for (Book book : deletes) {
+                unindex(book.getId());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * L'unione viene eseguita dal delegato: gli id dei libri inseriti non sono noti, quindi la cache viene scartata
+     * e ricaricata alla prossima lettura.
+     */
+    @Override
+    public synchronized MergeResult importBooks(Path source) {
+        MergeResult result = delegate.importBooks(source);
+        if (result != null && result.inserted() + result.updated() > 0) {
+            invalidate();
+        }
+        return result;
+    }
+
+    /**
+     * Come per l'unione, i libri completati vengono riscritti dal delegato: se qualcosa è cambiato la cache viene scartata.
+     */
+    @Override
+    public synchronized MergeResult upsertAll(Collection<Book> books) {
+        MergeResult result = delegate.upsertAll(books);
+        if (result != null && result.inserted() + result.updated() > 0) {
+            invalidate();
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized List<Book> loadAll(SortCriteria criteria) {
+        return new ArrayList<>(view(criteria));
+    }
+
+    @Override
+    public synchronized List<Book> findByTitle(String title, SortCriteria criteria) {
+        List<Book> books = new ArrayList<>();
+        for (Book book : view(criteria)) {
+            if (SqlLike.contains(book.getTitle(), title)) {
+                books.add(book);
+            }
+        }
+        return books;
+    }
+
+    @Override
+    public synchronized List<Book> findByAuthor(String author, SortCriteria criteria) {
+        List<Book> books = new ArrayList<>();
+        for (Book book : view(criteria)) {
+            if (SqlLike.contains(book.getAuthor(), author)) {
+                books.add(book);
+            }
+        }
+        return books;
+    }
+
+    @Override
+    public synchronized List<Book> findByRating(int rating, SortCriteria criteria) {
+        return sortedSubset(rating, byRating, criteria);
+    }
+
+    @Override
+    public synchronized List<Book> findByReadingState(String readingState, SortCriteria criteria) {
+        return sortedSubset(stateKey(readingState.trim()), byReadingState, criteria);
+    }
+
+    /**
+     * Filtra la vista ordinata del criterio della ricerca, fermandosi al limite.
+     */
+    @Override
+    public synchronized List<Book> find(BookQuery query) {
+        return query.filter(view(query.getSort()));
+    }
+
+    /**
+     * I conteggi sono le dimensioni degli indici, aggiornati a ogni scrittura: non serve rileggere la libreria.
+     */
+    @Override
+    public synchronized BookCounts countBooks() {
+        ensureWarm();
+        hitCount++;
+        BookCounts.Builder counts = new BookCounts.Builder().total(byId.size());
+        byReadingState.forEach((state, ids) -> counts.readingState(state, ids.size()));
+        byRating.forEach((rating, ids) -> counts.rating(rating, ids.size()));
+        genreCounts.forEach(counts::genre);
+        return counts.build();
+    }
+
+    //autori e generi vengono letti dalle tabelle del delegato: gli id esistono solo lì
+    @Override
+    public List<Author> listAuthors() {
+        return delegate.listAuthors();
+    }
+
+    @Override
+    public List<Genre> listGenres() {
+        return delegate.listGenres();
+    }
+
+    @Override
+    public boolean addChangeListener(BookChangeListener listener) {
+        return delegate.addChangeListener(listener);
+    }
+
+    @Override
+    public void removeChangeListener(BookChangeListener listener) {
+        delegate.removeChangeListener(listener);
+    }
+
+    @Override
+    public List<Book> findByAuthorId(int authorId, SortCriteria criteria) {
+        return delegate.findByAuthorId(authorId, criteria);
+    }
+
+    //la ricerca full-text usa l'indice FTS5 del delegato: ranking bm25 ed estratti evidenziati non esistono in memoria
+    @Override
+    public List<SearchResult> fullTextSearch(String query, SortCriteria criteria) {
+        return delegate.fullTextSearch(query, criteria);
+    }
+
+    //gli stream leggono dal delegato una riga alla volta, senza copiare la vista ordinata della cache
+    @Override
+    public Stream<Book> streamAll(SortCriteria criteria) {
+        return delegate.streamAll(criteria);
+    }
+
+    @Override
+    public Stream<Book> streamByTitle(String title, SortCriteria criteria) {
+        return delegate.streamByTitle(title, criteria);
+    }
+
+    @Override
+    public Stream<Book> streamByRating(int rating, SortCriteria criteria) {
+        return delegate.streamByRating(rating, criteria);
+    }
+
+    @Override
+    public Stream<Book> streamByReadingState(String readingState, SortCriteria criteria) {
+        return delegate.streamByReadingState(readingState, criteria);
+    }
+
+    @Override
+    public Stream<Book> streamByAuthor(String author, SortCriteria criteria) {
+        return delegate.streamByAuthor(author, criteria);
+    }
+
+    //le miniature non passano dalla cache: sono già lette con una sola query e occuperebbero memoria per ogni libro
+    @Override
+    public Map<Integer, byte[]> loadThumbnails(Collection<Integer> bookIds, ThumbnailSize size) {
+        return delegate.loadThumbnails(bookIds, size);
+    }
+
+    @Override
+    public Map<Integer, String> loadThumbnailHashes(Collection<Integer> bookIds) {
+        return delegate.loadThumbnailHashes(bookIds);
+    }
+
+    @Override
+    public boolean saveThumbnails(Collection<CoverThumbnail> thumbnails) {
+        return delegate.saveThumbnails(thumbnails);
+    }
+
+    /**
+     * Legge la pagina dalla vista ordinata: la posizione del cursore si trova con una ricerca binaria.
+     */
+    @Override
+    public synchronized Page loadPage(SortCriteria criteria, PageCursor cursor, int limit) {
+        SortCriteria sort = criteria == null ? SortCriteria.NONE : criteria;
+        PageCursor.checkArguments(sort, cursor, limit);
+        List<Book> view = view(sort);
+        //i libri successivi al cursore formano un suffisso della vista ordinata
+        int low = 0;
+        int high = view.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cursor.precedes(view.get(middle))) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        int end = Math.min(view.size(), low + limit + 1);
+        return Page.of(new ArrayList<>(view.subList(low, end)), limit, sort);
+    }
+
+    /**
+     * @return quante letture sono state servite da indici già pronti
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return quante volte è stato necessario caricare la libreria dal delegato o costruire una vista ordinata
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return quanti inserimenti o rimozioni di libri sono stati applicati agli indici
+     */
+    public synchronized long getIndexUpdateCount() {
+        return indexUpdateCount;
+    }
+
+    public synchronized void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+        indexUpdateCount = 0;
+    }
+
+    /**
+     * @return il numero di libri in cache, 0 se la cache non è ancora stata caricata
+     */
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    @Override
+    public String toString() {
+        return "CachingBookRepository{" +
+                "delegate=" + delegate.getClass().getSimpleName() +
+                ", hit=" + getHitCount() +
+                ", miss=" + getMissCount() +
+                ", indexUpdates=" + getIndexUpdateCount() +
+                '}';
+    }
+}
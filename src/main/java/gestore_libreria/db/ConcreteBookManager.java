@@ -2,17 +2,36 @@ package gestore_libreria.db;
 
 import gestore_libreria.memento.BookHistoryCaretaker;
 import gestore_libreria.memento.BookMemento;
+import gestore_libreria.model.Author;
 import gestore_libreria.model.Book;
+import gestore_libreria.model.BookChangeSet;
+import gestore_libreria.model.BookCounts;
+import gestore_libreria.model.CoverThumbnail;
+import gestore_libreria.model.Genre;
+import gestore_libreria.model.MergeResult;
+import gestore_libreria.model.Page;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SearchResult;
 import gestore_libreria.model.SortCriteria;
+import gestore_libreria.model.ThumbnailSize;
+import gestore_libreria.observer.BookChangeListener;
 import gestore_libreria.observer.Subject;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 // Questa classe ora implementa l'interfaccia BookManager.
 public class ConcreteBookManager extends Subject implements BookManager, BookHistoryCaretaker.OnMementoListener  {
 
     private final BookRepositoryImplementor repository;
     private final BookHistoryCaretaker historyManager;
+    //non null se le modifiche vengono accumulate e scritte a blocchi
+    private final WriteBehindBookRepository writeBehind;
 
     /**
      * Costruisce una nuova istanza di ConcreteBookManager.
@@ -23,11 +42,46 @@ public class ConcreteBookManager extends Subject implements BookManager, BookHis
      * @post Il repository interno è stato impostato con l'istanza fornita.
      * @post Viene creata una nuova istanza di BookHistoryManager.
      * @post L'istanza corrente di ConcreteBookManager è registrata come listener per il ripristino dei memento nella cronologia.
+     * @post Se il repository è un {@link WriteBehindBookRepository}, gli Observer vengono notificati una sola volta
+     * per ogni flush invece che a ogni modifica.
      */
     public ConcreteBookManager(BookRepositoryImplementor repository) {
         this.repository = repository;
         this.historyManager = new BookHistoryCaretaker();
         this.historyManager.setOnMementoRestoreListener(this);
+        if (repository instanceof WriteBehindBookRepository unitOfWork) {
+            this.writeBehind = unitOfWork;
+            unitOfWork.setFlushListener(result -> notifyObservers());
+        } else {
+            this.writeBehind = null;
+        }
+    }
+
+    private static final String RESTORE_FAILED = "Il ripristino non è riuscito: un ISBN è già presente o il database non è disponibile";
+
+    //una scrittura rifiutata dal repository viene segnalata al chiamante, che altrimenti la crederebbe riuscita
+    private static void requireWritten(boolean written, String message) {
+        if (!written) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    //con la unit of work la notifica arriva dal flush, una volta per tutte le modifiche accumulate
+    private void notifyChanged(BookChangeSet changes) {
+        if (writeBehind == null) {
+            super.notifyObservers(changes);
+        }
+    }
+
+    /**
+     * Scrive subito le modifiche accumulate, se il repository è un {@link WriteBehindBookRepository}.
+     *
+     * @post Non ci sono modifiche in attesa; se ne sono state scritte, gli Observer sono stati notificati.
+     */
+    public void flushPendingChanges() {
+        if (writeBehind != null) {
+            writeBehind.flush();
+        }
     }
 
     /**
@@ -49,14 +103,18 @@ public class ConcreteBookManager extends Subject implements BookManager, BookHis
      * @pre book.getTitle() non deve essere null o vuoto.
      * @pre book.getAuthor() non deve essere null o vuoto.
      * @post Il libro è stato correttamente inserito nel database con codice ID univoco.
-     * @post Dopo l'inserimento vengono notificati gli Observer.
+     * @post Dopo l'inserimento vengono notificati gli Observer, con il libro aggiunto.
      * @post Dopo l'inserimento si salva il libro nello stack hystoryManager.
+     * @post Se il libro ha una copertina leggibile, ne sono state salvate le miniature prima della notifica.
+     * @throws IllegalStateException se il repository non ha salvato il libro, ad esempio perché il suo ISBN è già presente:
+     * in questo caso la cronologia non cambia e gli Observer non vengono notificati.
      */
     @Override
     public void addBook(Book book) {
-        repository.save(book);
+        requireWritten(repository.save(book), "Il libro non è stato salvato: l'ISBN è già presente o il database non è disponibile");
         historyManager.save(new BookMemento(book, BookMemento.OperationType.ADD));
-        super.notifyObservers();
+        refreshThumbnails(List.of(book));
+        notifyChanged(BookChangeSet.added(List.of(book)));
     }
 
     /**
@@ -70,6 +128,21 @@ public class ConcreteBookManager extends Subject implements BookManager, BookHis
         return repository.loadAll(criteria);
     }
 
+    /**
+     * Carica una pagina di libri ordinati, ripartendo dalla posizione indicata dal cursore (paginazione keyset).
+     *
+     * @param criteria Il criterio di ordinamento dei libri.
+     * @param cursor {@code PageCursor.first()} per la prima pagina, altrimenti il cursore restituito dalla pagina precedente.
+     * @param limit Il numero massimo di libri della pagina.
+     * @pre limit deve essere positivo e il cursore deve essere stato creato con lo stesso criterio.
+     * @post La pagina contiene al massimo {@code limit} libri; se ce ne sono altri espone il cursore della successiva.
+     * @return La {@link Page} richiesta.
+     */
+    @Override
+    public Page loadPage(SortCriteria criteria, PageCursor cursor, int limit) {
+        return repository.loadPage(criteria, cursor, limit);
+    }
+
     /**
      * Permette di trovare i libri che all'interno del titolo contengono la stringa specificata
      *
@@ -127,6 +200,226 @@ public class ConcreteBookManager extends Subject implements BookManager, BookHis
         return repository.findByAuthor(author, criteria);
     }
 
+    /**
+     * Trova i libri di un autore elencato da {@link #listAuthors()}. A differenza di {@link #findBookByAuthor}
+     * confronta l'id dell'autore, quindi non trova gli autori che contengono il nome di un altro.
+     *
+     * @param authorId L'id dell'autore.
+     * @post Restituisce una lista non null dei libri dell'autore, vuota se l'id non esiste.
+     * @return Una {@code List<Book>} contenente i libri dell'autore.
+     */
+    @Override
+    public List<Book> findBookByAuthorId(int authorId, SortCriteria criteria) {
+        return repository.findByAuthorId(authorId, criteria);
+    }
+
+    /**
+     * Elenca gli autori della libreria, ognuno una sola volta, con il numero dei loro libri.
+     *
+     * @post Restituisce una lista non null in ordine alfabetico; è vuota se il repository non registra gli autori.
+     * @return Gli autori della libreria.
+     */
+    @Override
+    public List<Author> listAuthors() {
+        return repository.listAuthors();
+    }
+
+    /**
+     * Elenca i generi della libreria, ognuno una sola volta, con il numero dei loro libri.
+     *
+     * @post Restituisce una lista non null in ordine alfabetico; è vuota se il repository non registra i generi.
+     * @return I generi della libreria.
+     */
+    @Override
+    public List<Genre> listGenres() {
+        return repository.listGenres();
+    }
+
+    /**
+     * Iscrive un listener alle modifiche dei singoli libri: a ogni transazione confermata riceve gli id inseriti,
+     * aggiornati ed eliminati, qualunque sia l'operazione che li ha modificati (comprese annulla/ripeti e importazioni).
+     * Gli Observer continuano a ricevere la sola notifica {@code update()}.
+     *
+     * @param listener il listener da iscrivere
+     * @pre listener non deve essere null
+     * @post Se il repository cattura le modifiche, il listener le riceve dopo ogni commit.
+     * @return {@code false} se il repository non notifica le modifiche ai singoli libri.
+     */
+    public boolean addChangeListener(BookChangeListener listener) {
+        return repository.addChangeListener(listener);
+    }
+
+    /**
+     * @param listener il listener da disiscrivere
+     * @post Il listener non riceve più le modifiche dei libri.
+     */
+    public void removeChangeListener(BookChangeListener listener) {
+        repository.removeChangeListener(listener);
+    }
+
+    /**
+     * Trova i libri che soddisfano tutte le condizioni della ricerca, ad esempio stato di lettura, valutazione
+     * e autore insieme, con un'unica interrogazione del database.
+     *
+     * @param query La ricerca, con le condizioni, l'ordinamento e il numero massimo di risultati.
+     * @pre query non deve essere null.
+     * @post Restituisce una lista non null di oggetti Book che soddisfano tutte le condizioni, nell'ordine richiesto.
+     * @post Se nessun libro soddisfa le condizioni viene restituita una lista vuota.
+     * @return Una {@code List<Book>} contenente i libri trovati.
+     */
+    @Override
+    public List<Book> findBooks(BookQuery query) {
+        return repository.find(query);
+    }
+
+    /**
+     * Conta i libri in totale e per stato di lettura, valutazione e genere, senza caricarli.
+     *
+     * @pre il database deve essere in uno stato consistente.
+     * @post Restituisce conteggi non null; una libreria vuota ha tutti i conteggi a zero.
+     * @return I {@link BookCounts} della libreria.
+     */
+    @Override
+    public BookCounts countBooks() {
+        return repository.countBooks();
+    }
+
+    /**
+     * Unisce alla libreria i libri di un altro file di database, senza chiudere la connessione e senza sostituire
+     * la libreria corrente. I libri già presenti (stesso ISBN, oppure stessi titolo e autore) non vengono duplicati:
+     * ne vengono completati solo i dati mancanti. L'operazione non viene registrata nella cronologia di undo.
+     *
+     * @param source Il file della libreria da importare.
+     * @pre source non deve essere null e deve essere un database della libreria.
+     * @post I libri nuovi sono stati aggiunti e gli osservatori sono stati notificati se la libreria è cambiata.
+     * @return Il numero di libri inseriti, aggiornati e scartati, null se l'importazione non è riuscita.
+     */
+    @Override
+    public MergeResult importBooks(Path source) {
+        MergeResult result = repository.importBooks(source);
+        //anche in modalità write-behind: l'unione è già stata scritta sul database
+        if (result != null && result.inserted() + result.updated() > 0) {
+            super.notifyObservers();
+        }
+        return result;
+    }
+
+    /**
+     * Legge tutti i libri uno alla volta, senza costruire la lista completa: usato dalle esportazioni.
+     *
+     * @param criteria L'ordinamento dei libri.
+     * @pre lo stream restituito deve essere chiuso dal chiamante, ad esempio con un try-with-resources.
+     * @post Lo stream contiene tutti i libri della libreria nell'ordine richiesto.
+     * @return Lo stream dei libri.
+     */
+    @Override
+    public Stream<Book> streamAllBooks(SortCriteria criteria) {
+        return repository.streamAll(criteria);
+    }
+
+    /**
+     * Inserisce un blocco di libri in un'unica transazione, senza registrarlo nella cronologia e senza notificare
+     * gli Observer: le importazioni scrivono molti blocchi e al termine il chiamante notifica una volta sola.
+     * I libri con un ISBN già presente nella libreria non vengono duplicati: completano quello esistente
+     * (vedi {@link BookRepositoryImplementor#upsertAll(Collection)}).
+     *
+     * @param books I libri da inserire.
+     * @pre books non deve essere null e ogni libro deve avere titolo e autore.
+     * @post Se il metodo restituisce true tutti i libri sono stati scritti e hanno l'ID della loro riga, altrimenti nessuno.
+     * @return false se il blocco non è stato scritto a causa di un errore.
+     */
+    @Override
+    public boolean appendBooks(Collection<Book> books) {
+        return books.isEmpty() || repository.upsertAll(books) != null;
+    }
+
+    /**
+     * Legge con una sola query le miniature dei libri indicati. Le miniature mancanti, ad esempio dei libri
+     * importati o di un database creato prima della tabella delle miniature, vengono generate e salvate ora,
+     * così la lettura successiva non deve più decodificare le copertine.
+     *
+     * @param books I libri di cui mostrare la copertina.
+     * @param size La dimensione richiesta.
+     * @pre books non deve essere null.
+     * @post Restituisce una mappa non null; i libri senza copertina leggibile non compaiono.
+     * @return Le immagini codificate per id del libro.
+     */
+    @Override
+    public Map<Integer, byte[]> loadThumbnails(Collection<Book> books, ThumbnailSize size) {
+        List<Integer> ids = new ArrayList<>(books.size());
+        for (Book book : books) {
+            ids.add(book.getId());
+        }
+        Map<Integer, byte[]> thumbnails = new HashMap<>(repository.loadThumbnails(ids, size));
+        List<CoverThumbnail> created = new ArrayList<>();
+        for (Book book : books) {
+            if (thumbnails.containsKey(book.getId())) {
+                continue;
+            }
+            byte[] content = CoverThumbnails.read(book.getCoverPath());
+            CoverThumbnail thumbnail = content == null ? null
+                    : CoverThumbnails.create(book.getId(), content, CoverThumbnails.hash(content));
+            if (thumbnail != null) {
+                created.add(thumbnail);
+                thumbnails.put(book.getId(), thumbnail.image(size));
+            }
+        }
+        if (!created.isEmpty()) {
+            repository.saveThumbnails(created);
+        }
+        return thumbnails;
+    }
+
+    //rigenera le miniature dei libri la cui copertina è cambiata, confrontando l'impronta del file con quella salvata.
+    //I libri con id provvisorio (modalità write-behind) vengono saltati: le miniature saranno create alla prima lettura
+    private void refreshThumbnails(Collection<Book> books) {
+        List<Book> covered = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        for (Book book : books) {
+            if (book.getId() > 0 && book.getCoverPath() != null && !book.getCoverPath().isBlank()) {
+                covered.add(book);
+                ids.add(book.getId());
+            }
+        }
+        if (covered.isEmpty()) {
+            return;
+        }
+        Map<Integer, String> hashes = repository.loadThumbnailHashes(ids);
+        List<CoverThumbnail> created = new ArrayList<>();
+        for (Book book : covered) {
+            byte[] content = CoverThumbnails.read(book.getCoverPath());
+            if (content == null) {
+                continue;
+            }
+            String hash = CoverThumbnails.hash(content);
+            if (hash.equals(hashes.get(book.getId()))) {
+                continue;
+            }
+            CoverThumbnail thumbnail = CoverThumbnails.create(book.getId(), content, hash);
+            if (thumbnail != null) {
+                created.add(thumbnail);
+            }
+        }
+        if (!created.isEmpty()) {
+            repository.saveThumbnails(created);
+        }
+    }
+
+    /**
+     * Cerca i libri il cui titolo, autore o genere contengono parole che iniziano con i termini cercati.
+     *
+     * @param query Il testo cercato; tutte le sue parole devono comparire nel libro.
+     * @param criteria L'ordinamento dei risultati; con {@code SortCriteria.NONE} sono ordinati per rilevanza (BM25).
+     * @pre query non deve essere null.
+     * @post Restituisce una lista non null di risultati con un estratto in cui i termini trovati sono evidenziati.
+     * @post Se la query non contiene parole o nessun libro corrisponde viene restituita una lista vuota.
+     * @return Una {@code List<SearchResult>} con i libri trovati.
+     */
+    @Override
+    public List<SearchResult> fullTextSearch(String query, SortCriteria criteria) {
+        return repository.fullTextSearch(query, criteria);
+    }
+
     /**
      * Aggiorna un libro esistente nel database e ne salva lo stato per le operazioni di undo/redo.
      *
@@ -139,14 +432,17 @@ public class ConcreteBookManager extends Subject implements BookManager, BookHis
      * @pre newBook.getAuthor() non deve essere null o vuoto.
      * @post Lo stato del libro nel database è aggiornato con i dati di {@code newBook}.
      * @post Un memento di tipo UPDATE è salvato nella cronologia, contenente sia {@code newBook} che {@code oldBook}.
+     * @post Se la copertina è cambiata, le sue miniature sono state rigenerate prima della notifica.
      * @post Tutti gli osservatori sono notificati del cambiamento.
-     *
+     * @throws IllegalStateException se il repository non ha aggiornato il libro, ad esempio perché il nuovo ISBN
+     * appartiene a un altro libro: in questo caso la cronologia non cambia e gli Observer non vengono notificati.
      */
     @Override
     public void updateBook(Book oldBook, Book book) {
+        requireWritten(repository.update(book), "Il libro non è stato aggiornato: l'ISBN è già presente o il database non è disponibile");
         historyManager.save(new BookMemento(book, BookMemento.OperationType.UPDATE, oldBook));
-        repository.update(book);
-        super.notifyObservers();
+        refreshThumbnails(List.of(book));
+        notifyChanged(BookChangeSet.updated(List.of(book)));
     }
 
     /**
@@ -158,12 +454,80 @@ public class ConcreteBookManager extends Subject implements BookManager, BookHis
      * @post Il libro è rimosso dal database.
      * @post Un memento di tipo REMOVE è salvato nella cronologia, contenente lo stato del libro prima della rimozione.
      * @post Tutti gli osservatori sono notificati del cambiamento.
+     * @throws IllegalStateException se il repository non ha eseguito la scrittura: cronologia e Observer restano invariati.
      */
     @Override
     public void deleteBook(Book book) {
+        requireWritten(repository.delete(book), "Il libro non è stato eliminato: il database non è disponibile");
         historyManager.save(new BookMemento(book, BookMemento.OperationType.REMOVE));
-        repository.delete(book);
-        super.notifyObservers();
+        notifyChanged(BookChangeSet.removed(List.of(book)));
+    }
+
+    /**
+     * Inserisce più libri nel database in un'unica transazione, registrando una sola voce di undo.
+     *
+     * @param books I libri da aggiungere.
+     * @pre books non deve essere null.
+     * @pre ogni libro deve avere titolo e autore non null e non vuoti.
+     * @post I libri sono stati inseriti nel database e a ciascuno è stato assegnato un ID univoco.
+     * @post Un unico memento di tipo ADD è salvato nella cronologia.
+     * @post Gli Observer vengono notificati una sola volta.
+     * @throws IllegalStateException se il repository non ha eseguito la scrittura: cronologia e Observer restano invariati.
+     */
+    @Override
+    public void addBooks(Collection<Book> books) {
+        if (books.isEmpty()) {
+            return;
+        }
+        requireWritten(repository.saveAll(books), "I libri non sono stati salvati: il database non è disponibile");
+        historyManager.save(new BookMemento(books, BookMemento.OperationType.ADD));
+        refreshThumbnails(books);
+        notifyChanged(BookChangeSet.added(books));
+    }
+
+    /**
+     * Aggiorna più libri in un'unica transazione, registrando una sola voce di undo.
+     *
+     * @param oldBooks Gli stati precedenti dei libri, nello stesso ordine di {@code books}. Usati per l'undo.
+     * @param books I libri con i dati aggiornati.
+     * @pre oldBooks e books non devono essere null e devono avere la stessa dimensione.
+     * @pre ogni libro di {@code books} deve corrispondere a un libro esistente nel database.
+     * @post Lo stato dei libri nel database è aggiornato con i dati di {@code books}.
+     * @post Un unico memento di tipo UPDATE è salvato nella cronologia.
+     * @post Gli Observer vengono notificati una sola volta.
+     * @throws IllegalStateException se il repository non ha eseguito la scrittura: cronologia e Observer restano invariati.
+     */
+    @Override
+    public void updateBooks(List<Book> oldBooks, List<Book> books) {
+        if (books.isEmpty()) {
+            return;
+        }
+        requireWritten(repository.updateAll(books), "I libri non sono stati aggiornati: un ISBN è già presente o il database non è disponibile");
+        historyManager.save(new BookMemento(books, BookMemento.OperationType.UPDATE, oldBooks));
+        refreshThumbnails(books);
+        notifyChanged(BookChangeSet.updated(books));
+    }
+
+    /**
+     * Elimina più libri in un'unica transazione, registrando una sola voce di undo.
+     *
+     * @param books I libri da eliminare.
+     * @pre books non deve essere null.
+     * @pre ogni libro deve corrispondere a un libro esistente nel database.
+     * @post I libri sono rimossi dal database.
+     * @post Un unico memento di tipo REMOVE è salvato nella cronologia.
+     * @post Gli Observer vengono notificati una sola volta.
+     * @throws IllegalStateException se il repository non ha eseguito la scrittura: cronologia e Observer restano invariati.
+     */
+    @Override
+    public void deleteBooks(Collection<Book> books) {
+        if (books.isEmpty()) {
+            return;
+        }
+        List<Book> removed = new ArrayList<>(books);
+        requireWritten(repository.deleteAll(removed), "I libri non sono stati eliminati: il database non è disponibile");
+        historyManager.save(new BookMemento(removed, BookMemento.OperationType.REMOVE));
+        notifyChanged(BookChangeSet.removed(removed));
     }
 
 /**
@@ -182,39 +546,93 @@ public class ConcreteBookManager extends Subject implements BookManager, BookHis
  * @post Se l'operazione è un REDO di REMOVE, il libro viene rimosso.
  * @post Se l'operazione è un UNDO di UPDATE, il libro viene ripristinato allo stato precedente.
  * @post Se l'operazione è un REDO di UPDATE, il libro viene ripristinato allo stato successivo.
- * @post Tutti gli osservatori sono notificati del cambiamento dopo il ripristino.
+ * @post Tutti gli osservatori sono notificati dopo il ripristino, con i libri riaggiunti, rimossi o ripristinati.
+ * @throws IllegalStateException se il repository non ha eseguito il ripristino: gli osservatori non vengono notificati.
  */
     @Override
     public void restore(BookMemento memento, BookHistoryCaretaker.ActionDirection direction) {
+        if (memento.isBatch()) {
+            notifyChanged(restoreBatch(memento, direction));
+            return;
+        }
+        BookChangeSet changes = null;
         switch (memento.getOperationType()) {
             case ADD:
                 if (direction == BookHistoryCaretaker.ActionDirection.UNDO) {
-                    repository.delete(memento.getBookState());
+                    requireWritten(repository.delete(memento.getBookState()), RESTORE_FAILED);
+                    changes = BookChangeSet.removed(List.of(memento.getBookState()));
                     System.out.println("Undo ADD: Rimosso libro " + memento.getBookState().getTitle());
                 } else {
-                    repository.save(memento.getBookState());
+                    requireWritten(repository.save(memento.getBookState()), RESTORE_FAILED);
+                    changes = BookChangeSet.added(List.of(memento.getBookState()));
                     System.out.println("Redo ADD: Riaggiunto libro " + memento.getBookState().getTitle());
                 }
                 break;
             case REMOVE:
                 if (direction == BookHistoryCaretaker.ActionDirection.UNDO) {
-                    repository.save(memento.getBookState());
+                    requireWritten(repository.save(memento.getBookState()), RESTORE_FAILED);
+                    changes = BookChangeSet.added(List.of(memento.getBookState()));
                     System.out.println("Undo DELETE: Riaggiunto libro " + memento.getBookState().getTitle());
                 } else {
-                    repository.delete(memento.getBookState());
+                    requireWritten(repository.delete(memento.getBookState()), RESTORE_FAILED);
+                    changes = BookChangeSet.removed(List.of(memento.getBookState()));
                     System.out.println("Redo DELETE: Rimosso libro " + memento.getBookState().getTitle());
                 }
                 break;
             case UPDATE:
                 if (direction == BookHistoryCaretaker.ActionDirection.UNDO) {
-                    repository.update(memento.getPreviousBookState());
+                    requireWritten(repository.update(memento.getPreviousBookState()), RESTORE_FAILED);
+                    changes = BookChangeSet.updated(List.of(memento.getPreviousBookState()));
                     System.out.println("Undo UPDATE: Ripristinato libro " + memento.getPreviousBookState().getTitle() + " allo stato precedente.");
                 } else {
-                    repository.update(memento.getBookState());
+                    requireWritten(repository.update(memento.getBookState()), RESTORE_FAILED);
+                    changes = BookChangeSet.updated(List.of(memento.getBookState()));
                     System.out.println("Redo UPDATE: Ripristinato libro " + memento.getBookState().getTitle() + " allo stato successivo.");
                 }
                 break;
         }
-        super.notifyObservers(); // Notifica la UI dopo il ripristino
+        notifyChanged(changes); // Notifica la UI dopo il ripristino
+    }
+
+    /**
+     * Ripristina un memento registrato da un'operazione massiva, usando le operazioni batch del repository.
+     *
+     * @param memento Il memento massivo da ripristinare.
+     * @param direction La direzione dell'azione (UNDO o REDO).
+     * @pre memento.isBatch() deve essere true.
+     * @post Tutti i libri del memento sono stati ripristinati in un'unica transazione.
+     * @return i libri riaggiunti, rimossi o ripristinati, da notificare agli Observer
+     */
+    private BookChangeSet restoreBatch(BookMemento memento, BookHistoryCaretaker.ActionDirection direction) {
+        boolean undo = direction == BookHistoryCaretaker.ActionDirection.UNDO;
+        BookChangeSet changes = null;
+        switch (memento.getOperationType()) {
+            case ADD:
+                if (undo) {
+                    requireWritten(repository.deleteAll(memento.getBookStates()), RESTORE_FAILED);
+                    changes = BookChangeSet.removed(memento.getBookStates());
+                } else {
+                    requireWritten(repository.saveAll(memento.getBookStates()), RESTORE_FAILED);
+                    changes = BookChangeSet.added(memento.getBookStates());
+                }
+                break;
+            case REMOVE:
+                if (undo) {
+                    requireWritten(repository.saveAll(memento.getBookStates()), RESTORE_FAILED);
+                    changes = BookChangeSet.added(memento.getBookStates());
+                } else {
+                    requireWritten(repository.deleteAll(memento.getBookStates()), RESTORE_FAILED);
+                    changes = BookChangeSet.removed(memento.getBookStates());
+                }
+                break;
+            case UPDATE:
+                List<Book> restored = undo ? memento.getPreviousBookStates() : memento.getBookStates();
+                requireWritten(repository.updateAll(restored), RESTORE_FAILED);
+                changes = BookChangeSet.updated(restored);
+                break;
+        }
+        System.out.println((undo ? "Undo " : "Redo ") + memento.getOperationType() + " massivo: "
+                + memento.getBookStates().size() + " libri");
+        return changes;
     }
-}
\ No newline at end of file
+}
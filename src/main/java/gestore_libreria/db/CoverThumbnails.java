@@ -0,0 +1,126 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.CoverThumbnail;
+import gestore_libreria.model.ThumbnailSize;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Genera le miniature delle copertine: il file viene letto e decodificato una sola volta e ridotto a tutte
+ * le {@link ThumbnailSize}, poi le immagini vengono codificate in JPEG per essere salvate nel database.
+ * Come {@code GestoreLibreriaUI.loadAndScaleImage}, i percorsi che iniziano con {@code /images/} sono risorse
+ * dell'applicazione e le immagini vengono adattate esattamente alla dimensione richiesta.
+ */
+final class CoverThumbnails {
+
+    private static final String RESOURCE_PREFIX = "/images/";
+    private static final String FORMAT = "jpg";
+
+    private CoverThumbnails() {
+    }
+
+    /**
+     * @param coverPath il percorso della copertina, può essere null o vuoto
+     * @return il contenuto del file di copertina, null se il libro non ha copertina o il file non esiste
+     */
+    static byte[] read(String coverPath) {
+        if (coverPath == null || coverPath.isBlank()) {
+            return null;
+        }
+        try {
+            if (coverPath.startsWith(RESOURCE_PREFIX)) {
+                try (InputStream in = CoverThumbnails.class.getResourceAsStream(coverPath)) {
+                    return in == null ? null : in.readAllBytes();
+                }
+            }
+            Path file = Path.of(coverPath);
+            return Files.isRegularFile(file) ? Files.readAllBytes(file) : null;
+        } catch (IOException | InvalidPathException e) {
+            System.err.println("Errore nella lettura della copertina " + coverPath + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return l'impronta SHA-256 del contenuto, in esadecimale
+     */
+    static String hash(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+
+    /**
+     * Decodifica la copertina e ne crea le miniature.
+     *
+     * @param bookId l'id del libro
+     * @param content il contenuto del file di copertina
+     * @param hash l'impronta di content
+     * @return le miniature, null se il contenuto non è un'immagine leggibile
+     */
+    static CoverThumbnail create(int bookId, byte[] content, String hash) {
+        try {
+            BufferedImage cover = ImageIO.read(new ByteArrayInputStream(content));
+            if (cover == null) {
+                return null;
+            }
+            return new CoverThumbnail(bookId, hash, encode(scale(cover, ThumbnailSize.LIST)),
+                    encode(scale(cover, ThumbnailSize.DETAIL)));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Errore nella creazione della miniatura del libro " + bookId + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    //riduce a metà finché l'immagine è più del doppio della destinazione: con la sola interpolazione bilineare
+    //una riduzione forte salterebbe dei pixel, con questi passi il risultato è vicino a SCALE_SMOOTH
+    private static BufferedImage scale(BufferedImage image, ThumbnailSize size) {
+        BufferedImage current = image;
+        int width = current.getWidth();
+        int height = current.getHeight();
+        while (width / 2 >= size.getWidth() && height / 2 >= size.getHeight()) {
+            width /= 2;
+            height /= 2;
+            current = draw(current, width, height);
+        }
+        return draw(current, size.getWidth(), size.getHeight());
+    }
+
+    //il JPEG non ha trasparenza: lo sfondo delle immagini trasparenti diventa bianco
+    private static BufferedImage draw(BufferedImage image, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, FORMAT, out)) {
+            throw new IOException("Nessun codificatore " + FORMAT + " disponibile");
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,202 @@
+package gestore_libreria.db;
+
+import org.sqlite.SQLiteConnection;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Copia il database su file mentre l'applicazione continua a usarlo, tramite l'API di backup online di SQLite.
+ * Le pagine vengono copiate a blocchi di {@code pagesPerStep} su una connessione di lettura del pool:
+ * la connessione tiene aperta una transazione di lettura per tutta la copia, quindi in modalità WAL il file
+ * prodotto è una fotografia coerente del momento in cui la copia è iniziata, mentre lo scrittore continua
+ * a registrare le modifiche senza far ripartire il backup.
+ *
+ * Il backup viene scritto in un file temporaneo accanto alla destinazione e spostato al suo posto solo alla fine,
+ * così un'esportazione interrotta non lascia un file a metà.
+ * Si costruisce tramite {@link Builder}.
+ */
+public class DatabaseBackup {
+
+    /**
+     * Avvisato dopo ogni blocco di pagine copiato, sul thread che esegue il backup.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        /**
+         * @param copiedPages le pagine copiate finora
+         * @param totalPages le pagine del database
+         */
+        void progress(int copiedPages, int totalPages);
+    }
+
+    /**
+     * @param pages le pagine copiate
+     * @param steps i blocchi in cui è stata divisa la copia
+     * @param restarts quante volte SQLite ha dovuto ricominciare perché il database è cambiato durante la copia
+     */
+    public record Result(int pages, int steps, int restarts) {
+    }
+
+    private static final int SQLITE_OK = 0;
+    //attese e tentativi quando il database è momentaneamente bloccato
+    private static final int BUSY_SLEEP_MILLIS = 100;
+    private static final int BUSY_RETRIES = 50;
+
+    private final SQLiteConnectionPool pool;
+    private final int pagesPerStep;
+    private final long pauseMillis;
+
+    private DatabaseBackup(Builder builder) {
+        this.pool = builder.pool;
+        this.pagesPerStep = builder.pagesPerStep;
+        this.pauseMillis = builder.pauseMillis;
+    }
+
+    public int getPagesPerStep() {
+        return pagesPerStep;
+    }
+
+    public long getPauseMillis() {
+        return pauseMillis;
+    }
+
+    /**
+     * Esegue il backup del database del pool nel file indicato, sostituendolo se esiste già.
+     * Da chiamare fuori dall'EDT: la durata dipende dalla dimensione del database.
+     *
+     * @param target il file di destinazione
+     * @param listener avvisato dopo ogni blocco di pagine, può essere null
+     * @pre target non deve essere null
+     * @post se il metodo termina senza eccezioni target contiene una copia coerente del database
+     * @return le statistiche della copia
+     * @throws SQLException se la copia fallisce; in quel caso target non viene modificato
+     * @throws IOException se il file copiato non può essere spostato nella destinazione
+     */
+    public Result backupTo(Path target, ProgressListener listener) throws SQLException, IOException {
+        Path absolute = target.toAbsolutePath();
+        Path partial = absolute.resolveSibling(absolute.getFileName() + ".part");
+        Files.deleteIfExists(partial);
+        Result result;
+        try {
+            result = copy(partial, listener);
+        } catch (SQLException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        try {
+            Files.move(partial, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partial, absolute, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return result;
+    }
+
+    private Result copy(Path destination, ProgressListener listener) throws SQLException {
+        Connection connection = pool.borrowReader();
+        //senza lettori (database in memoria) si usa lo scrittore: le sue modifiche vengono riportate nella copia da SQLite
+        boolean snapshot = !pool.isWriter(connection);
+        boolean autoCommit = connection.getAutoCommit();
+        try {
+            if (snapshot) {
+                //la prima lettura fissa la fotografia del WAL che il backup userà fino alla fine
+                connection.setAutoCommit(false);
+                try (Statement statement = connection.createStatement();
+                     ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM sqlite_master")) {
+                    resultSet.next();
+                }
+            }
+            int[] state = new int[4];      //pagine totali, pagine copiate, blocchi, ripartenze
+            state[1] = -1;
+            int rc = connection.unwrap(SQLiteConnection.class).getDatabase().backup("main", destination.toString(),
+                    (remaining, pageCount) -> {
+                        int copied = pageCount - remaining;
+                        if (copied < state[1]) {
+                            state[3]++;
+                        }
+                        state[0] = pageCount;
+                        state[1] = copied;
+                        state[2]++;
+                        if (listener != null) {
+                            listener.progress(copied, pageCount);
+                        }
+                        pause();
+                    },
+                    BUSY_SLEEP_MILLIS, BUSY_RETRIES, pagesPerStep);
+            //il driver non solleva eccezioni: l'esito è il codice di ritorno di SQLite
+            if (rc != SQLITE_OK) {
+                throw new SQLException("Backup del database non riuscito (codice SQLite " + rc + ")", null, rc);
+            }
+            return new Result(state[0], state[2], state[3]);
+        } finally {
+            if (snapshot) {
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+            }
+            pool.release(connection);
+        }
+    }
+
+    //lascia respirare il disco tra un blocco e l'altro
+    private void pause() {
+        if (pauseMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(pauseMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static class Builder {
+
+        private final SQLiteConnectionPool pool;
+        private int pagesPerStep = 64;
+        private long pauseMillis;
+
+        /**
+         * @param pool il pool del database da copiare
+         * @throws IllegalArgumentException se pool è null
+         */
+        public Builder(SQLiteConnectionPool pool) {
+            if (pool == null) {
+                throw new IllegalArgumentException("Il pool di connessioni è obbligatorio");
+            }
+            this.pool = pool;
+        }
+
+        /**
+         * @param pagesPerStep le pagine copiate per ogni passo, deve essere positivo
+         */
+        public Builder pagesPerStep(int pagesPerStep) {
+            if (pagesPerStep <= 0) {
+                throw new IllegalArgumentException("Il numero di pagine per passo deve essere positivo");
+            }
+            this.pagesPerStep = pagesPerStep;
+            return this;
+        }
+
+        /**
+         * @param pauseMillis l'attesa tra un passo e il successivo, 0 per nessuna attesa
+         */
+        public Builder pauseMillis(long pauseMillis) {
+            if (pauseMillis < 0) {
+                throw new IllegalArgumentException("La pausa non può essere negativa");
+            }
+            this.pauseMillis = pauseMillis;
+            return this;
+        }
+
+        public DatabaseBackup build() {
+            return new DatabaseBackup(this);
+        }
+    }
+}
@@ -4,29 +4,90 @@ import java.sql.*;
 
 public final class DatabaseConnectionSingleton {
 
-    //Riutilizzo la stessa connessione al database, ed evito di aprire una connessione per ogni query che eseguo
+    //Riutilizzo lo stesso pool di connessioni al database: una connessione di scrittura e alcune di lettura in modalità WAL
 
     private static final String url = "jdbc:sqlite:Books_db.db";
-    private static Connection instance;
+    /**
+     * La proprietà di sistema che attiva la misura delle query, ad esempio {@code -Dgestore_libreria.queryStatistics=true}.
+     * Le misure passano per proxy di connessione, statement e ResultSet che rallentano anche la lettura delle righe,
+     * quindi di default sono disattivate.
+     */
+    public static final String STATISTICS_PROPERTY = "gestore_libreria.queryStatistics";
+    private static final boolean statisticsEnabled = Boolean.getBoolean(STATISTICS_PROPERTY);
+    //se attivate, le query dell'applicazione sono consultabili via JMX o con getStatistics().dump(...)
+    private static final QueryStatistics statistics = new QueryStatistics();
+    private static volatile SQLiteConnectionPool pool;
+    private static SQLiteConnectionPool.Builder poolBuilder = new SQLiteConnectionPool.Builder(url)
+            .statistics(statisticsEnabled ? statistics : null);
+
+    static {
+        if (statisticsEnabled) {
+            statistics.registerMBean("Books_db");
+        }
+    }
 
     //costruttore privato
     private DatabaseConnectionSingleton(){}
 
-    public static synchronized Connection getInstance() throws SQLException{
-        if (instance == null || instance.isClosed()){
-            instance = DriverManager.getConnection(url);
+    /**
+     * Restituisce il pool condiviso, creandolo al primo utilizzo. Dopo la creazione la lettura non è sincronizzata.
+     *
+     * @return il pool di connessioni dell'applicazione
+     */
+    public static SQLiteConnectionPool getPool() {
+        SQLiteConnectionPool current = pool;
+        if (current == null) {
+            synchronized (DatabaseConnectionSingleton.class) {
+                if (pool == null) {
+                    pool = poolBuilder.build();
+                }
+                current = pool;
+            }
         }
-        return instance;
+        return current;
+    }
+
+    /**
+     * @return le statistiche delle query del pool configurato di default, vuote se la misura non è attiva
+     *         (vedi {@link #isStatisticsEnabled()}); restano le stesse anche dopo {@link #closeConnection()},
+     *         ma un pool impostato con {@link #configure} le usa solo se le riceve dal builder
+     */
+    public static QueryStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return true se il pool configurato di default misura le query, cioè se {@link #STATISTICS_PROPERTY} vale true
+     */
+    public static boolean isStatisticsEnabled() {
+        return statisticsEnabled;
+    }
+
+    /**
+     * Sostituisce la configurazione del pool (numero di lettori e PRAGMA). Se un pool era già aperto viene chiuso
+     * e il prossimo accesso userà la nuova configurazione.
+     *
+     * @param builder la nuova configurazione
+     * @pre builder non deve essere null
+     */
+    public static synchronized void configure(SQLiteConnectionPool.Builder builder) {
+        poolBuilder = builder;
+        closeConnection();
+    }
+
+    /**
+     * @return la connessione di scrittura condivisa
+     */
+    public static Connection getInstance() throws SQLException{
+        return getPool().getWriter();
     }
 
     public static void closeConnection() {
-        if (instance != null) {
-            try {
-                instance.close();
-                instance = null; // Impostiamo a null per permettere la riapertura
+        synchronized (DatabaseConnectionSingleton.class) {
+            if (pool != null) {
+                pool.close();
+                pool = null; // Impostiamo a null per permettere la riapertura
                 System.out.println("Connessione al database chiusa.");
-            } catch (SQLException e) {
-                System.err.println("Errore durante la chiusura della connessione al database: " + e.getMessage());
             }
         }
     }
@@ -0,0 +1,140 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.SearchResult;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Traduce il testo digitato dall'utente in una ricerca full-text.
+ * Il testo viene diviso in parole; ogni parola è cercata come prefisso e tutte devono comparire
+ * in almeno uno tra titolo, autore e genere.
+ */
+public final class FullTextQuery {
+
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    private FullTextQuery() {}
+
+    /**
+     * @param text il testo cercato
+     * @return le parole del testo in minuscolo e senza accenti, lista vuota se il testo non contiene parole
+     */
+    public static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        for (String token : NON_WORD.split(normalize(text))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Costruisce l'espressione MATCH di FTS5: ogni parola è racchiusa tra virgolette, così la sintassi
+     * di FTS5 (AND, OR, NEAR, colonne) non può essere iniettata, ed è seguita da * per la ricerca per prefisso.
+     *
+     * @param text il testo cercato
+     * @return l'espressione MATCH, stringa vuota se il testo non contiene parole
+     */
+    public static String toMatchExpression(String text) {
+        StringBuilder expression = new StringBuilder();
+        for (String token : tokens(text)) {
+            if (expression.length() > 0) {
+                expression.append(' ');
+            }
+            expression.append('"').append(token).append("\"*");
+        }
+        return expression.toString();
+    }
+
+    /**
+     * Valuta un libro senza l'indice full-text, per i repository che non usano SQLite.
+     * Il punteggio segue la convenzione di BM25: più è basso, più il libro è rilevante.
+     *
+     * @return il risultato, oppure null se almeno una parola non compare nel libro
+     */
+    public static SearchResult match(Book book, List<String> tokens) {
+        if (tokens.isEmpty()) {
+            return null;
+        }
+        String[] fields = {book.getTitle(), book.getAuthor(), book.getGenre()};
+        double[] weights = {10.0, 5.0, 1.0};
+        double score = 0;
+        int bestField = -1;
+        double bestFieldScore = 0;
+        for (String token : tokens) {
+            boolean found = false;
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] != null && containsWordPrefix(normalize(fields[i]), token)) {
+                    found = true;
+                    score += weights[i];
+                    if (weights[i] > bestFieldScore) {
+                        bestFieldScore = weights[i];
+                        bestField = i;
+                    }
+                }
+            }
+            if (!found) {
+                return null;
+            }
+        }
+        return new SearchResult(book, -score, highlight(fields[bestField], tokens));
+    }
+
+    /**
+     * Evidenzia nel testo le parole che iniziano con uno dei termini cercati.
+     */
+    public static String highlight(String text, List<String> tokens) {
+        StringBuilder result = new StringBuilder();
+        String normalized = normalize(text);
+        int i = 0;
+        while (i < text.length()) {
+            if (!Character.isLetterOrDigit(text.charAt(i))) {
+                result.append(text.charAt(i++));
+                continue;
+            }
+            int end = i;
+            while (end < text.length() && Character.isLetterOrDigit(text.charAt(end))) {
+                end++;
+            }
+            String word = text.substring(i, end);
+            boolean matched = false;
+            //il testo normalizzato ha la stessa lunghezza per le lettere latine più comuni; in caso contrario non evidenzio
+            if (normalized.length() == text.length()) {
+                String normalizedWord = normalized.substring(i, end);
+                for (String token : tokens) {
+                    if (normalizedWord.startsWith(token)) {
+                        matched = true;
+                        break;
+                    }
+                }
+            }
+            result.append(matched ? SearchResult.HIGHLIGHT_START + word + SearchResult.HIGHLIGHT_END : word);
+            i = end;
+        }
+        return result.toString();
+    }
+
+    private static boolean containsWordPrefix(String normalizedField, String token) {
+        for (String word : NON_WORD.split(normalizedField)) {
+            if (word.startsWith(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return DIACRITICS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+}
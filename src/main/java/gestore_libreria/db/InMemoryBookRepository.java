@@ -0,0 +1,433 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Author;
+import gestore_libreria.model.Book;
+import gestore_libreria.model.BookCounts;
+import gestore_libreria.model.Genre;
+import gestore_libreria.model.Page;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SortCriteria;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Repository interamente in memoria, senza JDBC: adatto ai test e alle installazioni in sola lettura.
+ * I libri sono salvati in una mappa con chiavi {@code int} primitive; per ogni valutazione e per ogni stato di lettura
+ * c'è una bitmap ({@link BitSet}) indicizzata per id. Per ogni {@link SortCriteria} viene costruito, alla prima
+ * richiesta, un array ordinato dei libri, scartato alla modifica successiva: i filtri scorrono l'array
+ * e controllano la bitmap, così restituiscono i risultati già ordinati. Autori e generi distinti sono tenuti
+ * in un {@link NameIndex}, con gli stessi id stabili delle tabelle di {@link SQLiteBookRepository}.
+ *
+ * Si comporta come {@link SQLiteBookRepository}: gli id sono assegnati in ordine crescente e non vengono riutilizzati,
+ * l'ordinamento è quello di {@link SortCriteria#comparator()} e le ricerche seguono le regole di {@link SqlLike}.
+ * Le letture possono essere eseguite in parallelo, le scritture sono esclusive.
+ */
+public class InMemoryBookRepository implements BookRepositoryImplementor {
+
+    private static final int MAX_RATING = 5;
+
+    private final IntBookMap books = new IntBookMap();
+    private final BitSet[] byRating = new BitSet[MAX_RATING + 1];
+    private final Map<String, BitSet> byReadingState = new HashMap<>();
+    private final Map<String, Integer> genreCounts = new HashMap<>();
+    private final NameIndex authors = new NameIndex();
+    private final NameIndex genres = new NameIndex();
+    //array ordinati per criterio, null finché non vengono richiesti o dopo una modifica
+    private final AtomicReferenceArray<Book[]> sorted = new AtomicReferenceArray<>(SortCriteria.values().length);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int lastId;
+
+    public InMemoryBookRepository() {
+        for (int rating = 0; rating <= MAX_RATING; rating++) {
+            byRating[rating] = new BitSet();
+        }
+    }
+
+    /**
+     * Crea un repository che contiene già i libri indicati, mantenendone gli id.
+     *
+     * @param initialBooks i libri iniziali, ad esempio letti da un altro repository
+     * @pre ogni libro deve avere un id positivo e diverso dagli altri
+     */
+    public InMemoryBookRepository(Collection<Book> initialBooks) {
+        this();
+        for (Book book : initialBooks) {
+            if (books.containsKey(book.getId())) {
+                throw new IllegalArgumentException("Id duplicato: " + book.getId());
+            }
+            index(book);
+            indexNames(null, book);
+            lastId = Math.max(lastId, book.getId());
+        }
+    }
+
+    private static String stateKey(String readingState) {
+        return SortCriteria.sqlLower(readingState);
+    }
+
+    //le scritture tengono il lock in scrittura
+    private void index(Book book) {
+        books.put(book.getId(), book);
+        byRating[book.getRating()].set(book.getId());
+        byReadingState.computeIfAbsent(stateKey(book.getReadingState()), state -> new BitSet()).set(book.getId());
+        if (book.getGenre() != null) {
+            genreCounts.merge(SortCriteria.sqlLower(book.getGenre()), 1, Integer::sum);
+        }
+    }
+
+    private void unindex(Book book) {
+        byRating[book.getRating()].clear(book.getId());
+        BitSet states = byReadingState.get(stateKey(book.getReadingState()));
+        if (states != null) {
+            states.clear(book.getId());
+            if (states.isEmpty()) {
+                byReadingState.remove(stateKey(book.getReadingState()));
+            }
+        }
+        if (book.getGenre() != null) {
+            genreCounts.merge(SortCriteria.sqlLower(book.getGenre()), -1, (count, delta) -> count + delta == 0 ? null : count + delta);
+        }
+    }
+
+    //previous è null per un libro nuovo, book è null per un libro eliminato
+    private void indexNames(Book previous, Book book) {
+        int id = book != null ? book.getId() : previous.getId();
+        authors.replace(previous == null ? null : previous.getAuthor(), book == null ? null : book.getAuthor(), id);
+        genres.replace(previous == null ? null : previous.getGenre(), book == null ? null : book.getGenre(), id);
+    }
+
+    private void invalidateSorted() {
+        for (int i = 0; i < sorted.length(); i++) {
+            sorted.set(i, null);
+        }
+    }
+
+    //le letture tengono il lock in lettura: due letture possono costruire lo stesso array, il risultato è identico
+    private Book[] sorted(SortCriteria criteria) {
+        SortCriteria sort = criteria == null ? SortCriteria.NONE : criteria;
+        Book[] view = sorted.get(sort.ordinal());
+        if (view == null) {
+            view = books.values();
+            Arrays.sort(view, sort.comparator());
+            sorted.set(sort.ordinal(), view);
+        }
+        return view;
+    }
+
+    private void insert(Book book) {
+        book.setId(++lastId);
+        index(book);
+        indexNames(null, book);
+    }
+
+    private void replace(Book book) {
+        Book previous = books.get(book.getId());
+        if (previous != null) {
+            unindex(previous);
+            index(book);
+            indexNames(previous, book);
+        }
+    }
+
+    private void remove(Book book) {
+        Book previous = books.remove(book.getId());
+        if (previous != null) {
+            unindex(previous);
+            indexNames(previous, null);
+        }
+    }
+
+    @Override
+    public boolean save(Book book) {
+        lock.writeLock().lock();
+        try {
+            insert(book);
+            invalidateSorted();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean saveAll(Collection<Book> books) {
+        lock.writeLock().lock();
+        try {
+            books.forEach(this::insert);
+            invalidateSorted();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean update(Book book) {
+        lock.writeLock().lock();
+        try {
+            replace(book);
+            invalidateSorted();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean updateAll(Collection<Book> books) {
+        lock.writeLock().lock();
+        try {
+            books.forEach(this::replace);
+            invalidateSorted();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(Book book) {
+        lock.writeLock().lock();
+        try {
+            remove(book);
+            invalidateSorted();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteAll(Collection<Book> books) {
+        lock.writeLock().lock();
+        try {
+            books.forEach(this::remove);
+            invalidateSorted();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> loadAll(SortCriteria criteria) {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(Arrays.asList(sorted(criteria)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //scorre l'array ordinato e tiene i libri presenti nella bitmap
+    private List<Book> filter(BitSet ids, SortCriteria criteria) {
+        List<Book> result = new ArrayList<>();
+        if (ids == null || ids.isEmpty()) {
+            return result;
+        }
+        for (Book book : sorted(criteria)) {
+            if (ids.get(book.getId())) {
+                result.add(book);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Book> findByRating(int rating, SortCriteria criteria) {
+        lock.readLock().lock();
+        try {
+            return filter(rating >= 0 && rating <= MAX_RATING ? byRating[rating] : null, criteria);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> findByReadingState(String readingState, SortCriteria criteria) {
+        lock.readLock().lock();
+        try {
+            return filter(byReadingState.get(stateKey(readingState.trim())), criteria);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> findByTitle(String title, SortCriteria criteria) {
+        lock.readLock().lock();
+        try {
+            List<Book> result = new ArrayList<>();
+            for (Book book : sorted(criteria)) {
+                if (SqlLike.contains(book.getTitle(), title)) {
+                    result.add(book);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> findByAuthor(String author, SortCriteria criteria) {
+        lock.readLock().lock();
+        try {
+            List<Book> result = new ArrayList<>();
+            for (Book book : sorted(criteria)) {
+                if (SqlLike.contains(book.getAuthor(), author)) {
+                    result.add(book);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Author> listAuthors() {
+        lock.readLock().lock();
+        try {
+            return authors.list(Author::new);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Genre> listGenres() {
+        lock.readLock().lock();
+        try {
+            return genres.list(Genre::new);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> findByAuthorId(int authorId, SortCriteria criteria) {
+        lock.readLock().lock();
+        try {
+            return filter(authors.books(authorId), criteria);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Le uguaglianze su valutazione e stato di lettura restringono i candidati con le bitmap,
+     * le altre condizioni vengono valutate solo sui libri rimasti.
+     */
+    @Override
+    public List<Book> find(BookQuery query) {
+        lock.readLock().lock();
+        try {
+            BitSet candidates = null;
+            for (BookQuery.Predicate predicate : query.getPredicates()) {
+                if (predicate.operator() != BookQuery.Operator.EQUALS) {
+                    continue;
+                }
+                BitSet ids;
+                if (predicate.field() == BookQuery.Field.RATING) {
+                    int rating = (Integer) predicate.values().get(0);
+                    ids = rating >= 0 && rating <= MAX_RATING ? byRating[rating] : null;
+                } else if (predicate.field() == BookQuery.Field.READING_STATE) {
+                    ids = byReadingState.get(stateKey((String) predicate.values().get(0)));
+                } else {
+                    continue;
+                }
+                if (ids == null) {
+                    return new ArrayList<>();
+                }
+                if (candidates == null) {
+                    candidates = (BitSet) ids.clone();
+                } else {
+                    candidates.and(ids);
+                }
+            }
+            List<Book> result = new ArrayList<>();
+            if (candidates != null && candidates.isEmpty()) {
+                return result;
+            }
+            for (Book book : sorted(query.getSort())) {
+                if (query.hasLimit() && result.size() == query.getLimit()) {
+                    break;
+                }
+                if ((candidates == null || candidates.get(book.getId())) && query.matches(book)) {
+                    result.add(book);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * I conteggi per stato e valutazione sono la cardinalità delle bitmap, quelli per genere sono mantenuti a ogni scrittura.
+     */
+    @Override
+    public BookCounts countBooks() {
+        lock.readLock().lock();
+        try {
+            BookCounts.Builder counts = new BookCounts.Builder().total(books.size());
+            byReadingState.forEach((state, ids) -> counts.readingState(state, ids.cardinality()));
+            for (int rating = 0; rating <= MAX_RATING; rating++) {
+                counts.rating(rating, byRating[rating].cardinality());
+            }
+            genreCounts.forEach(counts::genre);
+            return counts.build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Legge la pagina dall'array ordinato: la posizione del cursore si trova con una ricerca binaria.
+     */
+    @Override
+    public Page loadPage(SortCriteria criteria, PageCursor cursor, int limit) {
+        SortCriteria sort = criteria == null ? SortCriteria.NONE : criteria;
+        PageCursor.checkArguments(sort, cursor, limit);
+        lock.readLock().lock();
+        try {
+            Book[] view = sorted(sort);
+            int low = 0;
+            int high = view.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (cursor.precedes(view[middle])) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            int end = Math.min(view.length, low + limit + 1);
+            return Page.of(new ArrayList<>(Arrays.asList(view).subList(low, end)), limit, sort);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return il numero di libri presenti
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return books.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
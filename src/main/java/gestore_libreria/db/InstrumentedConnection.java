@@ -0,0 +1,252 @@
+package gestore_libreria.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Avvolge una {@link Connection} in un proxy che misura ogni esecuzione e la registra in {@link QueryStatistics}.
+ * Anche gli statement e i ResultSet ottenuti dalla connessione sono proxy: le query vengono registrate quando il
+ * ResultSet arriva in fondo o viene chiuso, con il numero di righe lette; gli aggiornamenti e i batch alla fine
+ * dell'esecuzione, con il numero di righe modificate.
+ *
+ * {@code unwrap} e {@code isWrapperFor} raggiungono la connessione del driver, quindi il codice che usa le API
+ * specifiche di SQLite (backup, funzioni SQL) continua a funzionare sulle connessioni misurate.
+ */
+final class InstrumentedConnection {
+
+    private InstrumentedConnection() {
+    }
+
+    /**
+     * @param connection la connessione del driver
+     * @param statistics dove registrare le esecuzioni
+     * @return un proxy della connessione; va conservato, perché ogni chiamata crea un proxy diverso
+     */
+    static Connection wrap(Connection connection, QueryStatistics statistics) {
+        return proxy(Connection.class, new ConnectionHandler(connection, statistics));
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        T proxy = type.cast(Proxy.newProxyInstance(InstrumentedConnection.class.getClassLoader(), new Class<?>[]{type}, handler));
+        handler.proxy = proxy;
+        return proxy;
+    }
+
+    //parte comune dei proxy: identità, unwrap e inoltro delle chiamate all'oggetto del driver
+    private abstract static class Handler implements InvocationHandler {
+
+        final Object delegate;
+        Object proxy;
+
+        Handler(Object delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "unwrap":
+                    return ((Class<?>) args[0]).isInstance(proxy) ? proxy : forward(method, args);
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy) || (Boolean) forward(method, args);
+                default:
+                    return handle(method, args);
+            }
+        }
+
+        abstract Object handle(Method method, Object[] args) throws Throwable;
+
+        final Object forward(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(delegate, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static final class ConnectionHandler extends Handler {
+
+        private final QueryStatistics statistics;
+
+        ConnectionHandler(Connection connection, QueryStatistics statistics) {
+            super(connection);
+            this.statistics = statistics;
+        }
+
+        @Override
+        Object handle(Method method, Object[] args) throws Throwable {
+            Object result = forward(method, args);
+            return switch (method.getName()) {
+                case "prepareStatement" -> proxy(PreparedStatement.class,
+                        new StatementHandler(result, (Connection) proxy, statistics, QueryStatistics.shape((String) args[0])));
+                case "createStatement" -> proxy(Statement.class,
+                        new StatementHandler(result, (Connection) proxy, statistics, null));
+                default -> result;
+            };
+        }
+    }
+
+    //statement e statement preparati: per questi ultimi la forma viene calcolata una sola volta
+    private static final class StatementHandler extends Handler {
+
+        private final Connection connection;
+        private final QueryStatistics statistics;
+        private final String shape;
+        private String batchShape;
+
+        StatementHandler(Object statement, Connection connection, QueryStatistics statistics, String shape) {
+            super(statement);
+            this.connection = connection;
+            this.statistics = statistics;
+            this.shape = shape;
+        }
+
+        @Override
+        Object handle(Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "executeQuery": {
+                    String sql = shapeOf(args);
+                    long start = System.nanoTime();
+                    try {
+                        ResultSet resultSet = (ResultSet) forward(method, args);
+                        return proxy(ResultSet.class, new ResultSetHandler(resultSet, statistics, sql, System.nanoTime() - start));
+                    } catch (Throwable e) {
+                        statistics.record(sql, System.nanoTime() - start, 0, true);
+                        throw e;
+                    }
+                }
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                case "execute": {
+                    String sql = shapeOf(args);
+                    long start = System.nanoTime();
+                    try {
+                        Object result = forward(method, args);
+                        long elapsed = System.nanoTime() - start;
+                        long rows = result instanceof Boolean hasResultSet
+                                ? (hasResultSet ? 0 : Math.max(0, ((Statement) delegate).getUpdateCount()))
+                                : ((Number) result).longValue();
+                        statistics.record(sql, elapsed, rows, false);
+                        return result;
+                    } catch (Throwable e) {
+                        statistics.record(sql, System.nanoTime() - start, 0, true);
+                        throw e;
+                    }
+                }
+                case "executeBatch":
+                case "executeLargeBatch": {
+                    String sql = shape != null ? shape : batchShape;
+                    batchShape = null;
+                    long start = System.nanoTime();
+                    try {
+                        Object result = forward(method, args);
+                        statistics.record(sql, System.nanoTime() - start, updatedRows(result), false);
+                        return result;
+                    } catch (Throwable e) {
+                        statistics.record(sql, System.nanoTime() - start, 0, true);
+                        throw e;
+                    }
+                }
+                case "addBatch":
+                    //su uno Statement semplice il batch prende la forma della prima istruzione aggiunta
+                    if (args != null && args.length == 1 && batchShape == null) {
+                        batchShape = QueryStatistics.shape((String) args[0]);
+                    }
+                    return forward(method, args);
+                case "clearBatch":
+                    batchShape = null;
+                    return forward(method, args);
+                case "getConnection":
+                    return connection;
+                default:
+                    return forward(method, args);
+            }
+        }
+
+        private String shapeOf(Object[] args) {
+            return args != null && args.length > 0 && args[0] instanceof String sql ? QueryStatistics.shape(sql) : shape;
+        }
+
+        private static long updatedRows(Object counts) {
+            long rows = 0;
+            if (counts instanceof int[] ints) {
+                for (int count : ints) {
+                    rows += Math.max(0, count);
+                }
+            } else if (counts instanceof long[] longs) {
+                for (long count : longs) {
+                    rows += Math.max(0, count);
+                }
+            }
+            return rows;
+        }
+    }
+
+    //conta le righe e somma il tempo passato in next(); registra una sola volta, in fondo o alla chiusura
+    private static final class ResultSetHandler extends Handler {
+
+        private final QueryStatistics statistics;
+        private final String shape;
+        private long nanos;
+        private long rows;
+        private boolean recorded;
+
+        ResultSetHandler(ResultSet resultSet, QueryStatistics statistics, String shape, long executeNanos) {
+            super(resultSet);
+            this.statistics = statistics;
+            this.shape = shape;
+            this.nanos = executeNanos;
+        }
+
+        @Override
+        Object handle(Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "next": {
+                    long start = System.nanoTime();
+                    boolean hasRow;
+                    try {
+                        hasRow = (Boolean) forward(method, args);
+                    } catch (Throwable e) {
+                        nanos += System.nanoTime() - start;
+                        finish(e instanceof SQLException);
+                        throw e;
+                    }
+                    nanos += System.nanoTime() - start;
+                    if (hasRow) {
+                        rows++;
+                    } else {
+                        finish(false);
+                    }
+                    return hasRow;
+                }
+                case "close":
+                    try {
+                        return forward(method, args);
+                    } finally {
+                        finish(false);
+                    }
+                default:
+                    return forward(method, args);
+            }
+        }
+
+        private void finish(boolean failed) {
+            if (!recorded) {
+                recorded = true;
+                statistics.record(shape, nanos, rows, failed);
+            }
+        }
+    }
+}
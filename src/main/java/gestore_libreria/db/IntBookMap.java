@@ -0,0 +1,139 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+
+/**
+ * Mappa id → libro a indirizzamento aperto con chiavi {@code int} primitive: nessun {@link Integer} viene creato
+ * per inserire o cercare un libro. Usa la scansione lineare e, alla rimozione, sposta indietro gli elementi
+ * successivi invece di lasciare marcatori di cancellazione.
+ * Non è sincronizzata.
+ */
+final class IntBookMap {
+
+    private static final int FREE = 0;      //gli id validi sono positivi, 0 indica una cella libera
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private Book[] values;
+    private int mask;
+    private int size;
+
+    IntBookMap() {
+        this(16);
+    }
+
+    IntBookMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        keys = new int[capacity];
+        values = new Book[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(int id) {
+        int hash = id * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    Book get(int id) {
+        for (int i = slot(id); keys[i] != FREE; i = (i + 1) & mask) {
+            if (keys[i] == id) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    boolean containsKey(int id) {
+        return get(id) != null;
+    }
+
+    /**
+     * @pre id deve essere positivo e book non null
+     * @return il libro sostituito, null se l'id non era presente
+     */
+    Book put(int id, Book book) {
+        if (id <= 0) {
+            throw new IllegalArgumentException("L'id deve essere positivo: " + id);
+        }
+        int i = slot(id);
+        for (; keys[i] != FREE; i = (i + 1) & mask) {
+            if (keys[i] == id) {
+                Book previous = values[i];
+                values[i] = book;
+                return previous;
+            }
+        }
+        keys[i] = id;
+        values[i] = book;
+        if (++size > keys.length * LOAD_FACTOR) {
+            resize(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return il libro rimosso, null se l'id non era presente
+     */
+    Book remove(int id) {
+        int i = slot(id);
+        for (; keys[i] != FREE; i = (i + 1) & mask) {
+            if (keys[i] == id) {
+                Book removed = values[i];
+                shiftBack(i);
+                size--;
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    //riempie il buco in posizione gap con gli elementi successivi che altrimenti non sarebbero più raggiungibili
+    private void shiftBack(int gap) {
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            if (keys[i] == FREE) {
+                break;
+            }
+            int home = slot(keys[i]);
+            //l'elemento può occupare il buco solo se la sua posizione naturale non sta tra il buco e la posizione attuale
+            boolean between = gap <= i ? (gap < home && home <= i) : (gap < home || home <= i);
+            if (!between) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        keys[gap] = FREE;
+        values[gap] = null;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Book[] oldValues = values;
+        keys = new int[capacity];
+        values = new Book[capacity];
+        mask = capacity - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    Book[] values() {
+        Book[] result = new Book[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) {
+                result[n++] = values[i];
+            }
+        }
+        return result;
+    }
+}
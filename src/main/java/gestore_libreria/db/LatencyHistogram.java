@@ -0,0 +1,65 @@
+package gestore_libreria.db;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Istogramma delle latenze in nanosecondi con bucket logaritmici: ogni potenza di due è divisa in 8 bucket,
+ * quindi un percentile è stimato con un errore relativo inferiore al 12.5% qualunque sia l'ordine di grandezza.
+ * La memoria è fissa (488 contatori) e la registrazione non usa lock, così può essere chiamata da più thread.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    //l'indice del valore più grande rappresentabile (Long.MAX_VALUE) più uno
+    private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    void record(long nanos) {
+        counts.incrementAndGet(index(Math.max(0, nanos)));
+    }
+
+    /**
+     * @param percentile il percentile richiesto, tra 0 e 1
+     * @param max il valore massimo registrato, per non stimare oltre
+     * @return il limite superiore del bucket che contiene il percentile, 0 se l'istogramma è vuoto
+     */
+    long percentile(double percentile, long max) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    //i valori sotto 16 hanno un bucket ciascuno; oltre, l'esponente sceglie il gruppo e i 3 bit successivi il bucket
+    static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa - SUB_BUCKETS;
+    }
+
+    static long upperBound(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
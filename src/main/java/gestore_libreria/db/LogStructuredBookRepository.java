@@ -0,0 +1,1098 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Author;
+import gestore_libreria.model.Book;
+import gestore_libreria.model.Genre;
+import gestore_libreria.model.SortCriteria;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * Motore di memorizzazione a log: ogni modifica viene aggiunta in coda a un file di segmento mappato in memoria,
+ * senza mai riscrivere i dati già presenti. È pensato per i carichi con molte scritture, come la catalogazione
+ * di grandi quantità di libri, dove evita il costo di B-tree e indici di SQLite.
+ *
+ * Formato di un record: lunghezza del contenuto (int), CRC32C del contenuto (int), contenuto. Il contenuto inizia
+ * con il tipo: {@code PUT} (libro completo), {@code DELETE} (id), {@code BATCH} (numero di record che seguono e che
+ * vanno applicati tutti o nessuno) e {@code COMPACTED} (intestazione di un segmento prodotto dalla compattazione).
+ * Un batch è sempre contenuto per intero in un solo segmento.
+ *
+ * In memoria restano solo l'indice id → posizione dell'ultimo record del libro e gli id dei libri di ogni autore
+ * e genere ({@link NameIndex}), che danno {@link #listAuthors()}, {@link #listGenres()} e {@link #findByAuthorId}:
+ * gli id di autori e generi sono stabili finché il repository resta aperto. All'apertura i segmenti vengono
+ * riletti in ordine; la lettura di un segmento si ferma al primo record incompleto o con CRC errato,
+ * che indica una scrittura interrotta, e un batch incompleto viene scartato per intero.
+ * Quando i record superati superano la soglia configurata, un thread in background riscrive i soli record vivi
+ * dei segmenti chiusi in un nuovo segmento.
+ *
+ * Le letture decodificano i libri dai segmenti e li ordinano in memoria: per letture frequenti si può
+ * avvolgere il repository in un {@link CachingBookRepository}.
+ * Si costruisce tramite {@link Builder}.
+ */
+public class LogStructuredBookRepository implements BookRepositoryImplementor, AutoCloseable {
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte BATCH = 3;
+    private static final byte COMPACTED = 4;
+
+    private static final int HEADER_SIZE = 8;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d{8})-(\\d{4})\\.log");
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean syncOnWrite;
+    private final double compactionThreshold;
+
+    //segmenti aperti ordinati per numero; l'ultimo è quello attivo, in cui si scrive
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<Integer, Long> locations = new HashMap<>();
+    private final NameIndex authors = new NameIndex();
+    private final NameIndex genres = new NameIndex();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private final ExecutorService compactor;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    private int lastId;
+    private long garbageBytes;
+    private long compactionCount;
+    private volatile boolean closed;
+
+    //un file di segmento mappato in memoria
+    private static final class Segment {
+        final int number;
+        final int generation;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int writePosition;
+
+        Segment(int number, int generation, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.number = number;
+            this.generation = generation;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        int capacity() {
+            return buffer.capacity();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Errore nella chiusura del segmento " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    //un record letto durante la riapertura
+    private record Entry(byte type, int id, int size, int offset) {
+    }
+
+    private LogStructuredBookRepository(Builder builder) throws IOException {
+        this.directory = builder.directory;
+        this.segmentSize = builder.segmentSize;
+        this.syncOnWrite = builder.syncOnWrite;
+        this.compactionThreshold = builder.compactionThreshold;
+        this.compactor = builder.backgroundCompaction ? Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "log-compactor-" + directory.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    private static String segmentName(int number, int generation) {
+        return String.format("segment-%08d-%04d.log", number, generation);
+    }
+
+    private static long location(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segmentOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    // ---------------------------------------------------------------- riapertura
+
+    private Segment openSegment(Path path, int number, int generation, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = capacity > 0 ? Math.max(capacity, channel.size()) : channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new Segment(number, generation, path, channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Ricostruisce l'indice rileggendo tutti i segmenti.
+     * Un segmento prodotto dalla compattazione sostituisce quelli che dichiara di coprire: se la compattazione
+     * era stata interrotta prima di cancellarli, vengono cancellati ora.
+     */
+    private void recover() throws IOException {
+        TreeMap<Integer, TreeMap<Integer, Path>> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*")) {
+            for (Path path : stream) {
+                Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    files.computeIfAbsent(Integer.parseInt(matcher.group(1)), number -> new TreeMap<>())
+                            .put(Integer.parseInt(matcher.group(2)), path);
+                } else if (path.getFileName().toString().endsWith(".tmp")) {
+                    Files.deleteIfExists(path);     //compattazione interrotta prima di essere completata
+                }
+            }
+        }
+
+        for (Map.Entry<Integer, TreeMap<Integer, Path>> numbered : files.entrySet()) {
+            //a parità di numero vale la generazione più recente, che è il risultato di una compattazione
+            Map.Entry<Integer, Path> newest = numbered.getValue().lastEntry();
+            Segment segment = openSegment(newest.getValue(), numbered.getKey(), newest.getKey(), 0);
+            segments.put(segment.number, segment);
+            for (Path older : numbered.getValue().headMap(newest.getKey()).values()) {
+                deleteQuietly(older);
+            }
+        }
+
+        //i segmenti coperti da una compattazione vanno ignorati
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (!segments.containsKey(segment.number)) {
+                continue;
+            }
+            int[] covered = readCompactionHeader(segment);
+            if (covered != null) {
+                for (Segment old : new ArrayList<>(segments.subMap(covered[0], true, segment.number, false).values())) {
+                    segments.remove(old.number);
+                    old.close();
+                    deleteQuietly(old.path);
+                }
+            }
+        }
+
+        for (Segment segment : segments.values()) {
+            replay(segment, segment == segments.lastEntry().getValue());
+        }
+        if (segments.isEmpty()) {
+            roll(0);
+        }
+    }
+
+    //restituisce {primo, ultimo} segmento coperto, oppure null se il segmento non è il risultato di una compattazione
+    private int[] readCompactionHeader(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        if (buffer.capacity() < HEADER_SIZE + 13) {
+            return null;
+        }
+        int length = buffer.getInt(0);
+        if (length != 13 || buffer.get(HEADER_SIZE) != COMPACTED || !checksumMatches(buffer, 0, length)) {
+            return null;
+        }
+        return new int[]{buffer.getInt(HEADER_SIZE + 1), buffer.getInt(HEADER_SIZE + 5)};
+    }
+
+    private static boolean checksumMatches(ByteBuffer buffer, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset + HEADER_SIZE, length));
+        return (int) crc.getValue() == buffer.getInt(offset + 4);
+    }
+
+    /**
+     * Applica all'indice i record del segmento fino al primo record non valido.
+     * Se il segmento è quello attivo, lo spazio dopo l'ultimo record valido viene azzerato
+     * in modo che i resti di una scrittura interrotta non vengano scambiati per record validi.
+     */
+    private void replay(Segment segment, boolean active) {
+        ByteBuffer buffer = segment.buffer;
+        int position = 0;
+        List<Entry> batch = null;
+        int batchSize = 0;
+        int batchStart = 0;
+        while (position + HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_SIZE + length > buffer.capacity()
+                    || !checksumMatches(buffer, position, length)) {
+                break;
+            }
+            byte type = buffer.get(position + HEADER_SIZE);
+            Entry entry = new Entry(type, type == PUT || type == DELETE ? buffer.getInt(position + HEADER_SIZE + 1) : 0,
+                    HEADER_SIZE + length, position);
+            if (type == BATCH) {
+                if (batch != null) {
+                    break;          //un batch non può iniziare prima della fine del precedente
+                }
+                batch = new ArrayList<>();
+                batchSize = buffer.getInt(position + HEADER_SIZE + 1);
+                batchStart = position;
+            } else if (type == COMPACTED) {
+                lastId = Math.max(lastId, buffer.getInt(position + HEADER_SIZE + 9));
+            } else if (batch != null) {
+                batch.add(entry);
+                if (batch.size() == batchSize) {
+                    batch.forEach(pending -> apply(segment.number, pending));
+                    batch = null;
+                }
+            } else {
+                apply(segment.number, entry);
+            }
+            position += entry.size();
+        }
+        if (batch != null) {
+            position = batchStart;      //batch interrotto: nessuno dei suoi record viene applicato
+        }
+        segment.writePosition = position;
+        if (active && position < buffer.capacity() && buffer.getInt(position) != 0) {
+            System.err.println("Log " + segment.path.getFileName() + ": scartati i dati non validi dalla posizione " + position);
+            for (int i = position; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+            segment.buffer.force();
+        }
+    }
+
+    private void apply(int segment, Entry entry) {
+        lastId = Math.max(lastId, entry.id());
+        Long previous;
+        Long location = null;
+        if (entry.type() == PUT) {
+            location = location(segment, entry.offset());
+            previous = locations.put(entry.id(), location);
+        } else {
+            previous = locations.remove(entry.id());
+            garbageBytes += entry.size();
+        }
+        indexNames(entry.id(), previous, location);
+        if (previous != null) {
+            garbageBytes += recordSize(previous);
+        }
+    }
+
+    // ---------------------------------------------------------------- codifica
+
+    private static int stringSize(String value) {
+        return 4 + (value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encodePut(Book book) {
+        int size = 1 + 4 + 4 + stringSize(book.getTitle()) + stringSize(book.getAuthor()) + stringSize(book.getIsbn())
+                + stringSize(book.getGenre()) + stringSize(book.getReadingState()) + stringSize(book.getCoverPath());
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(PUT).putInt(book.getId()).putInt(book.getRating());
+        putString(buffer, book.getTitle());
+        putString(buffer, book.getAuthor());
+        putString(buffer, book.getIsbn());
+        putString(buffer, book.getGenre());
+        putString(buffer, book.getReadingState());
+        putString(buffer, book.getCoverPath());
+        return buffer.array();
+    }
+
+    private static byte[] encodeInts(byte type, int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 * values.length);
+        buffer.put(type);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+
+    //legge il libro del record PUT nella posizione indicata; va chiamato con il lock in lettura
+    private Book decode(long location) {
+        ByteBuffer buffer = segments.get(segmentOf(location)).buffer.duplicate();
+        buffer.position(offsetOf(location) + HEADER_SIZE + 1);
+        int id = buffer.getInt();
+        int rating = buffer.getInt();
+        String title = getString(buffer);
+        String author = getString(buffer);
+        Book.Builder builder = new Book.Builder(title, author)
+                .id(id)
+                .rating(rating)
+                .isbn(getString(buffer))
+                .genre(getString(buffer));
+        String readingState = getString(buffer);
+        if (readingState != null) {
+            builder.readingState(readingState);
+        }
+        return builder.coverPath(getString(buffer)).build();
+    }
+
+    /**
+     * Aggiorna autori e generi del libro che passa da un record all'altro; va chiamato con il lock in scrittura.
+     *
+     * @param previous la posizione del record precedente, null se il libro non esisteva
+     * @param location la posizione del nuovo record, null se il libro è stato eliminato
+     */
+    private void indexNames(int id, Long previous, Long location) {
+        Book before = previous == null ? null : decode(previous);
+        Book after = location == null ? null : decode(location);
+        authors.replace(before == null ? null : before.getAuthor(), after == null ? null : after.getAuthor(), id);
+        genres.replace(before == null ? null : before.getGenre(), after == null ? null : after.getGenre(), id);
+    }
+
+    //va chiamato con il lock in lettura
+    private int recordSize(long location) {
+        return recordSize(segments, location);
+    }
+
+    private static int recordSize(Map<Integer, Segment> segments, long location) {
+        return HEADER_SIZE + segments.get(segmentOf(location)).buffer.getInt(offsetOf(location));
+    }
+
+    // ---------------------------------------------------------------- scrittura
+
+    //crea un nuovo segmento attivo; va chiamato con il lock in scrittura
+    private Segment roll(int minimumCapacity) throws IOException {
+        if (!segments.isEmpty()) {
+            segments.lastEntry().getValue().buffer.force();
+        }
+        int number = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        Segment segment = openSegment(directory.resolve(segmentName(number, 0)), number, 0,
+                Math.max(segmentSize, minimumCapacity));
+        segments.put(number, segment);
+        return segment;
+    }
+
+    //aggiunge un record in coda al segmento attivo e ne restituisce la posizione; va chiamato con il lock in scrittura
+    private long append(byte[] payload) throws IOException {
+        int size = HEADER_SIZE + payload.length;
+        Segment active = segments.lastEntry().getValue();
+        if (active.writePosition + size > active.capacity()) {
+            active = roll(size);
+        }
+        int offset = active.writePosition;
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        //la lunghezza viene scritta per ultima: finché manca il record non esiste
+        active.buffer.put(offset + HEADER_SIZE, payload);
+        active.buffer.putInt(offset + 4, (int) crc.getValue());
+        active.buffer.putInt(offset, payload.length);
+        active.writePosition += size;
+        return location(active.number, offset);
+    }
+
+    //scrive il record PUT già codificato e aggiorna l'indice
+    private void put(byte[] payload) throws IOException {
+        int id = ByteBuffer.wrap(payload).getInt(1);
+        long location = append(payload);
+        lastId = Math.max(lastId, id);
+        Long previous = locations.put(id, location);
+        indexNames(id, previous, location);
+        if (previous != null) {
+            garbageBytes += recordSize(previous);
+        }
+    }
+
+    private void remove(int id) throws IOException {
+        Long previous = locations.get(id);
+        if (previous == null) {
+            return;
+        }
+        byte[] payload = encodeInts(DELETE, id);
+        append(payload);
+        locations.remove(id);
+        indexNames(id, previous, null);
+        garbageBytes += recordSize(previous) + HEADER_SIZE + payload.length;
+    }
+
+    private void beginBatch(int count) throws IOException {
+        if (count > 1) {
+            append(encodeInts(BATCH, count));
+        }
+    }
+
+    /**
+     * Scrive un batch: prima i record PUT già codificati, poi le eliminazioni. Il batch viene scritto tutto nello stesso
+     * segmento, così la riapertura lo legge per intero: se non entra nello spazio rimasto, si apre prima un segmento
+     * abbastanza grande da contenerlo. Se la scrittura fallisce a metà, l'indice torna com'era e i record
+     * già aggiunti vengono azzerati, così il log su disco e l'indice in memoria restano d'accordo e le scritture
+     * successive non finiscono dentro il batch incompleto. Va chiamato con il lock in scrittura.
+     *
+     * @param ids gli id dei libri che il batch può modificare
+     * @param puts i record PUT da scrivere
+     * @param deletes gli id dei libri da eliminare, tutti presenti
+     * @throws IOException l'errore della scrittura, dopo aver annullato il batch
+     */
+    private void writeBatch(Collection<Integer> ids, List<byte[]> puts, List<Integer> deletes) throws IOException {
+        int count = puts.size() + deletes.size();
+        //i record BATCH e DELETE contengono il tipo e un int
+        int size = (count > 1 ? HEADER_SIZE + 5 : 0) + deletes.size() * (HEADER_SIZE + 5);
+        for (byte[] payload : puts) {
+            size += HEADER_SIZE + payload.length;
+        }
+        Map<Integer, Long> previous = new HashMap<>();
+        for (int id : ids) {
+            previous.put(id, locations.get(id));
+        }
+        int previousLastId = lastId;
+        long previousGarbage = garbageBytes;
+        Segment active = segments.lastEntry().getValue();
+        int start = active.writePosition;
+        try {
+            if (active.writePosition + size > active.capacity()) {
+                roll(size);
+            }
+            beginBatch(count);
+            for (byte[] payload : puts) {
+                put(payload);
+            }
+            for (int id : deletes) {
+                remove(id);
+            }
+            afterWrite();
+        } catch (IOException | RuntimeException e) {
+            previous.forEach((id, location) -> {
+                //i nomi tornano indietro prima di azzerare i record del batch, che servono per leggerli
+                indexNames(id, locations.get(id), location);
+                if (location == null) {
+                    locations.remove(id);
+                } else {
+                    locations.put(id, location);
+                }
+            });
+            lastId = previousLastId;
+            garbageBytes = previousGarbage;
+            discardFrom(active, start);
+            throw e;
+        }
+    }
+
+    //cancella i record scritti dalla posizione indicata in poi, compresi i segmenti aperti nel frattempo
+    private void discardFrom(Segment active, int start) {
+        for (Segment rolled : new ArrayList<>(segments.tailMap(active.number, false).values())) {
+            segments.remove(rolled.number);
+            zero(rolled, 0, rolled.writePosition);
+            rolled.close();
+            deleteQuietly(rolled.path);
+        }
+        zero(active, start, active.writePosition);
+        active.writePosition = start;
+    }
+
+    private static void zero(Segment segment, int from, int to) {
+        for (int i = from; i < to; i++) {
+            segment.buffer.put(i, (byte) 0);
+        }
+        segment.buffer.force();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Il repository è stato chiuso");
+        }
+    }
+
+    //conclude una scrittura: rende persistente il segmento attivo se richiesto e valuta la compattazione
+    private void afterWrite() {
+        if (syncOnWrite) {
+            segments.lastEntry().getValue().buffer.force();
+        }
+        if (compactor != null && needsCompaction() && compactionScheduled.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    System.err.println("Errore nella compattazione del log: " + e.getMessage());
+                } finally {
+                    compactionScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    private boolean needsCompaction() {
+        if (segments.size() < 2) {
+            return false;
+        }
+        long total = 0;
+        for (Segment segment : segments.values()) {
+            total += segment.writePosition;
+        }
+        return total > 0 && garbageBytes > total * compactionThreshold;
+    }
+
+    @Override
+    public boolean save(Book book) {
+        return saveAll(List.of(book));
+    }
+
+    /**
+     * Aggiunge i libri al log. Più libri vengono scritti come un unico batch: dopo un crash sono presenti tutti o nessuno.
+     */
+    @Override
+    public boolean saveAll(Collection<Book> books) {
+        if (books.isEmpty()) {
+            return true;
+        }
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            int id = lastId;
+            //il libro riceve l'id solo dopo che tutti i record sono stati scritti; gli id non vengono riutilizzati
+            List<byte[]> puts = encodeInserts(books);
+            writeBatch(newIds(books.size()), puts, List.of());
+            for (Book book : books) {
+                book.setId(++id);
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Errore nel salvataggio dei libri nel log: " + e.getMessage());
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //gli id che riceveranno i prossimi libri inseriti
+    private List<Integer> newIds(int count) {
+        List<Integer> ids = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            ids.add(lastId + i);
+        }
+        return ids;
+    }
+
+    //codifica i record PUT dei libri da inserire, con gli id che riceveranno
+    private List<byte[]> encodeInserts(Collection<Book> books) {
+        List<byte[]> puts = new ArrayList<>(books.size());
+        int id = lastId;
+        for (Book book : books) {
+            puts.add(encodePut(copyWithId(book, ++id)));
+        }
+        return puts;
+    }
+
+    private static Book copyWithId(Book book, int id) {
+        return new Book.Builder(book.getTitle(), book.getAuthor())
+                .id(id)
+                .isbn(book.getIsbn())
+                .genre(book.getGenre())
+                .rating(book.getRating())
+                .readingState(book.getReadingState())
+                .coverPath(book.getCoverPath())
+                .build();
+    }
+
+    @Override
+    public boolean update(Book book) {
+        return updateAll(List.of(book));
+    }
+
+    /**
+     * Aggiorna i libri esistenti; quelli con un id non presente vengono ignorati, come farebbe un UPDATE SQL.
+     */
+    @Override
+    public boolean updateAll(Collection<Book> books) {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            List<byte[]> puts = new ArrayList<>();
+            List<Integer> ids = new ArrayList<>();
+            for (Book book : books) {
+                if (locations.containsKey(book.getId())) {
+                    puts.add(encodePut(book));
+                    ids.add(book.getId());
+                }
+            }
+            if (puts.isEmpty()) {
+                return true;
+            }
+            writeBatch(ids, puts, List.of());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Errore nell'aggiornamento dei libri nel log: " + e.getMessage());
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(Book book) {
+        return deleteAll(List.of(book));
+    }
+
+    @Override
+    public boolean deleteAll(Collection<Book> books) {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            List<Integer> existing = new ArrayList<>();
+            for (Book book : books) {
+                if (locations.containsKey(book.getId()) && !existing.contains(book.getId())) {
+                    existing.add(book.getId());
+                }
+            }
+            if (existing.isEmpty()) {
+                return true;
+            }
+            writeBatch(existing, List.of(), existing);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Errore nell'eliminazione dei libri dal log: " + e.getMessage());
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Scrive inserimenti, aggiornamenti ed eliminazioni come un unico batch: dopo un crash sono presenti tutti o nessuno.
+     */
+    @Override
+    public boolean applyChanges(Collection<Book> inserts, Collection<Book> updates, Collection<Book> deletes) {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            List<byte[]> puts = encodeInserts(inserts);
+            List<Integer> ids = newIds(inserts.size());
+            for (Book book : updates) {
+                if (locations.containsKey(book.getId())) {
+                    puts.add(encodePut(book));
+                    ids.add(book.getId());
+                }
+            }
+            List<Integer> existingDeletes = new ArrayList<>();
+            for (Book book : deletes) {
+                if (locations.containsKey(book.getId()) && !existingDeletes.contains(book.getId())) {
+                    existingDeletes.add(book.getId());
+                }
+            }
+            if (puts.isEmpty() && existingDeletes.isEmpty()) {
+                return true;
+            }
+            ids.addAll(existingDeletes);
+            int id = lastId;
+            writeBatch(ids, puts, existingDeletes);
+            for (Book book : inserts) {
+                book.setId(++id);
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Errore nell'applicazione delle modifiche al log: " + e.getMessage());
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ---------------------------------------------------------------- lettura
+
+    private List<Book> select(Predicate<Book> filter, SortCriteria criteria) {
+        lock.readLock().lock();
+        try {
+            List<Book> books = new ArrayList<>();
+            for (long location : locations.values()) {
+                Book book = decode(location);
+                if (filter.test(book)) {
+                    books.add(book);
+                }
+            }
+            books.sort((criteria == null ? SortCriteria.NONE : criteria).comparator());
+            return books;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> loadAll(SortCriteria criteria) {
+        return select(book -> true, criteria);
+    }
+
+    @Override
+    public List<Book> findByTitle(String title, SortCriteria criteria) {
+        return select(book -> SqlLike.contains(book.getTitle(), title), criteria);
+    }
+
+    @Override
+    public List<Book> findByRating(int rating, SortCriteria criteria) {
+        return select(book -> book.getRating() == rating, criteria);
+    }
+
+    @Override
+    public List<Book> findByReadingState(String readingState, SortCriteria criteria) {
+        String state = SortCriteria.sqlLower(readingState.trim());
+        return select(book -> SortCriteria.sqlLower(book.getReadingState()).equals(state), criteria);
+    }
+
+    @Override
+    public List<Book> findByAuthor(String author, SortCriteria criteria) {
+        return select(book -> SqlLike.contains(book.getAuthor(), author), criteria);
+    }
+
+    @Override
+    public List<Author> listAuthors() {
+        lock.readLock().lock();
+        try {
+            return authors.list(Author::new);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Genre> listGenres() {
+        lock.readLock().lock();
+        try {
+            return genres.list(Genre::new);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Decodifica solo i libri dell'autore, trovati nell'indice degli autori.
+     */
+    @Override
+    public List<Book> findByAuthorId(int authorId, SortCriteria criteria) {
+        lock.readLock().lock();
+        try {
+            List<Book> books = new ArrayList<>();
+            BitSet ids = authors.books(authorId);
+            if (ids != null) {
+                for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+                    books.add(decode(locations.get(id)));
+                }
+            }
+            books.sort((criteria == null ? SortCriteria.NONE : criteria).comparator());
+            return books;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ---------------------------------------------------------------- compattazione
+
+    /**
+     * Riscrive i record ancora validi di tutti i segmenti chiusi in un unico nuovo segmento e cancella i vecchi.
+     * Le scritture possono proseguire nel segmento attivo durante la copia.
+     * Il nuovo segmento ha il numero dell'ultimo segmento compattato e una generazione maggiore, e inizia con
+     * un record che indica quali segmenti sostituisce: se il processo si interrompe prima che i vecchi file
+     * siano cancellati, la riapertura li ignora.
+     *
+     * @return {@code true} se è stata eseguita una compattazione
+     * @throws IOException se il nuovo segmento non può essere scritto; in quel caso i vecchi segmenti restano validi
+     */
+    public boolean compact() throws IOException {
+        compactionLock.lock();
+        try {
+            List<Segment> sealed;
+            //i segmenti chiusi per numero: la copia legge solo da qui, la mappa dei segmenti cambia con le scritture
+            Map<Integer, Segment> sources = new HashMap<>();
+            Map<Integer, Long> live = new HashMap<>();
+            int maxId;
+            lock.readLock().lock();
+            try {
+                ensureOpen();
+                sealed = new ArrayList<>(segments.headMap(segments.lastKey()).values());
+                if (sealed.isEmpty()) {
+                    return false;
+                }
+                sealed.forEach(segment -> sources.put(segment.number, segment));
+                int last = sealed.get(sealed.size() - 1).number;
+                for (Map.Entry<Integer, Long> entry : locations.entrySet()) {
+                    if (segmentOf(entry.getValue()) <= last) {
+                        live.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                maxId = lastId;
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            //i segmenti chiusi non cambiano più: la copia avviene senza bloccare le scritture
+            Segment target = sealed.get(sealed.size() - 1);
+            byte[] header = encodeInts(COMPACTED, sealed.get(0).number, target.number, maxId);
+            int size = HEADER_SIZE + header.length;
+            for (long location : live.values()) {
+                size += recordSize(sources, location);
+            }
+            Path temporary = directory.resolve(segmentName(target.number, target.generation + 1) + ".tmp");
+            Map<Integer, Long> moved = new HashMap<>();
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                CRC32C crc = new CRC32C();
+                crc.update(header);
+                buffer.putInt(header.length).putInt((int) crc.getValue()).put(header);
+                //copio in ordine di posizione, così l'ordine relativo dei record resta quello originale
+                List<Map.Entry<Integer, Long>> ordered = new ArrayList<>(live.entrySet());
+                ordered.sort(Map.Entry.comparingByValue());
+                for (Map.Entry<Integer, Long> entry : ordered) {
+                    Segment source = sources.get(segmentOf(entry.getValue()));
+                    int length = recordSize(sources, entry.getValue());
+                    moved.put(entry.getKey(), location(target.number, buffer.position()));
+                    buffer.put(source.buffer.slice(offsetOf(entry.getValue()), length));
+                }
+                buffer.force();
+            }
+            Path compacted = directory.resolve(segmentName(target.number, target.generation + 1));
+            Files.move(temporary, compacted);
+
+            lock.writeLock().lock();
+            try {
+                Segment replacement = openSegment(compacted, target.number, target.generation + 1, 0);
+                replacement.writePosition = size;
+                long reclaimed = 0;
+                for (Segment old : sealed) {
+                    reclaimed += old.writePosition;
+                    segments.remove(old.number);
+                }
+                segments.put(replacement.number, replacement);
+                //i libri modificati durante la copia puntano già a un segmento più recente
+                for (Map.Entry<Integer, Long> entry : moved.entrySet()) {
+                    Long current = locations.get(entry.getKey());
+                    if (current != null && current.equals(live.get(entry.getKey()))) {
+                        locations.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                garbageBytes = Math.max(0, garbageBytes - (reclaimed - size));
+                compactionCount++;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            for (Segment old : sealed) {
+                old.close();
+                deleteQuietly(old.path);
+            }
+            return true;
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            //verrà cancellato alla prossima apertura
+            System.err.println("Impossibile cancellare il segmento " + path + ": " + e.getMessage());
+        }
+    }
+
+    // ---------------------------------------------------------------- stato
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return il numero di segmenti aperti, compreso quello attivo
+     */
+    public int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return i byte occupati da record superati da modifiche o cancellazioni successive
+     */
+    public long getGarbageBytes() {
+        lock.readLock().lock();
+        try {
+            return garbageBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getCompactionCount() {
+        lock.readLock().lock();
+        try {
+            return compactionCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return il numero di libri presenti
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return locations.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rende persistenti su disco tutte le scritture eseguite finora.
+     */
+    public void sync() {
+        lock.writeLock().lock();
+        try {
+            if (!closed) {
+                segments.lastEntry().getValue().buffer.force();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Attende l'eventuale compattazione in corso, rende persistenti le scritture e chiude i segmenti.
+     *
+     * @post il repository non può più essere usato
+     */
+    @Override
+    public void close() {
+        if (compactor != null) {
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Iterator<Segment> iterator = segments.values().iterator(); iterator.hasNext(); ) {
+                Segment segment = iterator.next();
+                segment.buffer.force();
+                segment.close();
+                iterator.remove();
+            }
+            locations.clear();
+            authors.clear();
+            genres.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //builder per la configurazione del motore a log
+    public static class Builder {
+
+        //obbligatorio
+        private final Path directory;
+
+        //facoltativi
+        private int segmentSize = 4 * 1024 * 1024;
+        private boolean syncOnWrite = false;        //come synchronous=NORMAL: i dati sono salvi se termina il processo
+        private double compactionThreshold = 0.5;
+        private boolean backgroundCompaction = true;
+
+        /**
+         * @param directory la cartella che contiene i file di segmento, viene creata se non esiste
+         * @throws IllegalArgumentException se directory è null
+         */
+        public Builder(Path directory) {
+            if (directory == null) {
+                throw new IllegalArgumentException("La cartella del log è obbligatoria");
+            }
+            this.directory = directory;
+        }
+
+        public Builder segmentSize(int segmentSize) {
+            if (segmentSize < 1024) {
+                throw new IllegalArgumentException("La dimensione di un segmento deve essere almeno 1024 byte");
+            }
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * @param syncOnWrite se {@code true} ogni scrittura viene forzata su disco prima di tornare al chiamante,
+         *                    così i dati sopravvivono anche a un'interruzione di corrente
+         */
+        public Builder syncOnWrite(boolean syncOnWrite) {
+            this.syncOnWrite = syncOnWrite;
+            return this;
+        }
+
+        /**
+         * @param compactionThreshold la frazione di byte superati oltre la quale parte la compattazione, tra 0 e 1
+         */
+        public Builder compactionThreshold(double compactionThreshold) {
+            if (compactionThreshold <= 0 || compactionThreshold >= 1) {
+                throw new IllegalArgumentException("La soglia di compattazione deve essere compresa tra 0 e 1");
+            }
+            this.compactionThreshold = compactionThreshold;
+            return this;
+        }
+
+        /**
+         * @param backgroundCompaction se {@code false} la compattazione avviene solo chiamando {@link #compact()}
+         */
+        public Builder backgroundCompaction(boolean backgroundCompaction) {
+            this.backgroundCompaction = backgroundCompaction;
+            return this;
+        }
+
+        /**
+         * Apre il log, ricostruendo l'indice dai segmenti presenti nella cartella.
+         *
+         * @throws IOException se la cartella o i segmenti non possono essere letti
+         */
+        public LogStructuredBookRepository build() throws IOException {
+            return new LogStructuredBookRepository(this);
+        }
+    }
+}
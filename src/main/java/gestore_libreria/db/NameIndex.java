@@ -0,0 +1,125 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.SortCriteria;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Indice in memoria dei valori distinti di un campo dei libri (autori o generi), con le stesse regole
+ * delle tabelle {@code authors} e {@code genres} di {@link SQLiteBookRepository}: i nomi sono confrontati
+ * esattamente, ogni nome riceve un id alla sua prima comparsa, l'id resta lo stesso finché il nome ha almeno
+ * un libro e non viene mai riassegnato. Per ogni nome c'è la bitmap degli id dei suoi libri.
+ *
+ * Non è sincronizzato: va protetto dal lock del repository che lo usa.
+ */
+final class NameIndex {
+
+    //un nome registrato, con l'id assegnato e i suoi libri
+    private static final class Entry {
+        final int id;
+        final String name;
+        final BitSet books = new BitSet();
+
+        Entry(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    private final Map<String, Entry> byName = new HashMap<>();
+    private final Map<Integer, Entry> byId = new HashMap<>();
+    private int lastId;
+
+    /**
+     * Registra il libro sotto il nome. I nomi null o vuoti non vengono registrati, come i libri senza genere.
+     */
+    void add(String name, int bookId) {
+        if (name == null || name.isEmpty()) {
+            return;
+        }
+        Entry entry = byName.get(name);
+        if (entry == null) {
+            entry = new Entry(++lastId, name);
+            byName.put(name, entry);
+            byId.put(entry.id, entry);
+        }
+        entry.books.set(bookId);
+    }
+
+    /**
+     * Toglie il libro dal nome; il nome rimasto senza libri viene eliminato insieme al suo id.
+     */
+    void remove(String name, int bookId) {
+        Entry entry = name == null ? null : byName.get(name);
+        if (entry == null) {
+            return;
+        }
+        entry.books.clear(bookId);
+        if (entry.books.isEmpty()) {
+            byName.remove(name);
+            byId.remove(entry.id);
+        }
+    }
+
+    /**
+     * Sposta il libro da un nome all'altro, come il trigger di aggiornamento di {@link SchemaMigrator}: se il nome non cambia
+     * l'id resta lo stesso, altrimenti il nuovo nome viene registrato prima di eliminare quello vecchio.
+     *
+     * @param previous il nome precedente, null per un libro nuovo
+     * @param name il nome attuale, null per un libro eliminato
+     */
+    void replace(String previous, String name, int bookId) {
+        if (Objects.equals(previous, name)) {
+            return;
+        }
+        add(name, bookId);
+        remove(previous, bookId);
+    }
+
+    /**
+     * Elimina tutti i nomi; gli id già assegnati non vengono riutilizzati.
+     */
+    void clear() {
+        byName.clear();
+        byId.clear();
+    }
+
+    /**
+     * @return gli id dei libri del nome con l'id indicato, null se l'id non esiste; la bitmap non va modificata
+     */
+    BitSet books(int id) {
+        Entry entry = byId.get(id);
+        return entry == null ? null : entry.books;
+    }
+
+    /**
+     * Elenca i nomi in ordine alfabetico senza distinguere maiuscole e minuscole, poi per id, come {@code ORDER BY LOWER(name), id}.
+     *
+     * @param factory costruisce l'elemento dell'elenco da id, nome e numero di libri
+     */
+    <T> List<T> list(Factory<T> factory) {
+        List<Entry> entries = new ArrayList<>(byName.values());
+        entries.sort((first, second) -> {
+            int order = SortCriteria.sqlLower(first.name).compareTo(SortCriteria.sqlLower(second.name));
+            return order != 0 ? order : Integer.compare(first.id, second.id);
+        });
+        List<T> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            result.add(factory.create(entry.id, entry.name, entry.books.cardinality()));
+        }
+        return result;
+    }
+
+    /**
+     * Costruisce un elemento dell'elenco, ad esempio il costruttore di {@link gestore_libreria.model.Author}.
+     */
+    @FunctionalInterface
+    interface Factory<T> {
+        T create(int id, String name, int books);
+    }
+}
@@ -0,0 +1,240 @@
+package gestore_libreria.db;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Statistiche delle query eseguite sulle connessioni di un {@link SQLiteConnectionPool} configurato con
+ * {@link SQLiteConnectionPool.Builder#statistics(QueryStatistics)}. Le esecuzioni sono raggruppate per forma SQL
+ * (il testo con i letterali sostituiti da {@code ?} e gli spazi normalizzati) e per ognuna si conservano
+ * il numero di chiamate, le righe lette o modificate, gli errori e l'istogramma delle latenze (p50/p95/p99).
+ * La latenza di una query è il tempo passato nel driver, dall'esecuzione all'ultima riga letta: il tempo
+ * speso dal chiamante tra una riga e l'altra non viene contato.
+ *
+ * Le statistiche sono thread-safe e si possono esporre via JMX con {@link #registerMBean(String)}.
+ */
+public class QueryStatistics implements QueryStatisticsMBean {
+
+    //numero massimo di forme distinte: oltre, le esecuzioni confluiscono in OTHER_SHAPES
+    static final int MAX_SHAPES = 512;
+    static final String OTHER_SHAPES = "(altre query)";
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bIN \\(\\?(?:, ?\\?)+\\)");
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    private final Map<String, ShapeStatistics> shapes = new ConcurrentHashMap<>();
+
+    /**
+     * Le statistiche di una forma SQL in un certo istante. I tempi sono in nanosecondi.
+     *
+     * @param sql la forma SQL
+     * @param calls il numero di esecuzioni
+     * @param rows le righe lette dalle query o modificate dagli aggiornamenti
+     * @param errors le esecuzioni terminate con un'eccezione
+     */
+    public record Snapshot(String sql, long calls, long rows, long errors, long totalNanos,
+                           long p50Nanos, long p95Nanos, long p99Nanos, long maxNanos) {
+
+        public double meanNanos() {
+            return calls == 0 ? 0 : (double) totalNanos / calls;
+        }
+    }
+
+    //contatori di una forma SQL
+    private static final class ShapeStatistics {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        void record(long nanos, long rowCount, boolean failed) {
+            calls.increment();
+            rows.add(rowCount);
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            histogram.record(nanos);
+            if (failed) {
+                errors.increment();
+            }
+        }
+
+        Snapshot snapshot(String sql) {
+            long max = maxNanos.get();
+            return new Snapshot(sql, calls.sum(), rows.sum(), errors.sum(), totalNanos.sum(),
+                    histogram.percentile(0.50, max), histogram.percentile(0.95, max),
+                    histogram.percentile(0.99, max), max);
+        }
+    }
+
+    /**
+     * Riduce una query alla sua forma: letterali stringa e numerici diventano {@code ?}, gli spazi vengono
+     * compattati e le liste {@code IN (?, ?, ...)} di qualunque lunghezza diventano {@code IN (?)}.
+     *
+     * @param sql il testo della query, può essere null
+     * @return la forma della query, stringa vuota se sql è null
+     */
+    public static String shape(String sql) {
+        if (sql == null) {
+            return "";
+        }
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        shape = WHITESPACE.matcher(shape).replaceAll(" ").strip();
+        return IN_LIST.matcher(shape).replaceAll("IN (?)");
+    }
+
+    /**
+     * Registra un'esecuzione.
+     *
+     * @param shape la forma SQL, già normalizzata con {@link #shape(String)}
+     * @param nanos il tempo passato nel driver
+     * @param rows le righe lette o modificate
+     * @param failed true se l'esecuzione è terminata con un'eccezione
+     */
+    void record(String shape, long nanos, long rows, boolean failed) {
+        ShapeStatistics statistics = shapes.get(shape);
+        if (statistics == null) {
+            //con troppe forme diverse (SQL costruito con i valori nel testo) la mappa non cresce oltre il limite
+            String key = shapes.size() < MAX_SHAPES ? shape : OTHER_SHAPES;
+            statistics = shapes.computeIfAbsent(key, k -> new ShapeStatistics());
+        }
+        statistics.record(nanos, rows, failed);
+    }
+
+    /**
+     * @return le statistiche di ogni forma, dalla più costosa in tempo totale
+     */
+    public List<Snapshot> snapshot() {
+        return shapes.entrySet().stream()
+                .map(entry -> entry.getValue().snapshot(entry.getKey()))
+                .sorted(Comparator.comparingLong(Snapshot::totalNanos).reversed())
+                .toList();
+    }
+
+    /**
+     * @param sql una query, anche non normalizzata
+     * @return le statistiche della sua forma, null se non è mai stata eseguita
+     */
+    public Snapshot get(String sql) {
+        String shape = shape(sql);
+        ShapeStatistics statistics = shapes.get(shape);
+        return statistics == null ? null : statistics.snapshot(shape);
+    }
+
+    @Override
+    public int getShapeCount() {
+        return shapes.size();
+    }
+
+    @Override
+    public long getTotalCalls() {
+        return shapes.values().stream().mapToLong(statistics -> statistics.calls.sum()).sum();
+    }
+
+    @Override
+    public long getTotalTimeMillis() {
+        return shapes.values().stream().mapToLong(statistics -> statistics.totalNanos.sum()).sum() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public String[] getQueries() {
+        return snapshot().stream().map(QueryStatistics::format).toArray(String[]::new);
+    }
+
+    @Override
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append("Statistiche delle query - ")
+                .append(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME.withLocale(Locale.ROOT)))
+                .append(System.lineSeparator());
+        report.append(String.format(Locale.ROOT, "%d forme, %d esecuzioni, %d ms totali%n%n",
+                getShapeCount(), getTotalCalls(), getTotalTimeMillis()));
+        report.append(String.format(Locale.ROOT, "%10s %10s %12s %10s %10s %10s %10s %10s %7s  %s%n",
+                "chiamate", "righe", "totale ms", "media ms", "p50 ms", "p95 ms", "p99 ms", "max ms", "errori", "sql"));
+        for (String line : getQueries()) {
+            report.append(line).append(System.lineSeparator());
+        }
+        return report.toString();
+    }
+
+    /**
+     * Scrive il rapporto delle statistiche in un file di testo.
+     *
+     * @param file il file da scrivere, viene sostituito se esiste
+     * @throws IOException se il file non può essere scritto
+     */
+    public void dump(Path file) throws IOException {
+        Files.writeString(file, report(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String dumpTo(String path) {
+        try {
+            Path file = Path.of(path).toAbsolutePath();
+            dump(file);
+            return file.toString();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Errore nella scrittura delle statistiche delle query: " + e.getMessage());
+            return "Errore: " + e.getMessage();
+        }
+    }
+
+    @Override
+    public void reset() {
+        shapes.clear();
+    }
+
+    /**
+     * Registra le statistiche nel server JMX della piattaforma, sostituendo un'eventuale registrazione con lo stesso nome.
+     *
+     * @param name il nome del database, es. {@code Books_db}
+     * @return il nome JMX usato, null se la registrazione non è riuscita
+     */
+    public ObjectName registerMBean(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("gestore_libreria:type=QueryStatistics,name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            System.err.println("Errore nella registrazione JMX delle statistiche delle query: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String format(Snapshot snapshot) {
+        return String.format(Locale.ROOT, "%10d %10d %12.3f %10.3f %10.3f %10.3f %10.3f %10.3f %7d  %s",
+                snapshot.calls(), snapshot.rows(), millis(snapshot.totalNanos()), snapshot.meanNanos() / NANOS_PER_MILLI,
+                millis(snapshot.p50Nanos()), millis(snapshot.p95Nanos()), millis(snapshot.p99Nanos()),
+                millis(snapshot.maxNanos()), snapshot.errors(), snapshot.sql());
+    }
+
+    private static double millis(long nanos) {
+        return (double) nanos / NANOS_PER_MILLI;
+    }
+}
@@ -0,0 +1,46 @@
+package gestore_libreria.db;
+
+/**
+ * Interfaccia JMX di {@link QueryStatistics}: le statistiche delle query si possono consultare da JConsole
+ * o VisualVM mentre l'applicazione è in uso, sotto {@code gestore_libreria:type=QueryStatistics}.
+ */
+public interface QueryStatisticsMBean {
+
+    /**
+     * @return il numero di forme SQL diverse registrate
+     */
+    int getShapeCount();
+
+    /**
+     * @return il numero totale di esecuzioni registrate
+     */
+    long getTotalCalls();
+
+    /**
+     * @return il tempo totale speso nel database, in millisecondi
+     */
+    long getTotalTimeMillis();
+
+    /**
+     * @return una riga per forma SQL, dalla più costosa in tempo totale
+     */
+    String[] getQueries();
+
+    /**
+     * @return il rapporto completo in formato testo
+     */
+    String report();
+
+    /**
+     * Scrive il rapporto in un file, sostituendolo se esiste.
+     *
+     * @param path il percorso del file
+     * @return il percorso assoluto del file scritto, o il messaggio d'errore
+     */
+    String dumpTo(String path);
+
+    /**
+     * Azzera tutte le statistiche.
+     */
+    void reset();
+}
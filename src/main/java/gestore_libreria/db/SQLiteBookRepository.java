@@ -1,285 +1,1260 @@
 package gestore_libreria.db;
 
+import gestore_libreria.model.Author;
 import gestore_libreria.model.Book;
+import gestore_libreria.model.BookCounts;
+import gestore_libreria.model.CoverThumbnail;
+import gestore_libreria.model.Genre;
+import gestore_libreria.model.MergeResult;
+import gestore_libreria.model.Page;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SearchResult;
 import gestore_libreria.model.SortCriteria;
+import gestore_libreria.model.ThumbnailSize;
+import gestore_libreria.observer.BookChangeListener;
 
+import org.sqlite.SQLiteErrorCode;
+import org.sqlite.SQLiteException;
+
+import java.nio.file.Path;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 //classe che implementa il database
 public class SQLiteBookRepository implements BookRepositoryImplementor {
 
+    private static final String INSERT_SQL = """
+            INSERT INTO books (title, author, isbn, genre, rating, readingState, coverPath, isbn_key)
+            VALUES (?,?,?,?,?,?,?,?)
+            """;
+
+    //i doppioni lasciati senza chiave dalla migrazione (SchemaMigrator.isbnKeyMigration) la conservano nulla finché
+    //l'ISBN non cambia: altrimenti non potrebbero più essere modificati. Le espressioni leggono i valori precedenti
+    private static final String UPDATE_SQL = """
+            UPDATE books SET
+            title=?,
+            author=?,
+            isbn=?,
+            genre=?,
+            rating=?,
+            readingState=?,
+            coverPath=?,
+            isbn_key=CASE WHEN isbn_key IS NULL AND isbn IS ?3 THEN NULL ELSE ?8 END
+            WHERE id=?9
+            """;
+
+    //un libro con un ISBN già presente completa quello esistente, con le stesse regole dell'unione di un'altra libreria.
+    //RETURNING restituisce l'id della riga inserita o aggiornata; nessuna riga se non c'era nulla da completare
+    private static final String UPSERT_SQL = """
+            INSERT INTO books (title, author, isbn, genre, rating, readingState, coverPath, isbn_key)
+            VALUES (?,?,?,?,?,?,?,?)
+            ON CONFLICT (isbn_key) WHERE isbn_key IS NOT NULL DO UPDATE SET
+            genre = CASE WHEN COALESCE(books.genre, '') = '' THEN excluded.genre ELSE books.genre END,
+            coverPath = CASE WHEN COALESCE(books.coverPath, '') = '' THEN excluded.coverPath ELSE books.coverPath END
+            WHERE (COALESCE(books.genre, '') = '' AND COALESCE(excluded.genre, '') <> '')
+               OR (COALESCE(books.coverPath, '') = '' AND COALESCE(excluded.coverPath, '') <> '')
+            RETURNING id
+            """;
+
+    //probabilità di falso positivo del filtro degli ISBN e capacità minima, per non ricostruirlo a ogni libro aggiunto
+    private static final double ISBN_FILTER_FALSE_POSITIVES = 0.01;
+    private static final int ISBN_FILTER_MIN_CAPACITY = 1024;
+
+    private static final String DELETE_SQL = "Delete FROM books WHERE id = ?";
+
+    //tutti i conteggi con una sola query: ogni ramo è un GROUP BY che SQLite risolve scorrendo l'indice corrispondente
+    private static final String COUNT_SQL = """
+            SELECT 0 AS dimension, NULL AS value, COUNT(*) AS books FROM books
+            UNION ALL
+            SELECT 1, LOWER(readingState), COUNT(*) FROM books GROUP BY LOWER(readingState)
+            UNION ALL
+            SELECT 2, rating, COUNT(*) FROM books GROUP BY rating
+            UNION ALL
+            SELECT 3, LOWER(genre), COUNT(*) FROM books WHERE genre IS NOT NULL GROUP BY LOWER(genre)
+            """;
+
+    //il numero di libri si conta sugli indici di author_id e genre_id, senza leggere le righe di books
+    private static final String AUTHORS_SQL = """
+            SELECT id, name, (SELECT COUNT(*) FROM books WHERE author_id = authors.id) AS books
+            FROM authors ORDER BY LOWER(name), id
+            """;
+
+    private static final String GENRES_SQL = """
+            SELECT id, name, (SELECT COUNT(*) FROM books WHERE genre_id = genres.id) AS books
+            FROM genres ORDER BY LOWER(name), id
+            """;
+
+    //gli id vengono passati come un unico array JSON: lo stesso statement preparato serve per qualunque numero di libri
+    private static final String THUMBNAIL_IDS = " FROM book_thumbnails WHERE book_id IN (SELECT value FROM json_each(?))";
+
+    private static final String SAVE_THUMBNAIL_SQL = """
+            INSERT OR REPLACE INTO book_thumbnails (book_id, cover_hash, list_image, detail_image)
+            SELECT ?, ?, ?, ? WHERE EXISTS (SELECT 1 FROM books WHERE id = ?)
+            """;
+
+    //righe richieste al driver per ogni lettura degli stream, se non configurato diversamente
+    public static final int DEFAULT_FETCH_SIZE = 256;
+
+    //una cache di statement per ogni connessione usata dal repository
+    private final Map<Connection, StatementCache> statementCaches = new IdentityHashMap<>();
+
+    //null se il repository usa il pool condiviso di DatabaseConnectionSingleton
+    private final SQLiteConnectionPool connectionPool;
+    //c'è una sola connessione di scrittura: le transazioni di thread diversi non devono intrecciarsi
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile int fetchSize = DEFAULT_FETCH_SIZE;
+
+    //numero massimo di forme di BookQuery di cui si conserva il SQL compilato
+    static final int MAX_QUERY_PLANS = 256;
+    //SQL compilato di ogni forma di BookQuery: stessa forma, stesso testo e quindi stesso statement preparato
+    private final Map<String, String> queryPlans = new ConcurrentHashMap<>();
+
+    //autori e generi letti da questo database, condivisi tra tutti i libri caricati
+    private final StringDictionary authors = new StringDictionary();
+    private final StringDictionary genres = new StringDictionary();
+    private final BookRowMapper rowMapper = new BookRowMapper(authors, genres);
+
+    //chiavi ISBN già presenti, per inserire senza verifiche i libri certamente nuovi; costruito alla prima upsertAll.
+    //Letto e modificato solo con il lock di scrittura, null quando va ricostruito
+    private BloomFilter isbnFilter;
+
+    //modifiche alle righe di books catturate dagli hook di SQLite, pubblicate dopo ogni scrittura
+    private final BookChangeFeed changeFeed = new BookChangeFeed();
+
+    /**
+     * Operazione da eseguire su una connessione presa in prestito.
+     */
+    @FunctionalInterface
+    protected interface ConnectionWork<T> {
+        T execute(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Restituisce la connessione di scrittura. Le sottoclassi possono ridefinirlo per usare un'altra connessione:
+     * in quel caso anche le letture passano da questa connessione.
+     */
     protected Connection getConnection() throws SQLException {
-        return DatabaseConnectionSingleton.getInstance();
+        return getConnectionPool().getWriter();
+    }
+
+    /**
+     * Prende in prestito una connessione di lettura dal pool, così le query possono essere eseguite
+     * in parallelo alle scritture. Va restituita con {@link #releaseReadConnection(Connection)}.
+     */
+    protected Connection borrowReadConnection() throws SQLException {
+        Connection writer = getConnection();
+        SQLiteConnectionPool pool = getConnectionPool();
+        if (!pool.isWriter(writer)) {
+            return writer;      //la connessione è fornita da una sottoclasse, non dal pool
+        }
+        return pool.borrowReader();
+    }
+
+    protected void releaseReadConnection(Connection connection) {
+        getConnectionPool().release(connection);
+    }
+
+    protected SQLiteConnectionPool getConnectionPool() {
+        return connectionPool != null ? connectionPool : DatabaseConnectionSingleton.getPool();
     }
 
     public SQLiteBookRepository(){
+        this(null);
+    }
+
+    /**
+     * @param connectionPool il pool da cui ottenere le connessioni, null per usare quello condiviso dell'applicazione
+     */
+    public SQLiteBookRepository(SQLiteConnectionPool connectionPool){
+        this.connectionPool = connectionPool;
         try{
-            Connection connection = getConnection();
-            Statement statement = connection.createStatement();
-            //aggiungo un id come chiave del libro
-            String createTable = """
-                    CREATE TABLE IF NOT EXISTS books(
-                        id INTEGER PRIMARY KEY AUTOINCREMENT,
-                        title TEXT NOT NULL,
-                        author TEXT NOT NULL,
-                        isbn TEXT,
-                        genre TEXT,
-                        rating INTEGER,
-                        readingState TEXT,
-                        coverPath TEXT
-                        );
-                    """;
-            statement.execute(createTable);
+            //creo o aggiorno lo schema (tabella books e indici) all'ultima versione
+            write(connection -> new SchemaMigrator().migrate(connection));
         } catch (SQLException e) {
             System.err.println(e.getMessage());
         }
     }
 
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Imposta quante righe il driver legge per volta negli stream.
+     *
+     * @param fetchSize il numero di righe, deve essere positivo
+     * @throws IllegalArgumentException se fetchSize non è positivo
+     */
+    public void setFetchSize(int fetchSize) {
+        if(fetchSize <= 0){
+            throw new IllegalArgumentException("La fetch size deve essere positiva");
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Esegue un'operazione su una connessione di lettura presa in prestito e la restituisce al pool.
+     */
+    protected <T> T read(ConnectionWork<T> work) throws SQLException {
+        Connection connection = borrowReadConnection();
+        try {
+            return work.execute(connection);
+        } finally {
+            releaseReadConnection(connection);
+        }
+    }
 
+    /**
+     * Esegue un'operazione sulla connessione di scrittura, in mutua esclusione con le altre scritture.
+     *
+     * @post al termine della scrittura più esterna i listener hanno ricevuto le modifiche delle transazioni confermate
+     */
+    protected <T> T write(ConnectionWork<T> work) throws SQLException {
+        writeLock.lock();
+        try {
+            Connection connection = getConnection();
+            if (changeFeed.isActive() && writeLock.getHoldCount() == 1) {
+                changeFeed.attach(connection);
+            }
+            //le modifiche fuori da inTransaction sono confermate dal commit automatico dello statement, che fallisce con lui
+            T result;
+            try {
+                result = work.execute(connection);
+            } catch (SQLException | RuntimeException e) {
+                changeFeed.discard();
+                throw e;
+            }
+            changeFeed.confirm();
+            return result;
+        } finally {
+            writeLock.unlock();
+            //gli eventi si consegnano senza il lock, così un listener può scrivere o leggere senza bloccare gli altri
+            if (!writeLock.isHeldByCurrentThread()) {
+                changeFeed.publish();
+            }
+        }
+    }
+
+    /**
+     * Esegue un'operazione sulla connessione di scrittura all'interno di un'unica transazione.
+     *
+     * @post in caso di errore la transazione viene annullata e il database resta invariato
+     */
+    protected <T> T inTransaction(ConnectionWork<T> work) throws SQLException {
+        return write(connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                T result = work.execute(connection);
+                connection.commit();
+                changeFeed.confirm();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                //anche un commit fallito dopo l'hook di commit non deve produrre un evento
+                changeFeed.discard();
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+    }
+
+    /**
+     * Restituisce la cache degli statement associata alla connessione, creandola se necessario.
+     * Le cache di connessioni ormai chiuse vengono scartate.
+     */
+    StatementCache statementsFor(Connection connection) {
+        synchronized (statementCaches) {
+            statementCaches.values().removeIf(cache -> !cache.isValid());
+            return statementCaches.computeIfAbsent(connection, StatementCache::new);
+        }
+    }
+
+    /**
+     * Restituisce, per ogni query eseguita dal repository, quante volte lo statement preparato è stato riutilizzato.
+     *
+     * @return una mappa non null SQL → numero di riutilizzi, sommata su tutte le connessioni
+     */
+    public Map<String, Long> getStatementStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        synchronized (statementCaches) {
+            for (StatementCache cache : statementCaches.values()) {
+                cache.getReuseStatistics().forEach((sql, count) -> statistics.merge(sql, count, Long::sum));
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * @return le statistiche delle query eseguite sulle connessioni del pool (chiamate, righe e latenze per forma SQL),
+     *         null se il pool non le misura
+     */
+    public QueryStatistics getQueryStatistics() {
+        return getConnectionPool().getStatistics();
+    }
+
+    /**
+     * Notifica al listener, dopo ogni transazione confermata, quali libri sono stati inseriti, aggiornati o eliminati.
+     * Le modifiche sono catturate dagli hook di SQLite sulla connessione di scrittura: comprendono quelle dei trigger,
+     * degli import e del ripristino della cronologia. Gli hook vengono registrati alla prima scrittura successiva.
+     */
     @Override
-    public void save(Book book) {
+    public boolean addChangeListener(BookChangeListener listener) {
+        changeFeed.addListener(listener);
+        return true;
+    }
+
+    @Override
+    public void removeChangeListener(BookChangeListener listener) {
+        changeFeed.removeListener(listener);
+    }
+
+    /**
+     * Chiude tutti gli statement preparati tenuti in cache.
+     *
+     * @post nessuno statement resta aperto sulle connessioni del repository
+     */
+    public void closeStatements() {
+        synchronized (statementCaches) {
+            statementCaches.values().forEach(StatementCache::close);
+            statementCaches.clear();
+        }
+    }
+
+    @Override
+    public boolean save(Book book) {
         //Per inserire il libro preparo la stringa sql con gli elementi da aggiungere seguiti da ? per ogni parametro
-        String sql = """
-                INSERT INTO books (title, author, isbn, genre, rating, readingState, coverPath)
-                VALUES (?,?,?,?,?,?,?)
-                """;
         try{
-            Connection connection = getConnection();
-            PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-            preparedStatement.setString(1, book.getTitle());
-            preparedStatement.setString(2,book.getAuthor());
-            preparedStatement.setString(3,book.getIsbn());
-            preparedStatement.setString(4,book.getGenre());
-            preparedStatement.setInt(5,book.getRating());
-            preparedStatement.setString(6, book.getReadingState());
-            preparedStatement.setString(7,book.getCoverPath());
-            preparedStatement.executeUpdate();
-
             //ricavo il codice del libro e lo inserisco nell'oggetto
-            try{
-                ResultSet resultSet = preparedStatement.getGeneratedKeys();
-                if(resultSet.next()){
-                    book.setId(resultSet.getInt(1));
+            long id = write(connection -> {
+                rememberIsbns(List.of(book));
+                return statementsFor(connection).insert(INSERT_SQL, preparedStatement -> bindBook(preparedStatement, book));
+            });
+            if(id > 0){
+                book.setId((int) id);
+            }
+            return true;
+        } catch (SQLException e) {
+            System.err.println(isUniqueViolation(e) ? "Libro non salvato: ISBN già presente" : "Errore nel salvataggio del libro");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Inserisce tutti i libri in un'unica transazione usando il batching JDBC: con SQLite questo significa
+     * un solo fsync invece di uno per libro.
+     * Gli id generati vengono riscritti in ciascun libro solo dopo il commit.
+     *
+     * @param books i libri da inserire
+     * @pre books non deve essere null
+     * @post tutti i libri sono stati inseriti e hanno un id univoco, oppure nessuno in caso di errore
+     */
+    @Override
+    public boolean saveAll(Collection<Book> books) {
+        if(books.isEmpty()){
+            return true;
+        }
+        try{
+            long lastId = inTransaction(connection -> {
+                StatementCache statements = statementsFor(connection);
+                rememberIsbns(books);
+                statements.batch(INSERT_SQL, books, SQLiteBookRepository::bindBook);
+                return lastInsertRowId(statements);
+            });
+
+            //con AUTOINCREMENT e la transazione in corso gli id assegnati dal batch sono consecutivi
+            long id = lastId - books.size() + 1;
+            for(Book book : books){
+                book.setId((int) id++);
+            }
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Errore nel salvataggio massivo dei libri");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean updateAll(Collection<Book> books) {
+        return executeBatch(UPDATE_SQL, books, (preparedStatement, book) -> {
+            rememberIsbns(List.of(book));
+            bindBook(preparedStatement, book);
+            preparedStatement.setInt(9, book.getId());
+        }, "Errore nell'aggiornamento massivo dei libri");
+    }
+
+    @Override
+    public boolean deleteAll(Collection<Book> books) {
+        return executeBatch(DELETE_SQL, books, (preparedStatement, book) -> preparedStatement.setInt(1, book.getId()),
+                "Errore nell'eliminazione massiva dei libri");
+    }
+
+    /**
+     * Esegue inserimenti, aggiornamenti ed eliminazioni in un'unica transazione, con un batch JDBC per tipo.
+     * Gli id generati vengono riscritti nei libri inseriti solo dopo il commit.
+     *
+     * @post tutte le modifiche sono state applicate, oppure nessuna in caso di errore
+     */
+    @Override
+    public boolean applyChanges(Collection<Book> inserts, Collection<Book> updates, Collection<Book> deletes) {
+        if (inserts.isEmpty() && updates.isEmpty() && deletes.isEmpty()) {
+            return true;
+        }
+        try {
+            long lastId = inTransaction(connection -> {
+                StatementCache statements = statementsFor(connection);
+                rememberIsbns(inserts);
+                rememberIsbns(updates);
+                long insertedId = 0;
+                if (!inserts.isEmpty()) {
+                    statements.batch(INSERT_SQL, inserts, SQLiteBookRepository::bindBook);
+                    insertedId = lastInsertRowId(statements);
+                }
+                if (!updates.isEmpty()) {
+                    statements.batch(UPDATE_SQL, updates, (preparedStatement, book) -> {
+                        bindBook(preparedStatement, book);
+                        preparedStatement.setInt(9, book.getId());
+                    });
                 }
+                if (!deletes.isEmpty()) {
+                    statements.batch(DELETE_SQL, deletes, (preparedStatement, book) -> preparedStatement.setInt(1, book.getId()));
+                }
+                return insertedId;
+            });
+
+            long id = lastId - inserts.size() + 1;
+            for (Book book : inserts) {
+                book.setId((int) id++);
+            }
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Errore nell'applicazione delle modifiche accumulate");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Inserisce o completa i libri in un'unica transazione. Il filtro di Bloom degli ISBN divide i libri in due gruppi:
+     * quelli certamente nuovi vengono inseriti con un solo batch, come in {@link #saveAll(Collection)}; solo quelli
+     * che potrebbero essere già presenti (o che ripetono un ISBN dello stesso gruppo) passano uno alla volta
+     * da INSERT ... ON CONFLICT. Gli id vengono riscritti nei libri solo dopo il commit.
+     * Se il filtro non conosceva un ISBN, ad esempio scritto da un altro programma, il batch viola l'indice univoco:
+     * la transazione viene annullata, il filtro ricostruito e l'operazione ripetuta una volta.
+     */
+    @Override
+    public MergeResult upsertAll(Collection<Book> books) {
+        if (books.isEmpty()) {
+            return new MergeResult(0, 0, 0);
+        }
+        try {
+            Upserted upserted;
+            try {
+                upserted = inTransaction(connection -> upsert(statementsFor(connection), books));
             } catch (SQLException e) {
-                System.err.println("Errore nel salvataggio del libro");
-                e.printStackTrace();
+                if (!isUniqueViolation(e)) {
+                    throw e;
+                }
+                write(connection -> isbnFilter = null);
+                upserted = inTransaction(connection -> upsert(statementsFor(connection), books));
+            }
+            upserted.ids().forEach(Book::setId);
+            return upserted.result();
+        } catch (SQLException e) {
+            System.err.println("Errore nell'inserimento dei libri: " + e.getMessage());
+        }
+        return null;
+    }
+
+    //esito di un tentativo di upsertAll: gli id vengono assegnati ai libri solo se la transazione è confermata
+    private record Upserted(MergeResult result, Map<Book, Integer> ids) {
+    }
+
+    private Upserted upsert(StatementCache statements, Collection<Book> books) throws SQLException {
+        BloomFilter filter = isbnFilter(statements);
+        List<Book> inserts = new ArrayList<>();
+        List<Book> probes = new ArrayList<>();
+        for (Book book : books) {
+            String key = BookIdentity.isbnKey(book.getIsbn());
+            if (key != null && filter.mightContain(key)) {
+                probes.add(book);
+            } else {
+                inserts.add(book);
+                if (key != null) {
+                    filter.add(key);
+                }
+            }
+        }
+
+        Map<Book, Integer> ids = new IdentityHashMap<>();
+        long highestId;
+        if (!inserts.isEmpty()) {
+            statements.batch(INSERT_SQL, inserts, SQLiteBookRepository::bindBook);
+            highestId = lastInsertRowId(statements);
+            long id = highestId - inserts.size() + 1;
+            for (Book book : inserts) {
+                ids.put(book, (int) id++);
             }
+        } else {
+            highestId = statements.query("SELECT COALESCE(MAX(id), 0) FROM books", resultSet -> resultSet.getLong(1)).get(0);
+        }
 
+        //con AUTOINCREMENT una riga inserita ha un id maggiore di tutti quelli esistenti, una aggiornata no
+        int inserted = inserts.size();
+        int updated = 0;
+        int skipped = 0;
+        for (Book book : probes) {
+            List<Long> returned = statements.query(UPSERT_SQL, preparedStatement -> bindBook(preparedStatement, book),
+                    resultSet -> resultSet.getLong(1));
+            long id;
+            if (returned.isEmpty()) {
+                skipped++;
+                id = statements.query("SELECT id FROM books WHERE isbn_key = ?",
+                        preparedStatement -> preparedStatement.setString(1, BookIdentity.isbnKey(book.getIsbn())),
+                        resultSet -> resultSet.getLong(1)).get(0);
+            } else if (returned.get(0) > highestId) {
+                inserted++;
+                id = highestId = returned.get(0);
+            } else {
+                updated++;
+                id = returned.get(0);
+            }
+            ids.put(book, (int) id);
+        }
+        return new Upserted(new MergeResult(inserted, updated, skipped), ids);
+    }
+
+    //costruisce il filtro leggendo solo l'indice parziale delle chiavi; va chiamato con il lock di scrittura
+    private BloomFilter isbnFilter(StatementCache statements) throws SQLException {
+        if (isbnFilter == null || isbnFilter.isSaturated()) {
+            List<String> keys = statements.query("SELECT isbn_key FROM books WHERE isbn_key IS NOT NULL",
+                    resultSet -> resultSet.getString(1));
+            BloomFilter filter = new BloomFilter(Math.max(ISBN_FILTER_MIN_CAPACITY, keys.size() * 2), ISBN_FILTER_FALSE_POSITIVES);
+            keys.forEach(filter::add);
+            isbnFilter = filter;
+        }
+        return isbnFilter;
+    }
+
+    //aggiunge al filtro le chiavi dei libri scritti; va chiamato con il lock di scrittura. Se la scrittura viene annullata
+    //le chiavi restano nel filtro: causano solo qualche verifica in più, mai un doppione
+    private void rememberIsbns(Collection<Book> books) {
+        if (isbnFilter == null) {
+            return;
+        }
+        for (Book book : books) {
+            String key = BookIdentity.isbnKey(book.getIsbn());
+            if (key != null) {
+                isbnFilter.add(key);
+            }
+        }
+    }
+
+    private static boolean isUniqueViolation(SQLException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLiteException sqliteException
+                    && sqliteException.getResultCode() == SQLiteErrorCode.SQLITE_CONSTRAINT_UNIQUE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Esegue la stessa istruzione per ogni libro in un'unica transazione.
+     *
+     * @param sql l'istruzione da eseguire
+     * @param books i libri a cui applicarla
+     * @param binder associa i parametri di ciascun libro all'istruzione
+     * @param errorMessage messaggio da stampare in caso di errore
+     * @post in caso di errore la transazione viene annullata e il database resta invariato
+     * @return false in caso di errore
+     */
+    private boolean executeBatch(String sql, Collection<Book> books, StatementCache.ItemBinder<Book> binder, String errorMessage) {
+        if(books.isEmpty()){
+            return true;
+        }
+        try{
+            inTransaction(connection -> statementsFor(connection).batch(sql, books, binder));
+            return true;
         } catch (SQLException e) {
+            System.err.println(errorMessage);
             e.printStackTrace();
+            return false;
         }
     }
 
+    //associa i campi del libro e la chiave ISBN ai primi otto parametri di INSERT_SQL, UPDATE_SQL e UPSERT_SQL
+    private static void bindBook(PreparedStatement preparedStatement, Book book) throws SQLException {
+        preparedStatement.setString(1, book.getTitle());
+        preparedStatement.setString(2, book.getAuthor());
+        preparedStatement.setString(3, book.getIsbn());
+        preparedStatement.setString(4, book.getGenre());
+        preparedStatement.setInt(5, book.getRating());
+        preparedStatement.setString(6, book.getReadingState());
+        preparedStatement.setString(7, book.getCoverPath());
+        preparedStatement.setString(8, BookIdentity.isbnKey(book.getIsbn()));
+    }
+
+    private static long lastInsertRowId(StatementCache statements) throws SQLException {
+        List<Long> ids = statements.query("SELECT last_insert_rowid()", resultSet -> resultSet.getLong(1));
+        return ids.isEmpty() ? 0 : ids.get(0);
+    }
+
+    //converte i risultati della ricerca full-text: il libro più il punteggio BM25 e l'estratto evidenziato
+    private static final class SearchResultMapper implements StatementCache.RowMapper<SearchResult> {
+
+        private final BookRowMapper books;
+        private final int rank;
+        private final int snippet;
+
+        private SearchResultMapper(BookRowMapper books, int rank, int snippet) {
+            this.books = books;
+            this.rank = rank;
+            this.snippet = snippet;
+        }
+
+        @Override
+        public SearchResultMapper bind(ResultSet resultSet) throws SQLException {
+            return new SearchResultMapper(books.bind(resultSet),
+                    resultSet.findColumn("rank"), resultSet.findColumn("snippet"));
+        }
+
+        @Override
+        public SearchResult map(ResultSet resultSet) throws SQLException {
+            if(!books.isBound()){
+                return bind(resultSet).map(resultSet);
+            }
+            return new SearchResult(books.map(resultSet), resultSet.getDouble(rank), resultSet.getString(snippet));
+        }
+    }
+
+    //l'id in coda rende l'ordine totale, uguale a SortCriteria.comparator(), e coincide con il rowid implicito degli indici.
+    //Anche senza criterio l'ordine è esplicito: altrimenti dipenderebbe dall'indice scelto per il filtro
     private String getOrderByCriteria(SortCriteria criteria){
-        if(criteria == null || criteria == SortCriteria.NONE){
-            return "";
+        if(criteria == null){
+            return " ORDER BY id ASC";
         }
         switch (criteria){
             case TITLE_ASC:
-                return " ORDER BY LOWER(title) ASC";
+                return " ORDER BY LOWER(title) ASC, id ASC";
             case TITLE_DESC:
-                return " ORDER BY LOWER(title) DESC";
+                return " ORDER BY LOWER(title) DESC, id DESC";
             case AUTHOR_ASC:
-                return " ORDER BY LOWER(author) ASC";
+                return " ORDER BY LOWER(author) ASC, id ASC";
             case AUTHOR_DESC:
-                return " ORDER BY LOWER(author) DESC";
+                return " ORDER BY LOWER(author) DESC, id DESC";
             case RATING_ASC:
-                return " ORDER BY rating ASC, LOWER(title) ASC";
+                return " ORDER BY rating ASC, LOWER(title) ASC, id ASC";
             case RATING_DESC:
-                return " ORDER BY rating DESC, LOWER(title) ASC";
+                return " ORDER BY rating DESC, LOWER(title) ASC, id ASC";
             default:
-                return "";
+                return " ORDER BY id ASC";
         }
     }
 
     @Override
     public List<Book> loadAll(SortCriteria criteria) {
-        List<Book> books = new ArrayList<>();
         String sql = "SELECT * FROM books" + getOrderByCriteria(criteria);
+        try{
+            return read(connection -> statementsFor(connection).query(sql, rowMapper));
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+        }
+        return new ArrayList<>();
+    }
 
+    @Override
+    public Stream<Book> streamAll(SortCriteria criteria) {
+        return stream("SELECT * FROM books" + getOrderByCriteria(criteria), preparedStatement -> {});
+    }
+
+    @Override
+    public Stream<Book> streamByTitle(String title, SortCriteria criteria) {
+        return stream("SELECT * FROM books WHERE LOWER(title) LIKE LOWER(?)" + getOrderByCriteria(criteria),
+                preparedStatement -> preparedStatement.setString(1, "%" + title + "%"));
+    }
+
+    @Override
+    public Stream<Book> streamByRating(int rating, SortCriteria criteria) {
+        return stream("SELECT * FROM books WHERE rating = ?" + getOrderByCriteria(criteria),
+                preparedStatement -> preparedStatement.setInt(1, rating));
+    }
+
+    @Override
+    public Stream<Book> streamByReadingState(String readingState, SortCriteria criteria) {
+        return stream("SELECT * FROM books WHERE LOWER(readingState) = LOWER(?)" + getOrderByCriteria(criteria),
+                preparedStatement -> preparedStatement.setString(1, readingState.trim()));
+    }
+
+    @Override
+    public Stream<Book> streamByAuthor(String author, SortCriteria criteria) {
+        return stream("SELECT * FROM books WHERE LOWER(author) LIKE LOWER(?)" + getOrderByCriteria(criteria),
+                preparedStatement -> preparedStatement.setString(1, "%" + author + "%"));
+    }
+
+    /**
+     * Esegue la query e restituisce uno stream che legge le righe dal ResultSet solo quando vengono consumate,
+     * quindi la memoria usata non dipende dal numero di libri.
+     * Lo statement non viene preso dalla cache perché resta occupato finché lo stream è aperto.
+     * Alla chiusura dello stream, o quando le righe finiscono, ResultSet e statement vengono chiusi
+     * e la connessione di lettura torna al pool.
+     *
+     * @pre lo stream restituito deve essere chiuso dal chiamante
+     * @return lo stream dei libri, vuoto se la query non può essere eseguita
+     * @throws IllegalStateException durante il consumo, se la lettura di una riga fallisce
+     */
+    private Stream<Book> stream(String sql, StatementCache.Binder binder) {
+        Connection connection;
         try{
-            Connection connection = getConnection();
-            Statement statement = connection.createStatement();
-            ResultSet resultSet = statement.executeQuery(sql);
-
-            while (resultSet.next()){
-
-                Book book = new Book.Builder(resultSet.getString("title"), resultSet.getString("author"))
-                        .id(resultSet.getInt("id"))
-                        .isbn(resultSet.getString("isbn"))
-                        .genre(resultSet.getString("genre"))
-                        .rating(resultSet.getInt("rating"))
-                        .readingState(resultSet.getString("readingState"))
-                        .coverPath(resultSet.getString("coverPath"))
-                        .build();
-                books.add(book);
+            connection = borrowReadConnection();
+        } catch (SQLException e) {
+            System.err.println("Errore nell'apertura dello stream di libri: " + e.getMessage());
+            return Stream.empty();
+        }
+        PreparedStatement preparedStatement = null;
+        try{
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setFetchSize(fetchSize);
+            binder.bind(preparedStatement);
+            BookCursor cursor = new BookCursor(connection, preparedStatement, preparedStatement.executeQuery());
+            return StreamSupport.stream(cursor, false).onClose(cursor::close);
+        } catch (SQLException e) {
+            System.err.println("Errore nell'apertura dello stream di libri: " + e.getMessage());
+            if(preparedStatement != null){
+                try{
+                    preparedStatement.close();
+                } catch (SQLException ignored) {
+                    //lo statement è comunque inutilizzabile
+                }
+            }
+            releaseReadConnection(connection);
+            return Stream.empty();
+        }
+    }
+
+    //scorre un ResultSet aperto una riga alla volta e libera le risorse una sola volta
+    private final class BookCursor extends Spliterators.AbstractSpliterator<Book> {
+
+        private final Connection connection;
+        private final PreparedStatement preparedStatement;
+        private final ResultSet resultSet;
+        private final BookRowMapper mapper;
+        private boolean closed;
+
+        private BookCursor(Connection connection, PreparedStatement preparedStatement, ResultSet resultSet) throws SQLException {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.connection = connection;
+            this.preparedStatement = preparedStatement;
+            this.resultSet = resultSet;
+            this.mapper = rowMapper.bind(resultSet);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Book> action) {
+            if(closed){
+                return false;
+            }
+            try{
+                if(!resultSet.next()){
+                    close();
+                    return false;
+                }
+                action.accept(mapper.map(resultSet));
+                return true;
+            } catch (SQLException e) {
+                close();
+                throw new IllegalStateException("Errore nella lettura dei libri: " + e.getMessage(), e);
+            }
+        }
+
+        private void close() {
+            if(closed){
+                return;
+            }
+            closed = true;
+            try{
+                resultSet.close();
+                preparedStatement.close();
+            } catch (SQLException e) {
+                System.err.println("Errore nella chiusura dello stream di libri: " + e.getMessage());
+            } finally {
+                releaseReadConnection(connection);
             }
+        }
+    }
+
+    /**
+     * Condizione keyset che seleziona le righe successive al cursore nell'ordine del criterio.
+     * Usa il confronto tra row value, così SQLite parte direttamente dalla posizione giusta dell'indice.
+     * I parametri vanno associati con {@link #bindKeyset(PreparedStatement, PageCursor)}.
+     */
+    private static String getKeysetCondition(SortCriteria criteria){
+        switch (criteria){
+            case TITLE_ASC:
+                return " WHERE (LOWER(title), id) > (?, ?)";
+            case TITLE_DESC:
+                return " WHERE (LOWER(title), id) < (?, ?)";
+            case AUTHOR_ASC:
+                return " WHERE (LOWER(author), id) > (?, ?)";
+            case AUTHOR_DESC:
+                return " WHERE (LOWER(author), id) < (?, ?)";
+            case RATING_ASC:
+                return " WHERE (rating, LOWER(title), id) > (?, ?, ?)";
+            case RATING_DESC:
+                //direzioni miste: il row value non basta, l'intervallo su rating usa comunque l'indice discendente
+                return " WHERE rating <= ? AND (rating < ? OR (LOWER(title), id) > (?, ?))";
+            default:
+                return " WHERE id > ?";
+        }
+    }
+
+    //restituisce il numero di parametri associati
+    private static int bindKeyset(PreparedStatement preparedStatement, PageCursor cursor) throws SQLException {
+        switch (cursor.getCriteria()){
+            case TITLE_ASC, TITLE_DESC:
+                preparedStatement.setString(1, cursor.getTitle());
+                preparedStatement.setInt(2, cursor.getId());
+                return 2;
+            case AUTHOR_ASC, AUTHOR_DESC:
+                preparedStatement.setString(1, cursor.getAuthor());
+                preparedStatement.setInt(2, cursor.getId());
+                return 2;
+            case RATING_ASC:
+                preparedStatement.setInt(1, cursor.getRating());
+                preparedStatement.setString(2, cursor.getTitle());
+                preparedStatement.setInt(3, cursor.getId());
+                return 3;
+            case RATING_DESC:
+                preparedStatement.setInt(1, cursor.getRating());
+                preparedStatement.setInt(2, cursor.getRating());
+                preparedStatement.setString(3, cursor.getTitle());
+                preparedStatement.setInt(4, cursor.getId());
+                return 4;
+            default:
+                preparedStatement.setInt(1, cursor.getId());
+                return 1;
+        }
+    }
+
+    /**
+     * Legge una pagina con la paginazione keyset: invece di un OFFSET, che scorre tutte le righe precedenti,
+     * riparte dalla chiave di ordinamento dell'ultimo libro letto. Viene letta una riga in più del limite
+     * per sapere se esiste una pagina successiva.
+     */
+    @Override
+    public Page loadPage(SortCriteria criteria, PageCursor cursor, int limit) {
+        SortCriteria sort = criteria == null ? SortCriteria.NONE : criteria;
+        PageCursor.checkArguments(sort, cursor, limit);
+        String order = getOrderByCriteria(sort);
+        String sql = "SELECT * FROM books" + (cursor.isFirst() ? "" : getKeysetCondition(sort)) + order + " LIMIT ?";
+        try{
+            List<Book> fetched = read(connection -> statementsFor(connection).query(sql, preparedStatement -> {
+                int bound = cursor.isFirst() ? 0 : bindKeyset(preparedStatement, cursor);
+                preparedStatement.setInt(bound + 1, limit + 1);
+            }, rowMapper));
+            return Page.of(fetched, limit, sort);
         } catch (SQLException e) {
-            System.err.println(e.getMessage());
+            System.err.println("Errore nel caricamento della pagina di libri: " + e.getMessage());
         }
-        return books;
+        return new Page(new ArrayList<>(), null);
     }
 
     @Override
     public List<Book> findByTitle(String title, SortCriteria criteria) {
-        List<Book> books = new ArrayList<>();
         String sql = "SELECT * FROM books WHERE LOWER(title) LIKE LOWER(?)" + getOrderByCriteria(criteria);
         try{
-            Connection connection = getConnection();
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, "%" + title + "%");
-            ResultSet resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()){
-                Book book = new Book.Builder(resultSet.getString("title"), resultSet.getString("author"))
-                        .id(resultSet.getInt("id"))
-                        .isbn(resultSet.getString("isbn"))
-                        .genre(resultSet.getString("genre"))
-                        .rating(resultSet.getInt("rating"))
-                        .readingState(resultSet.getString("readingState"))
-                        .coverPath(resultSet.getString("coverPath"))
-                        .build();
-                books.add(book);
-            }
+            return read(connection -> statementsFor(connection).query(sql,
+                    preparedStatement -> preparedStatement.setString(1, "%" + title + "%"), rowMapper));
         } catch (SQLException e) {
             System.err.println("Errore nella ricerca del libro dal titolo" + e.getMessage());
         }
-        return books;
+        return new ArrayList<>();
     }
 
     @Override
     public List<Book> findByRating(int rating, SortCriteria criteria) {
-        List<Book> books = new ArrayList<>();
         String sql = "SELECT * FROM books WHERE rating = ?" + getOrderByCriteria(criteria);
         try{
-            Connection connection = getConnection();
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setInt(1,rating);
-            ResultSet resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()){
-                Book book = new Book.Builder(resultSet.getString("title"), resultSet.getString("author"))
-                        .id(resultSet.getInt("id"))
-                        .isbn(resultSet.getString("isbn"))
-                        .genre(resultSet.getString("genre"))
-                        .rating(resultSet.getInt("rating"))
-                        .readingState(resultSet.getString("readingState"))
-                        .coverPath(resultSet.getString("coverPath"))
-                        .build();
-                books.add(book);
-            }
+            return read(connection -> statementsFor(connection).query(sql,
+                    preparedStatement -> preparedStatement.setInt(1, rating), rowMapper));
         } catch (SQLException e) {
             System.err.println("Errore nella ricerca del libro dalla valutazione");
         }
-        return books;
+        return new ArrayList<>();
     }
 
     @Override
     public List<Book> findByReadingState(String readingState, SortCriteria criteria) {
-        List<Book> books = new ArrayList<>();
-        String sql = "SELECT * FROM books WHERE LOWER(readingState) LIKE LOWER(?)" + getOrderByCriteria(criteria);
+        //uguaglianza invece di LIKE '%...%': gli stati di lettura sono valori fissi e così si può usare l'indice
+        String sql = "SELECT * FROM books WHERE LOWER(readingState) = LOWER(?)" + getOrderByCriteria(criteria);
         try{
-            Connection connection = getConnection();
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, "%" + readingState + "%");
-            ResultSet resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()){
-                Book book = new Book.Builder(resultSet.getString("title"), resultSet.getString("author"))
-                        .id(resultSet.getInt("id"))
-                        .isbn(resultSet.getString("isbn"))
-                        .genre(resultSet.getString("genre"))
-                        .rating(resultSet.getInt("rating"))
-                        .readingState(resultSet.getString("readingState"))
-                        .coverPath(resultSet.getString("coverPath"))
-                        .build();
-                books.add(book);
-            }
+            return read(connection -> statementsFor(connection).query(sql,
+                    preparedStatement -> preparedStatement.setString(1, readingState.trim()), rowMapper));
         } catch (SQLException e) {
             System.err.println("Errore nella ricerca del libro dallo stato di lettura");
         }
-        return books;
+        return new ArrayList<>();
     }
 
     @Override
     public List<Book> findByAuthor(String author, SortCriteria criteria) {
-        List<Book> books = new ArrayList<>();
         String sql = "SELECT * FROM books WHERE LOWER(author) LIKE LOWER(?)" + getOrderByCriteria(criteria);
         try{
-            Connection connection = getConnection();
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, "%" + author + "%");
-            ResultSet resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()){
-                Book book = new Book.Builder(resultSet.getString("title"), resultSet.getString("author"))
-                        .id(resultSet.getInt("id"))
-                        .isbn(resultSet.getString("isbn"))
-                        .genre(resultSet.getString("genre"))
-                        .rating(resultSet.getInt("rating"))
-                        .readingState(resultSet.getString("readingState"))
-                        .coverPath(resultSet.getString("coverPath"))
-                        .build();
-                books.add(book);
-            }
+            return read(connection -> statementsFor(connection).query(sql,
+                    preparedStatement -> preparedStatement.setString(1, "%" + author + "%"), rowMapper));
         } catch (SQLException e) {
             System.err.println("Errore nella ricerca del libro dall'autore");
         }
-        return books;
+        return new ArrayList<>();
     }
 
     @Override
-    public void delete(Book book) {
+    public List<Author> listAuthors() {
+        try{
+            return read(connection -> statementsFor(connection).query(AUTHORS_SQL,
+                    resultSet -> new Author(resultSet.getInt("id"), authors.intern(resultSet.getString("name")),
+                            resultSet.getInt("books"))));
+        } catch (SQLException e) {
+            System.err.println("Errore nella lettura degli autori: " + e.getMessage());
+        }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<Genre> listGenres() {
+        try{
+            return read(connection -> statementsFor(connection).query(GENRES_SQL,
+                    resultSet -> new Genre(resultSet.getInt("id"), genres.intern(resultSet.getString("name")),
+                            resultSet.getInt("books"))));
+        } catch (SQLException e) {
+            System.err.println("Errore nella lettura dei generi: " + e.getMessage());
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Legge i libri dagli indici su author_id, che hanno già l'ordine di ogni criterio: il risultato non viene ordinato.
+     * I libri di un autore hanno tutti lo stesso autore, quindi l'ordinamento per autore si riduce a quello per id.
+     */
+    @Override
+    public List<Book> findByAuthorId(int authorId, SortCriteria criteria) {
+        String order = criteria == SortCriteria.AUTHOR_ASC ? " ORDER BY id ASC"
+                : criteria == SortCriteria.AUTHOR_DESC ? " ORDER BY id DESC"
+                : getOrderByCriteria(criteria);
+        String sql = "SELECT * FROM books WHERE author_id = ?" + order;
+        try{
+            return read(connection -> statementsFor(connection).query(sql,
+                    preparedStatement -> preparedStatement.setInt(1, authorId), rowMapper));
+        } catch (SQLException e) {
+            System.err.println("Errore nella ricerca dei libri dell'autore: " + e.getMessage());
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Esegue la ricerca con un'unica query parametrizzata. Il SQL è compilato una volta per ogni forma della ricerca
+     * ({@link BookQuery#shape()}) e poi riusato: cambiano solo i valori associati ai segnaposto.
+     */
+    @Override
+    public List<Book> find(BookQuery query) {
+        String sql = queryPlans.get(query.shape());
+        if(sql == null){
+            sql = query.toSql("SELECT * FROM books", getOrderByCriteria(query.getSort()));
+            //oltre il limite il SQL viene ricompilato a ogni ricerca, senza far crescere la mappa
+            if(queryPlans.size() < MAX_QUERY_PLANS){
+                queryPlans.put(query.shape(), sql);
+            }
+        }
+        String compiled = sql;
+        try{
+            return read(connection -> statementsFor(connection).query(compiled, query::bind, rowMapper));
+        } catch (SQLException e) {
+            System.err.println("Errore nella ricerca dei libri: " + e.getMessage());
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * @return il numero di forme di ricerca di cui è stato compilato e conservato il SQL
+     */
+    public int getQueryPlanCount() {
+        return queryPlans.size();
+    }
+
+    /**
+     * Calcola tutti i conteggi con un'unica query composta da GROUP BY, senza leggere i libri.
+     */
+    @Override
+    public BookCounts countBooks() {
+        BookCounts.Builder counts = new BookCounts.Builder();
+        try{
+            read(connection -> statementsFor(connection).query(COUNT_SQL, resultSet -> {
+                int books = resultSet.getInt("books");
+                switch (resultSet.getInt("dimension")){
+                    case 0 -> counts.total(books);
+                    case 1 -> counts.readingState(resultSet.getString("value"), books);
+                    case 2 -> counts.rating(resultSet.getInt("value"), books);
+                    default -> counts.genre(resultSet.getString("value"), books);
+                }
+                return null;
+            }));
+            return counts.build();
+        } catch (SQLException e) {
+            System.err.println("Errore nel conteggio dei libri: " + e.getMessage());
+        }
+        return BookCounts.EMPTY;
+    }
+
+    @Override
+    public Map<Integer, byte[]> loadThumbnails(Collection<Integer> bookIds, ThumbnailSize size) {
+        Map<Integer, byte[]> thumbnails = new HashMap<>();
+        if(bookIds.isEmpty()){
+            return thumbnails;
+        }
+        String sql = "SELECT book_id, " + (size == ThumbnailSize.LIST ? "list_image" : "detail_image") + THUMBNAIL_IDS;
+        try{
+            read(connection -> statementsFor(connection).query(sql,
+                    preparedStatement -> preparedStatement.setString(1, jsonArray(bookIds)),
+                    resultSet -> thumbnails.put(resultSet.getInt(1), resultSet.getBytes(2))));
+            return thumbnails;
+        } catch (SQLException e) {
+            System.err.println("Errore nella lettura delle miniature: " + e.getMessage());
+        }
+        return new HashMap<>();
+    }
+
+    @Override
+    public Map<Integer, String> loadThumbnailHashes(Collection<Integer> bookIds) {
+        Map<Integer, String> hashes = new HashMap<>();
+        if(bookIds.isEmpty()){
+            return hashes;
+        }
+        try{
+            read(connection -> statementsFor(connection).query("SELECT book_id, cover_hash" + THUMBNAIL_IDS,
+                    preparedStatement -> preparedStatement.setString(1, jsonArray(bookIds)),
+                    resultSet -> hashes.put(resultSet.getInt(1), resultSet.getString(2))));
+            return hashes;
+        } catch (SQLException e) {
+            System.err.println("Errore nella lettura delle miniature: " + e.getMessage());
+        }
+        return new HashMap<>();
+    }
+
+    @Override
+    public boolean saveThumbnails(Collection<CoverThumbnail> thumbnails) {
+        if(thumbnails.isEmpty()){
+            return true;
+        }
+        try{
+            inTransaction(connection -> statementsFor(connection).batch(SAVE_THUMBNAIL_SQL, thumbnails,
+                    (preparedStatement, thumbnail) -> {
+                        preparedStatement.setInt(1, thumbnail.bookId());
+                        preparedStatement.setString(2, thumbnail.coverHash());
+                        preparedStatement.setBytes(3, thumbnail.list());
+                        preparedStatement.setBytes(4, thumbnail.detail());
+                        preparedStatement.setInt(5, thumbnail.bookId());
+                    }));
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Errore nel salvataggio delle miniature: " + e.getMessage());
+        }
+        return false;
+    }
+
+    private static String jsonArray(Collection<Integer> ids) {
+        StringBuilder json = new StringBuilder("[");
+        for (Integer id : ids) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(id.intValue());
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * Unisce un altro database collegandolo con ATTACH ed eseguendo l'unione con poche query su interi insiemi di righe,
+     * in un'unica transazione sulla connessione di scrittura: i lettori continuano a lavorare e in caso di errore
+     * la libreria resta invariata. Le chiavi di confronto vengono calcolate una volta in tabelle temporanee indicizzate,
+     * così ogni libro importato trova il corrispondente con una ricerca nell'indice.
+     */
+    @Override
+    public MergeResult importBooks(Path source) {
+        try{
+            return write(connection -> {
+                //l'unione confronta e scrive le chiavi ISBN con le stesse regole di BookIdentity
+                BookIdentity.registerIsbnKey(connection);
+                isbnFilter = null;
+                //ATTACH e DETACH non sono ammessi dentro una transazione
+                try (PreparedStatement attach = connection.prepareStatement("ATTACH DATABASE ? AS merge_source")) {
+                    attach.setString(1, source.toAbsolutePath().toString());
+                    attach.execute();
+                }
+                try {
+                    return inTransaction(this::mergeAttached);
+                } finally {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("DETACH DATABASE merge_source");
+                    }
+                }
+            });
+        } catch (SQLException e) {
+            System.err.println("Errore nell'importazione della libreria: " + e.getMessage());
+        }
+        return null;
+    }
+
+    private MergeResult mergeAttached(Connection connection) throws SQLException {
+        String blankToFill = "COALESCE(books.%1$s, '') = '' AND COALESCE(s.%1$s, '') <> ''";
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TEMP TABLE merge_incoming AS SELECT id AS source_id, title, author, isbn, genre,"
+                    + " rating, readingState, coverPath, "
+                    + BookIdentity.isbnSql("isbn") + " AS isbn_norm, "
+                    + BookIdentity.titleAuthorSql("title", "author") + " AS title_author_key,"
+                    + " CAST(NULL AS INTEGER) AS target_id FROM merge_source.books");
+            statement.execute("CREATE INDEX temp.merge_incoming_isbn ON merge_incoming(isbn_norm, source_id)");
+            statement.execute("CREATE INDEX temp.merge_incoming_title_author ON merge_incoming(title_author_key, source_id)");
+            //doppioni interni al file importato: resta la prima riga di ogni libro
+            int duplicates = statement.executeUpdate("""
+                    DELETE FROM merge_incoming WHERE EXISTS (
+                        SELECT 1 FROM merge_incoming AS earlier
+                        WHERE earlier.source_id < merge_incoming.source_id
+                          AND ((merge_incoming.isbn_norm <> '' AND earlier.isbn_norm = merge_incoming.isbn_norm)
+                               OR earlier.title_author_key = merge_incoming.title_author_key))
+                    """);
+
+            statement.execute("CREATE TEMP TABLE merge_existing AS SELECT id, "
+                    + BookIdentity.isbnSql("isbn") + " AS isbn_norm, "
+                    + BookIdentity.titleAuthorSql("title", "author") + " AS title_author_key FROM main.books");
+            statement.execute("CREATE INDEX temp.merge_existing_isbn ON merge_existing(isbn_norm, id)");
+            statement.execute("CREATE INDEX temp.merge_existing_title_author ON merge_existing(title_author_key, id)");
+            //prima l'ISBN, poi titolo e autore
+            statement.executeUpdate("""
+                    UPDATE merge_incoming SET target_id = COALESCE(
+                        (SELECT MIN(id) FROM merge_existing AS e
+                         WHERE merge_incoming.isbn_norm <> '' AND e.isbn_norm = merge_incoming.isbn_norm),
+                        (SELECT MIN(id) FROM merge_existing AS e
+                         WHERE e.title_author_key = merge_incoming.title_author_key))
+                    """);
+
+            //dei libri già presenti si completano solo i dati bibliografici mancanti
+            statement.executeUpdate("UPDATE main.books SET"
+                    + " isbn = CASE WHEN " + blankToFill.formatted("isbn") + " THEN s.isbn ELSE books.isbn END,"
+                    + " isbn_key = CASE WHEN " + blankToFill.formatted("isbn") + " THEN isbn_key(s.isbn) ELSE books.isbn_key END,"
+                    + " genre = CASE WHEN " + blankToFill.formatted("genre") + " THEN s.genre ELSE books.genre END,"
+                    + " coverPath = CASE WHEN " + blankToFill.formatted("coverPath") + " THEN s.coverPath ELSE books.coverPath END"
+                    + " FROM merge_incoming AS s WHERE books.id = s.target_id AND ("
+                    + blankToFill.formatted("isbn") + " OR " + blankToFill.formatted("genre")
+                    + " OR " + blankToFill.formatted("coverPath") + ")");
+            int updated = changes(statement);
+            statement.executeUpdate("""
+                    INSERT INTO main.books (title, author, isbn, genre, rating, readingState, coverPath, isbn_key)
+                    SELECT title, author, isbn, genre, COALESCE(rating, 0), COALESCE(readingState, 'da leggere'), coverPath,
+                        isbn_key(isbn)
+                    FROM merge_incoming WHERE target_id IS NULL ORDER BY source_id
+                    """);
+            int inserted = changes(statement);
+            int matched;
+            try (ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM merge_incoming WHERE target_id IS NOT NULL")) {
+                resultSet.next();
+                matched = resultSet.getInt(1);
+            }
+            statement.execute("DROP TABLE temp.merge_incoming");
+            statement.execute("DROP TABLE temp.merge_existing");
+            return new MergeResult(inserted, updated, duplicates + matched - updated);
+        }
+    }
+
+    //il conteggio restituito dal driver include le righe scritte dai trigger dell'indice full-text
+    private static int changes(Statement statement) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery("SELECT changes()")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    /**
+     * Ricerca full-text tramite l'indice FTS5 {@code books_fts}. I risultati sono ordinati per BM25,
+     * pesando il titolo più dell'autore e l'autore più del genere, a meno di un criterio di ordinamento esplicito.
+     */
+    @Override
+    public List<SearchResult> fullTextSearch(String query, SortCriteria criteria) {
+        String match = FullTextQuery.toMatchExpression(query);
+        if(match.isEmpty()){
+            return new ArrayList<>();
+        }
+        //senza criterio di ordinamento i risultati sono ordinati per rilevanza
+        String order = criteria == null || criteria == SortCriteria.NONE ? " ORDER BY rank" : getOrderByCriteria(criteria);
+        String sql = """
+                SELECT * FROM (
+                    SELECT b.*,
+                           bm25(books_fts, 10.0, 5.0, 1.0) AS rank,
+                           snippet(books_fts, -1, '%s', '%s', '…', 10) AS snippet
+                    FROM books_fts JOIN books b ON b.id = books_fts.rowid
+                    WHERE books_fts MATCH ?
+                )""".formatted(SearchResult.HIGHLIGHT_START, SearchResult.HIGHLIGHT_END)
+                + order;
+        try{
+            return read(connection -> statementsFor(connection).query(sql,
+                    preparedStatement -> preparedStatement.setString(1, match),
+                    new SearchResultMapper(rowMapper, 0, 0)));
+        } catch (SQLException e) {
+            System.err.println("Errore nella ricerca full-text: " + e.getMessage());
+        }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public boolean delete(Book book) {
         int id = book.getId();
-        String sql = "Delete FROM books WHERE id = ?";
         try{
-            Connection connection = getConnection();
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setInt(1, id);
-            int deleteRow = preparedStatement.executeUpdate();
+            int deleteRow = write(connection -> statementsFor(connection).update(DELETE_SQL, preparedStatement -> preparedStatement.setInt(1, id)));
             if(deleteRow>0){
                 System.out.println("Riga eliminata con successo");
             }else {
                 System.out.println("Riga NON eliminata con successo");
             }
-
+            return true;
         } catch (SQLException e) {
-            System.err.println("Errore nell'aggiornamento del libro");
+            System.err.println("Errore nell'eliminazione del libro");
             e.printStackTrace();
+            return false;
         }
     }
 
     @Override
-    public void update(Book book) {
-        String sql = """
-                UPDATE books SET
-                title=?,
-                author=?,
-                isbn=?,
-                genre=?,
-                rating=?,
-                readingState=?,
-                coverPath=?
-                WHERE id=?
-                """;
+    public boolean update(Book book) {
         try{
-            Connection connection = getConnection();
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, book.getTitle());
-            preparedStatement.setString(2, book.getAuthor());
-            preparedStatement.setString(3, book.getIsbn());
-            preparedStatement.setString(4, book.getGenre());
-            preparedStatement.setInt(5, book.getRating());
-            preparedStatement.setString(6, book.getReadingState());
-            preparedStatement.setString(7, book.getCoverPath());
-            preparedStatement.setInt(8, book.getId());      //il libro aggiornato deve avere lo stesso id del libro da modificare
-
-            int affectedRows = preparedStatement.executeUpdate();
-
+            write(connection -> {
+                rememberIsbns(List.of(book));
+                return statementsFor(connection).update(UPDATE_SQL, preparedStatement -> {
+                    bindBook(preparedStatement, book);
+                    preparedStatement.setInt(9, book.getId());      //il libro aggiornato deve avere lo stesso id del libro da modificare
+                });
+            });
+            return true;
         } catch (SQLException e) {
-            System.err.println("Errore nell'aggiornamento del libro");
+            System.err.println(isUniqueViolation(e) ? "Libro non aggiornato: ISBN già presente" : "Errore nell'aggiornamento del libro");
             e.printStackTrace();
+            return false;
         }
-
     }
 
 
@@ -0,0 +1,301 @@
+package gestore_libreria.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool di connessioni SQLite in modalità WAL: una sola connessione di scrittura e fino a N connessioni di lettura.
+ * In modalità WAL i lettori non bloccano lo scrittore e viceversa, quindi le query possono essere eseguite
+ * in parallelo alle modifiche. Le connessioni vengono aperte solo al primo utilizzo.
+ * Si costruisce tramite {@link Builder}.
+ */
+public class SQLiteConnectionPool implements AutoCloseable {
+
+    private final String url;
+    private final int readers;
+    private final String synchronous;
+    private final int cacheSize;
+    private final long mmapSize;
+    private final String tempStore;
+    private final int busyTimeout;
+    private final QueryStatistics statistics;
+
+    private volatile Connection writer;
+    private final BlockingQueue<Connection> idleReaders;
+    private final List<Connection> openReaders = new ArrayList<>();
+    private volatile boolean closed;
+
+    private SQLiteConnectionPool(Builder builder) {
+        this.url = builder.url;
+        //un database in memoria non è condivisibile tra connessioni diverse: tutto passa dallo scrittore
+        this.readers = isInMemory(builder.url) ? 0 : builder.readers;
+        this.synchronous = builder.synchronous;
+        this.cacheSize = builder.cacheSize;
+        this.mmapSize = builder.mmapSize;
+        this.tempStore = builder.tempStore;
+        this.busyTimeout = builder.busyTimeout;
+        this.statistics = builder.statistics;
+        this.idleReaders = new ArrayBlockingQueue<>(Math.max(1, readers));
+    }
+
+    private static boolean isInMemory(String url) {
+        return url.contains(":memory:") || url.contains("mode=memory");
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getReaderCount() {
+        return readers;
+    }
+
+    /**
+     * @return le statistiche delle query eseguite sulle connessioni del pool, null se non sono misurate
+     */
+    public QueryStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Restituisce l'unica connessione di scrittura, aprendola al primo utilizzo.
+     * La connessione è condivisa e non va chiusa dal chiamante.
+     *
+     * @return la connessione di scrittura
+     * @throws SQLException se il pool è stato chiuso o la connessione non può essere aperta
+     */
+    public Connection getWriter() throws SQLException {
+        Connection connection = writer;
+        if (connection != null) {
+            return connection;
+        }
+        synchronized (this) {
+            ensureOpen();
+            if (writer == null) {
+                writer = open(false);
+            }
+            return writer;
+        }
+    }
+
+    /**
+     * Prende in prestito una connessione di lettura. Se tutte sono occupate attende fino al busy timeout.
+     * Se il pool non ha lettori viene restituita la connessione di scrittura.
+     * Ogni connessione ottenuta va restituita con {@link #release(Connection)}.
+     *
+     * @return una connessione di sola lettura
+     * @throws SQLException se il pool è chiuso o nessun lettore si libera in tempo
+     */
+    public Connection borrowReader() throws SQLException {
+        if (readers == 0) {
+            return getWriter();
+        }
+        Connection connection = idleReaders.poll();
+        if (connection != null) {
+            return connection;
+        }
+        synchronized (this) {
+            ensureOpen();
+            if (openReaders.size() < readers) {
+                connection = open(true);
+                openReaders.add(connection);
+                return connection;
+            }
+        }
+        try {
+            connection = idleReaders.poll(busyTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrotto in attesa di una connessione di lettura", e);
+        }
+        if (connection == null) {
+            throw new SQLException("Nessuna connessione di lettura disponibile dopo " + busyTimeout + " ms");
+        }
+        return connection;
+    }
+
+    /**
+     * Restituisce al pool una connessione ottenuta da {@link #borrowReader()}.
+     *
+     * @param connection la connessione da restituire
+     * @post se la connessione è un lettore del pool torna disponibile, altrimenti la chiamata non ha effetto
+     */
+    public void release(Connection connection) {
+        if (connection == null || connection == writer) {
+            return;
+        }
+        synchronized (this) {
+            if (closed || !openReaders.contains(connection)) {
+                return;
+            }
+        }
+        idleReaders.offer(connection);
+    }
+
+    /**
+     * @return {@code true} se la connessione è lo scrittore di questo pool
+     */
+    public boolean isWriter(Connection connection) {
+        return connection != null && connection == writer;
+    }
+
+    /**
+     * @return {@code true} se la connessione è stata aperta da questo pool
+     */
+    public synchronized boolean owns(Connection connection) {
+        return isWriter(connection) || openReaders.contains(connection);
+    }
+
+    private void ensureOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Il pool di connessioni è stato chiuso");
+        }
+    }
+
+    private Connection open(boolean readOnly) throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA busy_timeout = " + busyTimeout);
+            if (!readOnly && !isInMemory(url)) {
+                statement.execute("PRAGMA journal_mode = WAL");
+            }
+            statement.execute("PRAGMA synchronous = " + synchronous);
+            statement.execute("PRAGMA cache_size = " + cacheSize);
+            statement.execute("PRAGMA mmap_size = " + mmapSize);
+            statement.execute("PRAGMA temp_store = " + tempStore);
+            if (readOnly) {
+                statement.execute("PRAGMA query_only = 1");
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        //il proxy viene creato una volta sola: il pool e le cache di statement confrontano le connessioni per identità
+        return statistics == null ? connection : InstrumentedConnection.wrap(connection, statistics);
+    }
+
+    /**
+     * Chiude tutte le connessioni del pool. Chiudere l'ultima connessione esegue il checkpoint del WAL
+     * nel file principale del database.
+     *
+     * @post il pool non può più essere usato
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Connection connection : openReaders) {
+            closeQuietly(connection);
+        }
+        openReaders.clear();
+        idleReaders.clear();
+        if (writer != null) {
+            closeQuietly(writer);
+            writer = null;
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("Errore durante la chiusura della connessione al database: " + e.getMessage());
+        }
+    }
+
+    //builder per la configurazione del pool
+    public static class Builder {
+
+        //obbligatorio
+        private final String url;
+
+        //facoltativi
+        private int readers = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        private String synchronous = "NORMAL";      //con il WAL NORMAL è sicuro e molto più veloce di FULL
+        private int cacheSize = -16000;             //valori negativi sono in KiB: 16 MiB di page cache
+        private long mmapSize = 64L * 1024 * 1024;
+        private String tempStore = "MEMORY";
+        private int busyTimeout = 5000;
+        private QueryStatistics statistics;         //null: le query non vengono misurate
+
+        /**
+         * @param url l'url JDBC del database, es. {@code jdbc:sqlite:Books_db.db}
+         * @throws IllegalArgumentException se l'url è null o vuoto
+         */
+        public Builder(String url) {
+            if (url == null || url.isBlank()) {
+                throw new IllegalArgumentException("L'url del database è obbligatorio");
+            }
+            this.url = url;
+        }
+
+        public Builder readers(int readers) {
+            if (readers < 0) {
+                throw new IllegalArgumentException("Il numero di lettori non può essere negativo");
+            }
+            this.readers = readers;
+            return this;
+        }
+
+        public Builder synchronous(String synchronous) {
+            if (!synchronous.toUpperCase().matches("OFF|NORMAL|FULL|EXTRA")) {
+                throw new IllegalArgumentException("Valore di synchronous non valido: " + synchronous);
+            }
+            this.synchronous = synchronous.toUpperCase();
+            return this;
+        }
+
+        public Builder cacheSize(int cacheSize) {
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        public Builder mmapSize(long mmapSize) {
+            if (mmapSize < 0) {
+                throw new IllegalArgumentException("mmap_size non può essere negativo");
+            }
+            this.mmapSize = mmapSize;
+            return this;
+        }
+
+        public Builder tempStore(String tempStore) {
+            if (!tempStore.toUpperCase().matches("DEFAULT|FILE|MEMORY")) {
+                throw new IllegalArgumentException("Valore di temp_store non valido: " + tempStore);
+            }
+            this.tempStore = tempStore.toUpperCase();
+            return this;
+        }
+
+        public Builder busyTimeout(int busyTimeout) {
+            if (busyTimeout < 0) {
+                throw new IllegalArgumentException("Il busy timeout non può essere negativo");
+            }
+            this.busyTimeout = busyTimeout;
+            return this;
+        }
+
+        /**
+         * Misura le query eseguite sulle connessioni del pool: chiamate, righe e latenze per forma SQL.
+         *
+         * @param statistics dove registrare le esecuzioni, null per non misurarle
+         */
+        public Builder statistics(QueryStatistics statistics) {
+            this.statistics = statistics;
+            return this;
+        }
+
+        public SQLiteConnectionPool build() {
+            return new SQLiteConnectionPool(this);
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package gestore_libreria.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Gestisce lo schema del database tramite migrazioni numerate.
+ * La versione corrente è salvata in {@code PRAGMA user_version}: all'apertura vengono applicate, in ordine,
+ * solo le migrazioni con versione maggiore, ciascuna nella propria transazione. In questo modo un vecchio
+ * file {@code Books_db.db} viene aggiornato sul posto senza perdere dati.
+ */
+public class SchemaMigrator {
+
+    /**
+     * Un passo di migrazione dello schema.
+     */
+    public interface Migration {
+        int version();
+
+        String description();
+
+        /**
+         * Applica la migrazione. Viene invocato all'interno di una transazione già aperta.
+         */
+        void apply(Connection connection) throws SQLException;
+    }
+
+    private final List<Migration> migrations;
+
+    /**
+     * Costruisce un migratore con le migrazioni dello schema dei libri.
+     */
+    public SchemaMigrator() {
+        this(bookMigrations());
+    }
+
+    /**
+     * @param migrations le migrazioni da applicare, in qualsiasi ordine
+     * @pre le versioni devono essere positive e distinte
+     * @throws IllegalArgumentException se due migrazioni hanno la stessa versione
+     */
+    public SchemaMigrator(List<Migration> migrations) {
+        List<Migration> sorted = new ArrayList<>(migrations);
+        sorted.sort(Comparator.comparingInt(Migration::version));
+        for (int i = 1; i < sorted.size(); i++) {
+            if (sorted.get(i).version() == sorted.get(i - 1).version()) {
+                throw new IllegalArgumentException("Versione di migrazione duplicata: " + sorted.get(i).version());
+            }
+        }
+        this.migrations = Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * @return la versione dello schema raggiunta applicando tutte le migrazioni
+     */
+    public int getLatestVersion() {
+        return migrations.isEmpty() ? 0 : migrations.get(migrations.size() - 1).version();
+    }
+
+    public List<Migration> getMigrations() {
+        return migrations;
+    }
+
+    /**
+     * Porta lo schema del database all'ultima versione.
+     *
+     * @param connection la connessione di scrittura
+     * @return il numero di migrazioni applicate
+     * @pre la connessione deve essere in auto-commit e non usata da altri thread durante la migrazione
+     * @post {@code PRAGMA user_version} vale {@link #getLatestVersion()}, a meno che il database non sia già più recente
+     * @throws SQLException se una migrazione fallisce: quella migrazione viene annullata, le precedenti restano applicate
+     */
+    public int migrate(Connection connection) throws SQLException {
+        int current = getVersion(connection);
+        if (current > getLatestVersion()) {
+            System.err.println("Il database ha lo schema versione " + current
+                    + ", più recente di quello supportato (" + getLatestVersion() + ")");
+            return 0;
+        }
+        int applied = 0;
+        boolean autoCommit = connection.getAutoCommit();
+        for (Migration migration : migrations) {
+            if (migration.version() <= current) {
+                continue;
+            }
+            connection.setAutoCommit(false);
+            try {
+                migration.apply(connection);
+                setVersion(connection, migration.version());
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw new SQLException("Migrazione " + migration.version() + " (" + migration.description()
+                        + ") fallita: " + e.getMessage(), e);
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            System.out.println("Schema aggiornato alla versione " + migration.version() + ": " + migration.description());
+            applied++;
+        }
+        if (applied > 0) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA optimize");
+            }
+        }
+        return applied;
+    }
+
+    public static int getVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA user_version")) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    private static void setVersion(Connection connection, int version) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA user_version = " + version);
+        }
+    }
+
+    /**
+     * Crea una migrazione composta da sole istruzioni SQL, eseguite in ordine.
+     */
+    public static Migration sql(int version, String description, String... statements) {
+        return new Migration() {
+            @Override
+            public int version() {
+                return version;
+            }
+
+            @Override
+            public String description() {
+                return description;
+            }
+
+            @Override
+            public void apply(Connection connection) throws SQLException {
+                try (Statement statement = connection.createStatement()) {
+                    for (String sql : statements) {
+                        statement.execute(sql);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Le migrazioni dello schema dei libri. Le nuove migrazioni vanno aggiunte in fondo con una versione maggiore:
+     * quelle esistenti non devono essere modificate perché potrebbero essere già state applicate.
+     */
+    static List<Migration> bookMigrations() {
+        List<Migration> migrations = new ArrayList<>();
+        migrations.add(sql(1, "tabella books",
+                """
+                CREATE TABLE IF NOT EXISTS books(
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    title TEXT NOT NULL,
+                    author TEXT NOT NULL,
+                    isbn TEXT,
+                    genre TEXT,
+                    rating INTEGER,
+                    readingState TEXT,
+                    coverPath TEXT
+                    )
+                """));
+        //indici con le stesse espressioni generate da getOrderByCriteria: l'ordinamento legge l'indice invece di
+        //costruire un B-tree temporaneo. Il rowid implicito in coda a ogni indice rende l'ordine stabile.
+        migrations.add(sql(2, "indici per ordinamenti e filtri",
+                "CREATE INDEX IF NOT EXISTS idx_books_title ON books(LOWER(title))",
+                "CREATE INDEX IF NOT EXISTS idx_books_author ON books(LOWER(author))",
+                "CREATE INDEX IF NOT EXISTS idx_books_rating_title ON books(rating, LOWER(title))",
+                "CREATE INDEX IF NOT EXISTS idx_books_rating_desc_title ON books(rating DESC, LOWER(title))",
+                "CREATE INDEX IF NOT EXISTS idx_books_rating_author ON books(rating, LOWER(author))",
+                "CREATE INDEX IF NOT EXISTS idx_books_state_title ON books(LOWER(readingState), LOWER(title))",
+                "CREATE INDEX IF NOT EXISTS idx_books_state_author ON books(LOWER(readingState), LOWER(author))",
+                "CREATE INDEX IF NOT EXISTS idx_books_state_rating_title ON books(LOWER(readingState), rating, LOWER(title))",
+                "CREATE INDEX IF NOT EXISTS idx_books_state_rating_desc_title ON books(LOWER(readingState), rating DESC, LOWER(title))"));
+        //indice full-text a contenuto esterno: i testi restano solo in books, i trigger mantengono l'indice allineato
+        migrations.add(sql(3, "indice full-text su titolo, autore e genere",
+                """
+                CREATE VIRTUAL TABLE IF NOT EXISTS books_fts USING fts5(
+                    title, author, genre,
+                    content='books', content_rowid='id',
+                    tokenize='unicode61 remove_diacritics 2',
+                    prefix='2 3')
+                """,
+                """
+                CREATE TRIGGER IF NOT EXISTS books_fts_insert AFTER INSERT ON books BEGIN
+                    INSERT INTO books_fts(rowid, title, author, genre) VALUES (new.id, new.title, new.author, new.genre);
+                END
+                """,
+                """
+                CREATE TRIGGER IF NOT EXISTS books_fts_delete AFTER DELETE ON books BEGIN
+                    INSERT INTO books_fts(books_fts, rowid, title, author, genre) VALUES ('delete', old.id, old.title, old.author, old.genre);
+                END
+                """,
+                """
+                CREATE TRIGGER IF NOT EXISTS books_fts_update AFTER UPDATE OF title, author, genre ON books BEGIN
+                    INSERT INTO books_fts(books_fts, rowid, title, author, genre) VALUES ('delete', old.id, old.title, old.author, old.genre);
+                    INSERT INTO books_fts(rowid, title, author, genre) VALUES (new.id, new.title, new.author, new.genre);
+                END
+                """,
+                "INSERT INTO books_fts(books_fts) VALUES ('rebuild')"));
+        //miniature delle copertine già codificate: la lista le legge con una query invece di decodificare i file.
+        //La miniatura della lista precede quella del dettaglio, così leggerla non attraversa le pagine di overflow
+        //dell'immagine più grande. I trigger eliminano le miniature non più valide, che vengono rigenerate alla lettura
+        migrations.add(sql(4, "miniature delle copertine",
+                """
+                CREATE TABLE IF NOT EXISTS book_thumbnails(
+                    book_id INTEGER PRIMARY KEY,
+                    cover_hash TEXT NOT NULL,
+                    list_image BLOB NOT NULL,
+                    detail_image BLOB NOT NULL
+                    )
+                """,
+                """
+                CREATE TRIGGER IF NOT EXISTS books_thumbnails_delete AFTER DELETE ON books BEGIN
+                    DELETE FROM book_thumbnails WHERE book_id = old.id;
+                END
+                """,
+                """
+                CREATE TRIGGER IF NOT EXISTS books_thumbnails_cover AFTER UPDATE OF coverPath ON books
+                WHEN old.coverPath IS NOT new.coverPath BEGIN
+                    DELETE FROM book_thumbnails WHERE book_id = old.id;
+                END
+                """));
+        //autori e generi normalizzati: ogni nome distinto ha un id, i libri lo riferiscono con author_id e genre_id.
+        //Il testo resta anche in books perché lo leggono l'indice full-text, gli indici di ordinamento e le unioni;
+        //i trigger mantengono gli id allineati per ogni scrittura. AUTOINCREMENT impedisce che l'id di un nome eliminato
+        //venga riassegnato a un altro nome, così chi legge può conservare la corrispondenza id-nome
+        migrations.add(sql(5, "autori e generi normalizzati",
+                "CREATE TABLE IF NOT EXISTS authors(id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL UNIQUE)",
+                "CREATE TABLE IF NOT EXISTS genres(id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL UNIQUE)",
+                "CREATE INDEX IF NOT EXISTS idx_authors_name ON authors(LOWER(name))",
+                "CREATE INDEX IF NOT EXISTS idx_genres_name ON genres(LOWER(name))",
+                "ALTER TABLE books ADD COLUMN author_id INTEGER REFERENCES authors(id)",
+                "ALTER TABLE books ADD COLUMN genre_id INTEGER REFERENCES genres(id)",
+                "INSERT OR IGNORE INTO authors(name) SELECT author FROM books ORDER BY id",
+                "INSERT OR IGNORE INTO genres(name) SELECT genre FROM books WHERE genre <> '' ORDER BY id",
+                """
+                UPDATE books SET
+                    author_id = (SELECT id FROM authors WHERE name = books.author),
+                    genre_id = (SELECT id FROM genres WHERE name = books.genre)
+                """,
+                "CREATE INDEX IF NOT EXISTS idx_books_author_id_title ON books(author_id, LOWER(title))",
+                "CREATE INDEX IF NOT EXISTS idx_books_genre_id ON books(genre_id)",
+                """
+                CREATE TRIGGER IF NOT EXISTS books_dictionary_insert AFTER INSERT ON books BEGIN
+                    INSERT OR IGNORE INTO authors(name) VALUES (new.author);
+                    INSERT OR IGNORE INTO genres(name) SELECT new.genre WHERE new.genre <> '';
+                    UPDATE books SET
+                        author_id = (SELECT id FROM authors WHERE name = new.author),
+                        genre_id = (SELECT id FROM genres WHERE name = new.genre)
+                    WHERE id = new.id;
+                END
+                """,
+                """
+                CREATE TRIGGER IF NOT EXISTS books_dictionary_update AFTER UPDATE OF author, genre ON books
+                WHEN old.author IS NOT new.author OR old.genre IS NOT new.genre BEGIN
+                    INSERT OR IGNORE INTO authors(name) VALUES (new.author);
+                    INSERT OR IGNORE INTO genres(name) SELECT new.genre WHERE new.genre <> '';
+                    UPDATE books SET
+                        author_id = (SELECT id FROM authors WHERE name = new.author),
+                        genre_id = (SELECT id FROM genres WHERE name = new.genre)
+                    WHERE id = new.id;
+                    DELETE FROM authors WHERE id = old.author_id
+                        AND NOT EXISTS (SELECT 1 FROM books WHERE author_id = old.author_id);
+                    DELETE FROM genres WHERE id = old.genre_id
+                        AND NOT EXISTS (SELECT 1 FROM books WHERE genre_id = old.genre_id);
+                END
+                """,
+                """
+                CREATE TRIGGER IF NOT EXISTS books_dictionary_delete AFTER DELETE ON books BEGIN
+                    DELETE FROM authors WHERE id = old.author_id
+                        AND NOT EXISTS (SELECT 1 FROM books WHERE author_id = old.author_id);
+                    DELETE FROM genres WHERE id = old.genre_id
+                        AND NOT EXISTS (SELECT 1 FROM books WHERE genre_id = old.genre_id);
+                END
+                """));
+        migrations.add(isbnKeyMigration(6));
+        //la politica di conflitto dell'istruzione esterna sostituisce quella delle istruzioni dei trigger: dentro
+        //un INSERT ... ON CONFLICT anche INSERT OR IGNORE fallirebbe sui nomi già presenti, quindi si controlla con NOT EXISTS
+        migrations.add(sql(7, "trigger di autori e generi compatibili con gli upsert",
+                "DROP TRIGGER IF EXISTS books_dictionary_insert",
+                "DROP TRIGGER IF EXISTS books_dictionary_update",
+                """
+                CREATE TRIGGER books_dictionary_insert AFTER INSERT ON books BEGIN
+                    INSERT INTO authors(name) SELECT new.author
+                        WHERE NOT EXISTS (SELECT 1 FROM authors WHERE name = new.author);
+                    INSERT INTO genres(name) SELECT new.genre
+                        WHERE new.genre <> '' AND NOT EXISTS (SELECT 1 FROM genres WHERE name = new.genre);
+                    UPDATE books SET
+                        author_id = (SELECT id FROM authors WHERE name = new.author),
+                        genre_id = (SELECT id FROM genres WHERE name = new.genre)
+                    WHERE id = new.id;
+                END
+                """,
+                """
+                CREATE TRIGGER books_dictionary_update AFTER UPDATE OF author, genre ON books
+                WHEN old.author IS NOT new.author OR old.genre IS NOT new.genre BEGIN
+                    INSERT INTO authors(name) SELECT new.author
+                        WHERE NOT EXISTS (SELECT 1 FROM authors WHERE name = new.author);
+                    INSERT INTO genres(name) SELECT new.genre
+                        WHERE new.genre <> '' AND NOT EXISTS (SELECT 1 FROM genres WHERE name = new.genre);
+                    UPDATE books SET
+                        author_id = (SELECT id FROM authors WHERE name = new.author),
+                        genre_id = (SELECT id FROM genres WHERE name = new.genre)
+                    WHERE id = new.id;
+                    DELETE FROM authors WHERE id = old.author_id
+                        AND NOT EXISTS (SELECT 1 FROM books WHERE author_id = old.author_id);
+                    DELETE FROM genres WHERE id = old.genre_id
+                        AND NOT EXISTS (SELECT 1 FROM books WHERE genre_id = old.genre_id);
+                END
+                """));
+        //con un filtro di uguaglianza le righe di un indice sono ordinate per rowid: questi indici servono i filtri
+        //con l'ordinamento di default (id) senza B-tree temporaneo, come gli indici della versione 2 per gli altri
+        //criteri. Quelli su author_id coprono findByAuthorId ordinato per valutazione, LOWER(genre) i conteggi per genere
+        migrations.add(sql(8, "indici per i filtri ordinati per id e per i libri di un autore",
+                "CREATE INDEX IF NOT EXISTS idx_books_state ON books(LOWER(readingState))",
+                "CREATE INDEX IF NOT EXISTS idx_books_rating ON books(rating)",
+                "CREATE INDEX IF NOT EXISTS idx_books_state_rating ON books(LOWER(readingState), rating)",
+                "CREATE INDEX IF NOT EXISTS idx_books_author_id ON books(author_id)",
+                "CREATE INDEX IF NOT EXISTS idx_books_author_id_rating_title ON books(author_id, rating, LOWER(title))",
+                "CREATE INDEX IF NOT EXISTS idx_books_author_id_rating_desc_title ON books(author_id, rating DESC, LOWER(title))",
+                "CREATE INDEX IF NOT EXISTS idx_books_genre ON books(LOWER(genre))"));
+        return migrations;
+    }
+
+    //chiave ISBN canonica in una colonna con indice univoco parziale (solo i libri con un ISBN valido).
+    //La chiave è calcolata in Java da BookIdentity.isbnKey, non con una funzione SQL: il file resta leggibile
+    //anche da strumenti che non la conoscono. I doppioni già presenti tengono la chiave solo sul libro con id minore
+    private static Migration isbnKeyMigration(int version) {
+        return new Migration() {
+            @Override
+            public int version() {
+                return version;
+            }
+
+            @Override
+            public String description() {
+                return "chiave ISBN univoca";
+            }
+
+            @Override
+            public void apply(Connection connection) throws SQLException {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("ALTER TABLE books ADD COLUMN isbn_key TEXT");
+                }
+                Set<String> keys = new HashSet<>();
+                int duplicates = 0;
+                try (Statement select = connection.createStatement();
+                     ResultSet resultSet = select.executeQuery("SELECT id, isbn FROM books WHERE isbn <> '' ORDER BY id");
+                     PreparedStatement update = connection.prepareStatement("UPDATE books SET isbn_key = ? WHERE id = ?")) {
+                    while (resultSet.next()) {
+                        String key = BookIdentity.isbnKey(resultSet.getString(2));
+                        if (key == null) {
+                            continue;
+                        }
+                        if (!keys.add(key)) {
+                            duplicates++;
+                            continue;
+                        }
+                        update.setString(1, key);
+                        update.setInt(2, resultSet.getInt(1));
+                        update.addBatch();
+                    }
+                    update.executeBatch();
+                }
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("CREATE UNIQUE INDEX IF NOT EXISTS idx_books_isbn_key ON books(isbn_key) WHERE isbn_key IS NOT NULL");
+                }
+                if (duplicates > 0) {
+                    System.out.println("Libri con ISBN già presente, lasciati senza chiave: " + duplicates);
+                }
+            }
+        };
+    }
+}
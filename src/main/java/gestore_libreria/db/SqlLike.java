@@ -0,0 +1,61 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.SortCriteria;
+
+/**
+ * Replica in memoria l'operatore LIKE di SQLite, così i repository che non usano il database restituiscono
+ * gli stessi risultati delle query SQL: {@code %} corrisponde a qualsiasi sequenza, {@code _} a un solo carattere
+ * e il confronto ignora maiuscole e minuscole solo per le lettere ASCII.
+ */
+public final class SqlLike {
+
+    private SqlLike() {
+    }
+
+    /**
+     * Equivale a {@code LOWER(value) LIKE LOWER('%' || text || '%')}, la condizione usata dalle ricerche per titolo e autore.
+     *
+     * @param value il valore della colonna, può essere null
+     * @param text il testo cercato, può contenere i caratteri jolly di LIKE
+     * @return {@code true} se il valore contiene il testo
+     */
+    public static boolean contains(String value, String text) {
+        return matches(value, "%" + text + "%");
+    }
+
+    /**
+     * @param value il valore della colonna, può essere null
+     * @param pattern il pattern LIKE
+     * @return {@code true} se il valore corrisponde al pattern; un valore null non corrisponde mai, come in SQL
+     */
+    public static boolean matches(String value, String pattern) {
+        if (value == null || pattern == null) {
+            return false;
+        }
+        String v = SortCriteria.sqlLower(value);
+        String p = SortCriteria.sqlLower(pattern);
+        int vi = 0;
+        int pi = 0;
+        int starPattern = -1;
+        int starValue = 0;
+        while (vi < v.length()) {
+            if (pi < p.length() && p.charAt(pi) == '%') {
+                starPattern = pi++;
+                starValue = vi;
+            } else if (pi < p.length() && (p.charAt(pi) == '_' || p.charAt(pi) == v.charAt(vi))) {
+                pi++;
+                vi++;
+            } else if (starPattern >= 0) {
+                //riprovo facendo assorbire un carattere in più all'ultimo %
+                pi = starPattern + 1;
+                vi = ++starValue;
+            } else {
+                return false;
+            }
+        }
+        while (pi < p.length() && p.charAt(pi) == '%') {
+            pi++;
+        }
+        return pi == p.length();
+    }
+}
@@ -0,0 +1,262 @@
+package gestore_libreria.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Strato di esecuzione delle query legato a una singola {@link Connection}.
+ * Mantiene in cache un {@link PreparedStatement} per ogni stringa SQL, così il database non deve
+ * ricompilare la query ad ogni chiamata, e chiude ogni {@link ResultSet} appena letto.
+ * Tiene traccia di quante volte ogni istruzione viene riutilizzata.
+ *
+ * La cache è limitata: oltre {@link #DEFAULT_MAX_STATEMENTS} istruzioni (o il limite passato al costruttore)
+ * quella usata meno di recente viene chiusa, così le query costruite dinamicamente, come quelle di
+ * {@link BookQuery}, non accumulano statement nativi aperti sulla connessione.
+ */
+public class StatementCache implements AutoCloseable {
+
+    /**
+     * Associa i parametri a un'istruzione preparata.
+     */
+    @FunctionalInterface
+    public interface Binder {
+        void bind(PreparedStatement preparedStatement) throws SQLException;
+    }
+
+    /**
+     * Associa i parametri di un singolo elemento di un batch a un'istruzione preparata.
+     */
+    @FunctionalInterface
+    public interface ItemBinder<T> {
+        void bind(PreparedStatement preparedStatement, T item) throws SQLException;
+    }
+
+    /**
+     * Converte la riga corrente di un {@link ResultSet} in un oggetto.
+     */
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        T map(ResultSet resultSet) throws SQLException;
+
+        /**
+         * Invocato una volta per ogni ResultSet, prima della prima riga: permette di risolvere
+         * gli indici delle colonne una sola volta invece che per ogni riga.
+         *
+         * @return il mapper da usare per le righe di questo ResultSet, per default questo stesso mapper
+         */
+        default RowMapper<T> bind(ResultSet resultSet) throws SQLException {
+            return this;
+        }
+    }
+
+    //numero massimo di istruzioni tenute aperte per connessione
+    public static final int DEFAULT_MAX_STATEMENTS = 64;
+
+    private static final Binder NO_PARAMETERS = preparedStatement -> {};
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements;
+    private final Map<String, Long> reuseCount = new LinkedHashMap<>();
+    private long evictions;
+
+    /**
+     * @param connection la connessione su cui preparare le istruzioni
+     * @pre connection non deve essere null né chiusa
+     */
+    public StatementCache(Connection connection) {
+        this(connection, DEFAULT_MAX_STATEMENTS);
+    }
+
+    /**
+     * @param connection la connessione su cui preparare le istruzioni
+     * @param maxStatements il numero massimo di istruzioni tenute aperte
+     * @pre connection non deve essere null né chiusa
+     * @throws IllegalArgumentException se maxStatements non è positivo
+     */
+    public StatementCache(Connection connection, int maxStatements) {
+        if (maxStatements <= 0) {
+            throw new IllegalArgumentException("La cache deve poter contenere almeno un'istruzione");
+        }
+        this.connection = connection;
+        //in ordine di accesso: la prima voce è quella usata meno di recente
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= maxStatements) {
+                    return false;
+                }
+                closeQuietly(eldest.getValue());
+                //il contatore esce con l'istruzione: le statistiche restano limitate quanto la cache
+                reuseCount.remove(eldest.getKey());
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Restituisce l'istruzione preparata per la stringa SQL, preparandola solo al primo utilizzo.
+     *
+     * @param sql la query da preparare
+     * @return l'istruzione preparata, con i parametri azzerati
+     * @pre l'istruzione va usata prima di preparare la successiva: può essere chiusa se esce dalla cache
+     * @post se l'istruzione era già in cache il contatore di riutilizzo viene incrementato
+     */
+    public synchronized PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement preparedStatement = statements.get(sql);
+        if (preparedStatement == null || preparedStatement.isClosed()) {
+            //le chiavi generate servono solo agli INSERT
+            preparedStatement = isInsert(sql)
+                    ? connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+                    : connection.prepareStatement(sql);
+            statements.put(sql, preparedStatement);
+            reuseCount.putIfAbsent(sql, 0L);
+        } else {
+            preparedStatement.clearParameters();
+            reuseCount.merge(sql, 1L, Long::sum);
+        }
+        return preparedStatement;
+    }
+
+    private static boolean isInsert(String sql) {
+        return sql.stripLeading().regionMatches(true, 0, "INSERT", 0, 6);
+    }
+
+    private static void closeQuietly(PreparedStatement preparedStatement) {
+        try {
+            preparedStatement.close();
+        } catch (SQLException e) {
+            System.err.println("Errore nella chiusura dello statement: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Esegue una query e converte ogni riga restituita; il ResultSet viene chiuso prima di restituire il risultato.
+     *
+     * @return una lista non null, vuota se la query non restituisce righe
+     */
+    public synchronized <T> List<T> query(String sql, Binder binder, RowMapper<T> mapper) throws SQLException {
+        PreparedStatement preparedStatement = prepare(sql);
+        binder.bind(preparedStatement);
+        List<T> results = new ArrayList<>();
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            RowMapper<T> rowMapper = mapper.bind(resultSet);
+            while (resultSet.next()) {
+                results.add(rowMapper.map(resultSet));
+            }
+        }
+        return results;
+    }
+
+    public <T> List<T> query(String sql, RowMapper<T> mapper) throws SQLException {
+        return query(sql, NO_PARAMETERS, mapper);
+    }
+
+    /**
+     * Esegue un'istruzione di modifica (INSERT, UPDATE, DELETE).
+     *
+     * @return il numero di righe modificate
+     */
+    public synchronized int update(String sql, Binder binder) throws SQLException {
+        PreparedStatement preparedStatement = prepare(sql);
+        binder.bind(preparedStatement);
+        return preparedStatement.executeUpdate();
+    }
+
+    /**
+     * Esegue un INSERT e restituisce la chiave generata.
+     *
+     * @return l'id della riga inserita, 0 se il database non ne ha generato uno
+     */
+    public synchronized long insert(String sql, Binder binder) throws SQLException {
+        PreparedStatement preparedStatement = prepare(sql);
+        binder.bind(preparedStatement);
+        preparedStatement.executeUpdate();
+        try (ResultSet keys = preparedStatement.getGeneratedKeys()) {
+            return keys.next() ? keys.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Esegue la stessa istruzione per ogni elemento usando il batching JDBC.
+     * La gestione della transazione è a carico del chiamante.
+     *
+     * @return il numero di righe modificate per ogni elemento
+     */
+    public synchronized <T> int[] batch(String sql, Collection<T> items, ItemBinder<T> binder) throws SQLException {
+        PreparedStatement preparedStatement = prepare(sql);
+        try {
+            for (T item : items) {
+                binder.bind(preparedStatement, item);
+                preparedStatement.addBatch();
+            }
+            return preparedStatement.executeBatch();
+        } finally {
+            preparedStatement.clearBatch();
+        }
+    }
+
+    /**
+     * @param sql la query di cui si vuole conoscere il riutilizzo
+     * @return quante volte l'istruzione è stata riutilizzata senza essere ripreparata, 0 se non è mai stata usata
+     */
+    public synchronized long getReuseCount(String sql) {
+        return reuseCount.getOrDefault(sql, 0L);
+    }
+
+    /**
+     * @return una copia del numero di riutilizzi per ogni istruzione attualmente in cache
+     */
+    public synchronized Map<String, Long> getReuseStatistics() {
+        return new LinkedHashMap<>(reuseCount);
+    }
+
+    /**
+     * @return il numero di istruzioni attualmente preparate e tenute aperte
+     */
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    /**
+     * @return quante istruzioni sono state chiuse perché usate meno di recente con la cache piena
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return {@code true} se la connessione sottostante è ancora aperta
+     */
+    public boolean isValid() {
+        try {
+            return !connection.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Chiude tutte le istruzioni preparate. La connessione resta aperta.
+     *
+     * @post la cache e le statistiche di riutilizzo sono vuote
+     */
+    @Override
+    public synchronized void close() {
+        statements.values().forEach(StatementCache::closeQuietly);
+        statements.clear();
+        reuseCount.clear();
+    }
+}
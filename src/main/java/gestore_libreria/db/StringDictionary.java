@@ -0,0 +1,60 @@
+package gestore_libreria.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dizionario dei valori di una colonna normalizzata (autori o generi): ogni valore distinto letto dal database
+ * è conservato in una sola istanza, condivisa da tutti i libri che lo contengono.
+ * Gli id delle tabelle {@code authors} e {@code genres} non vengono mai riassegnati a un altro nome,
+ * quindi per le righe già viste il valore si ricava dall'id senza decodificare di nuovo il testo.
+ *
+ * Il dizionario è legato a un solo database: i libri letti da database diversi devono usare dizionari diversi.
+ */
+final class StringDictionary {
+
+    private final ConcurrentHashMap<Integer, String> byId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> byValue = new ConcurrentHashMap<>();
+
+    /**
+     * Legge il valore della riga corrente.
+     *
+     * @param resultSet il risultato posizionato sulla riga
+     * @param idColumn l'indice della colonna con l'id del valore, può contenere NULL
+     * @param valueColumn l'indice della colonna con il testo
+     * @return il valore condiviso, null se la colonna è NULL
+     */
+    String read(ResultSet resultSet, int idColumn, int valueColumn) throws SQLException {
+        int id = resultSet.getInt(idColumn);
+        if (resultSet.wasNull()) {
+            return intern(resultSet.getString(valueColumn));
+        }
+        String value = byId.get(id);
+        if (value == null) {
+            value = intern(resultSet.getString(valueColumn));
+            if (value != null) {
+                byId.put(id, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return l'istanza condivisa uguale a value, null se value è null
+     */
+    String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String shared = byValue.putIfAbsent(value, value);
+        return shared == null ? value : shared;
+    }
+
+    /**
+     * @return il numero di valori distinti conservati
+     */
+    int size() {
+        return byValue.size();
+    }
+}
@@ -0,0 +1,591 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Author;
+import gestore_libreria.model.Book;
+import gestore_libreria.model.BookCounts;
+import gestore_libreria.model.CoverThumbnail;
+import gestore_libreria.model.Genre;
+import gestore_libreria.model.MergeResult;
+import gestore_libreria.model.Page;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SearchResult;
+import gestore_libreria.model.SortCriteria;
+import gestore_libreria.model.ThumbnailSize;
+import gestore_libreria.observer.BookChangeListener;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Decoratore che accumula le modifiche (unit of work) e le scrive sul repository delegato tutte insieme,
+ * con {@link BookRepositoryImplementor#applyChanges} e quindi in un'unica transazione.
+ * Il flush avviene allo scadere dell'intervallo configurato, quando le modifiche in attesa raggiungono la soglia
+ * o chiamando {@link #flush()}; dopo ogni flush riuscito viene avvisato il listener, una sola volta.
+ *
+ * Più modifiche allo stesso libro vengono fuse: due aggiornamenti diventano uno, un aggiornamento seguito
+ * da un'eliminazione diventa un'eliminazione, un libro inserito e poi eliminato prima del flush non arriva mai
+ * al database. Finché non viene scritto, un libro inserito ha un id provvisorio negativo, sostituito dall'id
+ * definitivo al flush in tutte le istanze passate a questo repository.
+ *
+ * Se la scrittura dell'intero gruppo fallisce, le modifiche vengono riprovate una per una: quelle accettate dal delegato
+ * vengono scritte, le altre restano in attesa e dopo {@link Builder#maxAttempts} tentativi vengono scartate e riportate
+ * al listener, così una modifica che non può essere scritta non blocca le successive.
+ *
+ * Le letture vedono le modifiche in attesa: il risultato del delegato viene corretto con le modifiche accumulate.
+ * La paginazione e la ricerca full-text non possono essere corrette così e forzano prima un flush: una modifica
+ * rifiutata dal delegato non è visibile a queste letture finché non viene scritta o scartata.
+ * Si costruisce tramite {@link Builder}.
+ */
+public class WriteBehindBookRepository implements BookRepositoryImplementor, AutoCloseable {
+
+    private enum Kind { INSERT, UPDATE, DELETE }
+
+    //una modifica in attesa; per gli inserimenti conserva tutte le istanze che hanno ricevuto l'id provvisorio
+    private static final class Change {
+        final Kind kind;
+        Book book;
+        final List<Book> instances = new ArrayList<>();
+        int attempts;       //flush in cui la modifica, scritta da sola, è stata rifiutata
+
+        Change(Kind kind, Book book) {
+            this.kind = kind;
+            this.book = book;
+            instances.add(book);
+        }
+    }
+
+    /**
+     * Riepilogo di un flush: quante modifiche sono state scritte per ciascun tipo e quali libri sono stati scartati
+     * perché il delegato ha rifiutato la loro modifica per il numero massimo di tentativi.
+     */
+    public record FlushResult(int inserted, int updated, int deleted, List<Book> rejected) {
+
+        public FlushResult {
+            rejected = List.copyOf(rejected);
+        }
+
+        public FlushResult(int inserted, int updated, int deleted) {
+            this(inserted, updated, deleted, List.of());
+        }
+    }
+
+    private final BookRepositoryImplementor delegate;
+    private final int maxPendingChanges;
+    private final int maxAttempts;
+    private final ScheduledExecutorService timer;     //null se il flush periodico è disattivato
+
+    //modifiche in attesa per id, nell'ordine in cui sono state richieste
+    private final Map<Integer, Change> pending = new LinkedHashMap<>();
+    private int nextTemporaryId = -1;
+    private volatile Consumer<FlushResult> flushListener = result -> { };
+
+    private long flushCount;
+    private long coalescedCount;
+    private long failedFlushCount;
+    private long rejectedCount;
+
+    private WriteBehindBookRepository(Builder builder) {
+        this.delegate = builder.delegate;
+        this.maxPendingChanges = builder.maxPendingChanges;
+        this.maxAttempts = builder.maxAttempts;
+        if (builder.flushInterval.isZero()) {
+            this.timer = null;
+        } else {
+            this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "write-behind-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long millis = builder.flushInterval.toMillis();
+            timer.scheduleWithFixedDelay(this::flushQuietly, millis, millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public BookRepositoryImplementor getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @param listener avvisato dopo ogni flush che ha scritto o scartato almeno una modifica, sul thread che ha eseguito il flush
+     */
+    public void setFlushListener(Consumer<FlushResult> listener) {
+        this.flushListener = listener == null ? result -> { } : listener;
+    }
+
+    // ---------------------------------------------------------------- modifiche
+
+    //le modifiche tengono il lock dell'oggetto
+    private void insert(Book book) {
+        int id = nextTemporaryId--;
+        book.setId(id);
+        pending.put(id, new Change(Kind.INSERT, book));
+    }
+
+    private void replace(Book book) {
+        Change change = pending.get(book.getId());
+        if (change == null) {
+            if (book.getId() > 0) {
+                pending.put(book.getId(), new Change(Kind.UPDATE, book));
+            }
+        } else if (change.kind != Kind.DELETE) {
+            //come un UPDATE SQL, l'aggiornamento di un libro eliminato non ha effetto
+            change.book = book;
+            change.instances.add(book);
+            coalescedCount++;
+        }
+    }
+
+    private void remove(Book book) {
+        Change change = pending.get(book.getId());
+        if (change != null && change.kind == Kind.INSERT) {
+            pending.remove(book.getId());       //non è mai arrivato al database
+            coalescedCount++;
+        } else if (book.getId() > 0) {
+            if (change != null) {
+                coalescedCount++;
+            }
+            pending.put(book.getId(), new Change(Kind.DELETE, book));
+        }
+    }
+
+    //il flush per soglia avviene fuori dal lock, così il listener non viene chiamato mentre è tenuto
+    private void flushIfFull() {
+        boolean full;
+        synchronized (this) {
+            full = pending.size() >= maxPendingChanges;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    @Override
+    public boolean save(Book book) {
+        synchronized (this) {
+            insert(book);
+        }
+        flushIfFull();
+        return true;
+    }
+
+    @Override
+    public boolean saveAll(Collection<Book> books) {
+        synchronized (this) {
+            books.forEach(this::insert);
+        }
+        flushIfFull();
+        return true;
+    }
+
+    @Override
+    public boolean update(Book book) {
+        synchronized (this) {
+            replace(book);
+        }
+        flushIfFull();
+        return true;
+    }
+
+    @Override
+    public boolean updateAll(Collection<Book> books) {
+        synchronized (this) {
+            books.forEach(this::replace);
+        }
+        flushIfFull();
+        return true;
+    }
+
+    @Override
+    public boolean delete(Book book) {
+        synchronized (this) {
+            remove(book);
+        }
+        flushIfFull();
+        return true;
+    }
+
+    @Override
+    public boolean deleteAll(Collection<Book> books) {
+        synchronized (this) {
+            books.forEach(this::remove);
+        }
+        flushIfFull();
+        return true;
+    }
+
+    /**
+     * Scrive le modifiche in attesa in un'unica chiamata al delegato e avvisa il listener.
+     * Se il delegato segnala un errore, le modifiche vengono riprovate una alla volta: quelle rifiutate restano in attesa
+     * e, raggiunto il numero massimo di tentativi, vengono scartate e riportate nel risultato.
+     *
+     * @return il riepilogo del flush, oppure null se non c'era nulla da scrivere o nessuna modifica è stata
+     * scritta o scartata
+     */
+    public FlushResult flush() {
+        FlushResult result;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return null;
+            }
+            List<Change> changes = new ArrayList<>(pending.values());
+            List<Change> written = new ArrayList<>();
+            List<Book> rejected = new ArrayList<>();
+            Set<Change> discarded = new HashSet<>();
+            if (apply(changes)) {
+                written.addAll(changes);
+            } else {
+                failedFlushCount++;
+                //una modifica che il delegato rifiuta sempre non deve bloccare le altre
+                for (Change change : changes) {
+                    if (apply(List.of(change))) {
+                        written.add(change);
+                    } else if (++change.attempts >= maxAttempts) {
+                        discarded.add(change);
+                        rejected.add(change.book);
+                        rejectedCount++;
+                        System.err.println("Modifica scartata dopo " + change.attempts + " tentativi: " + change.book);
+                    }
+                }
+                if (written.isEmpty() && rejected.isEmpty()) {
+                    return null;
+                }
+            }
+            int inserted = 0;
+            int updated = 0;
+            int deleted = 0;
+            for (Change change : written) {
+                switch (change.kind) {
+                    case INSERT -> {
+                        inserted++;
+                        //l'id definitivo passa a tutte le istanze che avevano quello provvisorio, ad esempio quelle della cronologia
+                        for (Book instance : change.instances) {
+                            instance.setId(change.book.getId());
+                        }
+                    }
+                    case UPDATE -> updated++;
+                    case DELETE -> deleted++;
+                }
+            }
+            //gli inserimenti scritti hanno già l'id definitivo: si rimuovono per valore e non per chiave
+            discarded.addAll(written);
+            pending.values().removeIf(discarded::contains);
+            flushCount++;
+            result = new FlushResult(inserted, updated, deleted, rejected);
+        }
+        flushListener.accept(result);
+        return result;
+    }
+
+    //scrive le modifiche in un'unica chiamata al delegato; va chiamato con il lock dell'oggetto
+    private boolean apply(List<Change> changes) {
+        List<Book> inserts = new ArrayList<>();
+        List<Book> updates = new ArrayList<>();
+        List<Book> deletes = new ArrayList<>();
+        for (Change change : changes) {
+            switch (change.kind) {
+                case INSERT -> inserts.add(change.book);
+                case UPDATE -> updates.add(change.book);
+                case DELETE -> deletes.add(change.book);
+            }
+        }
+        return delegate.applyChanges(inserts, updates, deletes);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.err.println("Errore nel flush delle modifiche: " + e.getMessage());
+        }
+    }
+
+    // ---------------------------------------------------------------- letture
+
+    //corregge il risultato del delegato con le modifiche in attesa; va chiamato con il lock dell'oggetto
+    private List<Book> overlay(List<Book> stored, Predicate<Book> filter, SortCriteria criteria) {
+        if (pending.isEmpty()) {
+            return stored;
+        }
+        List<Book> books = new ArrayList<>();
+        for (Book book : stored) {
+            if (!pending.containsKey(book.getId())) {
+                books.add(book);
+            }
+        }
+        List<Book> inserted = new ArrayList<>();
+        for (Change change : pending.values()) {
+            if (change.kind != Kind.DELETE && filter.test(change.book)) {
+                (change.kind == Kind.INSERT ? inserted : books).add(change.book);
+            }
+        }
+        SortCriteria sort = criteria == null ? SortCriteria.NONE : criteria;
+        if (sort == SortCriteria.NONE) {
+            //gli id definitivi saranno maggiori di tutti quelli esistenti: i nuovi libri vanno in fondo
+            books.sort(sort.comparator());
+            books.addAll(inserted);
+        } else {
+            books.addAll(inserted);
+            books.sort(sort.comparator());
+        }
+        return books;
+    }
+
+    @Override
+    public synchronized List<Book> loadAll(SortCriteria criteria) {
+        return overlay(delegate.loadAll(criteria), book -> true, criteria);
+    }
+
+    @Override
+    public synchronized List<Book> findByTitle(String title, SortCriteria criteria) {
+        return overlay(delegate.findByTitle(title, criteria), book -> SqlLike.contains(book.getTitle(), title), criteria);
+    }
+
+    @Override
+    public synchronized List<Book> findByRating(int rating, SortCriteria criteria) {
+        return overlay(delegate.findByRating(rating, criteria), book -> book.getRating() == rating, criteria);
+    }
+
+    @Override
+    public synchronized List<Book> findByReadingState(String readingState, SortCriteria criteria) {
+        String state = SortCriteria.sqlLower(readingState.trim());
+        return overlay(delegate.findByReadingState(readingState, criteria),
+                book -> SortCriteria.sqlLower(book.getReadingState()).equals(state), criteria);
+    }
+
+    @Override
+    public synchronized List<Book> findByAuthor(String author, SortCriteria criteria) {
+        return overlay(delegate.findByAuthor(author, criteria), book -> SqlLike.contains(book.getAuthor(), author), criteria);
+    }
+
+    /**
+     * Con modifiche in attesa il delegato viene interrogato senza limite, perché alcuni dei suoi libri potrebbero
+     * essere sostituiti o eliminati, e il limite viene applicato dopo la correzione.
+     * Le ricerche sull'id eseguono prima il flush: i libri non ancora scritti hanno un id provvisorio.
+     */
+    @Override
+    public List<Book> find(BookQuery query) {
+        if (query.constrains(BookQuery.Field.ID)) {
+            flush();
+        }
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return delegate.find(query);
+            }
+            BookQuery unlimited = new BookQuery.Builder(query).limit(0).build();
+            List<Book> books = overlay(delegate.find(unlimited), query::matches, query.getSort());
+            return query.hasLimit() && books.size() > query.getLimit()
+                    ? new ArrayList<>(books.subList(0, query.getLimit())) : books;
+        }
+    }
+
+    /**
+     * Esegue prima il flush, così l'unione confronta i libri importati anche con le modifiche in attesa.
+     */
+    @Override
+    public MergeResult importBooks(Path source) {
+        flush();
+        return delegate.importBooks(source);
+    }
+
+    /**
+     * Esegue prima il flush, così i libri in attesa vengono confrontati con quelli da inserire.
+     */
+    @Override
+    public MergeResult upsertAll(Collection<Book> books) {
+        flush();
+        return delegate.upsertAll(books);
+    }
+
+    /**
+     * Esegue prima il flush: per correggere i conteggi del delegato servirebbe la versione salvata
+     * di ogni libro modificato, che qui non è disponibile.
+     */
+    @Override
+    public BookCounts countBooks() {
+        flush();
+        return delegate.countBooks();
+    }
+
+    /**
+     * Esegue prima il flush: autori e generi sono registrati dai trigger del delegato quando i libri vengono scritti.
+     */
+    @Override
+    public List<Author> listAuthors() {
+        flush();
+        return delegate.listAuthors();
+    }
+
+    @Override
+    public List<Genre> listGenres() {
+        flush();
+        return delegate.listGenres();
+    }
+
+    //gli eventi arrivano quando il repository sottostante conferma le scritture
+    @Override
+    public boolean addChangeListener(BookChangeListener listener) {
+        return delegate.addChangeListener(listener);
+    }
+
+    @Override
+    public void removeChangeListener(BookChangeListener listener) {
+        delegate.removeChangeListener(listener);
+    }
+
+    @Override
+    public List<Book> findByAuthorId(int authorId, SortCriteria criteria) {
+        flush();
+        return delegate.findByAuthorId(authorId, criteria);
+    }
+
+    /**
+     * Le miniature vengono lette e scritte direttamente nel delegato, senza flush: quelle dei libri non ancora scritti,
+     * che hanno un id provvisorio, vengono ignorate e generate di nuovo alla prima lettura dopo il flush.
+     */
+    @Override
+    public Map<Integer, byte[]> loadThumbnails(Collection<Integer> bookIds, ThumbnailSize size) {
+        return delegate.loadThumbnails(bookIds, size);
+    }
+
+    @Override
+    public Map<Integer, String> loadThumbnailHashes(Collection<Integer> bookIds) {
+        return delegate.loadThumbnailHashes(bookIds);
+    }
+
+    @Override
+    public boolean saveThumbnails(Collection<CoverThumbnail> thumbnails) {
+        return delegate.saveThumbnails(thumbnails);
+    }
+
+    /**
+     * Esegue prima il flush: il cursore si basa sugli id definitivi.
+     */
+    @Override
+    public Page loadPage(SortCriteria criteria, PageCursor cursor, int limit) {
+        flush();
+        return delegate.loadPage(criteria, cursor, limit);
+    }
+
+    /**
+     * Esegue prima il flush: il rank viene calcolato dall'indice full-text del delegato.
+     */
+    @Override
+    public List<SearchResult> fullTextSearch(String query, SortCriteria criteria) {
+        flush();
+        return delegate.fullTextSearch(query, criteria);
+    }
+
+    // ---------------------------------------------------------------- stato
+
+    /**
+     * @return il numero di libri con modifiche non ancora scritte
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * @return quante modifiche sono state fuse con una precedente dello stesso libro invece di essere scritte
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    public synchronized long getFailedFlushCount() {
+        return failedFlushCount;
+    }
+
+    /**
+     * @return quante modifiche sono state scartate perché il delegato le ha rifiutate per il numero massimo di tentativi
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Ferma il flush periodico e scrive le modifiche ancora in attesa.
+     */
+    @Override
+    public void close() {
+        if (timer != null) {
+            timer.shutdown();
+        }
+        flush();
+    }
+
+    //builder per la configurazione della unit of work
+    public static class Builder {
+
+        //obbligatorio
+        private final BookRepositoryImplementor delegate;
+
+        //facoltativi
+        private Duration flushInterval = Duration.ofMillis(500);
+        private int maxPendingChanges = 100;
+        private int maxAttempts = 3;
+
+        /**
+         * @param delegate il repository su cui scrivere le modifiche
+         * @throws IllegalArgumentException se delegate è null
+         */
+        public Builder(BookRepositoryImplementor delegate) {
+            if (delegate == null) {
+                throw new IllegalArgumentException("Il repository delegato è obbligatorio");
+            }
+            this.delegate = delegate;
+        }
+
+        /**
+         * @param flushInterval ogni quanto scrivere le modifiche in attesa; {@link Duration#ZERO} disattiva il flush periodico
+         */
+        public Builder flushInterval(Duration flushInterval) {
+            if (flushInterval == null || flushInterval.isNegative()) {
+                throw new IllegalArgumentException("L'intervallo di flush non può essere negativo");
+            }
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        /**
+         * @param maxPendingChanges il numero di libri modificati che provoca un flush immediato
+         */
+        public Builder maxPendingChanges(int maxPendingChanges) {
+            if (maxPendingChanges <= 0) {
+                throw new IllegalArgumentException("La soglia deve essere positiva");
+            }
+            this.maxPendingChanges = maxPendingChanges;
+            return this;
+        }
+
+        /**
+         * @param maxAttempts quante volte una modifica rifiutata dal delegato viene riprovata prima di essere scartata
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts <= 0) {
+                throw new IllegalArgumentException("Il numero di tentativi deve essere positivo");
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public WriteBehindBookRepository build() {
+            return new WriteBehindBookRepository(this);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package gestore_libreria.io;
+
+import gestore_libreria.db.BookManager;
+import gestore_libreria.model.Book;
+import gestore_libreria.model.SortCriteria;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Esporta la libreria in CSV o JSON Lines, eventualmente compressi con gzip.
+ * I libri vengono letti con {@link BookManager#streamAllBooks(SortCriteria)} e scritti uno alla volta,
+ * quindi né la tabella né il file esistono mai per intero in memoria.
+ * Il file viene scritto accanto alla destinazione e spostato al suo posto solo alla fine, come per {@code DatabaseBackup}.
+ * Si costruisce tramite {@link Builder}.
+ */
+public class BookExporter {
+
+    /**
+     * @param books i libri esportati
+     * @param bytes la dimensione del file prodotto
+     */
+    public record Result(long books, long bytes) {
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final BookManager manager;
+    private final SortCriteria sort;
+    private final BookFormat format;
+    private final int progressInterval;
+
+    private BookExporter(Builder builder) {
+        this.manager = builder.manager;
+        this.sort = builder.sort;
+        this.format = builder.format;
+        this.progressInterval = builder.progressInterval;
+    }
+
+    /**
+     * Esporta tutti i libri nel file indicato, sostituendolo se esiste già. Da chiamare fuori dall'EDT.
+     * Il thread può essere interrotto: l'esportazione si ferma e la destinazione non viene toccata.
+     *
+     * @param target il file di destinazione; l'estensione sceglie il formato se non è stato indicato nel builder
+     * @param listener avvisato ogni {@code progressInterval} libri, può essere null
+     * @pre target non deve essere null
+     * @post se il metodo termina senza eccezioni target contiene tutti i libri letti
+     * @return il numero di libri scritti e la dimensione del file
+     * @throws IOException se il file non può essere scritto; in quel caso target non viene modificato
+     * @throws IllegalArgumentException se il formato non è indicato e l'estensione non è riconosciuta
+     */
+    public Result exportTo(Path target, ProgressListener listener) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        BookFormat targetFormat = format != null ? format : BookFormat.of(absolute);
+        Path partial = absolute.resolveSibling(absolute.getFileName() + ".part");
+        long total = manager.countBooks().getTotal();
+        long written = 0;
+        try {
+            OutputStream out = new BufferedOutputStream(Files.newOutputStream(partial), BUFFER_SIZE);
+            if (BookFormat.isCompressed(absolute)) {
+                out = new GZIPOutputStream(out, BUFFER_SIZE);
+            }
+            try (RecordWriter writer = targetFormat.writer(
+                    new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE));
+                 Stream<Book> books = manager.streamAllBooks(sort)) {
+                Iterator<Book> iterator = books.iterator();
+                while (iterator.hasNext()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Esportazione interrotta");
+                    }
+                    writer.write(iterator.next());
+                    written++;
+                    if (listener != null && written % progressInterval == 0) {
+                        listener.progress(written, Math.max(total, written));
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        try {
+            Files.move(partial, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partial, absolute, StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (listener != null) {
+            listener.progress(written, written);
+        }
+        return new Result(written, Files.size(absolute));
+    }
+
+    public static class Builder {
+
+        private final BookManager manager;
+        private SortCriteria sort = SortCriteria.NONE;
+        private BookFormat format;
+        private int progressInterval = 1000;
+
+        /**
+         * @param manager il manager da cui leggere i libri
+         * @throws IllegalArgumentException se manager è null
+         */
+        public Builder(BookManager manager) {
+            if (manager == null) {
+                throw new IllegalArgumentException("Il manager è obbligatorio");
+            }
+            this.manager = manager;
+        }
+
+        public Builder sortBy(SortCriteria sort) {
+            this.sort = sort == null ? SortCriteria.NONE : sort;
+            return this;
+        }
+
+        /**
+         * @param format il formato da scrivere, null per ricavarlo dall'estensione del file
+         */
+        public Builder format(BookFormat format) {
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * @param progressInterval ogni quanti libri avvisare il listener, deve essere positivo
+         */
+        public Builder progressInterval(int progressInterval) {
+            if (progressInterval <= 0) {
+                throw new IllegalArgumentException("L'intervallo di avanzamento deve essere positivo");
+            }
+            this.progressInterval = progressInterval;
+            return this;
+        }
+
+        public BookExporter build() {
+            return new BookExporter(this);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package gestore_libreria.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * I formati di scambio dei cataloghi. Il formato si ricava dall'estensione del file; l'estensione {@code .gz}
+ * aggiunta in fondo indica un file compresso con gzip, ad esempio {@code libri.csv.gz}.
+ */
+public enum BookFormat {
+
+    CSV(".csv") {
+        @Override
+        RecordReader reader(Reader in, int maxRecordLength) {
+            return new CsvRecords.CsvReader(in, maxRecordLength);
+        }
+
+        @Override
+        RecordWriter writer(Writer out) throws IOException {
+            return new CsvRecords.CsvWriter(out);
+        }
+    },
+
+    JSON_LINES(".jsonl", ".ndjson") {
+        @Override
+        RecordReader reader(Reader in, int maxRecordLength) {
+            return new JsonLinesRecords.JsonLinesReader(in, maxRecordLength);
+        }
+
+        @Override
+        RecordWriter writer(Writer out) {
+            return new JsonLinesRecords.JsonLinesWriter(out);
+        }
+    };
+
+    public static final String GZIP_EXTENSION = ".gz";
+
+    private final String[] extensions;
+
+    BookFormat(String... extensions) {
+        this.extensions = extensions;
+    }
+
+    /**
+     * @return l'estensione con cui vengono proposti i file di questo formato
+     */
+    public String getExtension() {
+        return extensions[0];
+    }
+
+    abstract RecordReader reader(Reader in, int maxRecordLength);
+
+    abstract RecordWriter writer(Writer out) throws IOException;
+
+    /**
+     * @param file il file da leggere o scrivere
+     * @pre file non deve essere null
+     * @return il formato corrispondente all'estensione del file, ignorando un eventuale {@code .gz} finale
+     * @throws IllegalArgumentException se l'estensione non corrisponde a nessun formato
+     */
+    public static BookFormat of(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(GZIP_EXTENSION)) {
+            name = name.substring(0, name.length() - GZIP_EXTENSION.length());
+        }
+        for (BookFormat format : values()) {
+            for (String extension : format.extensions) {
+                if (name.endsWith(extension)) {
+                    return format;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Formato non riconosciuto per il file " + file.getFileName()
+                + ": usare .csv o .jsonl, eventualmente seguiti da .gz");
+    }
+
+    /**
+     * @return true se il nome del file chiede la compressione gzip
+     */
+    public static boolean isCompressed(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(GZIP_EXTENSION);
+    }
+}
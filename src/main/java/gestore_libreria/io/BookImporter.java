@@ -0,0 +1,385 @@
+package gestore_libreria.io;
+
+import gestore_libreria.db.BookManager;
+import gestore_libreria.model.Book;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Importa un catalogo CSV o JSON Lines, eventualmente compresso con gzip, in tre fasi collegate da code limitate:
+ * <ol>
+ *     <li>lettura: un thread decomprime e interpreta il file un record alla volta;</li>
+ *     <li>validazione: un secondo thread trasforma i record in libri, scarta quelli non validi e forma i blocchi;</li>
+ *     <li>inserimento: il thread chiamante scrive ogni blocco con {@link BookManager#appendBooks} in un'unica transazione.</li>
+ * </ol>
+ * Le code hanno capacità fissa, quindi quando il database rallenta le fasi precedenti si fermano: in memoria ci sono
+ * al massimo {@code queueCapacity} record e pochi blocchi, qualunque sia la dimensione del file.
+ *
+ * Dopo il commit di ogni blocco viene salvato un {@link ImportCheckpoint}; se l'importazione si interrompe,
+ * la successiva sullo stesso file salta i record già elaborati e riprende dal blocco seguente.
+ * I file compressi non permettono di spostarsi a metà, quindi i record già elaborati vengono riletti ma non reinseriti.
+ * Si costruisce tramite {@link Builder}.
+ */
+public class BookImporter {
+
+    /**
+     * @param inserted i libri scritti, compresi quelli delle esecuzioni precedenti riprese dal checkpoint; un libro
+     *                 con un ISBN già presente completa quello esistente invece di duplicarlo
+     * @param rejected i record scartati, compresi quelli delle esecuzioni precedenti
+     * @param resumedFrom i record saltati perché già elaborati da un'esecuzione precedente, 0 se l'importazione è partita da capo
+     * @param errors i motivi dei primi record scartati in questa esecuzione
+     */
+    public record Result(long inserted, long rejected, long resumedFrom, List<String> errors) {
+    }
+
+    //i motivi conservati nel risultato: gli altri record scartati vengono solo contati
+    static final int MAX_ERRORS = 100;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    //blocchi pronti in attesa dell'inserimento
+    private static final int BATCH_QUEUE_CAPACITY = 2;
+
+    //fine della fase precedente
+    private static final Parsed END_OF_RECORDS = new Parsed(null, -1);
+    private static final Batch END_OF_BATCHES = new Batch(List.of(), -1, 0, List.of(), -1);
+
+    private record Parsed(ParsedRecord record, long position) {
+    }
+
+    /**
+     * @param last il numero dell'ultimo record elaborato nel blocco
+     * @param position i byte del file letti fino all'ultimo record
+     */
+    private record Batch(List<Book> books, long last, long rejected, List<String> errors, long position) {
+    }
+
+    private final BookManager manager;
+    private final BookFormat format;
+    private final int batchSize;
+    private final int queueCapacity;
+    private final int maxRecordLength;
+    private final Path checkpoint;
+
+    private BookImporter(Builder builder) {
+        this.manager = builder.manager;
+        this.format = builder.format;
+        this.batchSize = builder.batchSize;
+        this.queueCapacity = builder.queueCapacity;
+        this.maxRecordLength = builder.maxRecordLength;
+        this.checkpoint = builder.checkpoint;
+    }
+
+    /**
+     * Importa il file indicato. Da chiamare fuori dall'EDT. Il thread può essere interrotto: i blocchi già scritti
+     * restano nel database e il checkpoint permette di riprendere.
+     * Gli osservatori del manager non vengono notificati per ogni blocco: al termine il chiamante aggiorna la vista una volta.
+     *
+     * @param source il file da importare
+     * @param listener avvisato dopo ogni blocco con i byte letti e la dimensione del file, può essere null
+     * @pre source non deve essere null
+     * @post se il metodo termina senza eccezioni tutti i record validi del file sono nel database e il checkpoint è stato eliminato
+     * @return i libri inseriti e i record scartati
+     * @throws IOException se il file non può essere letto, è danneggiato o un blocco non può essere scritto;
+     * i blocchi precedenti restano scritti e registrati nel checkpoint
+     * @throws IllegalArgumentException se il formato non è indicato e l'estensione non è riconosciuta
+     */
+    public Result importFrom(Path source, ProgressListener listener) throws IOException {
+        Path absolute = source.toAbsolutePath();
+        BookFormat sourceFormat = format != null ? format : BookFormat.of(absolute);
+        long size = Files.size(absolute);
+        ImportCheckpoint resume = checkpoint == null ? null : ImportCheckpoint.load(checkpoint, absolute);
+        long skip = resume == null ? 0 : resume.records();
+        long inserted = resume == null ? 0 : resume.inserted();
+        long rejected = resume == null ? 0 : resume.rejected();
+        List<String> errors = new ArrayList<>();
+
+        BlockingQueue<Parsed> records = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(BATCH_QUEUE_CAPACITY);
+        ExecutorService stages = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            Future<?> reading = stages.submit(() -> {
+                parse(absolute, sourceFormat, skip, records);
+                return null;
+            });
+            Future<?> validation = stages.submit(() -> {
+                validate(skip, records, batches);
+                return null;
+            });
+            while (true) {
+                Batch batch = batches.take();
+                if (batch == END_OF_BATCHES) {
+                    break;
+                }
+                if (!batch.books().isEmpty() && !manager.appendBooks(batch.books())) {
+                    throw new IOException("Inserimento dei libri fino al record " + batch.last() + " non riuscito");
+                }
+                inserted += batch.books().size();
+                rejected += batch.rejected();
+                errors.addAll(batch.errors());
+                if (checkpoint != null) {
+                    ImportCheckpoint.at(absolute, batch.last(), inserted, rejected).save(checkpoint);
+                }
+                if (listener != null) {
+                    listener.progress(batch.position(), size);
+                }
+            }
+            //la validazione termina per prima: se è fallita la lettura potrebbe essere ferma sulla coda piena
+            await(validation);
+            await(reading);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Importazione interrotta");
+        } finally {
+            stages.shutdownNow();
+            stages.close();
+        }
+        if (checkpoint != null) {
+            Files.deleteIfExists(checkpoint);
+        }
+        if (listener != null) {
+            listener.progress(size, size);
+        }
+        return new Result(inserted, rejected, skip, List.copyOf(errors));
+    }
+
+    private static void await(Future<?> stage) throws IOException, InterruptedException {
+        try {
+            stage.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Prima fase: legge i record dopo quelli già elaborati e li accoda.
+     * Al termine, anche per un errore, accoda la fine dei record; se invece la fase è stata interrotta, anche
+     * la validazione è stata interrotta da {@code shutdownNow} e nessuno legge più la coda, che può essere piena:
+     * la fine non viene accodata, altrimenti l'attesa non terminerebbe mai.
+     */
+    private void parse(Path source, BookFormat sourceFormat, long skip, BlockingQueue<Parsed> records)
+            throws IOException, InterruptedException {
+        boolean interrupted = false;
+        try (CountingInputStream counter = new CountingInputStream(Files.newInputStream(source));
+             RecordReader reader = sourceFormat.reader(new BufferedReader(
+                     new InputStreamReader(decompress(counter), StandardCharsets.UTF_8), BUFFER_SIZE), maxRecordLength)) {
+            ParsedRecord record;
+            while ((record = reader.next()) != null) {
+                if (record.number() > skip) {
+                    records.put(new Parsed(record, counter.count));
+                }
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+            throw e;
+        } finally {
+            if (!interrupted) {
+                records.put(END_OF_RECORDS);
+            }
+        }
+    }
+
+    //gzip si riconosce dai primi due byte, qualunque sia il nome del file
+    private static InputStream decompress(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        if (first == (GZIPInputStream.GZIP_MAGIC & 0xff) && second == (GZIPInputStream.GZIP_MAGIC >> 8)) {
+            return new GZIPInputStream(buffered, BUFFER_SIZE);
+        }
+        return buffered;
+    }
+
+    /**
+     * Seconda fase: valida i record e forma i blocchi; ogni blocco copre batchSize record, validi o scartati.
+     * Come {@link #parse}, accoda la fine dei blocchi solo se non è stata interrotta: l'interruzione arriva quando
+     * l'inserimento è già terminato con un errore e non legge più la coda.
+     */
+    private void validate(long skip, BlockingQueue<Parsed> records, BlockingQueue<Batch> batches) throws InterruptedException {
+        boolean interrupted = false;
+        try {
+            List<Book> books = new ArrayList<>(batchSize);
+            List<String> errors = new ArrayList<>();
+            long rejected = 0;
+            long reported = 0;
+            long last = skip;
+            long sent = skip;
+            long position = 0;
+            while (true) {
+                Parsed parsed = records.take();
+                if (parsed == END_OF_RECORDS) {
+                    break;
+                }
+                ParsedRecord record = parsed.record();
+                last = record.number();
+                position = parsed.position();
+                String error = record.error();
+                if (error == null) {
+                    try {
+                        books.add(BookRecords.toBook(record.fields()));
+                    } catch (IllegalArgumentException e) {
+                        error = e.getMessage();
+                    }
+                }
+                if (error != null) {
+                    rejected++;
+                    if (reported++ < MAX_ERRORS) {
+                        errors.add("record " + record.number() + " (riga " + record.line() + "): " + error);
+                    }
+                }
+                if (last - sent >= batchSize) {
+                    batches.put(new Batch(books, last, rejected, errors, position));
+                    books = new ArrayList<>(batchSize);
+                    errors = new ArrayList<>();
+                    rejected = 0;
+                    sent = last;
+                }
+            }
+            if (last > sent) {
+                batches.put(new Batch(books, last, rejected, errors, position));
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+            throw e;
+        } finally {
+            if (!interrupted) {
+                batches.put(END_OF_BATCHES);
+            }
+        }
+    }
+
+    //conta i byte letti dal file, compressi se il file è compresso
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    public static class Builder {
+
+        private final BookManager manager;
+        private BookFormat format;
+        private int batchSize = 500;
+        private int queueCapacity = 1024;
+        private int maxRecordLength = 64 * 1024;
+        private Path checkpoint;
+
+        /**
+         * @param manager il manager in cui inserire i libri
+         * @throws IllegalArgumentException se manager è null
+         */
+        public Builder(BookManager manager) {
+            if (manager == null) {
+                throw new IllegalArgumentException("Il manager è obbligatorio");
+            }
+            this.manager = manager;
+        }
+
+        /**
+         * @param format il formato da leggere, null per ricavarlo dall'estensione del file
+         */
+        public Builder format(BookFormat format) {
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * @param batchSize i record per blocco, e quindi per transazione e per checkpoint; deve essere positivo
+         */
+        public Builder batchSize(int batchSize) {
+            if (batchSize <= 0) {
+                throw new IllegalArgumentException("La dimensione dei blocchi deve essere positiva");
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param queueCapacity i record letti che possono attendere la validazione, deve essere positivo
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            if (queueCapacity <= 0) {
+                throw new IllegalArgumentException("La capacità della coda deve essere positiva");
+            }
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * @param maxRecordLength i caratteri oltre i quali un record è considerato danneggiato, deve essere positivo.
+         * Una riga JSON più lunga viene scartata; un record CSV più lungo, di solito per virgolette non chiuse,
+         * interrompe l'importazione perché non si può sapere dove inizi il record successivo
+         */
+        public Builder maxRecordLength(int maxRecordLength) {
+            if (maxRecordLength <= 0) {
+                throw new IllegalArgumentException("La lunghezza massima dei record deve essere positiva");
+            }
+            this.maxRecordLength = maxRecordLength;
+            return this;
+        }
+
+        /**
+         * @param checkpoint il file in cui salvare l'avanzamento per poter riprendere, null per non salvarlo
+         */
+        public Builder checkpoint(Path checkpoint) {
+            this.checkpoint = checkpoint;
+            return this;
+        }
+
+        public BookImporter build() {
+            return new BookImporter(this);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package gestore_libreria.io;
+
+import gestore_libreria.model.Book;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Colonne dei file di scambio e conversione tra un libro e i suoi campi testuali.
+ * CSV e JSON Lines usano gli stessi nomi, così un record letto da uno dei due formati viene validato allo stesso modo.
+ * L'id non viene esportato: all'importazione ogni libro riceve un id nuovo dal database di destinazione.
+ */
+final class BookRecords {
+
+    static final String TITLE = "title";
+    static final String AUTHOR = "author";
+    static final String ISBN = "isbn";
+    static final String GENRE = "genre";
+    static final String RATING = "rating";
+    static final String READING_STATE = "readingState";
+    static final String COVER_PATH = "coverPath";
+
+    static final List<String> COLUMNS = List.of(TITLE, AUTHOR, ISBN, GENRE, RATING, READING_STATE, COVER_PATH);
+
+    private BookRecords() {
+    }
+
+    /**
+     * @return il nome della colonna con le maiuscole di {@link #COLUMNS}, null se la colonna non è riconosciuta
+     */
+    static String column(String name) {
+        String trimmed = name.trim();
+        for (String column : COLUMNS) {
+            if (column.equalsIgnoreCase(trimmed)) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return i valori del libro nell'ordine di {@link #COLUMNS}; i campi facoltativi possono essere null
+     */
+    static String[] values(Book book) {
+        return new String[]{book.getTitle(), book.getAuthor(), book.getIsbn(), book.getGenre(),
+                Integer.toString(book.getRating()), book.getReadingState(), book.getCoverPath()};
+    }
+
+    /**
+     * Valida i campi di un record e costruisce il libro. I campi facoltativi assenti prendono i valori predefiniti
+     * del {@link Book.Builder}; i testi non vengono modificati, così un'esportazione reimportata è identica all'originale.
+     *
+     * @param fields i campi del record, indicizzati con i nomi di {@link #COLUMNS}
+     * @pre fields non deve essere null
+     * @return il libro, senza id
+     * @throws IllegalArgumentException se il record non descrive un libro valido; il messaggio spiega il motivo
+     */
+    static Book toBook(Map<String, String> fields) {
+        String title = fields.get(TITLE);
+        if (title == null || title.isBlank()) {
+            throw new IllegalArgumentException("titolo mancante");
+        }
+        String author = fields.get(AUTHOR);
+        if (author == null || author.isBlank()) {
+            throw new IllegalArgumentException("autore mancante");
+        }
+        Book.Builder builder = new Book.Builder(title, author)
+                .rating(rating(fields.get(RATING)));
+        String readingState = fields.get(READING_STATE);
+        if (readingState != null && !readingState.isBlank()) {
+            builder.readingState(readingState.trim());
+        }
+        String isbn = fields.get(ISBN);
+        if (isbn != null) {
+            builder.isbn(isbn);
+        }
+        String genre = fields.get(GENRE);
+        if (genre != null) {
+            builder.genre(genre);
+        }
+        String coverPath = fields.get(COVER_PATH);
+        if (coverPath != null) {
+            builder.coverPath(coverPath);
+        }
+        return builder.build();
+    }
+
+    private static int rating(String value) {
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("valutazione non numerica: " + value);
+        }
+    }
+}
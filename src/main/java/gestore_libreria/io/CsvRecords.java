@@ -0,0 +1,241 @@
+package gestore_libreria.io;
+
+import gestore_libreria.model.Book;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CSV secondo la RFC 4180: virgola come separatore, campi tra virgolette quando contengono virgole, virgolette
+ * o a capo, virgolette interne raddoppiate. La prima riga è l'intestazione: le colonne vengono riconosciute per nome
+ * in qualunque ordine e quelle sconosciute vengono ignorate.
+ */
+final class CsvRecords {
+
+    private static final String LINE_END = "\r\n";
+    private static final char BOM = '\uFEFF';
+
+    private CsvRecords() {
+    }
+
+    static final class CsvReader implements RecordReader {
+
+        private final Reader in;
+        private final int maxRecordLength;
+        private final StringBuilder field = new StringBuilder();
+        //nome della colonna per ogni posizione dell'intestazione, null per le colonne ignorate
+        private String[] header;
+        private long line = 1;
+        private long number;
+        private int pushedBack = -2;
+
+        /**
+         * @param in il testo da leggere, già bufferizzato
+         * @param maxRecordLength i caratteri oltre i quali un record è considerato danneggiato
+         */
+        CsvReader(Reader in, int maxRecordLength) {
+            this.in = in;
+            this.maxRecordLength = maxRecordLength;
+        }
+
+        @Override
+        public ParsedRecord next() throws IOException {
+            if (header == null) {
+                readHeader();
+            }
+            List<String> values;
+            long start;
+            do {
+                start = line;
+                values = readRecord();
+                if (values == null) {
+                    return null;
+                }
+            } while (values.size() == 1 && values.get(0).isEmpty());      //righe vuote
+            number++;
+            Map<String, String> fields = new HashMap<>();
+            for (int i = 0; i < Math.min(values.size(), header.length); i++) {
+                if (header[i] != null) {
+                    fields.put(header[i], values.get(i));
+                }
+            }
+            String error = values.size() == header.length ? null
+                    : "attese " + header.length + " colonne, trovate " + values.size();
+            return new ParsedRecord(number, start, fields, error);
+        }
+
+        private void readHeader() throws IOException {
+            int first = read();
+            if (first != BOM) {
+                unread(first);
+            }
+            List<String> names = readRecord();
+            if (names == null) {
+                throw new IOException("File CSV vuoto: manca l'intestazione");
+            }
+            header = new String[names.size()];
+            for (int i = 0; i < header.length; i++) {
+                header[i] = BookRecords.column(names.get(i));
+            }
+            List<String> columns = Arrays.asList(header);
+            if (!columns.contains(BookRecords.TITLE) || !columns.contains(BookRecords.AUTHOR)) {
+                throw new IOException("Intestazione CSV senza le colonne " + BookRecords.TITLE + " e " + BookRecords.AUTHOR);
+            }
+        }
+
+        //legge i campi di un record, che con i campi tra virgolette può occupare più righe; null a fine file
+        private List<String> readRecord() throws IOException {
+            List<String> values = new ArrayList<>();
+            field.setLength(0);
+            long start = line;
+            boolean quoted = false;
+            boolean fieldStart = true;
+            int length = 0;
+            while (true) {
+                int c = read();
+                if (c == -1) {
+                    if (quoted) {
+                        throw new IOException("Virgolette non chiuse nel record che inizia alla riga " + start);
+                    }
+                    if (length == 0) {
+                        return null;
+                    }
+                    values.add(field.toString());
+                    return values;
+                }
+                if (++length > maxRecordLength) {
+                    throw new IOException("Il record che inizia alla riga " + start + " supera " + maxRecordLength + " caratteri");
+                }
+                if (quoted) {
+                    if (c == '"') {
+                        int next = read();
+                        if (next == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            unread(next);
+                        }
+                    } else {
+                        if (c == '\n') {
+                            line++;
+                        }
+                        field.append((char) c);
+                    }
+                    continue;
+                }
+                switch (c) {
+                    case '"' -> {
+                        if (fieldStart) {
+                            quoted = true;
+                        } else {
+                            field.append('"');
+                        }
+                    }
+                    case ',' -> {
+                        values.add(field.toString());
+                        field.setLength(0);
+                        fieldStart = true;
+                        continue;
+                    }
+                    case '\r', '\n' -> {
+                        if (c == '\r') {
+                            int next = read();
+                            if (next != '\n') {
+                                unread(next);
+                            }
+                        }
+                        line++;
+                        values.add(field.toString());
+                        return values;
+                    }
+                    default -> field.append((char) c);
+                }
+                fieldStart = false;
+            }
+        }
+
+        private int read() throws IOException {
+            if (pushedBack != -2) {
+                int c = pushedBack;
+                pushedBack = -2;
+                return c;
+            }
+            return in.read();
+        }
+
+        private void unread(int c) {
+            pushedBack = c;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    static final class CsvWriter implements RecordWriter {
+
+        private final Writer out;
+
+        CsvWriter(Writer out) throws IOException {
+            this.out = out;
+            writeRow(BookRecords.COLUMNS.toArray(new String[0]));
+        }
+
+        @Override
+        public void write(Book book) throws IOException {
+            writeRow(BookRecords.values(book));
+        }
+
+        private void writeRow(String[] values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeField(values[i]);
+            }
+            out.write(LINE_END);
+        }
+
+        //i campi null diventano vuoti
+        private void writeField(String value) throws IOException {
+            if (value == null || value.isEmpty()) {
+                return;
+            }
+            if (!needsQuotes(value)) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    out.write('"');
+                }
+                out.write(c);
+            }
+            out.write('"');
+        }
+
+        private static boolean needsQuotes(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
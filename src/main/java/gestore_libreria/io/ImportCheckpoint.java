@@ -0,0 +1,78 @@
+package gestore_libreria.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Il punto fino al quale un'importazione è stata scritta nel database, salvato dopo il commit di ogni blocco.
+ * Il file viene sostituito in modo atomico, così dopo un'interruzione contiene sempre un blocco completo.
+ * Vale solo per lo stesso file sorgente: se dimensione o data di modifica cambiano l'importazione riparte da capo.
+ *
+ * @param source il percorso assoluto del file importato
+ * @param size la dimensione del file importato
+ * @param lastModified la data di modifica del file importato, in millisecondi
+ * @param records i record del file già elaborati, compresi quelli scartati
+ * @param inserted i libri inseriti finora
+ * @param rejected i record scartati finora
+ */
+record ImportCheckpoint(String source, long size, long lastModified, long records, long inserted, long rejected) {
+
+    /**
+     * @return il checkpoint salvato in file, null se il file non esiste o appartiene a un'altra sorgente
+     * @throws IOException se il file esiste ma non può essere letto
+     */
+    static ImportCheckpoint load(Path file, Path source) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        try {
+            ImportCheckpoint checkpoint = new ImportCheckpoint(properties.getProperty("source"),
+                    Long.parseLong(properties.getProperty("size")),
+                    Long.parseLong(properties.getProperty("lastModified")),
+                    Long.parseLong(properties.getProperty("records")),
+                    Long.parseLong(properties.getProperty("inserted")),
+                    Long.parseLong(properties.getProperty("rejected")));
+            ImportCheckpoint current = at(source, checkpoint.records, checkpoint.inserted, checkpoint.rejected);
+            return checkpoint.equals(current) ? checkpoint : null;
+        } catch (NumberFormatException e) {
+            throw new IOException("Checkpoint di importazione non valido: " + file, e);
+        }
+    }
+
+    /**
+     * @return il checkpoint dello stato indicato per il file sorgente
+     */
+    static ImportCheckpoint at(Path source, long records, long inserted, long rejected) throws IOException {
+        return new ImportCheckpoint(source.toAbsolutePath().toString(), Files.size(source),
+                Files.getLastModifiedTime(source).toMillis(), records, inserted, rejected);
+    }
+
+    void save(Path file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("source", source);
+        properties.setProperty("size", Long.toString(size));
+        properties.setProperty("lastModified", Long.toString(lastModified));
+        properties.setProperty("records", Long.toString(records));
+        properties.setProperty("inserted", Long.toString(inserted));
+        properties.setProperty("rejected", Long.toString(rejected));
+        Path partial = file.resolveSibling(file.getFileName() + ".part");
+        try (OutputStream out = Files.newOutputStream(partial)) {
+            properties.store(out, "Importazione in corso");
+        }
+        try {
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
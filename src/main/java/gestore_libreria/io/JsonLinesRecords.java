@@ -0,0 +1,288 @@
+package gestore_libreria.io;
+
+import gestore_libreria.model.Book;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JSON Lines: un oggetto JSON per riga, con i campi di {@link BookRecords#COLUMNS}.
+ * Si leggono solo oggetti piatti con valori stringa, numero, booleano o null: è quello che produce l'esportazione
+ * e basta per i cataloghi di altri programmi. Una riga non valida viene scartata e la lettura prosegue dalla successiva.
+ */
+final class JsonLinesRecords {
+
+    private JsonLinesRecords() {
+    }
+
+    static final class JsonLinesReader implements RecordReader {
+
+        private final Reader in;
+        private final int maxRecordLength;
+        private final StringBuilder text = new StringBuilder();
+        private long line;
+        private long number;
+
+        /**
+         * @param in il testo da leggere, già bufferizzato
+         * @param maxRecordLength i caratteri oltre i quali una riga viene scartata senza essere interpretata
+         */
+        JsonLinesReader(Reader in, int maxRecordLength) {
+            this.in = in;
+            this.maxRecordLength = maxRecordLength;
+        }
+
+        @Override
+        public ParsedRecord next() throws IOException {
+            while (true) {
+                int length = readLine();
+                if (length < 0) {
+                    return null;
+                }
+                line++;
+                if (length > maxRecordLength) {
+                    return new ParsedRecord(++number, line, Map.of(), "riga più lunga di " + maxRecordLength + " caratteri");
+                }
+                if (text.toString().isBlank()) {
+                    continue;
+                }
+                number++;
+                try {
+                    return new ParsedRecord(number, line, new ObjectParser(text).parse(), null);
+                } catch (IllegalArgumentException e) {
+                    return new ParsedRecord(number, line, Map.of(), "JSON non valido: " + e.getMessage());
+                }
+            }
+        }
+
+        //legge una riga in text; oltre il limite i caratteri vengono contati ma non conservati.
+        //Restituisce la lunghezza della riga, -1 a fine file
+        private int readLine() throws IOException {
+            text.setLength(0);
+            int length = 0;
+            int c = in.read();
+            if (c == -1) {
+                return -1;
+            }
+            while (c != -1 && c != '\n') {
+                if (++length <= maxRecordLength) {
+                    text.append((char) c);
+                }
+                c = in.read();
+            }
+            if (!text.isEmpty() && text.charAt(text.length() - 1) == '\r') {
+                text.setLength(text.length() - 1);
+            }
+            return length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    //analizzatore ricorsivo per un solo oggetto piatto
+    private static final class ObjectParser {
+
+        private final CharSequence text;
+        private int position;
+
+        ObjectParser(CharSequence text) {
+            this.text = text;
+        }
+
+        Map<String, String> parse() {
+            Map<String, String> fields = new HashMap<>();
+            expect('{');
+            skipSpaces();
+            if (peek() == '}') {
+                position++;
+            } else {
+                while (true) {
+                    skipSpaces();
+                    String name = string();
+                    expect(':');
+                    String value = value();
+                    String column = BookRecords.column(name);
+                    if (column != null) {
+                        fields.put(column, value);
+                    }
+                    skipSpaces();
+                    char c = next();
+                    if (c == '}') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw new IllegalArgumentException("atteso ',' o '}' alla posizione " + position);
+                    }
+                }
+            }
+            skipSpaces();
+            if (position < text.length()) {
+                throw new IllegalArgumentException("testo dopo la fine dell'oggetto");
+            }
+            return fields;
+        }
+
+        //i numeri e i booleani vengono restituiti come testo, null come null
+        private String value() {
+            skipSpaces();
+            char c = peek();
+            if (c == '"') {
+                return string();
+            }
+            if (c == '{' || c == '[') {
+                throw new IllegalArgumentException("oggetti e array annidati non sono supportati");
+            }
+            int start = position;
+            while (position < text.length() && "-+.eE0123456789truefalsn".indexOf(text.charAt(position)) >= 0) {
+                position++;
+            }
+            String literal = text.subSequence(start, position).toString();
+            if (literal.equals("null")) {
+                return null;
+            }
+            if (literal.isEmpty() || !(literal.equals("true") || literal.equals("false") || isNumber(literal))) {
+                throw new IllegalArgumentException("valore non valido alla posizione " + start);
+            }
+            return literal;
+        }
+
+        private static boolean isNumber(String literal) {
+            try {
+                Double.parseDouble(literal);
+                return Character.isDigit(literal.charAt(literal.length() - 1));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char escape = next();
+                switch (escape) {
+                    case '"', '\\', '/' -> value.append(escape);
+                    case 'b' -> value.append('\b');
+                    case 'f' -> value.append('\f');
+                    case 'n' -> value.append('\n');
+                    case 'r' -> value.append('\r');
+                    case 't' -> value.append('\t');
+                    case 'u' -> {
+                        if (position + 4 > text.length()) {
+                            throw new IllegalArgumentException("sequenza \\u incompleta");
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.subSequence(position, position + 4).toString(), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("sequenza \\u non valida alla posizione " + position);
+                        }
+                        position += 4;
+                    }
+                    default -> throw new IllegalArgumentException("escape \\" + escape + " non valido");
+                }
+            }
+        }
+
+        private void expect(char expected) {
+            skipSpaces();
+            if (next() != expected) {
+                throw new IllegalArgumentException("atteso '" + expected + "' alla posizione " + (position - 1));
+            }
+        }
+
+        private char next() {
+            if (position >= text.length()) {
+                throw new IllegalArgumentException("fine della riga inattesa");
+            }
+            return text.charAt(position++);
+        }
+
+        private char peek() {
+            if (position >= text.length()) {
+                throw new IllegalArgumentException("fine della riga inattesa");
+            }
+            return text.charAt(position);
+        }
+
+        private void skipSpaces() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+    }
+
+    static final class JsonLinesWriter implements RecordWriter {
+
+        private static final List<String> NUMERIC = List.of(BookRecords.RATING);
+
+        private final Writer out;
+
+        JsonLinesWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(Book book) throws IOException {
+            String[] values = BookRecords.values(book);
+            out.write('{');
+            for (int i = 0; i < values.length; i++) {
+                String column = BookRecords.COLUMNS.get(i);
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeString(column);
+                out.write(':');
+                if (values[i] == null) {
+                    out.write("null");
+                } else if (NUMERIC.contains(column)) {
+                    out.write(values[i]);
+                } else {
+                    writeString(values[i]);
+                }
+            }
+            out.write("}\n");
+        }
+
+        private void writeString(String value) throws IOException {
+            out.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"' -> out.write("\\\"");
+                    case '\\' -> out.write("\\\\");
+                    case '\n' -> out.write("\\n");
+                    case '\r' -> out.write("\\r");
+                    case '\t' -> out.write("\\t");
+                    default -> {
+                        if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                            out.write(String.format("\\u%04x", (int) c));
+                        } else {
+                            out.write(c);
+                        }
+                    }
+                }
+            }
+            out.write('"');
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package gestore_libreria.io;
+
+import java.util.Map;
+
+/**
+ * Un record letto da un file di importazione, prima della validazione.
+ *
+ * @param number la posizione del record nel file, a partire da 1; è la base dei checkpoint di ripresa
+ * @param line la riga del file in cui il record inizia
+ * @param fields i campi riconosciuti, indicizzati con i nomi di {@link BookRecords#COLUMNS}
+ * @param error il motivo per cui il record non può essere interpretato, null se la lettura è riuscita
+ */
+record ParsedRecord(long number, long line, Map<String, String> fields, String error) {
+}
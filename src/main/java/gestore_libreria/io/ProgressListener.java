@@ -0,0 +1,15 @@
+package gestore_libreria.io;
+
+/**
+ * Avvisato durante un'importazione o un'esportazione, sul thread che la esegue.
+ * Per le importazioni l'unità sono i byte letti dal file, per le esportazioni i libri scritti.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    /**
+     * @param done la parte già elaborata
+     * @param total il totale previsto
+     */
+    void progress(long done, long total);
+}
@@ -0,0 +1,17 @@
+package gestore_libreria.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Legge un file di importazione un record alla volta: in memoria c'è solo il record corrente.
+ */
+interface RecordReader extends Closeable {
+
+    /**
+     * @return il prossimo record, null a fine file. Un record che non può essere interpretato viene
+     * restituito con {@link ParsedRecord#error()} valorizzato e la lettura può proseguire
+     * @throws IOException se il file non può essere letto o è danneggiato al punto da non poter proseguire
+     */
+    ParsedRecord next() throws IOException;
+}
@@ -0,0 +1,14 @@
+package gestore_libreria.io;
+
+import gestore_libreria.model.Book;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Scrive i libri in un file di esportazione uno alla volta.
+ */
+interface RecordWriter extends Closeable {
+
+    void write(Book book) throws IOException;
+}
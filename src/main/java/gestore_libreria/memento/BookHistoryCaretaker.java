@@ -69,14 +69,21 @@ public class BookHistoryCaretaker {
      * @return il memento ripristinato o {@code null} se non disponibile
      * @pre lo stack undo può essere vuoto ma restituisce null
      * @post se disponibile il memento viene rimosso dallo stack undo e spostato nello stack redo.
-     * @post se presente un listener, viene notificato con {@code ActionDirection.UNDO}
+     * @post se presente un listener, viene notificato con {@code ActionDirection.UNDO}; se il listener lancia
+     * un'eccezione il memento torna nello stack undo e l'eccezione viene rilanciata
      */
     public BookMemento undo() {
         if (!undoStack.isEmpty()) {
             BookMemento memento = undoStack.pop();
             redoStack.push(memento);        //prendo il memento dalla pila undo e lo sposto nella pila redo
             if (restoreListener != null) {
-                restoreListener.restore(memento, ActionDirection.UNDO);
+                try {
+                    restoreListener.restore(memento, ActionDirection.UNDO);
+                } catch (RuntimeException e) {
+                    redoStack.pop();        //il ripristino non è avvenuto: l'operazione resta da annullare
+                    undoStack.push(memento);
+                    throw e;
+                }
             }
             return memento;
         }
@@ -88,14 +95,21 @@ public class BookHistoryCaretaker {
      * @return il memento ripristinato o {@code null} se non disponibile
      * @pre lo stack redo può essere vuoto ma restituisce null
      * @post se disponibile il memento viene rimosso dallo stack redo e spostato nello stack undo.
-     * @post se presente un listener, viene notificato con {@code ActionDirection.REDO}
+     * @post se presente un listener, viene notificato con {@code ActionDirection.REDO}; se il listener lancia
+     * un'eccezione il memento torna nello stack redo e l'eccezione viene rilanciata
      */
     public BookMemento redo() {
         if (!redoStack.isEmpty()) {
             BookMemento memento = redoStack.pop();
             undoStack.push(memento);
             if (restoreListener != null) {
-                restoreListener.restore(memento, ActionDirection.REDO);
+                try {
+                    restoreListener.restore(memento, ActionDirection.REDO);
+                } catch (RuntimeException e) {
+                    undoStack.pop();
+                    redoStack.push(memento);
+                    throw e;
+                }
             }
             return memento;
         }
@@ -2,6 +2,11 @@ package gestore_libreria.memento;
 
 import gestore_libreria.model.Book;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Rappresenta un memento contenente lo stato di un oggetto {@link Book}
  * e il tipo di operazione eseguita (ADD, REMOVE e UPDATE)
@@ -21,6 +26,10 @@ public class BookMemento {
     private final OperationType operationType;      //il tipo di operazione
     private final Book previousBookState;       // lo stato del libro prima dell'operazione
 
+    // per le operazioni massive conservo tutti i libri coinvolti, per quelle singole una lista di un elemento
+    private final List<Book> bookStates;
+    private final List<Book> previousBookStates;
+
     // costruttore
 
     /**
@@ -42,6 +51,8 @@ public class BookMemento {
         this.bookState = bookState;
         this.operationType = operationType;
         this.previousBookState = null;
+        this.bookStates = Collections.singletonList(bookState);
+        this.previousBookStates = Collections.emptyList();
     }
 
     /**
@@ -65,6 +76,58 @@ public class BookMemento {
         this.bookState = bookState;
         this.previousBookState = previousBookState;
         this.operationType = operationType;
+        this.bookStates = Collections.singletonList(bookState);
+        this.previousBookStates = Collections.singletonList(previousBookState);
+    }
+
+    /**
+     * Costruttore per operazioni massive di tipo ADD o REMOVE, registrate come un'unica voce della cronologia.
+     *
+     * @param bookStates stati dei libri dopo l'operazione
+     * @param operationType tipo di operazione (solo ADD o REMOVE)
+     * @pre {@code bookStates} non deve essere null né vuota
+     * @pre {@code operationType == ADD || operationType == REMOVE}
+     * @post il memento rappresenta l'intera operazione massiva
+     * @throws IllegalArgumentException se {@code operationType == UPDATE} o se {@code bookStates} è vuota
+     */
+    public BookMemento(Collection<Book> bookStates, OperationType operationType) {
+        if(operationType == OperationType.UPDATE){
+            throw new IllegalArgumentException("Update operation not supported");
+        }
+        if(bookStates == null || bookStates.isEmpty()){
+            throw new IllegalArgumentException("Book list must not be empty");
+        }
+        this.bookStates = Collections.unmodifiableList(new ArrayList<>(bookStates));
+        this.previousBookStates = Collections.emptyList();
+        this.bookState = this.bookStates.get(0);
+        this.operationType = operationType;
+        this.previousBookState = null;
+    }
+
+    /**
+     * Costruttore per operazioni massive di tipo UPDATE.
+     *
+     * @param bookStates stati dei libri dopo l'update
+     * @param operationType deve essere {@code UPDATE}
+     * @param previousBookStates stati dei libri prima dell'update, nello stesso ordine di {@code bookStates}
+     * @pre {@code bookStates} e {@code previousBookStates} non devono essere null e devono avere la stessa dimensione
+     * @pre {@code operationType == UPDATE}
+     * @post il memento rappresenta l'intera operazione massiva con stati precedenti e successivi
+     * @throws IllegalArgumentException se {@code operationType != UPDATE} o se le liste non sono coerenti
+     */
+    public BookMemento(List<Book> bookStates, OperationType operationType, List<Book> previousBookStates) {
+        if(operationType == OperationType.ADD || operationType == OperationType.REMOVE){
+            throw new IllegalArgumentException("Add operation and Remove operation not supported");
+        }
+        if(bookStates == null || bookStates.isEmpty() || previousBookStates == null
+                || previousBookStates.size() != bookStates.size()){
+            throw new IllegalArgumentException("Book lists must be non empty and of the same size");
+        }
+        this.bookStates = Collections.unmodifiableList(new ArrayList<>(bookStates));
+        this.previousBookStates = Collections.unmodifiableList(new ArrayList<>(previousBookStates));
+        this.bookState = this.bookStates.get(0);
+        this.previousBookState = this.previousBookStates.get(0);
+        this.operationType = operationType;
     }
 
     public Book getBookState() {
@@ -79,6 +142,21 @@ public class BookMemento {
         return previousBookState;
     }
 
+    public List<Book> getBookStates() {
+        return bookStates;
+    }
+
+    public List<Book> getPreviousBookStates() {
+        return previousBookStates;
+    }
+
+    /**
+     * @return {@code true} se il memento registra più di un libro
+     */
+    public boolean isBatch() {
+        return bookStates.size() > 1;
+    }
+
     @Override
     public String toString() {
         return "BookMemento{" +
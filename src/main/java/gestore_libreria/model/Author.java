@@ -0,0 +1,11 @@
+package gestore_libreria.model;
+
+/**
+ * Un autore della libreria, come registrato nella tabella {@code authors}: ogni nome distinto compare una sola volta.
+ *
+ * @param id l'id dell'autore, stabile finché l'autore ha almeno un libro
+ * @param name il nome, scritto esattamente come nei libri
+ * @param books il numero di libri dell'autore
+ */
+public record Author(int id, String name, int books) {
+}
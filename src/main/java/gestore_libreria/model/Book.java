@@ -1,5 +1,7 @@
 package gestore_libreria.model;
 
+import java.util.Objects;
+
 public class Book {
     //dichiaro le variabili del libro
     private int id;
@@ -151,11 +153,10 @@ public class Book {
             return this;
         }
 
+        //lo stato non viene validato: i filtri lo confrontano senza distinguere maiuscole e minuscole.
+        //Niente espressioni regolari qui, il builder viene usato per ogni riga letta dal database
         public Builder readingState(String state) {
-            if (!state.matches("letto|in lettura|da leggere"))
-                this.readingState = "da leggere";
-                //throw new IllegalArgumentException("Stato non valido");
-            this.readingState = state;
+            this.readingState = Objects.requireNonNull(state, "Lo stato di lettura non può essere null");
             return this;
         }
 
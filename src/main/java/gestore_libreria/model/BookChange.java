@@ -0,0 +1,20 @@
+package gestore_libreria.model;
+
+/**
+ * La modifica di un singolo libro confermata da una transazione.
+ *
+ * @param type il tipo di modifica
+ * @param bookId l'id del libro modificato
+ */
+public record BookChange(Type type, int bookId) {
+
+    /**
+     * Il tipo di modifica: più modifiche dello stesso libro nella stessa transazione sono già riassunte in una sola
+     * (un libro inserito e poi aggiornato risulta inserito, uno inserito e poi eliminato non compare).
+     */
+    public enum Type {
+        INSERTED,
+        UPDATED,
+        DELETED,
+    }
+}
@@ -0,0 +1,47 @@
+package gestore_libreria.model;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Le modifiche ai libri confermate da una transazione, nell'ordine in cui ogni libro è stato modificato per la prima volta.
+ *
+ * @param transaction il numero progressivo della transazione, crescente nell'ordine dei commit
+ * @param changes una modifica per ogni libro coinvolto
+ */
+public record BookChangeEvent(long transaction, List<BookChange> changes) {
+
+    public BookChangeEvent {
+        changes = List.copyOf(changes);
+    }
+
+    /**
+     * @return gli id dei libri con una modifica del tipo indicato, nell'ordine dell'evento
+     */
+    public Set<Integer> ids(BookChange.Type type) {
+        Set<Integer> ids = new LinkedHashSet<>();
+        for (BookChange change : changes) {
+            if (change.type() == type) {
+                ids.add(change.bookId());
+            }
+        }
+        return ids;
+    }
+
+    public Set<Integer> inserted() {
+        return ids(BookChange.Type.INSERTED);
+    }
+
+    public Set<Integer> updated() {
+        return ids(BookChange.Type.UPDATED);
+    }
+
+    public Set<Integer> deleted() {
+        return ids(BookChange.Type.DELETED);
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+}
@@ -0,0 +1,45 @@
+package gestore_libreria.model;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * I libri aggiunti, rimossi e aggiornati da un'operazione del manager, con il loro stato dopo l'operazione
+ * (quello dei libri rimossi è l'ultimo noto). Permette agli osservatori di aggiornare solo le righe coinvolte
+ * invece di rileggere l'intera libreria.
+ *
+ * @param added i libri inseriti, con l'id già assegnato
+ * @param removed i libri eliminati
+ * @param updated i libri modificati, con i nuovi dati
+ */
+public record BookChangeSet(List<Book> added, List<Book> removed, List<Book> updated) {
+
+    public BookChangeSet {
+        added = List.copyOf(added);
+        removed = List.copyOf(removed);
+        updated = List.copyOf(updated);
+    }
+
+    public static BookChangeSet added(Collection<Book> books) {
+        return new BookChangeSet(List.copyOf(books), List.of(), List.of());
+    }
+
+    public static BookChangeSet removed(Collection<Book> books) {
+        return new BookChangeSet(List.of(), List.copyOf(books), List.of());
+    }
+
+    public static BookChangeSet updated(Collection<Book> books) {
+        return new BookChangeSet(List.of(), List.of(), List.copyOf(books));
+    }
+
+    /**
+     * @return il numero di libri coinvolti
+     */
+    public int size() {
+        return added.size() + removed.size() + updated.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+}
@@ -0,0 +1,169 @@
+package gestore_libreria.model;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Numero di libri della libreria, in totale e raggruppati per stato di lettura, valutazione e genere.
+ * Stato e genere sono raggruppati ignorando maiuscole e minuscole, come fanno i filtri ({@link SortCriteria#sqlLower(String)}):
+ * le chiavi delle mappe sono quindi in minuscolo. I libri con genere null non sono contati in nessun genere.
+ */
+public final class BookCounts {
+
+    public static final BookCounts EMPTY = new Builder().build();
+
+    private final int total;
+    private final Map<String, Integer> byReadingState;
+    private final Map<Integer, Integer> byRating;
+    private final Map<String, Integer> byGenre;
+
+    private BookCounts(Builder builder) {
+        this.total = builder.total;
+        this.byReadingState = Collections.unmodifiableMap(new TreeMap<>(builder.byReadingState));
+        this.byRating = Collections.unmodifiableMap(new TreeMap<>(builder.byRating));
+        this.byGenre = Collections.unmodifiableMap(new TreeMap<>(builder.byGenre));
+    }
+
+    /**
+     * Conta i libri scorrendoli uno alla volta, per i repository che non hanno un modo più veloce.
+     *
+     * @param books i libri da contare
+     * @return i conteggi
+     */
+    public static BookCounts of(Iterable<Book> books) {
+        Builder builder = new Builder();
+        for (Book book : books) {
+            builder.add(book);
+        }
+        return builder.build();
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @param readingState lo stato di lettura, confrontato come nel filtro per stato
+     * @return il numero di libri con quello stato, 0 se non ce ne sono
+     */
+    public int getReadingStateCount(String readingState) {
+        return byReadingState.getOrDefault(SortCriteria.sqlLower(readingState.trim()), 0);
+    }
+
+    /**
+     * @return il numero di libri con quella valutazione, 0 se non ce ne sono
+     */
+    public int getRatingCount(int rating) {
+        return byRating.getOrDefault(rating, 0);
+    }
+
+    /**
+     * @return il numero di libri di quel genere, senza distinguere maiuscole e minuscole, 0 se non ce ne sono
+     */
+    public int getGenreCount(String genre) {
+        return byGenre.getOrDefault(SortCriteria.sqlLower(genre), 0);
+    }
+
+    public Map<String, Integer> getByReadingState() {
+        return byReadingState;
+    }
+
+    public Map<Integer, Integer> getByRating() {
+        return byRating;
+    }
+
+    public Map<String, Integer> getByGenre() {
+        return byGenre;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BookCounts)) {
+            return false;
+        }
+        BookCounts other = (BookCounts) o;
+        return total == other.total
+                && byReadingState.equals(other.byReadingState)
+                && byRating.equals(other.byRating)
+                && byGenre.equals(other.byGenre);
+    }
+
+    @Override
+    public int hashCode() {
+        return ((total * 31 + byReadingState.hashCode()) * 31 + byRating.hashCode()) * 31 + byGenre.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "BookCounts{" +
+                "total=" + total +
+                ", byReadingState=" + byReadingState +
+                ", byRating=" + byRating +
+                ", byGenre=" + byGenre +
+                '}';
+    }
+
+    /**
+     * Builder dei conteggi: i valori possono essere impostati per gruppo, come arrivano da una query GROUP BY,
+     * oppure accumulati libro per libro.
+     */
+    public static class Builder {
+
+        private int total;
+        private final Map<String, Integer> byReadingState = new TreeMap<>();
+        private final Map<Integer, Integer> byRating = new TreeMap<>();
+        private final Map<String, Integer> byGenre = new TreeMap<>();
+
+        public Builder total(int total) {
+            this.total = total;
+            return this;
+        }
+
+        /**
+         * @param readingState lo stato, già ridotto in minuscolo; ignorato se null
+         * @param count il numero di libri, i gruppi vuoti non vengono memorizzati
+         */
+        public Builder readingState(String readingState, int count) {
+            return put(byReadingState, readingState, count);
+        }
+
+        public Builder rating(int rating, int count) {
+            return put(byRating, rating, count);
+        }
+
+        /**
+         * @param genre il genere, già ridotto in minuscolo; ignorato se null
+         */
+        public Builder genre(String genre, int count) {
+            return put(byGenre, genre, count);
+        }
+
+        private <K> Builder put(Map<K, Integer> counts, K key, int count) {
+            if (key != null && count > 0) {
+                counts.put(key, count);
+            }
+            return this;
+        }
+
+        /**
+         * Conta un libro in più nel totale e nei suoi gruppi.
+         */
+        public Builder add(Book book) {
+            total++;
+            byReadingState.merge(SortCriteria.sqlLower(book.getReadingState()), 1, Integer::sum);
+            byRating.merge(book.getRating(), 1, Integer::sum);
+            if (book.getGenre() != null) {
+                byGenre.merge(SortCriteria.sqlLower(book.getGenre()), 1, Integer::sum);
+            }
+            return this;
+        }
+
+        public BookCounts build() {
+            return new BookCounts(this);
+        }
+    }
+}
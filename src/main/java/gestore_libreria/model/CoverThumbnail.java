@@ -0,0 +1,20 @@
+package gestore_libreria.model;
+
+/**
+ * Le miniature già codificate della copertina di un libro, in tutte le {@link ThumbnailSize}.
+ *
+ * @param bookId l'id del libro
+ * @param coverHash l'impronta SHA-256 del file di copertina da cui sono state generate: se il file cambia,
+ *                  le miniature vanno rigenerate
+ * @param list l'immagine codificata per la lista
+ * @param detail l'immagine codificata per il dettaglio
+ */
+public record CoverThumbnail(int bookId, String coverHash, byte[] list, byte[] detail) {
+
+    /**
+     * @return l'immagine codificata della dimensione richiesta
+     */
+    public byte[] image(ThumbnailSize size) {
+        return size == ThumbnailSize.LIST ? list : detail;
+    }
+}
@@ -0,0 +1,11 @@
+package gestore_libreria.model;
+
+/**
+ * Un genere della libreria, come registrato nella tabella {@code genres}. I libri senza genere non ne hanno nessuno.
+ *
+ * @param id l'id del genere, stabile finché il genere ha almeno un libro
+ * @param name il nome, scritto esattamente come nei libri
+ * @param books il numero di libri del genere
+ */
+public record Genre(int id, String name, int books) {
+}
@@ -0,0 +1,20 @@
+package gestore_libreria.model;
+
+/**
+ * Esito dell'unione di un'altra libreria in quella corrente.
+ *
+ * @param inserted i libri nuovi aggiunti alla libreria
+ * @param updated i libri già presenti di cui sono stati completati i dati mancanti
+ * @param skipped i libri già presenti senza nulla da aggiungere, compresi i doppioni all'interno della libreria importata
+ */
+public record MergeResult(int inserted, int updated, int skipped) {
+
+    public static final MergeResult EMPTY = new MergeResult(0, 0, 0);
+
+    /**
+     * @return il numero di libri letti dalla libreria importata
+     */
+    public int total() {
+        return inserted + updated + skipped;
+    }
+}
@@ -0,0 +1,52 @@
+package gestore_libreria.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Una pagina di libri ottenuta con la paginazione keyset, insieme al cursore per leggere la successiva.
+ */
+public final class Page {
+
+    private final List<Book> books;
+    private final PageCursor nextCursor;
+
+    /**
+     * @param books i libri della pagina, nell'ordine richiesto
+     * @param nextCursor il cursore della pagina successiva, null se questa è l'ultima
+     * @pre books non deve essere null
+     */
+    public Page(List<Book> books, PageCursor nextCursor) {
+        this.books = Collections.unmodifiableList(books);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Costruisce una pagina a partire da {@code limit + 1} libri letti: la presenza del libro in più indica che
+     * esiste una pagina successiva, senza bisogno di contare le righe.
+     *
+     * @param fetched i libri letti, al massimo {@code limit + 1}
+     * @param limit la dimensione della pagina
+     * @param criteria il criterio di ordinamento
+     * @return la pagina con al massimo {@code limit} libri
+     */
+    public static Page of(List<Book> fetched, int limit, SortCriteria criteria) {
+        if (fetched.size() <= limit) {
+            return new Page(fetched, null);
+        }
+        List<Book> books = fetched.subList(0, limit);
+        return new Page(books, PageCursor.after(books.get(limit - 1), criteria));
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    public PageCursor getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,140 @@
+package gestore_libreria.model;
+
+/**
+ * Posizione all'interno di un elenco ordinato di libri, usata per la paginazione keyset.
+ * Invece di un OFFSET, che costringe il database a scorrere tutte le righe precedenti, il cursore memorizza
+ * la chiave di ordinamento e l'id dell'ultimo libro letto: la pagina successiva parte subito dopo.
+ */
+public final class PageCursor {
+
+    private static final PageCursor FIRST = new PageCursor(null, 0, null, null, 0);
+
+    private final SortCriteria criteria;
+    private final int id;
+    private final String title;
+    private final String author;
+    private final int rating;
+
+    private PageCursor(SortCriteria criteria, int id, String title, String author, int rating) {
+        this.criteria = criteria;
+        this.id = id;
+        this.title = title;
+        this.author = author;
+        this.rating = rating;
+    }
+
+    /**
+     * @return il cursore che indica l'inizio dell'elenco, valido per qualsiasi criterio
+     */
+    public static PageCursor first() {
+        return FIRST;
+    }
+
+    /**
+     * Crea il cursore che punta subito dopo il libro indicato.
+     *
+     * @param book l'ultimo libro della pagina corrente
+     * @param criteria il criterio con cui è ordinato l'elenco
+     * @pre book non deve essere null
+     * @return il cursore per la pagina successiva
+     */
+    public static PageCursor after(Book book, SortCriteria criteria) {
+        return new PageCursor(criteria == null ? SortCriteria.NONE : criteria, book.getId(),
+                SortCriteria.sqlLower(book.getTitle()), SortCriteria.sqlLower(book.getAuthor()), book.getRating());
+    }
+
+    /**
+     * Verifica i parametri di una richiesta di pagina.
+     *
+     * @param criteria il criterio con cui si vuole leggere la pagina
+     * @param cursor il cursore da cui ripartire
+     * @param limit il numero massimo di libri della pagina
+     * @throws IllegalArgumentException se il limite non è positivo, il cursore è null o è stato creato con un altro criterio
+     */
+    public static void checkArguments(SortCriteria criteria, PageCursor cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("La dimensione della pagina deve essere positiva");
+        }
+        if (cursor == null) {
+            throw new IllegalArgumentException("Il cursore è obbligatorio, usare PageCursor.first() per la prima pagina");
+        }
+        SortCriteria sort = criteria == null ? SortCriteria.NONE : criteria;
+        if (!cursor.isFirst() && cursor.getCriteria() != sort) {
+            throw new IllegalArgumentException("Il cursore è stato creato per l'ordinamento " + cursor.getCriteria()
+                    + ", non per " + sort);
+        }
+    }
+
+    public boolean isFirst() {
+        return this == FIRST;
+    }
+
+    public SortCriteria getCriteria() {
+        return criteria;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return il titolo dell'ultimo libro, già convertito come LOWER() di SQLite
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * @return l'autore dell'ultimo libro, già convertito come LOWER() di SQLite
+     */
+    public String getAuthor() {
+        return author;
+    }
+
+    public int getRating() {
+        return rating;
+    }
+
+    /**
+     * Verifica se un libro viene dopo la posizione del cursore secondo il criterio del cursore.
+     *
+     * @param book il libro da verificare
+     * @return {@code true} se il libro appartiene alle pagine successive
+     */
+    public boolean precedes(Book book) {
+        if (isFirst()) {
+            return true;
+        }
+        int byId = Integer.compare(book.getId(), id);
+        int byTitle = SortCriteria.sqlLower(book.getTitle()).compareTo(title);
+        int byAuthor = SortCriteria.sqlLower(book.getAuthor()).compareTo(author);
+        int byRating = Integer.compare(book.getRating(), rating);
+        switch (criteria) {
+            case TITLE_ASC:
+                return byTitle > 0 || (byTitle == 0 && byId > 0);
+            case TITLE_DESC:
+                return byTitle < 0 || (byTitle == 0 && byId < 0);
+            case AUTHOR_ASC:
+                return byAuthor > 0 || (byAuthor == 0 && byId > 0);
+            case AUTHOR_DESC:
+                return byAuthor < 0 || (byAuthor == 0 && byId < 0);
+            case RATING_ASC:
+                return byRating > 0 || (byRating == 0 && (byTitle > 0 || (byTitle == 0 && byId > 0)));
+            case RATING_DESC:
+                return byRating < 0 || (byRating == 0 && (byTitle > 0 || (byTitle == 0 && byId > 0)));
+            default:
+                return byId > 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return isFirst() ? "PageCursor{first}" : "PageCursor{" +
+                "criteria=" + criteria +
+                ", id=" + id +
+                ", title='" + title + '\'' +
+                ", author='" + author + '\'' +
+                ", rating=" + rating +
+                '}';
+    }
+}
@@ -0,0 +1,49 @@
+package gestore_libreria.model;
+
+/**
+ * Risultato di una ricerca full-text: il libro trovato, il suo punteggio di rilevanza e un estratto
+ * con i termini cercati evidenziati.
+ */
+public class SearchResult {
+
+    //marcatori usati per evidenziare i termini trovati, interpretabili come HTML dalle etichette Swing
+    public static final String HIGHLIGHT_START = "<b>";
+    public static final String HIGHLIGHT_END = "</b>";
+
+    private final Book book;
+    private final double rank;
+    private final String snippet;
+
+    /**
+     * @param book il libro trovato
+     * @param rank il punteggio di rilevanza, più basso significa più rilevante (convenzione di BM25 in SQLite)
+     * @param snippet estratto del campo più rilevante con i termini evidenziati
+     * @pre book non deve essere null
+     */
+    public SearchResult(Book book, double rank, String snippet) {
+        this.book = book;
+        this.rank = rank;
+        this.snippet = snippet;
+    }
+
+    public Book getBook() {
+        return book;
+    }
+
+    public double getRank() {
+        return rank;
+    }
+
+    public String getSnippet() {
+        return snippet;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchResult{" +
+                "book=" + book +
+                ", rank=" + rank +
+                ", snippet='" + snippet + '\'' +
+                '}';
+    }
+}
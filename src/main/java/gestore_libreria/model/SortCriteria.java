@@ -1,5 +1,7 @@
 package gestore_libreria.model;
 
+import java.util.Comparator;
+
 public enum SortCriteria {
     NONE,
     TITLE_ASC,
@@ -8,4 +10,58 @@ public enum SortCriteria {
     AUTHOR_DESC,
     RATING_ASC,
     RATING_DESC,
+    ;
+
+    /**
+     * Restituisce un comparatore coerente con l'ORDER BY usato dal database per questo criterio,
+     * id compreso come ultimo termine, così l'ordine è totale e stabile.
+     *
+     * @return il comparatore dei libri per questo criterio
+     */
+    public Comparator<Book> comparator() {
+        Comparator<Book> byId = Comparator.comparingInt(Book::getId);
+        Comparator<Book> byTitle = Comparator.comparing(book -> sqlLower(book.getTitle()));
+        Comparator<Book> byAuthor = Comparator.comparing(book -> sqlLower(book.getAuthor()));
+        Comparator<Book> byRating = Comparator.comparingInt(Book::getRating);
+        switch (this) {
+            case TITLE_ASC:
+                return byTitle.thenComparing(byId);
+            case TITLE_DESC:
+                return byTitle.thenComparing(byId).reversed();
+            case AUTHOR_ASC:
+                return byAuthor.thenComparing(byId);
+            case AUTHOR_DESC:
+                return byAuthor.thenComparing(byId).reversed();
+            case RATING_ASC:
+                return byRating.thenComparing(byTitle).thenComparing(byId);
+            case RATING_DESC:
+                return byRating.reversed().thenComparing(byTitle).thenComparing(byId);
+            default:
+                return byId;
+        }
+    }
+
+    /**
+     * Replica la funzione LOWER() di SQLite, che senza estensione ICU converte solo le lettere ASCII.
+     * Usata per ordinare in memoria esattamente come il database.
+     *
+     * @param value il testo da convertire, può essere null
+     * @return il testo con le sole lettere ASCII in minuscolo, stringa vuota se value è null
+     */
+    public static String sqlLower(String value) {
+        if (value == null) {
+            return "";
+        }
+        char[] chars = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                if (chars == null) {
+                    chars = value.toCharArray();
+                }
+                chars[i] = (char) (c + ('a' - 'A'));
+            }
+        }
+        return chars == null ? value : new String(chars);
+    }
 }
@@ -0,0 +1,27 @@
+package gestore_libreria.model;
+
+/**
+ * Le dimensioni in cui vengono conservate le miniature delle copertine: quella della lista dei libri
+ * e quella della finestra di dettaglio.
+ */
+public enum ThumbnailSize {
+
+    LIST(70, 100),
+    DETAIL(120, 180);
+
+    private final int width;
+    private final int height;
+
+    ThumbnailSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,20 @@
+package gestore_libreria.observer;
+
+import gestore_libreria.model.BookChangeEvent;
+
+/**
+ * Riceve le modifiche ai libri confermate da ogni transazione: a differenza di {@link BookObserver}, che sa solo che
+ * qualcosa è cambiato, il listener sa quali libri sono stati inseriti, aggiornati o eliminati.
+ */
+@FunctionalInterface
+public interface BookChangeListener {
+
+    /**
+     * Chiamato dopo il commit, sul thread che ha eseguito la scrittura e nell'ordine dei commit.
+     *
+     * @param event le modifiche della transazione, mai vuoto
+     * @pre la transazione è confermata: i libri inseriti e aggiornati si possono già rileggere dal database
+     * @post non deve bloccare a lungo: le scritture successive dello stesso thread attendono il suo ritorno
+     */
+    void onChange(BookChangeEvent event);
+}
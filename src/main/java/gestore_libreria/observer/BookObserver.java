@@ -1,5 +1,7 @@
 package gestore_libreria.observer;
 
+import gestore_libreria.model.BookChangeSet;
+
 public interface BookObserver {
     /**
      * Questo metodo viene chiamato dall'oggetto osservato per notificare gli osservatori
@@ -10,4 +12,16 @@ public interface BookObserver {
      * @post L'osservatore ha ricevuto la notifica e può agire di conseguenza (aggiornare la UI in questo caso specifico).
      */
     void update();
+
+    /**
+     * Come {@link #update()}, ma con i libri coinvolti dalla modifica: l'osservatore può aggiornare solo quelli.
+     * Gli osservatori che non sanno applicare le modifiche una per una non devono ridefinirlo.
+     *
+     * @param changes i libri aggiunti, rimossi e aggiornati
+     * @pre changes non deve essere null
+     * @post L'osservatore ha ricevuto la notifica; l'implementazione predefinita esegue {@link #update()}.
+     */
+    default void update(BookChangeSet changes) {
+        update();
+    }
 }
@@ -1,14 +1,19 @@
 package gestore_libreria.observer;
 
+import gestore_libreria.db.AsyncBookManager;
 import gestore_libreria.db.BookManager;
 import gestore_libreria.db.BookRepositoryImplementor;
 import gestore_libreria.db.ConcreteBookManager;
 import gestore_libreria.db.SQLiteBookRepository;
-import gestore_libreria.model.Book;
+import gestore_libreria.model.BookChangeSet;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SortCriteria;
 import gestore_libreria.ui.BooksPanelUI;
 import gestore_libreria.ui.GestoreLibreriaUI;
 
-import java.util.List;
+import javax.swing.SwingUtilities;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Implementazione concreta dell'interfaccia BookObserver.
@@ -21,6 +26,8 @@ public class ConcreteBookObserver implements BookObserver{
     private BooksPanelUI bookPanel;
     private GestoreLibreriaUI gestoreLibreriaUI;
     private ConcreteBookManager db;
+    private AsyncBookManager async;     //null se le letture avvengono sul thread che notifica
+    private volatile CompletableFuture<Void> reload;     //l'ultima lettura completa avviata da update() con async
 
     /**
      * Costruisce una nuova istanza di ConcreteBookObserver e richiama il metodo {@code update()}.
@@ -41,6 +48,24 @@ public class ConcreteBookObserver implements BookObserver{
         update();
     }
 
+    /**
+     * Come il costruttore a tre parametri, ma le letture vengono eseguite da {@code async} fuori dall'EDT.
+     * In questo modo le notifiche possono arrivare da qualunque thread, ad esempio da quello che esegue le modifiche
+     * di {@link AsyncBookManager}: la lista viene aggiornata sull'EDT quando la prima pagina è pronta.
+     *
+     * @param async la facciata asincrona dello stesso {@code db}
+     * @pre async non deve essere null
+     */
+    public ConcreteBookObserver(GestoreLibreriaUI gestoreLibreriaUI, BooksPanelUI bookPanel, ConcreteBookManager db,
+                                AsyncBookManager async) {
+        this.bookPanel = bookPanel;
+        this.db = db;
+        this.gestoreLibreriaUI = gestoreLibreriaUI;
+        this.async = async;
+        this.db.attach(this);
+        update();
+    }
+
     /**
      * Aggiorna la vista dell'interfaccia utente recuperando tutti i libri dal database
      * e visualizzandoli, quindi aggiorna lo stato dei menu Undo/Redo.
@@ -48,19 +73,72 @@ public class ConcreteBookObserver implements BookObserver{
      * notifica un cambiamento.
      *
      * @pre Il manager dei libri (db) e il pannello dei libri (bookPanel) devono essere stati inizializzati correttamente.
-     * @post La lista completa dei libri è stata recuperata dal database.
-     * @post Il metodo displayBooks del bookPanel è stato invocato con la lista aggiornata dei libri,
-     * causando il refresh dell'interfaccia utente.
+     * @post La prima pagina dei libri è stata recuperata dal database.
+     * @post Il metodo displayPagedBooks del bookPanel è stato invocato, causando il refresh dell'interfaccia utente;
+     * le pagine successive vengono lette solo quando l'utente scorre la lista.
      * @post Lo stato dei menu Undo/Redo è stato aggiornato per riflettere la disponibilità di operazioni.
+     * @post Se l'osservatore usa un {@link AsyncBookManager}, la lettura avviene su un thread virtuale e la lista
+     * e i menu vengono aggiornati sull'EDT; un aggiornamento superato da una ricerca successiva viene scartato.
      */
     @Override
     public void update() {
         System.out.println("Aggiorno la bookView");
-        List<Book> books = db.getAllBook(gestoreLibreriaUI.getCurrentSortCriteria());
-        bookPanel.displayBooks(books);
+        SortCriteria criteria = gestoreLibreriaUI.getCurrentSortCriteria();
+        if (async != null) {
+            reload = async.loadPage(criteria, PageCursor.first(), BooksPanelUI.PAGE_SIZE)
+                    .thenAccept(first -> bookPanel.displayPagedBooks(criteria, first,
+                            cursor -> async.loadPage(criteria, cursor, BooksPanelUI.PAGE_SIZE)))
+                    .exceptionally(error -> {
+                        //se la lettura è stata superata da un'altra ricerca non c'è nulla da segnalare
+                        if (!(error.getCause() instanceof CancellationException)) {
+                            System.err.println("Errore nell'aggiornamento della lista: " + error.getMessage());
+                        }
+                        return null;
+                    });
+            SwingUtilities.invokeLater(gestoreLibreriaUI::updateUndoRedoMenuState);
+            return;
+        }
+        //la lista viene letta a pagine: le successive vengono caricate durante lo scorrimento
+        bookPanel.displayPagedBooks(criteria, cursor -> db.loadPage(criteria, cursor, BooksPanelUI.PAGE_SIZE));
         gestoreLibreriaUI.updateUndoRedoMenuState();
     }
 
+    /**
+     * Aggiorna solo le righe dei libri coinvolti, senza rileggere la libreria: modificare un libro costa
+     * la ricostruzione della sua riga invece di quella dell'intera lista.
+     *
+     * @param changes i libri aggiunti, rimossi e aggiornati
+     * @pre changes non deve essere null
+     * @post Se la lista mostra l'elenco completo con l'ordinamento corrente, le righe coinvolte sono state
+     * inserite, rimosse o ridisegnate al loro posto; altrimenti è stato eseguito {@link #update()}.
+     * @post Lo stato dei menu Undo/Redo è stato aggiornato.
+     * @post Se l'osservatore usa un {@link AsyncBookManager}, le modifiche vengono applicate sull'EDT; se una lettura
+     * completa è ancora in corso la lista viene riletta, perché la lettura potrebbe non contenere queste modifiche.
+     */
+    @Override
+    public void update(BookChangeSet changes) {
+        if (async != null) {
+            //le notifiche arrivano dal thread che ha scritto: la lista si modifica solo sull'EDT
+            SwingUtilities.invokeLater(() -> {
+                if (reload != null && !reload.isDone()) {
+                    update();
+                } else {
+                    applyChanges(changes);
+                }
+            });
+            return;
+        }
+        applyChanges(changes);
+    }
+
+    private void applyChanges(BookChangeSet changes) {
+        if (bookPanel.applyChanges(changes, gestoreLibreriaUI.getCurrentSortCriteria())) {
+            gestoreLibreriaUI.updateUndoRedoMenuState();
+        } else {
+            update();
+        }
+    }
+
     /**
      * Rimuove questo osservatore dalla lista degli osservatori dell'oggetto osservabile (db). Attualmente eseguito
      * alla chiusura del programma
@@ -1,5 +1,7 @@
 package gestore_libreria.observer;
 
+import gestore_libreria.model.BookChangeSet;
+
 import java.util.List;
 import java.util.Observer;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -50,4 +52,16 @@ public abstract class Subject {
             observer.update();
         }
     }
+
+    /**
+     * Notifica tutti gli observer iscritti invocando il loro metodo {@code update(changes)}
+     * @param changes i libri coinvolti dalla modifica
+     * @pre {@code changes} non deve essere null
+     * @post tutti gli observer contenuti nella lista sono stati notificati con le modifiche
+     */
+    public void notifyObservers(BookChangeSet changes) {
+        for (BookObserver observer : observers) {
+            observer.update(changes);
+        }
+    }
 }
@@ -1,14 +1,26 @@
 package gestore_libreria.ui;
 
 import gestore_libreria.model.Book;
+import gestore_libreria.model.BookChangeSet;
+import gestore_libreria.model.Page;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SortCriteria;
 
 import javax.swing.*;
 import javax.swing.border.Border;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 
 public class BooksPanelUI extends JPanel {
@@ -22,8 +34,31 @@ public class BooksPanelUI extends JPanel {
 
     private GestoreLibreriaUI gestoreLibreriaUI;
 
+    //numero di libri letti per ogni pagina quando la lista viene caricata a pagine
+    public static final int PAGE_SIZE = 50;
+    //distanza dal fondo, in pixel, sotto la quale viene caricata la pagina successiva
+    private static final int LOAD_MORE_THRESHOLD = 300;
+
+    private JScrollPane scrollPane;
+    private Function<PageCursor, CompletableFuture<Page>> pageLoader;  //null se la lista non è caricata a pagine
+    private PageCursor nextCursor;
+    private boolean loadingPage;
+    //pianifica il controllo che carica le pagine successive, dopo il layout della lista
+    private Executor prefetch = SwingUtilities::invokeLater;
+    //i libri mostrati, nello stesso ordine delle righe di bookListPanel
+    private final List<Book> rows = new ArrayList<>();
+    //i libri di rows per id, con la versione mostrata: dà la chiave di ordinamento per ritrovarne la riga
+    private final Map<Integer, Book> shown = new HashMap<>();
+    //l'ordinamento dell'elenco completo caricato a pagine; null se la lista mostra il risultato di una ricerca
+    private SortCriteria listCriteria;
+
     private JPopupMenu popupMenu;
 
+    //legge con una query le miniature di un gruppo di libri; null per decodificare ogni copertina dal file
+    private Function<List<Book>, CompletableFuture<Map<Integer, byte[]>>> thumbnailLoader;
+    //il placeholder viene decodificato una volta sola e condiviso da tutte le righe senza copertina
+    private ImageIcon placeholderIcon;
+
     public BooksPanelUI(GestoreLibreriaUI gestoreLibreriaUI) {
         setLayout(new BorderLayout());
         //setBorder(BorderFactory.createTitledBorder("Lista Libri"));
@@ -33,8 +68,9 @@ public class BooksPanelUI extends JPanel {
         bookListPanel = new JPanel();
         bookListPanel.setLayout(new BoxLayout(bookListPanel, BoxLayout.Y_AXIS));
 
-        JScrollPane scrollPane = new JScrollPane(bookListPanel);
+        scrollPane = new JScrollPane(bookListPanel);
         scrollPane.getVerticalScrollBar().setUnitIncrement(16);
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> loadMoreIfNeeded());
 
         add(scrollPane, BorderLayout.CENTER);
 
@@ -49,6 +85,21 @@ public class BooksPanelUI extends JPanel {
         this.onBookClickListener = onBookClickListener;
     }
 
+    /**
+     * Imposta da dove leggere le miniature delle copertine. Le righe compaiono subito con il placeholder
+     * e le copertine arrivano con una sola lettura per ogni gruppo di righe aggiunto alla lista.
+     *
+     * @param thumbnailLoader restituisce il future delle immagini codificate per id del libro, completato sull'EDT
+     */
+    public void setThumbnailLoader(Function<List<Book>, CompletableFuture<Map<Integer, byte[]>>> thumbnailLoader) {
+        this.thumbnailLoader = thumbnailLoader;
+    }
+
+    //permette ai test di eseguire il caricamento delle pagine successive quando vogliono, invece che sull'EDT
+    void setPrefetchExecutor(Executor prefetch) {
+        this.prefetch = prefetch;
+    }
+
     private void inizializzaPopupMenu() {
         popupMenu = new JPopupMenu();
         JMenuItem deleteItem = new JMenuItem("Elimina");
@@ -86,120 +137,341 @@ public class BooksPanelUI extends JPanel {
 
     //metodo che verrà richiamato per aggiornare la lista dei libri con l'observer
     public void displayBooks(List<Book> books) {
+        //una lista completa sostituisce l'eventuale caricamento a pagine in corso
+        pageLoader = null;
+        nextCursor = null;
+        listCriteria = null;
+        rows.clear();
+        rows.addAll(books);
+        shown.clear();
+        books.forEach(book -> shown.put(book.getId(), book));
         bookListPanel.removeAll();
         if (books.isEmpty()) {
-            JPanel emptyPanel = new JPanel(new GridBagLayout());
-            emptyPanel.setOpaque(false); // Trasparente per mantenere lo sfondo
+            showEmptyLibrary();
+        } else {
+            Map<Integer, JLabel> covers = new HashMap<>();
+            for (Book book : books) {
+                bookListPanel.add(createBookRow(book, covers));
+            }
+            loadCovers(books, covers);
+        }
+        bookListPanel.revalidate();
+        bookListPanel.repaint();
+    }
 
-            JLabel emptyLabel = new JLabel();
+    /**
+     * Visualizza i libri a pagine: mostra subito la prima e carica le successive quando l'utente
+     * scorre vicino al fondo della lista, così i libri che non vengono mai visti non vengono né letti né disegnati.
+     *
+     * @param criteria l'ordinamento con cui vengono lette le pagine
+     * @param pageLoader restituisce la pagina che parte dal cursore indicato
+     * @pre pageLoader non deve essere null
+     * @post la lista mostra la prima pagina; le pagine successive vengono aggiunte in coda durante lo scorrimento
+     */
+    public void displayPagedBooks(SortCriteria criteria, Function<PageCursor, Page> pageLoader) {
+        displayPagedBooks(criteria, pageLoader.apply(PageCursor.first()),
+                cursor -> CompletableFuture.completedFuture(pageLoader.apply(cursor)));
+    }
 
-            // Carica l'immagine per la libreria vuota
-            ImageIcon emptyIcon = GestoreLibreriaUI.loadAndScaleImage("/images/empty_library.png", 200, 200);
+    /**
+     * Come {@link #displayPagedBooks(SortCriteria, Function)}, ma con la prima pagina già letta e le successive lette in modo
+     * asincrono, ad esempio tramite {@link gestore_libreria.db.AsyncBookManager}.
+     *
+     * @param criteria l'ordinamento con cui vengono lette le pagine
+     * @param first la prima pagina da mostrare
+     * @param pageLoader restituisce il future della pagina che parte dal cursore indicato, completato sull'EDT
+     * @pre va chiamato sull'EDT
+     * @post la lista mostra la prima pagina; le pagine successive vengono aggiunte in coda durante lo scorrimento
+     */
+    public void displayPagedBooks(SortCriteria criteria, Page first, Function<PageCursor, CompletableFuture<Page>> pageLoader) {
+        displayBooks(first.getBooks());
+        this.pageLoader = pageLoader;
+        this.nextCursor = first.getNextCursor();
+        this.listCriteria = criteria == null ? SortCriteria.NONE : criteria;
+        //se la prima pagina non riempie la vista la barra non scorre: controllo dopo il layout
+        prefetch.execute(this::loadMoreIfNeeded);
+    }
 
-            if (emptyIcon != null) {
-                emptyLabel.setIcon(emptyIcon);
-            } else {
-                // Fallback al testo se l'immagine non è disponibile
-                emptyLabel.setText("Nessun libro presente nella libreria.");
-                emptyLabel.setForeground(Color.WHITE);
-                emptyLabel.setHorizontalAlignment(SwingConstants.CENTER);
-            }
+    /**
+     * @return {@code true} se ci sono altre pagine da caricare
+     */
+    public boolean hasMorePages() {
+        return pageLoader != null && nextCursor != null;
+    }
 
-            // Centra l'etichetta nel pannello
-            GridBagConstraints gbc = new GridBagConstraints();
-            gbc.gridx = 0;
-            gbc.gridy = 0;
-            gbc.anchor = GridBagConstraints.CENTER;
+    /**
+     * Carica la pagina successiva e ne aggiunge i libri in coda alla lista.
+     * Se nel frattempo la lista è stata sostituita, la pagina viene scartata.
+     *
+     * @return il future del numero di libri aggiunti, 0 se non ci sono altre pagine
+     */
+    public CompletableFuture<Integer> loadNextPage() {
+        if (!hasMorePages()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        Function<PageCursor, CompletableFuture<Page>> loader = pageLoader;
+        return loader.apply(nextCursor).thenApply(page -> {
+            if (loader != pageLoader) {
+                return 0;
+            }
+            nextCursor = page.getNextCursor();
+            rows.addAll(page.getBooks());
+            page.getBooks().forEach(book -> shown.put(book.getId(), book));
+            Map<Integer, JLabel> covers = new HashMap<>();
+            for (Book book : page.getBooks()) {
+                bookListPanel.add(createBookRow(book, covers));
+            }
+            loadCovers(page.getBooks(), covers);
+            bookListPanel.revalidate();
+            bookListPanel.repaint();
+            return page.getBooks().size();
+        });
+    }
 
-            emptyPanel.add(emptyLabel, gbc);
-            bookListPanel.add(emptyPanel);
-        } else {
+    /**
+     * Applica alla lista solo le modifiche indicate: toglie le righe dei libri eliminati, ricrea quelle dei libri
+     * aggiornati e inserisce i libri nuovi nella posizione data dall'ordinamento, senza rileggere la libreria
+     * e senza ricostruire le altre righe. Un libro che appartiene alle pagine non ancora caricate non viene
+     * inserito: arriverà con lo scorrimento.
+     *
+     * @param changes i libri aggiunti, rimossi e aggiornati
+     * @param criteria l'ordinamento dell'elenco che si vuole mostrare
+     * @pre va chiamato sull'EDT
+     * @post se restituisce true la lista mostra gli stessi libri, nello stesso ordine, che mostrerebbe ricaricandola
+     * @return false se la lista non è l'elenco completo ordinato con {@code criteria} (ad esempio mostra il risultato
+     * di una ricerca) o se sta caricando una pagina: in questi casi va ricaricata
+     */
+    public boolean applyChanges(BookChangeSet changes, SortCriteria criteria) {
+        SortCriteria sort = criteria == null ? SortCriteria.NONE : criteria;
+        if (listCriteria != sort || loadingPage) {
+            return false;
+        }
+        if (rows.isEmpty()) {
+            bookListPanel.removeAll();      //il segnaposto della libreria vuota
+        }
+        Comparator<Book> comparator = sort.comparator();
+        for (Book book : changes.removed()) {
+            removeRow(book.getId(), comparator);
+        }
+        Map<Integer, JLabel> covers = new HashMap<>();
+        List<Book> inserted = new ArrayList<>();
+        for (List<Book> books : List.of(changes.updated(), changes.added())) {
             for (Book book : books) {
-                JPanel bookPanel = new JPanel(new BorderLayout());
-
-                int coverHeight = 100;
-                int verticalPadding = 16;
-                bookPanel.setPreferredSize(new Dimension(400, coverHeight + verticalPadding));
-                bookPanel.setMaximumSize(new Dimension(Short.MAX_VALUE, coverHeight + verticalPadding));
-                bookPanel.setMinimumSize(new Dimension(400, coverHeight + verticalPadding));
-
-                bookPanel.setBorder(BorderFactory.createEmptyBorder(10, 5, 5, 5));
-                bookPanel.setForeground(Color.WHITE); // Colore del testo per i pannelli dei libri
-
-                //Mouse Listener
-                bookPanel.addMouseListener(new MouseAdapter() {
-                    @Override
-                    public void mouseClicked(MouseEvent e) {
-                        if(SwingUtilities.isLeftMouseButton(e)) {
-                            if (onBookClickListener != null) {
-                                onBookClickListener.accept(book); // Notifica il listener con il libro cliccato
-                            }
-                        }
+                removeRow(book.getId(), comparator);
+                if (hasMorePages() && nextCursor.precedes(book)) {
+                    continue;
+                }
+                int index = -Collections.binarySearch(rows, book, comparator) - 1;
+                rows.add(index, book);
+                shown.put(book.getId(), book);
+                bookListPanel.add(createBookRow(book, covers), index);
+                inserted.add(book);
+            }
+        }
+        if (rows.isEmpty()) {
+            showEmptyLibrary();
+        }
+        loadCovers(inserted, covers);
+        bookListPanel.revalidate();
+        bookListPanel.repaint();
+        return true;
+    }
 
-                    }
+    /**
+     * Toglie la riga del libro, se è mostrata. La riga si trova con una ricerca binaria sulla versione del libro
+     * mostrata, che ha ancora la chiave di ordinamento con cui è stata inserita; solo se quella versione è stata
+     * modificata nel frattempo la riga viene cercata scorrendo la lista.
+     */
+    private void removeRow(int bookId, Comparator<Book> comparator) {
+        Book book = shown.remove(bookId);
+        if (book == null) {
+            return;
+        }
+        int index = Collections.binarySearch(rows, book, comparator);
+        if (index < 0 || rows.get(index) != book) {
+            index = 0;
+            while (rows.get(index) != book) {
+                index++;
+            }
+        }
+        rows.remove(index);
+        bookListPanel.remove(index);
+    }
 
-                    // Effetti visivi al passaggio del mouse
-                    @Override
-                    public void mouseEntered(MouseEvent e) {
-                        bookPanel.setBackground(new Color(78, 78, 78)); // Colore più chiaro al passaggio
-                        bookPanel.setCursor(new Cursor(Cursor.HAND_CURSOR)); // Cursore a mano
-                    }
+    /**
+     * @return i libri mostrati, nell'ordine delle righe
+     */
+    List<Book> getDisplayedBooks() {
+        return Collections.unmodifiableList(rows);
+    }
 
-                    @Override
-                    public void mouseExited(MouseEvent e) {
-                        bookPanel.setBackground(new Color(30,30,30)); // Torna al colore originale
-                        bookPanel.setCursor(new Cursor(Cursor.DEFAULT_CURSOR)); // Cursore normale
-                    }
+    Component getRow(int index) {
+        return bookListPanel.getComponent(index);
+    }
 
-                    @Override
-                    public void mousePressed(MouseEvent e) {
-                        showPopupMenu(e, book);
-                    }
+    private void loadMoreIfNeeded() {
+        if (loadingPage || !hasMorePages()) {
+            return;
+        }
+        JScrollBar bar = scrollPane.getVerticalScrollBar();
+        int remaining = bar.getMaximum() - (bar.getValue() + bar.getVisibleAmount());
+        if (remaining > LOAD_MORE_THRESHOLD) {
+            return;
+        }
+        loadingPage = true;
+        loadNextPage().whenComplete((added, error) -> {
+            loadingPage = false;
+            if (error != null) {
+                System.err.println("Errore nel caricamento della pagina successiva: " + error.getMessage());
+            } else if (added > 0) {
+                prefetch.execute(this::loadMoreIfNeeded);
+            }
+        });
+    }
+
+    private void showEmptyLibrary() {
+        JPanel emptyPanel = new JPanel(new GridBagLayout());
+        emptyPanel.setOpaque(false); // Trasparente per mantenere lo sfondo
+
+        JLabel emptyLabel = new JLabel();
 
-                    @Override
-                    public void mouseReleased(MouseEvent e) {
-                        showPopupMenu(e, book);
+        // Carica l'immagine per la libreria vuota
+        ImageIcon emptyIcon = GestoreLibreriaUI.loadAndScaleImage("/images/empty_library.png", 200, 200);
+
+        if (emptyIcon != null) {
+            emptyLabel.setIcon(emptyIcon);
+        } else {
+            // Fallback al testo se l'immagine non è disponibile
+            emptyLabel.setText("Nessun libro presente nella libreria.");
+            emptyLabel.setForeground(Color.WHITE);
+            emptyLabel.setHorizontalAlignment(SwingConstants.CENTER);
+        }
+
+        // Centra l'etichetta nel pannello
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        gbc.anchor = GridBagConstraints.CENTER;
+
+        emptyPanel.add(emptyLabel, gbc);
+        bookListPanel.add(emptyPanel);
+    }
+
+    //chiede in un'unica lettura le miniature delle righe appena aggiunte e le mostra quando arrivano
+    private void loadCovers(List<Book> books, Map<Integer, JLabel> covers) {
+        if (thumbnailLoader == null || covers.isEmpty()) {
+            return;
+        }
+        List<Book> covered = books.stream().filter(book -> covers.containsKey(book.getId())).toList();
+        thumbnailLoader.apply(covered)
+                .thenAccept(thumbnails -> thumbnails.forEach((id, image) -> {
+                    JLabel coverLabel = covers.get(id);
+                    if (coverLabel != null) {
+                        coverLabel.setText(null);
+                        coverLabel.setIcon(new ImageIcon(image));
+                        coverLabel.setBackground(null);
                     }
+                }))
+                .exceptionally(error -> {
+                    System.err.println("Errore nel caricamento delle copertine: " + error.getMessage());
+                    return null;
                 });
+    }
 
+    private ImageIcon placeholder() {
+        if (placeholderIcon == null) {
+            placeholderIcon = GestoreLibreriaUI.loadPlaceholderImage(70, 100);
+        }
+        return placeholderIcon;
+    }
 
-
-                // Copertina
-                JLabel coverLabel = new JLabel();
-                coverLabel.setPreferredSize(new Dimension(70, 100));
-                coverLabel.setOpaque(true);
-                coverLabel.setBackground(Color.LIGHT_GRAY); // Colore di sfondo per l'area della copertina
-
-                //caricamento immagine
-                ImageIcon coverIcon = GestoreLibreriaUI.loadAndScaleImage(book.getCoverPath(), 70, 100);
-
-                if (coverIcon != null) {
-                    coverLabel.setIcon(coverIcon);
-                    coverLabel.setBackground(null); // Rimuovi il background grigio se c'è un'immagine valida
-                } else {
-                    // Prova a caricare un'immagine placeholder
-                    ImageIcon placeholder = GestoreLibreriaUI.loadPlaceholderImage(70, 100);
-                    if (placeholder != null) {
-                        coverLabel.setIcon(placeholder);
-                    } else {
-                        // Se non riesce a caricare nemmeno il placeholder, mostra testo
-                        coverLabel.setText("Err Img");
-                        coverLabel.setHorizontalAlignment(SwingConstants.CENTER);
-                        coverLabel.setForeground(Color.RED);
-                        coverLabel.setBackground(Color.DARK_GRAY);
+    /**
+     * @param covers con un caricatore di miniature, vi vengono registrate le etichette delle copertine da riempire
+     */
+    private JPanel createBookRow(Book book, Map<Integer, JLabel> covers) {
+        JPanel bookPanel = new JPanel(new BorderLayout());
+
+        int coverHeight = 100;
+        int verticalPadding = 16;
+        bookPanel.setPreferredSize(new Dimension(400, coverHeight + verticalPadding));
+        bookPanel.setMaximumSize(new Dimension(Short.MAX_VALUE, coverHeight + verticalPadding));
+        bookPanel.setMinimumSize(new Dimension(400, coverHeight + verticalPadding));
+
+        bookPanel.setBorder(BorderFactory.createEmptyBorder(10, 5, 5, 5));
+        bookPanel.setForeground(Color.WHITE); // Colore del testo per i pannelli dei libri
+
+        //Mouse Listener
+        bookPanel.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if(SwingUtilities.isLeftMouseButton(e)) {
+                    if (onBookClickListener != null) {
+                        onBookClickListener.accept(book); // Notifica il listener con il libro cliccato
                     }
                 }
-                bookPanel.add(coverLabel, BorderLayout.WEST);
-                buildSingleElement(book, bookPanel);
 
-                // spacing
-                bookListPanel.add(bookPanel);
-                //bookListPanel.add(Box.createRigidArea(new Dimension(0, 6)));
+            }
+
+            // Effetti visivi al passaggio del mouse
+            @Override
+            public void mouseEntered(MouseEvent e) {
+                bookPanel.setBackground(new Color(78, 78, 78)); // Colore più chiaro al passaggio
+                bookPanel.setCursor(new Cursor(Cursor.HAND_CURSOR)); // Cursore a mano
+            }
+
+            @Override
+            public void mouseExited(MouseEvent e) {
+                bookPanel.setBackground(new Color(30,30,30)); // Torna al colore originale
+                bookPanel.setCursor(new Cursor(Cursor.DEFAULT_CURSOR)); // Cursore normale
+            }
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                showPopupMenu(e, book);
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                showPopupMenu(e, book);
+            }
+        });
+
+
+
+        // Copertina
+        JLabel coverLabel = new JLabel();
+        coverLabel.setPreferredSize(new Dimension(70, 100));
+        coverLabel.setOpaque(true);
+        coverLabel.setBackground(Color.LIGHT_GRAY); // Colore di sfondo per l'area della copertina
+
+        //caricamento immagine: con le miniature la copertina arriva dopo, intanto si mostra il placeholder
+        ImageIcon coverIcon = null;
+        boolean hasCover = book.getCoverPath() != null && !book.getCoverPath().isBlank();
+        if (thumbnailLoader == null) {
+            coverIcon = GestoreLibreriaUI.loadAndScaleImage(book.getCoverPath(), 70, 100);
+        } else if (hasCover) {
+            covers.put(book.getId(), coverLabel);
+        }
 
+        if (coverIcon != null) {
+            coverLabel.setIcon(coverIcon);
+            coverLabel.setBackground(null); // Rimuovi il background grigio se c'è un'immagine valida
+        } else {
+            // Prova a caricare un'immagine placeholder
+            ImageIcon placeholder = placeholder();
+            if (placeholder != null) {
+                coverLabel.setIcon(placeholder);
+            } else {
+                // Se non riesce a caricare nemmeno il placeholder, mostra testo
+                coverLabel.setText("Err Img");
+                coverLabel.setHorizontalAlignment(SwingConstants.CENTER);
+                coverLabel.setForeground(Color.RED);
+                coverLabel.setBackground(Color.DARK_GRAY);
             }
         }
-        bookListPanel.revalidate();
-        bookListPanel.repaint();
+        bookPanel.add(coverLabel, BorderLayout.WEST);
+        buildSingleElement(book, bookPanel);
+        return bookPanel;
     }
 
     private void buildSingleElement(Book book, JPanel row) {
@@ -7,16 +7,31 @@ import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 import com.formdev.flatlaf.themes.*;
 import gestore_libreria.db.*;
+import gestore_libreria.io.BookExporter;
+import gestore_libreria.io.BookFormat;
+import gestore_libreria.io.BookImporter;
 import gestore_libreria.model.Book;
+import gestore_libreria.model.BookCounts;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SearchResult;
 import gestore_libreria.model.SortCriteria;
+import gestore_libreria.model.ThumbnailSize;
+import gestore_libreria.observer.BookObserver;
 import gestore_libreria.observer.ConcreteBookObserver;
 
 /**
@@ -30,6 +45,7 @@ import gestore_libreria.observer.ConcreteBookObserver;
 public class GestoreLibreriaUI extends JFrame{
 
     private ConcreteBookManager db;
+    private AsyncBookManager async;     //esegue letture e modifiche fuori dall'EDT
     private ConcreteBookObserver bookObserver;
     private BooksPanelUI booksPanelUI;
 
@@ -38,6 +54,18 @@ public class GestoreLibreriaUI extends JFrame{
 
     private SortCriteria currentSortCriteria = SortCriteria.NONE; // Default
 
+    //filtri attivi, combinati in un'unica BookQuery: null (o 0 per la valutazione) se il filtro non è impostato
+    private String filtroStato;
+    private int filtroValutazione;
+    private BookQuery.Field filtroCampo;
+    private String filtroTesto;
+
+    //bottoni della barra laterale che mostrano quanti libri ci sono dietro ciascun filtro
+    private record Contatore(JButton bottone, String etichetta, ToIntFunction<BookCounts> conteggio) {}
+    private final List<Contatore> contatori = new ArrayList<>();
+    //i contatori vengono ricalcolati dopo ogni modifica notificata dal manager
+    private final BookObserver contatoriObserver = this::aggiornaContatori;
+
     /**
      * Costruttore
      *
@@ -48,7 +76,10 @@ public class GestoreLibreriaUI extends JFrame{
     public GestoreLibreriaUI(ConcreteBookManager db){
         super("Gestore Libreria");
         this.db = db;
+        this.async = new AsyncBookManager(db);
         inizializzaUI();
+        db.attach(contatoriObserver);
+        aggiornaContatori();
     }
 
     /**
@@ -77,12 +108,14 @@ public class GestoreLibreriaUI extends JFrame{
         mainPanel.add(rightPanel, BorderLayout.CENTER);
 
         this.booksPanelUI = new BooksPanelUI(this);
+        //il manager asincrono viene sostituito quando si importa un database: lo si legge a ogni richiesta
+        this.booksPanelUI.setThumbnailLoader(books -> this.async.loadThumbnails(books, ThumbnailSize.LIST));
         rightPanel.add(booksPanelUI, BorderLayout.CENTER);
 
         booksPanelUI.setOnBookClickListener(this::showBookDetails);
         booksPanelUI.setOnDeleteBookListener(this::PopupMenuAction);
 
-        this.bookObserver = new ConcreteBookObserver(this,this.booksPanelUI,this.db);
+        this.bookObserver = new ConcreteBookObserver(this,this.booksPanelUI,this.db,this.async);
 
         updateUndoRedoMenuState();
 
@@ -95,6 +128,8 @@ public class GestoreLibreriaUI extends JFrame{
                 if (bookObserver != null) {
                     bookObserver.unsubscribe();
                 }
+                async.close();
+                db.flushPendingChanges();
             }
         });
 
@@ -127,17 +162,20 @@ public class GestoreLibreriaUI extends JFrame{
         int height = 180;
         imagePreview.setPreferredSize(new Dimension(width, height));
 
-        ImageIcon selectedIcon = loadAndScaleImage(book.getCoverPath(), width, height);
-        if (selectedIcon != null) {
-            imagePreview.setIcon(selectedIcon);
-        } else {
-            ImageIcon placeholder = loadPlaceholderImage(width, height);
-            if (placeholder != null) {
-                imagePreview.setIcon(placeholder);
-            }else {
-                imagePreview.setText("Immagine non disponibile");
-            }
+        //la miniatura del dettaglio è già nel database: si legge fuori dall'EDT mentre la finestra è aperta
+        ImageIcon placeholder = loadPlaceholderImage(width, height);
+        if (placeholder != null) {
+            imagePreview.setIcon(placeholder);
+        }else {
+            imagePreview.setText("Immagine non disponibile");
         }
+        async.loadThumbnails(List.of(book), ThumbnailSize.DETAIL).thenAccept(thumbnails -> {
+            byte[] image = thumbnails.get(book.getId());
+            if (image != null) {
+                imagePreview.setText(null);
+                imagePreview.setIcon(new ImageIcon(image));
+            }
+        });
 
         JPanel imageWrapper = new JPanel();
         imageWrapper.setLayout(new BorderLayout());
@@ -200,8 +238,10 @@ public class GestoreLibreriaUI extends JFrame{
                             .genre(newGenre)
                             .build();
 
-                    db.updateBook(book, updatedBook); // Passo sia il vecchio che il nuovo libro per l'undo/redo
-                    JOptionPane.showMessageDialog(this, "Libro modificato con successo!", "Successo", JOptionPane.INFORMATION_MESSAGE);
+                    // Passo sia il vecchio che il nuovo libro per l'undo/redo
+                    async.updateBook(book, updatedBook).thenRun(() ->
+                            JOptionPane.showMessageDialog(this, "Libro modificato con successo!", "Successo", JOptionPane.INFORMATION_MESSAGE))
+                            .exceptionally(mostraErrore("Errore nella modifica del libro"));
                 } else {
                     JOptionPane.showMessageDialog(this, "Titolo e autore sono obbligatori.", "Errore", JOptionPane.ERROR_MESSAGE);
                 }
@@ -212,8 +252,9 @@ public class GestoreLibreriaUI extends JFrame{
                     "Sei sicuro di voler eliminare il libro '" + book.getTitle() + "'?",
                     "Conferma Eliminazione", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
             if (confirm == JOptionPane.YES_OPTION) {
-                db.deleteBook(book);
-                JOptionPane.showMessageDialog(this, "Libro eliminato con successo!", "Successo", JOptionPane.INFORMATION_MESSAGE);
+                async.deleteBook(book).thenRun(() ->
+                        JOptionPane.showMessageDialog(this, "Libro eliminato con successo!", "Successo", JOptionPane.INFORMATION_MESSAGE))
+                        .exceptionally(mostraErrore("Errore nell'eliminazione del libro"));
             }
         }
     }
@@ -265,11 +306,11 @@ public class GestoreLibreriaUI extends JFrame{
                 JOptionPane.WARNING_MESSAGE);
 
         if (confirm == JOptionPane.YES_OPTION) {
-            db.deleteBook(book);
-            JOptionPane.showMessageDialog(this,
+            async.deleteBook(book).thenRun(() -> JOptionPane.showMessageDialog(this,
                     "Libro eliminato con successo!",
                     "Successo",
-                    JOptionPane.INFORMATION_MESSAGE);
+                    JOptionPane.INFORMATION_MESSAGE))
+                    .exceptionally(mostraErrore("Errore nell'eliminazione del libro"));
         }
     }
 
@@ -277,7 +318,7 @@ public class GestoreLibreriaUI extends JFrame{
      * Crea la barra dei menu dell'applicazione, includendo le voci per file, modifica e criterio di visualizzazione.
      *
      * @return La barra dei menu configurata.
-     * @post La barra dei menu contiene le voci per esportare/importare il database, uscire, le operazioni di undo/redo e le impostazioni di visualizzazione.
+     * @post La barra dei menu contiene le voci per esportare/importare il database, salvare le statistiche delle query, uscire, le operazioni di undo/redo e le impostazioni di visualizzazione.
      */
     private JMenuBar creaMenuBar() {
         JMenuBar menuBar = new JMenuBar();
@@ -293,8 +334,19 @@ public class GestoreLibreriaUI extends JFrame{
         JMenuItem importDB = new JMenuItem("Importa Database");
         importDB.addActionListener(e -> importaDatabase());
 
+        JMenuItem exportCatalog = new JMenuItem("Esporta Catalogo (CSV/JSONL)");
+        exportCatalog.addActionListener(e -> esportaCatalogo());
+
+        JMenuItem importCatalog = new JMenuItem("Importa Catalogo (CSV/JSONL)");
+        importCatalog.addActionListener(e -> importaCatalogo());
+
+        JMenuItem queryStats = new JMenuItem("Salva Statistiche Query");
+        queryStats.addActionListener(e -> salvaStatisticheQuery());
+
         JMenuItem exit = new JMenuItem("Exit");
         exit.addActionListener(e -> {
+            async.close();
+            db.flushPendingChanges();
             DatabaseConnectionSingleton.closeConnection();
             System.exit(0);
 
@@ -303,12 +355,12 @@ public class GestoreLibreriaUI extends JFrame{
         //sezione edit
         undo = new JMenuItem("⮨Undo");
         undo.addActionListener(e -> {
-            db.getHistoryManager().undo();
+            async.execute(() -> db.getHistoryManager().undo()).exceptionally(mostraErrore("Errore nell'annullamento"));
         });
 
         redo = new JMenuItem("➥Redo");
         redo.addActionListener(e -> {
-            db.getHistoryManager().redo();
+            async.execute(() -> db.getHistoryManager().redo()).exceptionally(mostraErrore("Errore nel ripristino"));
         });
 
         //sezione view
@@ -362,6 +414,11 @@ public class GestoreLibreriaUI extends JFrame{
         fileMenu.add(exportDB);
         fileMenu.add(importDB);
         fileMenu.addSeparator();
+        fileMenu.add(exportCatalog);
+        fileMenu.add(importCatalog);
+        fileMenu.addSeparator();
+        fileMenu.add(queryStats);
+        fileMenu.addSeparator();
         fileMenu.add(exit);
 
         editMenu.add(undo);
@@ -404,6 +461,11 @@ public class GestoreLibreriaUI extends JFrame{
         }
     }
 
+    /**
+     * Esporta il database con il backup online di SQLite su un thread in background, mostrando l'avanzamento.
+     * La connessione resta aperta: durante la copia la lista e le modifiche continuano a funzionare
+     * e il file esportato è la fotografia del database all'inizio dell'esportazione.
+     */
     private void esportaDatabase() {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Esporta Database");
@@ -413,23 +475,284 @@ public class GestoreLibreriaUI extends JFrame{
 
         if(userSelection == JFileChooser.APPROVE_OPTION){
             File selectedFile = fileChooser.getSelectedFile();
-            try{
-                DatabaseConnectionSingleton.closeConnection();
-                Files.copy(new File("Books_db.db").toPath(), selectedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                JOptionPane.showMessageDialog(this, "Database esportato con successo.");
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(this, "Errore nell'esportazione del database.");
-            }finally {
+            ProgressMonitor progressMonitor = new ProgressMonitor(this, "Esportazione del database", null, 0, 100);
+            progressMonitor.setMillisToDecideToPopup(200);
+            ConcreteBookManager manager = this.db;
+
+            SwingWorker<DatabaseBackup.Result, Void> worker = new SwingWorker<>() {
+                @Override
+                protected DatabaseBackup.Result doInBackground() throws Exception {
+                    //le modifiche ancora in memoria devono finire nella copia
+                    manager.flushPendingChanges();
+                    return new DatabaseBackup.Builder(DatabaseConnectionSingleton.getPool()).build()
+                            .backupTo(selectedFile.toPath(), (copied, total) ->
+                                    setProgress(total == 0 ? 100 : (int) (100L * copied / total)));
+                }
+
+                @Override
+                protected void done() {
+                    progressMonitor.close();
+                    try {
+                        get();
+                        JOptionPane.showMessageDialog(GestoreLibreriaUI.this, "Database esportato con successo.");
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        JOptionPane.showMessageDialog(GestoreLibreriaUI.this,
+                                "Errore nell'esportazione del database: " + e.getCause().getMessage());
+                    }
+                }
+            };
+            worker.addPropertyChangeListener(event -> {
+                if ("progress".equals(event.getPropertyName())) {
+                    progressMonitor.setProgress((Integer) event.getNewValue());
+                }
+            });
+            worker.execute();
+        }
+    }
+
+    //filtro dei file di scambio, compressi o no
+    private static javax.swing.filechooser.FileNameExtensionFilter filtroCataloghi(){
+        return new javax.swing.filechooser.FileNameExtensionFilter("Cataloghi CSV o JSON Lines (*.csv, *.jsonl, *.gz)",
+                "csv", "jsonl", "ndjson", "gz");
+    }
+
+    /**
+     * Esporta la libreria in CSV o JSON Lines (con {@code .gz} in fondo al nome per comprimerla) su un thread
+     * in background: i libri vengono letti e scritti uno alla volta, senza caricare la tabella in memoria.
+     */
+    private void esportaCatalogo() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Esporta Catalogo");
+        fileChooser.setFileFilter(filtroCataloghi());
+        fileChooser.setSelectedFile(new File("libreria" + BookFormat.CSV.getExtension()));
+
+        if(fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION){
+            return;
+        }
+        Path target = fileChooser.getSelectedFile().toPath();
+        BookExporter exporter;
+        try {
+            BookFormat.of(target);
+            exporter = new BookExporter.Builder(this.db).sortBy(this.currentSortCriteria).build();
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Errore Esportazione", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        ProgressMonitor progressMonitor = new ProgressMonitor(this, "Esportazione del catalogo", null, 0, 100);
+        progressMonitor.setMillisToDecideToPopup(200);
+
+        SwingWorker<BookExporter.Result, Void> worker = new SwingWorker<>() {
+            @Override
+            protected BookExporter.Result doInBackground() throws Exception {
+                return exporter.exportTo(target, (done, total) ->
+                        setProgress(total == 0 ? 100 : (int) (100L * done / total)));
+            }
+
+            @Override
+            protected void done() {
+                progressMonitor.close();
+                if (isCancelled()) {
+                    return;
+                }
                 try {
-                    DatabaseConnectionSingleton.getInstance();
-                } catch (SQLException e) {
-                    throw new RuntimeException(e);
+                    JOptionPane.showMessageDialog(GestoreLibreriaUI.this, "Libri esportati: " + get().books());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    JOptionPane.showMessageDialog(GestoreLibreriaUI.this,
+                            "Errore nell'esportazione del catalogo: " + e.getCause().getMessage());
+                }
+            }
+        };
+        seguiAvanzamento(worker, progressMonitor);
+        worker.execute();
+    }
+
+    /**
+     * Salva in un file di testo le statistiche delle query eseguite finora: per ogni forma SQL chiamate, righe
+     * e latenze p50/p95/p99. Le stesse statistiche sono consultabili via JMX.
+     * Le query vengono misurate solo se l'applicazione è avviata con {@link DatabaseConnectionSingleton#STATISTICS_PROPERTY}.
+     */
+    private void salvaStatisticheQuery() {
+        if (!DatabaseConnectionSingleton.isStatisticsEnabled()) {
+            JOptionPane.showMessageDialog(this, "Le statistiche delle query non sono attive: avviare l'applicazione con -D"
+                    + DatabaseConnectionSingleton.STATISTICS_PROPERTY + "=true");
+            return;
+        }
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Salva Statistiche Query");
+        fileChooser.setSelectedFile(new File("statistiche_query.txt"));
+
+        if(fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION){
+            return;
+        }
+        try {
+            DatabaseConnectionSingleton.getStatistics().dump(fileChooser.getSelectedFile().toPath());
+            JOptionPane.showMessageDialog(this, "Statistiche salvate in " + fileChooser.getSelectedFile());
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Errore nel salvataggio delle statistiche: " + e.getMessage(),
+                    "Errore", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Importa un catalogo CSV o JSON Lines, anche compresso, su un thread in background. I libri vengono scritti
+     * a blocchi e l'avanzamento è salvato accanto al file: se l'importazione viene annullata o fallisce,
+     * importando di nuovo lo stesso file si riprende dal blocco successivo all'ultimo scritto.
+     */
+    private void importaCatalogo() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Importa Catalogo");
+        fileChooser.setFileFilter(filtroCataloghi());
+
+        if(fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION){
+            return;
+        }
+        Path source = fileChooser.getSelectedFile().toPath();
+        try {
+            BookFormat.of(source);
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Errore Importazione", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        ConcreteBookManager manager = this.db;
+        BookImporter importer = new BookImporter.Builder(manager)
+                .checkpoint(source.resolveSibling(source.getFileName() + ".checkpoint"))
+                .build();
+        ProgressMonitor progressMonitor = new ProgressMonitor(this, "Importazione del catalogo", null, 0, 100);
+        progressMonitor.setMillisToDecideToPopup(200);
+
+        SwingWorker<BookImporter.Result, Void> worker = new SwingWorker<>() {
+            @Override
+            protected BookImporter.Result doInBackground() throws Exception {
+                return importer.importFrom(source, (done, total) ->
+                        setProgress(total == 0 ? 100 : (int) (100L * done / total)));
+            }
+
+            @Override
+            protected void done() {
+                progressMonitor.close();
+                //anche un'importazione interrotta ha già scritto dei blocchi: la vista si aggiorna una volta sola
+                manager.notifyObservers();
+                if (isCancelled()) {
+                    JOptionPane.showMessageDialog(GestoreLibreriaUI.this,
+                            "Importazione annullata: importando di nuovo lo stesso file riprenderà da dove si è fermata.");
+                    return;
+                }
+                try {
+                    BookImporter.Result result = get();
+                    StringBuilder message = new StringBuilder("Libri importati: " + result.inserted()
+                            + "\nRecord scartati: " + result.rejected());
+                    if (result.resumedFrom() > 0) {
+                        message.append("\nRipresa dopo il record ").append(result.resumedFrom());
+                    }
+                    result.errors().stream().limit(10).forEach(error -> message.append("\n  ").append(error));
+                    JOptionPane.showMessageDialog(GestoreLibreriaUI.this, message.toString());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    JOptionPane.showMessageDialog(GestoreLibreriaUI.this,
+                            "Errore nell'importazione del catalogo: " + e.getCause().getMessage()
+                                    + "\nI libri letti fino all'errore sono stati salvati.",
+                            "Errore Importazione", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        seguiAvanzamento(worker, progressMonitor);
+        worker.execute();
+    }
+
+    //riporta l'avanzamento del worker nel ProgressMonitor e annulla il worker se l'utente chiude il monitor
+    private static void seguiAvanzamento(SwingWorker<?, ?> worker, ProgressMonitor progressMonitor){
+        worker.addPropertyChangeListener(event -> {
+            if ("progress".equals(event.getPropertyName())) {
+                progressMonitor.setProgress((Integer) event.getNewValue());
+                if (progressMonitor.isCanceled()) {
+                    worker.cancel(true);
                 }
-                booksPanelUI.displayBooks(db.getAllBook(this.currentSortCriteria));
             }
+        });
+    }
+
+    //mostra tutti i libri con l'ordinamento corrente, caricandoli a pagine durante lo scorrimento
+    private void mostraTuttiILibri(){
+        SortCriteria criteria = this.currentSortCriteria;
+        AsyncBookManager pages = this.async;
+        pages.loadPage(criteria, PageCursor.first(), BooksPanelUI.PAGE_SIZE)
+                .thenAccept(first -> booksPanelUI.displayPagedBooks(criteria, first,
+                        cursor -> pages.loadPage(criteria, cursor, BooksPanelUI.PAGE_SIZE)));
+    }
+
+    /**
+     * Mostra i libri che soddisfano insieme tutti i filtri attivi (stato, valutazione e testo cercato)
+     * con una sola ricerca; senza filtri torna all'elenco completo caricato a pagine.
+     */
+    private void applicaFiltri(){
+        BookQuery.Builder query = new BookQuery.Builder().sortBy(this.currentSortCriteria);
+        if (filtroStato != null) {
+            query.equalTo(BookQuery.Field.READING_STATE, filtroStato);
+        }
+        if (filtroValutazione > 0) {
+            query.equalTo(BookQuery.Field.RATING, filtroValutazione);
+        }
+        if (filtroTesto != null) {
+            query.contains(filtroCampo, filtroTesto);
+        }
+        BookQuery filtri = query.build();
+        if (filtri.isEmpty()) {
+            mostraTuttiILibri();
+        } else {
+            mostraLibri(async.findBooks(filtri));
         }
     }
 
+    /**
+     * Aggiorna i numeri mostrati sui bottoni di stato e valutazione. I conteggi vengono letti fuori dall'EDT
+     * e il repository li ricava dai propri indici, senza caricare i libri.
+     *
+     * @post al termine della lettura ogni bottone della barra laterale mostra il numero di libri del proprio filtro
+     */
+    private void aggiornaContatori(){
+        async.countBooks()
+                .thenAccept(counts -> {
+                    for (Contatore contatore : contatori) {
+                        contatore.bottone().setText("<html>" + contatore.etichetta()
+                                + " <font color='#9a9a9a'>" + contatore.conteggio().applyAsInt(counts) + "</font></html>");
+                    }
+                })
+                .exceptionally(error -> {
+                    System.err.println("Errore nel conteggio dei libri: " + error.getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Restituisce il gestore degli errori delle operazioni asincrone: senza di esso un'operazione fallita
+     * non mostrerebbe nulla all'utente.
+     *
+     * @param messaggio il testo mostrato prima della causa dell'errore
+     * @return la funzione da passare a {@code exceptionally}
+     * @post quando viene applicata, un messaggio di errore è mostrato sull'EDT; le operazioni annullate vengono ignorate
+     */
+    private <T> Function<Throwable, T> mostraErrore(String messaggio) {
+        return error -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (!(cause instanceof CancellationException)) {
+                System.err.println(messaggio + ": " + cause);
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, messaggio + ": " + cause.getMessage(),
+                        "Errore", JOptionPane.ERROR_MESSAGE));
+            }
+            return null;
+        };
+    }
+
+    //mostra il risultato di una ricerca quando arriva; se nel frattempo ne è partita un'altra il future è annullato
+    private void mostraLibri(CompletableFuture<List<Book>> books){
+        books.thenAccept(booksPanelUI::displayBooks);
+    }
+
     private void importaDatabase(){
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Importa Database");
@@ -440,21 +763,38 @@ public class GestoreLibreriaUI extends JFrame{
         if(userSelection == JFileChooser.APPROVE_OPTION){
             File selectedFile = fileChooser.getSelectedFile();
 
+            String[] modalita = {"Unisci", "Sostituisci", "Annulla"};
+            int scelta = JOptionPane.showOptionDialog(this,
+                    "Unire i libri importati alla libreria attuale o sostituire l'intera libreria?",
+                    "Importa Database", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, modalita, modalita[0]);
+            if(scelta == 0){
+                unisciDatabase(selectedFile);
+                return;
+            }
+            if(scelta != 1){
+                return;
+            }
+
             int confirm = JOptionPane.showConfirmDialog(this, "L'importazione sovrascriverà il database esistente, sei sicuro di voler continuare?","Conferma Importazione", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
 
             if(confirm == JOptionPane.YES_OPTION){
                 try{
+                    db.flushPendingChanges();
                     DatabaseConnectionSingleton.closeConnection();
                     Files.copy(selectedFile.toPath(), new File("Books_db.db").toPath(), StandardCopyOption.REPLACE_EXISTING);
                     JOptionPane.showMessageDialog(this, "Database importato con successo.");
 
                     DatabaseConnectionSingleton.getInstance();
 
-                    db = new ConcreteBookManager(new SQLiteBookRepository());
+                    db.detach(contatoriObserver);
+                    db = new ConcreteBookManager(new CachingBookRepository(new SQLiteBookRepository()));
+                    db.attach(contatoriObserver);
+                    async.close();
+                    async = new AsyncBookManager(db);
                     bookObserver.unsubscribe();
-                    bookObserver = new ConcreteBookObserver(this,this.booksPanelUI,this.db);
+                    bookObserver = new ConcreteBookObserver(this,this.booksPanelUI,this.db,this.async);
 
-                    booksPanelUI.displayBooks(db.getAllBook(this.currentSortCriteria));
+                    mostraTuttiILibri();
                 }catch (IOException | SQLException e){
                     JOptionPane.showMessageDialog(this, "Errore durante l'importazione del database: " + e.getMessage(), "Errore Importazione", JOptionPane.ERROR_MESSAGE);
                 }
@@ -463,6 +803,25 @@ public class GestoreLibreriaUI extends JFrame{
         }
     }
 
+    /**
+     * Aggiunge alla libreria i libri di un altro database, senza chiudere la connessione e senza ricreare
+     * manager e osservatori: la lista si aggiorna tramite la normale notifica del manager.
+     */
+    private void unisciDatabase(File selectedFile){
+        async.importBooks(selectedFile.toPath())
+                .thenAccept(result -> {
+                    if (result == null) {
+                        JOptionPane.showMessageDialog(this, "Il file selezionato non è una libreria valida.",
+                                "Errore Importazione", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    JOptionPane.showMessageDialog(this, "Libri aggiunti: " + result.inserted()
+                            + "\nLibri completati con i dati mancanti: " + result.updated()
+                            + "\nLibri già presenti: " + result.skipped());
+                })
+                .exceptionally(mostraErrore("Errore nell'importazione del database"));
+    }
+
     private JPanel inizializzaSezioneDX(){
         JPanel rightPanel = new JPanel(new BorderLayout());
 
@@ -476,7 +835,7 @@ public class GestoreLibreriaUI extends JFrame{
         searchField.setPreferredSize(new Dimension(120, 30));
         searchField.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
 
-        String[] searchCriteria = {"Titolo", "Autore"};
+        String[] searchCriteria = {"Tutto", "Titolo", "Autore"};
         JComboBox<String> searchCriteriaCombo = new JComboBox<>(searchCriteria);
         searchCriteriaCombo.setPreferredSize(new Dimension(100, 30));
         searchCriteriaCombo.putClientProperty("JComboBox.is=roundReact",true);
@@ -492,20 +851,19 @@ public class GestoreLibreriaUI extends JFrame{
         searchField.addActionListener(e -> {
             String searchText = searchField.getText().trim();
             String criterion = searchCriteriaCombo.getSelectedItem().toString();
-            if(criterion.equals("Titolo")){
+            if(criterion.equals("Tutto")){
                 if (!searchText.isEmpty() && !searchText.equals("Search")) {
-                    List<Book> searchResults = db.findBookByTitle(searchText, this.currentSortCriteria);
-                    booksPanelUI.displayBooks(searchResults);
+                    // ricerca full-text su titolo, autore e genere, ordinata per rilevanza se non è scelto un ordinamento
+                    mostraLibri(async.fullTextSearch(searchText, this.currentSortCriteria)
+                            .thenApply(results -> results.stream().map(SearchResult::getBook).toList()));
                 } else {
-                    booksPanelUI.displayBooks(db.getAllBook(this.currentSortCriteria));
+                    mostraTuttiILibri();
                 }
             }else {
-                if (!searchText.isEmpty() && !searchText.equals("Search")) {
-                    List<Book> searchResults = db.findBookByAuthor(searchText, this.currentSortCriteria);
-                    booksPanelUI.displayBooks(searchResults);
-                } else {
-                    booksPanelUI.displayBooks(db.getAllBook(this.currentSortCriteria));
-                }
+                //la ricerca per titolo o autore si somma ai filtri di stato e valutazione
+                filtroCampo = criterion.equals("Titolo") ? BookQuery.Field.TITLE : BookQuery.Field.AUTHOR;
+                filtroTesto = !searchText.isEmpty() && !searchText.equals("Search") ? searchText : null;
+                applicaFiltri();
             }
         });
         return rightPanel;
@@ -557,23 +915,38 @@ public class GestoreLibreriaUI extends JFrame{
             StatoBottoni.add(btn);
         }
 
+        List<JButton> starButtons = new ArrayList<>();
+
+        contatori.add(new Contatore(AllBtn, "All", BookCounts::getTotal));
+        contatori.add(new Contatore(lettiBtn, "Letti", counts -> counts.getReadingStateCount("LETTO")));
+        contatori.add(new Contatore(inLetturaBtn, "In lettura", counts -> counts.getReadingStateCount("IN LETTURA")));
+        contatori.add(new Contatore(daLeggereBtn, "Da leggere", counts -> counts.getReadingStateCount("DA LEGGERE")));
+
         AllBtn.addActionListener(e -> {
-            booksPanelUI.displayBooks(db.getAllBook(this.currentSortCriteria)); // Mostra tutti i libri
+            //azzera tutti i filtri e mostra tutti i libri
+            filtroStato = null;
+            filtroValutazione = 0;
+            filtroTesto = null;
+            mostraTuttiILibri();
             highlightButton(AllBtn, stateButtons, selectedColor, defaultColor); // Evidenzia il bottone
+            starButtons.forEach(star -> star.setBackground(defaultColor));
         });
 
         lettiBtn.addActionListener(e -> {
-            booksPanelUI.displayBooks(db.filterBookByReadingState("LETTO", this.currentSortCriteria)); // Filtra per "LETTO"
+            filtroStato = "LETTO"; // Filtra per "LETTO", insieme agli altri filtri attivi
+            applicaFiltri();
             highlightButton(lettiBtn, stateButtons, selectedColor, defaultColor);
         });
 
         inLetturaBtn.addActionListener(e -> {
-            booksPanelUI.displayBooks(db.filterBookByReadingState("IN LETTURA", this.currentSortCriteria)); // Filtra per "IN LETTURA"
+            filtroStato = "IN LETTURA"; // Filtra per "IN LETTURA"
+            applicaFiltri();
             highlightButton(inLetturaBtn, stateButtons, selectedColor, defaultColor);
         });
 
         daLeggereBtn.addActionListener(e -> {
-            booksPanelUI.displayBooks(db.filterBookByReadingState("DA LEGGERE", this.currentSortCriteria)); // Filtra per "DA LEGGERE"
+            filtroStato = "DA LEGGERE"; // Filtra per "DA LEGGERE"
+            applicaFiltri();
             highlightButton(daLeggereBtn, stateButtons, selectedColor, defaultColor);
         });
 
@@ -598,11 +971,19 @@ public class GestoreLibreriaUI extends JFrame{
 
             final int currentRating = i; // Per l'uso nella lambda
             starButton.addActionListener(e -> {
-                booksPanelUI.displayBooks(db.filterBookByRating(currentRating, this.currentSortCriteria));
-                highlightButton(starButton, stateButtons, selectedColor, defaultColor); // Evidenzia la stella
+                //un secondo clic sulla stella selezionata toglie il filtro per valutazione
+                if (filtroValutazione == currentRating) {
+                    filtroValutazione = 0;
+                    starButton.setBackground(defaultColor);
+                } else {
+                    filtroValutazione = currentRating;
+                    highlightButton(starButton, starButtons, selectedColor, defaultColor); // Evidenzia la stella
+                }
+                applicaFiltri();
             });
             ratingPanel.add(starButton);
-            stateButtons.add(starButton); // Aggiungi il bottone alla lista
+            starButtons.add(starButton); // Aggiungi il bottone alla lista
+            contatori.add(new Contatore(starButton, "★", counts -> counts.getRatingCount(currentRating)));
         }
         leftPanel.add(ratingPanel);
         //titolo applicazione
@@ -717,7 +1098,7 @@ public class GestoreLibreriaUI extends JFrame{
                             .genre(genre)
                             .build();
                     System.out.println("Creato libro: " + nuovoLibro.toString());
-                    db.addBook(nuovoLibro);
+                    async.addBook(nuovoLibro).exceptionally(mostraErrore("Errore nell'aggiunta del libro"));
                 } else {
                     JOptionPane.showMessageDialog(null, "Titolo e autore sono obbligatori.");
                 }
@@ -795,7 +1176,8 @@ public class GestoreLibreriaUI extends JFrame{
         } catch (UnsupportedLookAndFeelException e) {
             System.err.println("Impossibile caricare FlatLaf");
         }
-        BookRepositoryImplementor repo = new SQLiteBookRepository();
+        //la libreria sta in memoria: ordinamenti e filtri vengono serviti dalla cache, le modifiche arrivano anche al database
+        BookRepositoryImplementor repo = new CachingBookRepository(new SQLiteBookRepository());
         ConcreteBookManager db = new ConcreteBookManager(repo);
         SwingUtilities.invokeLater(() -> {
             GestoreLibreriaUI UI = new GestoreLibreriaUI(db);
@@ -0,0 +1,187 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.Page;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SortCriteria;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncBookManagerTest {
+
+    private static final String DELIVERY_THREAD = "edt-di-prova";
+
+    //repository in memoria in cui le ricerche per titolo possono essere trattenute
+    private static class SlowRepository extends InMemoryBookRepository {
+        volatile CountDownLatch gate = new CountDownLatch(0);
+        final List<String> readThreads = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public List<Book> findByTitle(String title, SortCriteria criteria) {
+            readThreads.add(Thread.currentThread().getName());
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.findByTitle(title, criteria);
+        }
+    }
+
+    private SlowRepository repository;
+    private ConcreteBookManager manager;
+    private ExecutorService edt;
+    private AsyncBookManager async;
+
+    @Before
+    public void setUp() {
+        repository = new SlowRepository();
+        manager = new ConcreteBookManager(repository);
+        //un thread singolo fa le veci dell'EDT
+        edt = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, DELIVERY_THREAD));
+        async = new AsyncBookManager(manager, Executors.newVirtualThreadPerTaskExecutor(), edt);
+        manager.addBook(new Book.Builder("Dune", "Frank Herbert").rating(5).build());
+        manager.addBook(new Book.Builder("Emma", "Jane Austen").rating(3).build());
+    }
+
+    @After
+    public void tearDown() {
+        async.close();
+        edt.shutdownNow();
+    }
+
+    @Test
+    public void testQueryRunsOffCallerAndIsDeliveredOnDeliveryThread() throws Exception {
+        String[] deliveredOn = new String[1];
+        //la query resta in attesa finché l'azione non è collegata, altrimenti verrebbe eseguita dal chiamante
+        repository.gate = new CountDownLatch(1);
+        CompletableFuture<List<Book>> result = async.findBookByTitle("dune", SortCriteria.NONE)
+                .thenApply(books -> {
+                    deliveredOn[0] = Thread.currentThread().getName();
+                    return books;
+                });
+        repository.gate.countDown();
+        List<Book> books = result.get(5, TimeUnit.SECONDS);
+        assertEquals(1, books.size());
+        assertEquals(DELIVERY_THREAD, deliveredOn[0]);
+        assertNotEquals(Thread.currentThread().getName(), repository.readThreads.get(0));
+        assertNotEquals(DELIVERY_THREAD, repository.readThreads.get(0));
+    }
+
+    @Test
+    public void testNewQueryCancelsThePreviousOne() throws Exception {
+        repository.gate = new CountDownLatch(1);
+        CompletableFuture<List<Book>> first = async.findBookByTitle("dune", SortCriteria.NONE);
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        first.thenAccept(books -> delivered.add("prima"));
+
+        CompletableFuture<List<Book>> second = async.filterBookByRating(3, SortCriteria.NONE);
+        second.thenAccept(books -> delivered.add("seconda"));
+        assertTrue(first.isCancelled());
+        assertEquals("Emma", second.get(5, TimeUnit.SECONDS).get(0).getTitle());
+
+        //la prima query termina dopo, ma il suo risultato non arriva all'interfaccia
+        repository.gate.countDown();
+        async.getAllBook(SortCriteria.NONE).get(5, TimeUnit.SECONDS);
+        edt.submit(() -> null).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("seconda"), delivered);
+    }
+
+    @Test
+    public void testNextPagesDoNotCancelTheCurrentQuery() throws Exception {
+        CompletableFuture<Page> first = async.loadPage(SortCriteria.TITLE_ASC, PageCursor.first(), 1);
+        Page page = first.get(5, TimeUnit.SECONDS);
+        assertTrue(page.hasMore());
+
+        repository.gate = new CountDownLatch(1);
+        CompletableFuture<List<Book>> search = async.findBookByTitle("e", SortCriteria.NONE);
+        CompletableFuture<Page> next = async.loadPage(SortCriteria.TITLE_ASC, page.getNextCursor(), 1);
+        assertEquals("Emma", next.get(5, TimeUnit.SECONDS).getBooks().get(0).getTitle());
+        assertFalse(search.isCancelled());
+        repository.gate.countDown();
+        assertEquals(2, search.get(5, TimeUnit.SECONDS).size());
+
+        //una nuova prima pagina invece sostituisce la lista
+        repository.gate = new CountDownLatch(1);
+        CompletableFuture<List<Book>> replaced = async.findBookByTitle("e", SortCriteria.NONE);
+        async.loadPage(SortCriteria.NONE, PageCursor.first(), 10).get(5, TimeUnit.SECONDS);
+        assertTrue(replaced.isCancelled());
+        repository.gate.countDown();
+    }
+
+    @Test
+    public void testWritesRunInSubmissionOrder() throws Exception {
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            writes.add(async.addBook(new Book.Builder("Libro " + i, "Autore").build()));
+        }
+        CompletableFuture.allOf(writes.toArray(CompletableFuture<?>[]::new)).get(5, TimeUnit.SECONDS);
+        List<Book> books = manager.getAllBook(SortCriteria.NONE);
+        assertEquals(52, books.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("Libro " + i, books.get(i + 2).getTitle());
+        }
+        //anche l'undo passa dalla stessa coda
+        async.execute(() -> manager.getHistoryManager().undo()).get(5, TimeUnit.SECONDS);
+        assertEquals(51, manager.getAllBook(SortCriteria.NONE).size());
+    }
+
+    @Test
+    public void testFailureCompletesExceptionallyAndQueueContinues() throws Exception {
+        CompletableFuture<Void> failing = async.execute(() -> {
+            throw new IllegalStateException("disco pieno");
+        });
+        CompletableFuture<Void> next = async.addBook(new Book.Builder("Dopo", "Autore").build());
+        try {
+            failing.get(5, TimeUnit.SECONDS);
+            fail("la modifica doveva fallire");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        next.get(5, TimeUnit.SECONDS);
+        assertEquals(3, manager.getAllBook(SortCriteria.NONE).size());
+    }
+
+    @Test
+    public void testErrorCompletesTheFuture() throws Exception {
+        CompletableFuture<Void> failing = async.execute(() -> {
+            throw new NoClassDefFoundError("org/sqlite/JDBC");
+        });
+        try {
+            failing.get(5, TimeUnit.SECONDS);
+            fail("la modifica doveva fallire");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof NoClassDefFoundError);
+        }
+        async.addBook(new Book.Builder("Dopo", "Autore").build()).get(5, TimeUnit.SECONDS);
+        assertEquals(3, manager.getAllBook(SortCriteria.NONE).size());
+    }
+
+    @Test
+    public void testCloseWaitsForQueuedWrites() {
+        for (int i = 0; i < 20; i++) {
+            async.addBook(new Book.Builder("Accodato " + i, "Autore").build());
+        }
+        async.close();
+        assertEquals(22, manager.getAllBook(SortCriteria.NONE).size());
+        assertTrue(async.addBook(new Book.Builder("Tardi", "Autore").build()).isCompletedExceptionally());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNullManager() {
+        new AsyncBookManager(null);
+    }
+}
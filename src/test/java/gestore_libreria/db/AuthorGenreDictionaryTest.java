@@ -0,0 +1,163 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Author;
+import gestore_libreria.model.Book;
+import gestore_libreria.model.Genre;
+import gestore_libreria.model.SortCriteria;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AuthorGenreDictionaryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SQLiteConnectionPool pool;
+    private SQLiteBookRepository database;
+    private ConcreteBookManager manager;
+
+    @Before
+    public void setUp() {
+        pool = new SQLiteConnectionPool.Builder("jdbc:sqlite::memory:").build();
+        database = new SQLiteBookRepository(pool);
+        manager = new ConcreteBookManager(database);
+        manager.addBooks(List.of(
+                new Book.Builder("Emma", "Jane Austen").genre("Romanzo").build(),
+                new Book.Builder("Persuasione", "Jane Austen").genre("Romanzo").build(),
+                new Book.Builder("Orgoglio e pregiudizio", "Jane Austen").build(),
+                new Book.Builder("Lettere a Jane Austen", "Jane Austen Society").genre("Saggio").build(),
+                new Book.Builder("Dune", "Frank Herbert").genre("").build()));
+    }
+
+    @After
+    public void tearDown() {
+        database.closeStatements();
+        pool.close();
+    }
+
+    private Author author(String name) {
+        return manager.listAuthors().stream().filter(author -> author.name().equals(name)).findFirst().orElse(null);
+    }
+
+    @Test
+    public void testListAuthorsAndGenres() {
+        List<Author> authors = manager.listAuthors();
+        assertEquals(List.of("Frank Herbert", "Jane Austen", "Jane Austen Society"), authors.stream().map(Author::name).toList());
+        assertEquals(3, author("Jane Austen").books());
+
+        List<Genre> genres = manager.listGenres();
+        assertEquals("i libri senza genere non creano un genere vuoto",
+                List.of("Romanzo", "Saggio"), genres.stream().map(Genre::name).toList());
+        assertEquals(2, genres.get(0).books());
+    }
+
+    @Test
+    public void testFindByAuthorIdMatchesOnlyThatAuthor() {
+        List<Book> books = manager.findBookByAuthorId(author("Jane Austen").id(), SortCriteria.TITLE_ASC);
+        assertEquals(List.of("Emma", "Orgoglio e pregiudizio", "Persuasione"), books.stream().map(Book::getTitle).toList());
+        assertEquals("la ricerca per nome trova anche gli altri autori", 4, manager.findBookByAuthor("Jane Austen", SortCriteria.NONE).size());
+        assertTrue(manager.findBookByAuthorId(-1, SortCriteria.NONE).isEmpty());
+    }
+
+    @Test
+    public void testDictionaryFollowsUpdatesAndDeletes() {
+        Author herbert = author("Frank Herbert");
+        Book dune = manager.findBookByAuthorId(herbert.id(), SortCriteria.NONE).get(0);
+        Book renamed = new Book.Builder("Dune", "F. Herbert").id(dune.getId()).genre("Fantascienza").build();
+        manager.updateBook(dune, renamed);
+
+        assertNull("l'autore senza libri è stato eliminato", author("Frank Herbert"));
+        assertEquals(List.of(dune.getId()), manager.findBookByAuthorId(author("F. Herbert").id(), SortCriteria.NONE)
+                .stream().map(Book::getId).toList());
+        assertEquals(3, manager.listGenres().size());
+
+        manager.deleteBook(renamed);
+        assertNull(author("F. Herbert"));
+        assertEquals(2, manager.listGenres().size());
+
+        manager.addBook(new Book.Builder("Dune", "Frank Herbert").build());
+        assertTrue("gli id eliminati non vengono riassegnati", author("Frank Herbert").id() > herbert.id());
+    }
+
+    @Test
+    public void testLoadedBooksShareAuthorAndGenreInstances() {
+        List<Book> first = database.loadAll(SortCriteria.TITLE_ASC);
+        List<Book> second = database.findByAuthorId(author("Jane Austen").id(), SortCriteria.TITLE_ASC);
+        Book emma = first.get(1);
+        Book persuasione = first.get(4);
+        assertEquals("Emma", emma.getTitle());
+        assertEquals("Persuasione", persuasione.getTitle());
+        assertSame(emma.getAuthor(), persuasione.getAuthor());
+        assertSame(emma.getGenre(), persuasione.getGenre());
+        assertSame("anche tra letture diverse", emma.getAuthor(), second.get(0).getAuthor());
+    }
+
+    //stessi libri e stesse modifiche del database SQLite, su un repository che tiene il dizionario in memoria
+    private void assertSameDictionaryAsSQLite(BookRepositoryImplementor repository) {
+        ConcreteBookManager other = new ConcreteBookManager(repository);
+        other.addBooks(database.loadAll(SortCriteria.NONE).stream()
+                .map(book -> new Book.Builder(book.getTitle(), book.getAuthor()).genre(book.getGenre()).build())
+                .toList());
+        assertEquals(manager.listAuthors(), other.listAuthors());
+        assertEquals(manager.listGenres(), other.listGenres());
+        for (Author author : manager.listAuthors()) {
+            for (SortCriteria criteria : SortCriteria.values()) {
+                assertEquals(author.name() + " " + criteria,
+                        manager.findBookByAuthorId(author.id(), criteria).stream().map(Book::getTitle).toList(),
+                        other.findBookByAuthorId(author.id(), criteria).stream().map(Book::getTitle).toList());
+            }
+        }
+        assertTrue(other.findBookByAuthorId(-1, SortCriteria.NONE).isEmpty());
+
+        Author austen = other.listAuthors().get(1);
+        Book emma = other.findBookByAuthorId(austen.id(), SortCriteria.TITLE_ASC).get(0);
+        other.updateBook(emma, new Book.Builder("Emma", "Jane Austen").id(emma.getId()).rating(5).build());
+        assertEquals("l'id non cambia se l'autore resta lo stesso", austen.id(), other.listAuthors().get(1).id());
+        assertEquals(List.of(new Genre(1, "Romanzo", 1), new Genre(2, "Saggio", 1)), other.listGenres());
+
+        Author herbert = other.listAuthors().get(0);
+        Book dune = other.findBookByAuthorId(herbert.id(), SortCriteria.NONE).get(0);
+        Book renamed = new Book.Builder("Dune", "F. Herbert").id(dune.getId()).genre("Fantascienza").build();
+        other.updateBook(dune, renamed);
+        assertEquals(List.of("F. Herbert", "Jane Austen", "Jane Austen Society"),
+                other.listAuthors().stream().map(Author::name).toList());
+        assertEquals(3, other.listGenres().size());
+        other.deleteBook(renamed);
+        assertEquals(2, other.listAuthors().size());
+        assertEquals(2, other.listGenres().size());
+
+        other.addBook(new Book.Builder("Dune", "Frank Herbert").build());
+        assertTrue("gli id eliminati non vengono riassegnati", other.listAuthors().get(0).id() > herbert.id());
+    }
+
+    @Test
+    public void testInMemoryRepositoryDictionary() {
+        assertSameDictionaryAsSQLite(new InMemoryBookRepository());
+    }
+
+    @Test
+    public void testLogStructuredRepositoryDictionary() throws Exception {
+        LogStructuredBookRepository.Builder builder = new LogStructuredBookRepository.Builder(folder.getRoot().toPath())
+                .backgroundCompaction(false);
+        List<Author> authors;
+        List<Genre> genres;
+        try (LogStructuredBookRepository log = builder.build()) {
+            assertSameDictionaryAsSQLite(log);
+            authors = log.listAuthors();
+            genres = log.listGenres();
+        }
+        try (LogStructuredBookRepository reopened = builder.build()) {
+            assertEquals("la riapertura ricostruisce gli stessi id", authors, reopened.listAuthors());
+            assertEquals(genres, reopened.listGenres());
+            assertEquals(List.of("Dune"), reopened.findByAuthorId(authors.get(0).id(), SortCriteria.NONE)
+                    .stream().map(Book::getTitle).toList());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.BookChange;
+import gestore_libreria.model.BookChangeEvent;
+import gestore_libreria.model.SortCriteria;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sqlite.SQLiteUpdateListener;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class BookChangeFeedTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SQLiteConnectionPool pool;
+    private SQLiteBookRepository database;
+    private final List<BookChangeEvent> events = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        pool = new SQLiteConnectionPool.Builder("jdbc:sqlite::memory:").build();
+        database = new SQLiteBookRepository(pool);
+        assertTrue(database.addChangeListener(events::add));
+    }
+
+    @After
+    public void tearDown() {
+        database.closeStatements();
+        pool.close();
+    }
+
+    private static Book book(String title) {
+        return new Book.Builder(title, "Autore").isbn("").build();
+    }
+
+    @Test
+    public void testEveryCommittedTransactionIsOneEvent() {
+        Book dune = book("Dune");
+        database.save(dune);
+        assertEquals(1, events.size());
+        assertEquals(List.of(new BookChange(BookChange.Type.INSERTED, dune.getId())), events.get(0).changes());
+
+        List<Book> books = List.of(book("Emma"), book("Ulisse"), book("Odissea"));
+        database.saveAll(books);
+        assertEquals(2, events.size());
+        //gli aggiornamenti dei trigger (author_id, genre_id) sono già riassunti nell'inserimento
+        assertEquals(Set.of(books.get(0).getId(), books.get(1).getId(), books.get(2).getId()), events.get(1).inserted());
+        assertTrue(events.get(1).updated().isEmpty());
+
+        database.update(new Book.Builder("Dune", "Frank Herbert").id(dune.getId()).rating(5).build());
+        database.delete(books.get(1));
+        assertEquals(Set.of(dune.getId()), events.get(2).updated());
+        assertEquals(Set.of(books.get(1).getId()), events.get(3).deleted());
+        assertTrue(events.get(2).transaction() < events.get(3).transaction());
+    }
+
+    @Test
+    public void testChangesAreCollapsedAndRollbacksDiscarded() throws SQLException {
+        Book kept = book("Kept");
+        database.save(kept);
+        events.clear();
+
+        database.inTransaction(connection -> {
+            StatementCache statements = statementsFor(connection);
+            //inserito ed eliminato nella stessa transazione: non compare
+            statements.update("INSERT INTO books (title, author) VALUES ('Temporaneo', 'Autore')", ps -> { });
+            statements.update("DELETE FROM books WHERE title = 'Temporaneo'", ps -> { });
+            //eliminato e reinserito con lo stesso id: è un aggiornamento
+            statements.update("DELETE FROM books WHERE id = ?", ps -> ps.setInt(1, kept.getId()));
+            statements.update("INSERT INTO books (id, title, author) VALUES (?, 'Kept', 'Autore')", ps -> ps.setInt(1, kept.getId()));
+            statements.update("UPDATE books SET rating = 2 WHERE id = ?", ps -> ps.setInt(1, kept.getId()));
+            return null;
+        });
+        assertEquals(1, events.size());
+        assertEquals(List.of(new BookChange(BookChange.Type.UPDATED, kept.getId())), events.get(0).changes());
+
+        try {
+            database.inTransaction(connection -> {
+                statementsFor(connection).update("DELETE FROM books WHERE id = ?", ps -> ps.setInt(1, kept.getId()));
+                throw new SQLException("annullata");
+            });
+            fail("la transazione doveva fallire");
+        } catch (SQLException expected) {
+            //nessun evento per una transazione annullata
+        }
+        assertEquals(1, events.size());
+        assertEquals(1, database.loadAll(SortCriteria.NONE).size());
+    }
+
+    @Test
+    public void testCommitFailingAfterTheHookIsNotPublished() {
+        //la sequenza degli hook di un commit che fallisce dopo l'hook di commit, ad esempio con SQLITE_BUSY o SQLITE_FULL
+        BookChangeFeed feed = new BookChangeFeed();
+        List<BookChangeEvent> published = new ArrayList<>();
+        feed.addListener(published::add);
+        feed.onUpdate(SQLiteUpdateListener.Type.INSERT, "main", "books", 1);
+        feed.onCommit();
+        feed.discard();
+        feed.onRollback();
+        feed.publish();
+        assertTrue(published.isEmpty());
+
+        feed.onUpdate(SQLiteUpdateListener.Type.INSERT, "main", "books", 2);
+        feed.onCommit();
+        feed.publish();
+        assertTrue("il commit non è ancora terminato", published.isEmpty());
+        feed.confirm();
+        feed.publish();
+        assertEquals(1, published.size());
+        assertEquals(List.of(new BookChange(BookChange.Type.INSERTED, 2)), published.get(0).changes());
+        assertEquals(1, published.get(0).transaction());
+    }
+
+    private StatementCache statementsFor(java.sql.Connection connection) {
+        return database.statementsFor(connection);
+    }
+
+    @Test
+    public void testUndoAndImportAreReported() throws IOException {
+        ConcreteBookManager manager = new ConcreteBookManager(database);
+        Book dune = book("Dune");
+        manager.addBook(dune);
+        manager.getHistoryManager().undo();
+        assertEquals(Set.of(dune.getId()), events.get(events.size() - 1).deleted());
+
+        Path other = folder.newFile("altra.db").toPath();
+        SQLiteConnectionPool otherPool = new SQLiteConnectionPool.Builder("jdbc:sqlite:" + other).build();
+        SQLiteBookRepository otherLibrary = new SQLiteBookRepository(otherPool);
+        otherLibrary.saveAll(List.of(book("Emma"), book("Ulisse")));
+        otherLibrary.closeStatements();
+        otherPool.close();
+
+        events.clear();
+        database.importBooks(other);
+        assertEquals(1, events.size());
+        assertEquals(2, events.get(0).inserted().size());
+    }
+
+    @Test
+    public void testListenersCanBeRemovedAndFailuresAreIsolated() {
+        List<BookChangeEvent> second = new ArrayList<>();
+        database.addChangeListener(event -> {
+            throw new IllegalStateException("listener rotto");
+        });
+        database.addChangeListener(second::add);
+        database.save(book("Dune"));
+        assertEquals(1, events.size());
+        assertEquals(1, second.size());
+
+        database.removeChangeListener(second::add);     //un altro riferimento al metodo: non è lo stesso listener
+        assertEquals(1, second.size());
+        assertFalse(new InMemoryBookRepository().addChangeListener(events::add));
+        assertTrue(new CachingBookRepository(database).addChangeListener(events::add));
+    }
+}
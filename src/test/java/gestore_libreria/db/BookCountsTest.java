@@ -0,0 +1,86 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.BookCounts;
+import gestore_libreria.model.SortCriteria;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BookCountsTest {
+
+    private SQLiteConnectionPool pool;
+    private SQLiteBookRepository database;
+
+    @Before
+    public void setUp() {
+        pool = new SQLiteConnectionPool.Builder("jdbc:sqlite::memory:").build();
+        database = new SQLiteBookRepository(pool);
+        database.saveAll(List.of(
+                new Book.Builder("Dune", "Frank Herbert").genre("Fantascienza").rating(5).readingState("letto").build(),
+                new Book.Builder("Emma", "Jane Austen").genre("Romanzo").rating(3).readingState("LETTO").build(),
+                new Book.Builder("Dracula", "Bram Stoker").genre("romanzo").rating(5).readingState("in lettura").build(),
+                new Book.Builder("Bozza", "Autore").genre(null).rating(0).build()));
+    }
+
+    @After
+    public void tearDown() {
+        database.closeStatements();
+        pool.close();
+    }
+
+    @Test
+    public void testGroupByCounts() {
+        BookCounts counts = database.countBooks();
+        assertEquals(4, counts.getTotal());
+        assertEquals(2, counts.getReadingStateCount("LETTO"));
+        assertEquals(1, counts.getReadingStateCount(" In Lettura "));
+        assertEquals(1, counts.getReadingStateCount("da leggere"));
+        assertEquals(2, counts.getRatingCount(5));
+        assertEquals(0, counts.getRatingCount(4));
+        assertEquals(2, counts.getGenreCount("Romanzo"));
+        assertEquals(1, counts.getGenreCount("fantascienza"));
+        assertEquals("i generi null non sono contati", 3, counts.getByGenre().values().stream().mapToInt(Integer::intValue).sum());
+    }
+
+    @Test
+    public void testAllRepositoriesAgree() {
+        BookCounts expected = database.countBooks();
+        assertEquals(expected, BookCounts.of(database.loadAll(SortCriteria.NONE)));
+        assertEquals(expected, new InMemoryBookRepository(database.loadAll(SortCriteria.NONE)).countBooks());
+        assertEquals(expected, new CachingBookRepository(database).countBooks());
+    }
+
+    @Test
+    public void testCacheUpdatesCountsIncrementally() {
+        CachingBookRepository cache = new CachingBookRepository(database);
+        cache.countBooks();
+        cache.resetStatistics();
+
+        Book nuovo = new Book.Builder("Ivanhoe", "Walter Scott").genre("Romanzo").rating(4).build();
+        cache.save(nuovo);
+        cache.update(new Book.Builder("Emma", "Jane Austen").id(2).genre("Classico").rating(4).readingState("da leggere").build());
+        cache.delete(database.findByTitle("Dune", SortCriteria.NONE).get(0));
+
+        BookCounts counts = cache.countBooks();
+        assertEquals("nessuna rilettura dal database", 0, cache.getMissCount());
+        assertEquals(database.countBooks(), counts);
+        assertEquals(2, counts.getRatingCount(4));
+        assertEquals(0, counts.getGenreCount("fantascienza"));
+        assertFalse(counts.getByGenre().containsKey("fantascienza"));
+    }
+
+    @Test
+    public void testManagerCounts() {
+        ConcreteBookManager manager = new ConcreteBookManager(new InMemoryBookRepository());
+        assertEquals(BookCounts.EMPTY, manager.countBooks());
+        manager.addBook(new Book.Builder("Dune", "Frank Herbert").rating(5).readingState("LETTO").build());
+        assertEquals(1, manager.countBooks().getReadingStateCount("letto"));
+        manager.getHistoryManager().undo();
+        assertEquals(0, manager.countBooks().getTotal());
+    }
+}
@@ -1,7 +1,9 @@
 package gestore_libreria.db;
 
 import gestore_libreria.model.Book;
+import gestore_libreria.model.BookChangeSet;
 import gestore_libreria.model.SortCriteria;
+import gestore_libreria.observer.BookObserver;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -11,6 +13,8 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -169,4 +173,126 @@ public class BookManagerTest {
         List<Book> filteredBook = manager.filterBookByReadingState("LETTO",SortCriteria.NONE);
         assertEquals(allBooks.get(0).getReadingState(), filteredBook.get(0).getReadingState());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testAddBooksAssignsIds() throws SQLException{
+        manager.addBooks(Arrays.asList(testBook1, testBook2));
+
+        List<Book> allBooks = manager.getAllBook(SortCriteria.TITLE_ASC);
+        assertEquals(2, allBooks.size());
+        assertTrue(testBook1.getId() > 0);
+        assertEquals(testBook1.getId() + 1, testBook2.getId());
+        assertEquals(testBook2.getId(), allBooks.get(0).getId());      // "1984" viene prima in ordine alfabetico
+    }
+
+    @Test
+    public void testUpdateBooks() throws SQLException{
+        manager.addBooks(Arrays.asList(testBook1, testBook2));
+
+        List<Book> oldBooks = manager.getAllBook(SortCriteria.NONE);
+        List<Book> newBooks = new ArrayList<>();
+        for(Book book : oldBooks){
+            newBooks.add(new Book.Builder(book.getTitle(), book.getAuthor()).id(book.getId()).rating(1).readingState("LETTO").build());
+        }
+        manager.updateBooks(oldBooks, newBooks);
+
+        assertEquals(2, manager.filterBookByRating(1, SortCriteria.NONE).size());
+    }
+
+    @Test
+    public void testDeleteBooksAndUndo() throws SQLException{
+        manager.addBooks(Arrays.asList(testBook1, testBook2));
+        manager.deleteBooks(manager.getAllBook(SortCriteria.NONE));
+        assertEquals(0, manager.getAllBook(SortCriteria.NONE).size());
+
+        // una sola voce di undo ripristina entrambi i libri
+        ((ConcreteBookManager) manager).getHistoryManager().undo();
+        assertEquals(2, manager.getAllBook(SortCriteria.NONE).size());
+    }
+
+    @Test
+    public void testObserversReceiveTheChangedBooks() throws SQLException{
+        ConcreteBookManager concrete = (ConcreteBookManager) manager;
+        List<BookChangeSet> notified = new ArrayList<>();
+        concrete.attach(new BookObserver() {
+            @Override
+            public void update() {
+                fail("le modifiche del manager portano i libri coinvolti");
+            }
+
+            @Override
+            public void update(BookChangeSet changes) {
+                notified.add(changes);
+            }
+        });
+
+        manager.addBooks(Arrays.asList(testBook1, testBook2));
+        Book updated = new Book.Builder("1984", "George Orwell").id(testBook2.getId()).rating(5).build();
+        manager.updateBook(testBook2, updated);
+        manager.deleteBook(testBook1);
+        concrete.getHistoryManager().undo();
+
+        assertEquals(List.of(testBook1, testBook2), notified.get(0).added());
+        assertEquals(List.of(updated), notified.get(1).updated());
+        assertEquals(List.of(testBook1), notified.get(2).removed());
+        //l'undo dell'eliminazione riaggiunge il libro
+        assertEquals(List.of(testBook1), notified.get(3).added());
+        assertEquals(4, notified.size());
+    }
+
+    @Test
+    public void testFailedWritesAreNotNotifiedNorRecorded() throws SQLException{
+        ConcreteBookManager concrete = (ConcreteBookManager) manager;
+        List<BookChangeSet> notified = new ArrayList<>();
+        concrete.attach(new BookObserver() {
+            @Override
+            public void update() {
+                fail("le modifiche del manager portano i libri coinvolti");
+            }
+
+            @Override
+            public void update(BookChangeSet changes) {
+                notified.add(changes);
+            }
+        });
+        manager.addBook(testBook1);
+        testConnection.createStatement().execute("DROP TABLE books");
+
+        //nessuna riga fantasma nella lista e nessuna voce di undo per le scritture fallite
+        try {
+            manager.deleteBook(testBook1);
+            fail("l'eliminazione doveva fallire");
+        } catch (IllegalStateException expected) {
+            //il database non ha la tabella
+        }
+        try {
+            manager.addBooks(List.of(testBook2));
+            fail("l'inserimento doveva fallire");
+        } catch (IllegalStateException expected) {
+            //il database non ha la tabella
+        }
+        assertEquals(1, notified.size());
+        assertEquals(List.of(testBook1), notified.get(0).added());
+
+        //un undo fallito lascia l'operazione nella cronologia
+        try {
+            concrete.getHistoryManager().undo();
+            fail("l'undo doveva fallire");
+        } catch (IllegalStateException expected) {
+            //il database non ha la tabella
+        }
+        assertTrue(concrete.getHistoryManager().canUndo());
+        assertFalse(concrete.getHistoryManager().canRedo());
+        assertEquals(1, notified.size());
+    }
+
+    @Test
+    public void testStatementsAreReused() throws SQLException{
+        SQLiteBookRepository repository = new TestSQLiteBookRepository();
+        repository.findByRating(5, SortCriteria.NONE);
+        repository.findByRating(4, SortCriteria.NONE);
+        repository.findByRating(3, SortCriteria.NONE);
+
+        assertEquals(Long.valueOf(2), repository.getStatementStatistics().get("SELECT * FROM books WHERE rating = ? ORDER BY id ASC"));
+    }
+}
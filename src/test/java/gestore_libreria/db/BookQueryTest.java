@@ -0,0 +1,175 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.SortCriteria;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BookQueryTest {
+
+    private static final String[] STATES = {"LETTO", "in lettura", "Da Leggere"};
+    private static final String[] GENRES = {"Fantasy", "Giallo", "Storico", null};
+
+    private SQLiteConnectionPool pool;
+    private SQLiteBookRepository database;
+    private InMemoryBookRepository memory;
+    private CachingBookRepository cache;
+
+    @Before
+    public void setUp() {
+        pool = new SQLiteConnectionPool.Builder("jdbc:sqlite::memory:").build();
+        database = new SQLiteBookRepository(pool);
+        memory = new InMemoryBookRepository();
+        Random random = new Random(14);
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            books.add(new Book.Builder("Titolo " + (char) ('A' + random.nextInt(26)) + i, "Autore " + random.nextInt(20))
+                    .isbn(i % 7 == 0 ? null : "978" + i)
+                    .genre(GENRES[random.nextInt(GENRES.length)])
+                    .rating(random.nextInt(6))
+                    .readingState(STATES[random.nextInt(STATES.length)])
+                    .build());
+        }
+        database.saveAll(books);
+        memory.saveAll(database.loadAll(SortCriteria.NONE));
+        cache = new CachingBookRepository(database);
+    }
+
+    @After
+    public void tearDown() {
+        database.closeStatements();
+        pool.close();
+    }
+
+    private static List<String> view(List<Book> books) {
+        return books.stream().map(Book::toString).toList();
+    }
+
+    private void assertSameAsDatabase(BookQuery query) {
+        List<String> expected = view(database.find(query));
+        assertEquals(query.toString(), expected, view(memory.find(query)));
+        assertEquals(query.toString(), expected, view(cache.find(query)));
+        //l'implementazione predefinita dell'interfaccia
+        assertEquals(query.toString(), expected, view(query.filter(memory.loadAll(query.getSort()))));
+    }
+
+    @Test
+    public void testCombinedFiltersMatchDatabase() {
+        for (SortCriteria sort : SortCriteria.values()) {
+            assertSameAsDatabase(new BookQuery.Builder()
+                    .equalTo(BookQuery.Field.READING_STATE, "letto")
+                    .equalTo(BookQuery.Field.RATING, 5)
+                    .contains(BookQuery.Field.AUTHOR, "autore 1")
+                    .sortBy(sort)
+                    .build());
+            assertSameAsDatabase(new BookQuery.Builder()
+                    .between(BookQuery.Field.RATING, 2, 4)
+                    .in(BookQuery.Field.GENRE, "fantasy", "GIALLO", "Horror")
+                    .sortBy(sort)
+                    .limit(17)
+                    .build());
+            assertSameAsDatabase(new BookQuery.Builder()
+                    .atLeast(BookQuery.Field.TITLE, "titolo m")
+                    .atMost(BookQuery.Field.ID, 250)
+                    .contains(BookQuery.Field.ISBN, "9")
+                    .sortBy(sort)
+                    .build());
+        }
+        assertSameAsDatabase(new BookQuery.Builder().build());
+        assertSameAsDatabase(new BookQuery.Builder().equalTo(BookQuery.Field.READING_STATE, "altro").build());
+    }
+
+    @Test
+    public void testCombinedFiltersReturnIntersection() {
+        List<Book> found = database.find(new BookQuery.Builder()
+                .equalTo(BookQuery.Field.READING_STATE, "LETTO")
+                .equalTo(BookQuery.Field.RATING, 5)
+                .sortBy(SortCriteria.TITLE_ASC)
+                .build());
+        assertFalse(found.isEmpty());
+        for (Book book : found) {
+            assertEquals("LETTO", book.getReadingState());
+            assertEquals(5, book.getRating());
+        }
+    }
+
+    @Test
+    public void testNullColumnsNeverMatch() {
+        //un ISBN su sette è null: LIKE '%%' esclude solo quelli
+        BookQuery anyIsbn = new BookQuery.Builder().contains(BookQuery.Field.ISBN, "").build();
+        assertEquals(300 - 43, database.find(anyIsbn).size());
+        assertSameAsDatabase(anyIsbn);
+        assertSameAsDatabase(new BookQuery.Builder().atMost(BookQuery.Field.GENRE, "z").build());
+    }
+
+    @Test
+    public void testSameShapeReusesPlan() {
+        for (int rating = 0; rating <= 5; rating++) {
+            database.find(new BookQuery.Builder()
+                    .equalTo(BookQuery.Field.RATING, rating)
+                    .contains(BookQuery.Field.TITLE, "a")
+                    .build());
+        }
+        assertEquals(1, database.getQueryPlanCount());
+
+        //l'ordine in cui sono aggiunte le condizioni non cambia la forma
+        BookQuery first = new BookQuery.Builder().contains(BookQuery.Field.TITLE, "b").equalTo(BookQuery.Field.RATING, 1).build();
+        database.find(first);
+        assertEquals(1, database.getQueryPlanCount());
+
+        //elenchi IN di 3 e 4 valori hanno la stessa forma, uno di 5 no
+        BookQuery three = new BookQuery.Builder().in(BookQuery.Field.RATING, 1, 2, 3).build();
+        BookQuery four = new BookQuery.Builder().in(BookQuery.Field.RATING, 1, 2, 3, 4).build();
+        BookQuery five = new BookQuery.Builder().in(BookQuery.Field.RATING, 1, 2, 3, 4, 5).build();
+        assertEquals(three.shape(), four.shape());
+        assertNotEquals(four.shape(), five.shape());
+        assertSameAsDatabase(three);
+        assertSameAsDatabase(five);
+        assertEquals(3, database.getQueryPlanCount());
+
+        //stesso statement preparato per tutte le ricerche della stessa forma
+        long reused = database.getStatementStatistics().values().stream().mapToLong(Long::longValue).max().orElse(0);
+        assertTrue("statement riusato: " + reused, reused >= 5);
+    }
+
+    @Test
+    public void testWriteBehindAppliesLimitAfterPendingChanges() {
+        WriteBehindBookRepository unitOfWork = new WriteBehindBookRepository.Builder(memory)
+                .flushInterval(Duration.ZERO)
+                .maxPendingChanges(1000)
+                .build();
+        BookQuery firstFive = new BookQuery.Builder()
+                .equalTo(BookQuery.Field.READING_STATE, "letto")
+                .sortBy(SortCriteria.TITLE_ASC)
+                .limit(5)
+                .build();
+        List<Book> before = unitOfWork.find(firstFive);
+        unitOfWork.delete(before.get(0));
+        unitOfWork.save(new Book.Builder("AAA", "Nuovo").readingState("LETTO").build());
+
+        List<Book> after = unitOfWork.find(firstFive);
+        assertEquals(5, after.size());
+        assertEquals("AAA", after.get(0).getTitle());
+        assertEquals(before.subList(1, 5), after.subList(1, 5));
+        unitOfWork.close();
+        assertEquals(view(after), view(memory.find(firstFive)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testContainsOnNumericFieldIsRejected() {
+        new BookQuery.Builder().contains(BookQuery.Field.RATING, "5");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongValueTypeIsRejected() {
+        new BookQuery.Builder().equalTo(BookQuery.Field.TITLE, 5);
+    }
+}
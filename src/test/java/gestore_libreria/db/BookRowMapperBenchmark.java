@@ -0,0 +1,111 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Misura la velocità di conversione delle righe in libri, in righe al secondo, su un risultato di 100.000 righe.
+ * Confronta la conversione precedente (colonne lette per nome e stato validato con una regex ad ogni riga),
+ * {@link BookRowMapper} non legato (colonne per nome) e {@link BookRowMapper} legato al ResultSet (colonne per indice).
+ * Non è un test: si esegue con {@code main}, facoltativamente passando il numero di righe.
+ */
+public class BookRowMapperBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    //la conversione come era scritta prima di BookRowMapper
+    private static final StatementCache.RowMapper<Book> LEGACY = resultSet -> {
+        String state = resultSet.getString("readingState");
+        if (!state.matches("letto|in lettura|da leggere")) {
+            state = "da leggere";
+        }
+        return new Book.Builder(resultSet.getString("title"), resultSet.getString("author"))
+                .id(resultSet.getInt("id"))
+                .isbn(resultSet.getString("isbn"))
+                .genre(resultSet.getString("genre"))
+                .rating(resultSet.getInt("rating"))
+                .readingState(state)
+                .coverPath(resultSet.getString("coverPath"))
+                .build();
+    };
+
+    public static void main(String[] args) throws SQLException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            new SchemaMigrator().migrate(connection);
+            populate(connection, rows);
+            System.out.printf("Conversione di %,d righe, migliore di %d giri%n", rows, ROUNDS);
+            //il primo giro di ogni misura serve solo a scaldare la JIT; la riga "solo lettura" misura il costo
+            //di SQLite, che viene sottratto per ottenere il costo della sola conversione
+            long baseline = run(connection, "solo lettura (next)", null, false, 0);
+            run(connection, "legacy (per nome + regex)", LEGACY, false, baseline);
+            run(connection, "BookRowMapper non legato", BookRowMapper.INSTANCE, false, baseline);
+            run(connection, "BookRowMapper legato", BookRowMapper.INSTANCE, true, baseline);
+        }
+    }
+
+    private static void populate(Connection connection, int rows) throws SQLException {
+        String[] states = {"letto", "in lettura", "da leggere"};
+        connection.setAutoCommit(false);
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "INSERT INTO books (title, author, isbn, genre, rating, readingState, coverPath) VALUES (?,?,?,?,?,?,?)")) {
+            for (int i = 0; i < rows; i++) {
+                preparedStatement.setString(1, "Titolo " + i);
+                preparedStatement.setString(2, "Autore " + (i % 1000));
+                preparedStatement.setString(3, "978" + i);
+                preparedStatement.setString(4, "Genere " + (i % 20));
+                preparedStatement.setInt(5, i % 6);
+                preparedStatement.setString(6, states[i % 3]);
+                preparedStatement.setString(7, "");
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    //restituisce il miglior tempo in nanosecondi
+    private static long run(Connection connection, String name, StatementCache.RowMapper<Book> mapper,
+                            boolean bind, long baseline) throws SQLException {
+        long best = Long.MAX_VALUE;
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS + 1; round++) {
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT * FROM books")) {
+                StatementCache.RowMapper<Book> rowMapper = bind ? mapper.bind(resultSet) : mapper;
+                long start = System.nanoTime();
+                while (resultSet.next()) {
+                    checksum += rowMapper == null ? resultSet.getRow() : rowMapper.map(resultSet).getId();
+                }
+                long elapsed = System.nanoTime() - start;
+                if (round > 0) {
+                    best = Math.min(best, elapsed);
+                }
+            }
+        }
+        long rows = count(connection);
+        if (baseline == 0) {
+            System.out.printf("%-28s %,12.0f righe/s  (%d ms)%n", name, rows / (best / 1e9), best / 1_000_000);
+        } else {
+            long mapping = Math.max(1, best - baseline);
+            System.out.printf("%-28s %,12.0f righe/s  (%d ms, sola conversione %,.0f righe/s, checksum %d)%n",
+                    name, rows / (best / 1e9), best / 1_000_000, rows / (mapping / 1e9), checksum);
+        }
+        return best;
+    }
+
+    private static long count(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM books")) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BookRowMapperTest {
+
+    private Connection connection;
+    private StatementCache statements;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        new SchemaMigrator().migrate(connection);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO books (title, author, isbn, genre, rating, readingState, coverPath) "
+                    + "VALUES ('Dune', 'Herbert', '978-0441013593', 'Fantascienza', 5, 'letto', '/img/dune.png')");
+            statement.execute("INSERT INTO books (title, author, rating) VALUES ('Emma', 'Austen', 3)");
+        }
+        statements = new StatementCache(connection);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        statements.close();
+        connection.close();
+    }
+
+    @Test
+    public void testMapsAllColumns() throws SQLException {
+        List<Book> books = statements.query("SELECT * FROM books ORDER BY id", BookRowMapper.INSTANCE);
+        assertEquals(2, books.size());
+        Book dune = books.get(0);
+        assertEquals(1, dune.getId());
+        assertEquals("Dune", dune.getTitle());
+        assertEquals("Herbert", dune.getAuthor());
+        assertEquals("978-0441013593", dune.getIsbn());
+        assertEquals("Fantascienza", dune.getGenre());
+        assertEquals(5, dune.getRating());
+        assertEquals("letto", dune.getReadingState());
+        assertEquals("/img/dune.png", dune.getCoverPath());
+    }
+
+    @Test
+    public void testNullReadingStateUsesDefault() throws SQLException {
+        List<Book> books = statements.query("SELECT * FROM books WHERE title = 'Emma'", BookRowMapper.INSTANCE);
+        assertEquals("da leggere", books.get(0).getReadingState());
+        assertNull(books.get(0).getIsbn());
+    }
+
+    @Test
+    public void testBindResolvesColumnsInAnyOrder() throws SQLException {
+        String sql = "SELECT coverPath, readingState, rating, genre, isbn, author, title, id, 42 AS extra FROM books ORDER BY id";
+        List<Book> reordered = statements.query(sql, BookRowMapper.INSTANCE);
+        List<Book> plain = statements.query("SELECT * FROM books ORDER BY id", BookRowMapper.INSTANCE);
+        assertEquals(plain.toString(), reordered.toString());
+    }
+
+    @Test
+    public void testUnboundAndBoundMappersAgree() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT * FROM books ORDER BY id")) {
+            BookRowMapper bound = BookRowMapper.INSTANCE.bind(resultSet);
+            assertTrue(bound.isBound());
+            assertFalse(BookRowMapper.INSTANCE.isBound());
+            while (resultSet.next()) {
+                assertEquals(BookRowMapper.INSTANCE.map(resultSet).toString(), bound.map(resultSet).toString());
+            }
+        }
+    }
+
+    @Test(expected = SQLException.class)
+    public void testMissingColumnIsReported() throws SQLException {
+        statements.query("SELECT id, title FROM books", BookRowMapper.INSTANCE);
+    }
+}
@@ -0,0 +1,137 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.SortCriteria;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class BookStreamTest {
+
+    private File dbFile;
+    private SQLiteConnectionPool pool;
+    private SQLiteBookRepository repository;
+
+    @Before
+    public void setUp() throws IOException {
+        dbFile = File.createTempFile("stream_test", ".db");
+        //un solo lettore: se uno stream non lo restituisse, la lettura successiva andrebbe in timeout
+        pool = new SQLiteConnectionPool.Builder("jdbc:sqlite:" + dbFile.getAbsolutePath())
+                .readers(1)
+                .busyTimeout(100)
+                .build();
+        repository = new SQLiteBookRepository(pool);
+        repository.setFetchSize(16);
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            books.add(new Book.Builder("Titolo " + i, i % 2 == 0 ? "Rossi" : "Bianchi")
+                    .rating(i % 5 + 1)
+                    .readingState(i % 3 == 0 ? "letto" : "da leggere")
+                    .build());
+        }
+        repository.saveAll(books);
+    }
+
+    @After
+    public void tearDown() {
+        repository.closeStatements();
+        pool.close();
+        dbFile.delete();
+        new File(dbFile.getPath() + "-wal").delete();
+        new File(dbFile.getPath() + "-shm").delete();
+    }
+
+    private static List<Integer> ids(Stream<Book> books) {
+        try (books) {
+            return books.map(Book::getId).collect(Collectors.toList());
+        }
+    }
+
+    private static List<Integer> ids(List<Book> books) {
+        return ids(books.stream());
+    }
+
+    @Test
+    public void testStreamsMatchLists() {
+        for (SortCriteria criteria : SortCriteria.values()) {
+            assertEquals(ids(repository.loadAll(criteria)), ids(repository.streamAll(criteria)));
+        }
+        assertEquals(ids(repository.findByTitle("1", SortCriteria.TITLE_ASC)),
+                ids(repository.streamByTitle("1", SortCriteria.TITLE_ASC)));
+        assertEquals(ids(repository.findByRating(3, SortCriteria.AUTHOR_DESC)),
+                ids(repository.streamByRating(3, SortCriteria.AUTHOR_DESC)));
+        assertEquals(ids(repository.findByReadingState("LETTO", SortCriteria.RATING_DESC)),
+                ids(repository.streamByReadingState("LETTO", SortCriteria.RATING_DESC)));
+        assertEquals(ids(repository.findByAuthor("ross", SortCriteria.NONE)),
+                ids(repository.streamByAuthor("ross", SortCriteria.NONE)));
+    }
+
+    @Test
+    public void testClosingPartiallyConsumedStreamReleasesConnection() throws SQLException {
+        try (Stream<Book> books = repository.streamAll(SortCriteria.TITLE_ASC)) {
+            assertEquals(10, books.limit(10).count());
+        }
+        //l'unico lettore è tornato al pool
+        Connection reader = pool.borrowReader();
+        pool.release(reader);
+    }
+
+    @Test
+    public void testOpenStreamHoldsConnectionUntilClosed() throws SQLException {
+        Stream<Book> books = repository.streamAll(SortCriteria.NONE);
+        Iterator<Book> iterator = books.iterator();
+        assertTrue(iterator.hasNext());
+        try {
+            pool.borrowReader();
+            fail("Il lettore dovrebbe essere occupato dallo stream aperto");
+        } catch (SQLException expected) {
+            //nessun lettore libero finché lo stream è aperto
+        }
+        books.close();
+        Connection reader = pool.borrowReader();
+        pool.release(reader);
+    }
+
+    @Test
+    public void testExhaustedStreamReleasesConnectionWithoutClose() throws SQLException {
+        Stream<Book> books = repository.streamByRating(5, SortCriteria.NONE);
+        assertEquals(100, books.count());
+        Connection reader = pool.borrowReader();
+        pool.release(reader);
+        books.close();      //chiudere di nuovo non ha effetto
+    }
+
+    @Test
+    public void testStreamSeesSnapshotWhileWriting() {
+        try (Stream<Book> books = repository.streamAll(SortCriteria.NONE)) {
+            Iterator<Book> iterator = books.iterator();
+            iterator.next();
+            //in WAL lo scrittore non è bloccato dal lettore aperto
+            repository.save(new Book.Builder("Nuovo", "Autore").readingState("letto").build());
+            int count = 1;
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+            assertEquals(500, count);
+        }
+        assertEquals(501, repository.loadAll(SortCriteria.NONE).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFetchSize() {
+        repository.setFetchSize(0);
+    }
+}
@@ -0,0 +1,225 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.Page;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SearchResult;
+import gestore_libreria.model.SortCriteria;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class CachingBookRepositoryTest {
+
+    //conta le letture che arrivano al database
+    private static class CountingRepository extends SQLiteBookRepository {
+        int reads;
+
+        CountingRepository(SQLiteConnectionPool pool) {
+            super(pool);
+        }
+
+        @Override
+        public List<Book> loadAll(SortCriteria criteria) {
+            reads++;
+            return super.loadAll(criteria);
+        }
+
+        @Override
+        public List<Book> findByRating(int rating, SortCriteria criteria) {
+            reads++;
+            return super.findByRating(rating, criteria);
+        }
+
+        @Override
+        public List<Book> findByReadingState(String readingState, SortCriteria criteria) {
+            reads++;
+            return super.findByReadingState(readingState, criteria);
+        }
+
+        @Override
+        public List<Book> findByTitle(String title, SortCriteria criteria) {
+            reads++;
+            return super.findByTitle(title, criteria);
+        }
+
+        @Override
+        public List<Book> findByAuthor(String author, SortCriteria criteria) {
+            reads++;
+            return super.findByAuthor(author, criteria);
+        }
+
+        @Override
+        public List<SearchResult> fullTextSearch(String query, SortCriteria criteria) {
+            reads++;
+            return super.fullTextSearch(query, criteria);
+        }
+    }
+
+    private SQLiteConnectionPool pool;
+    private CountingRepository database;
+    private CachingBookRepository cache;
+
+    @Before
+    public void setUp() {
+        pool = new SQLiteConnectionPool.Builder("jdbc:sqlite::memory:").build();
+        database = new CountingRepository(pool);
+        cache = new CachingBookRepository(database);
+        String[] titles = {"Dune", "dune", "Emma", "Über", "Zeta", "alpha", "Moby_Dick", "100% Java"};
+        String[] states = {"letto", "LETTO", "in lettura", "da leggere", "letto", "da leggere", "In Lettura", "letto"};
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < titles.length; i++) {
+            books.add(new Book.Builder(titles[i], i % 2 == 0 ? "Herbert" : "Austen")
+                    .rating(i % 4 + 1)
+                    .readingState(states[i])
+                    .build());
+        }
+        database.saveAll(books);
+    }
+
+    @After
+    public void tearDown() {
+        database.closeStatements();
+        pool.close();
+    }
+
+    private static List<String> view(List<Book> books) {
+        List<String> view = new ArrayList<>();
+        for (Book book : books) {
+            view.add(book.toString());
+        }
+        return view;
+    }
+
+    private void assertSameAsDatabase() {
+        for (SortCriteria criteria : SortCriteria.values()) {
+            assertEquals(view(database.loadAll(criteria)), view(cache.loadAll(criteria)));
+            for (int rating = 0; rating <= 5; rating++) {
+                assertEquals(view(database.findByRating(rating, criteria)), view(cache.findByRating(rating, criteria)));
+            }
+            for (String state : new String[]{"letto", "IN LETTURA", " da leggere ", "altro"}) {
+                assertEquals(view(database.findByReadingState(state, criteria)), view(cache.findByReadingState(state, criteria)));
+            }
+            for (String text : new String[]{"d", "DUNE", "_", "%", "e_m", "zz"}) {
+                assertEquals(view(database.findByTitle(text, criteria)), view(cache.findByTitle(text, criteria)));
+                assertEquals(view(database.findByAuthor(text, criteria)), view(cache.findByAuthor(text, criteria)));
+            }
+        }
+    }
+
+    @Test
+    public void testReadsMatchDatabase() {
+        assertSameAsDatabase();
+    }
+
+    @Test
+    public void testFullTextSearchUsesTheDatabaseIndex() {
+        cache.loadAll(SortCriteria.NONE);
+        int reads = database.reads;
+        List<SearchResult> results = cache.fullTextSearch("dun", SortCriteria.NONE);
+
+        //la ricerca arriva all'indice FTS5: stesso ranking bm25 e stessi estratti della lettura diretta
+        assertEquals(reads + 1, database.reads);
+        List<SearchResult> direct = database.fullTextSearch("dun", SortCriteria.NONE);
+        assertEquals(direct.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(direct.get(i).getBook().getId(), results.get(i).getBook().getId());
+            assertEquals(direct.get(i).getRank(), results.get(i).getRank(), 0);
+            assertEquals(direct.get(i).getSnippet(), results.get(i).getSnippet());
+        }
+        try (Stream<Book> books = cache.streamByTitle("dune", SortCriteria.TITLE_ASC)) {
+            assertEquals(view(database.findByTitle("dune", SortCriteria.TITLE_ASC)), view(books.toList()));
+        }
+    }
+
+    @Test
+    public void testWritesPatchIndexes() {
+        cache.loadAll(SortCriteria.RATING_DESC);
+        cache.loadAll(SortCriteria.TITLE_ASC);
+
+        Book added = new Book.Builder("Aaa", "Nuovo").rating(5).readingState("letto").build();
+        cache.save(added);
+        assertTrue(added.getId() > 0);
+
+        Book first = cache.loadAll(SortCriteria.NONE).get(0);
+        Book changed = new Book.Builder("Zzz", first.getAuthor()).id(first.getId()).rating(2).readingState("da leggere").build();
+        cache.update(changed);
+
+        cache.delete(cache.loadAll(SortCriteria.NONE).get(1));
+
+        List<Book> batch = new ArrayList<>();
+        batch.add(new Book.Builder("Batch 1", "Autore").rating(3).readingState("in lettura").build());
+        batch.add(new Book.Builder("batch 2", "Autore").rating(3).readingState("letto").build());
+        cache.saveAll(batch);
+        cache.deleteAll(List.of(batch.get(0)));
+
+        assertSameAsDatabase();
+        assertTrue(cache.getIndexUpdateCount() > 0);
+    }
+
+    @Test
+    public void testReadsDoNotTouchDatabaseAfterWarmUp() {
+        cache.loadAll(SortCriteria.NONE);
+        int readsAfterWarmUp = database.reads;
+        cache.resetStatistics();
+
+        cache.loadAll(SortCriteria.NONE);
+        cache.findByRating(2, SortCriteria.TITLE_DESC);
+        cache.findByReadingState("letto", SortCriteria.AUTHOR_ASC);
+        cache.findByTitle("du", SortCriteria.NONE);
+        cache.save(new Book.Builder("Nuovo", "Autore").readingState("letto").build());
+        cache.loadAll(SortCriteria.TITLE_DESC);
+        cache.loadAll(SortCriteria.NONE);
+
+        assertEquals(readsAfterWarmUp, database.reads);
+        assertEquals(5, cache.getHitCount());
+        //la vista per TITLE_DESC è stata costruita al primo utilizzo
+        assertEquals(1, cache.getMissCount());
+        assertEquals(9, cache.size());
+    }
+
+    @Test
+    public void testInvalidateReloads() {
+        cache.loadAll(SortCriteria.NONE);
+        database.save(new Book.Builder("Scritto altrove", "Autore").readingState("letto").build());
+        assertEquals(8, cache.loadAll(SortCriteria.NONE).size());
+        cache.invalidate();
+        assertEquals(9, cache.loadAll(SortCriteria.NONE).size());
+    }
+
+    @Test
+    public void testPagesMatchDatabase() {
+        for (SortCriteria criteria : SortCriteria.values()) {
+            List<Integer> expected = new ArrayList<>();
+            List<Integer> actual = new ArrayList<>();
+            PageCursor databaseCursor = PageCursor.first();
+            PageCursor cacheCursor = PageCursor.first();
+            while (databaseCursor != null) {
+                Page databasePage = database.loadPage(criteria, databaseCursor, 3);
+                Page cachePage = cache.loadPage(criteria, cacheCursor, 3);
+                databasePage.getBooks().forEach(book -> expected.add(book.getId()));
+                cachePage.getBooks().forEach(book -> actual.add(book.getId()));
+                databaseCursor = databasePage.getNextCursor();
+                cacheCursor = cachePage.getNextCursor();
+            }
+            assertNull(cacheCursor);
+            assertEquals(criteria.toString(), expected, actual);
+        }
+    }
+
+    @Test
+    public void testSqlLike() {
+        assertTrue(SqlLike.contains("Il Signore degli Anelli", "signore"));
+        assertTrue(SqlLike.matches("Moby_Dick", "moby_dick"));
+        assertTrue(SqlLike.matches("MobyXDick", "moby_dick"));
+        assertTrue(SqlLike.matches("abcabd", "%abd"));
+        assertFalse(SqlLike.matches("Über", "über"));      //come SQLite, solo le lettere ASCII ignorano il maiuscolo
+        assertFalse(SqlLike.contains(null, ""));
+    }
+}
@@ -0,0 +1,139 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.SortCriteria;
+import gestore_libreria.model.ThumbnailSize;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CoverThumbnailTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SQLiteConnectionPool pool;
+    private SQLiteBookRepository database;
+    private ConcreteBookManager manager;
+
+    @Before
+    public void setUp() {
+        pool = new SQLiteConnectionPool.Builder("jdbc:sqlite::memory:").build();
+        database = new SQLiteBookRepository(pool);
+        manager = new ConcreteBookManager(new CachingBookRepository(database));
+    }
+
+    @After
+    public void tearDown() {
+        database.closeStatements();
+        pool.close();
+    }
+
+    private String cover(String name, Color color) throws IOException {
+        BufferedImage image = new BufferedImage(400, 600, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(color);
+        graphics.fillRect(0, 0, 400, 600);
+        graphics.dispose();
+        File file = folder.newFile(name);
+        ImageIO.write(image, "png", file);
+        return file.getAbsolutePath();
+    }
+
+    private static BufferedImage decode(byte[] image) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(image));
+    }
+
+    @Test
+    public void testThumbnailsAreGeneratedOnAddAndUpdate() throws IOException {
+        Book dune = new Book.Builder("Dune", "Frank Herbert").coverPath(cover("rossa.png", Color.RED)).build();
+        manager.addBook(dune);
+
+        byte[] list = database.loadThumbnails(List.of(dune.getId()), ThumbnailSize.LIST).get(dune.getId());
+        BufferedImage listImage = decode(list);
+        assertEquals(70, listImage.getWidth());
+        assertEquals(100, listImage.getHeight());
+        BufferedImage detail = decode(database.loadThumbnails(List.of(dune.getId()), ThumbnailSize.DETAIL).get(dune.getId()));
+        assertEquals(120, detail.getWidth());
+        assertEquals(180, detail.getHeight());
+        assertTrue("colore conservato", new Color(detail.getRGB(60, 90)).getRed() > 200);
+        String hash = database.loadThumbnailHashes(List.of(dune.getId())).get(dune.getId());
+
+        //stessa copertina: la miniatura resta quella salvata
+        Book rated = new Book.Builder("Dune", "Frank Herbert").id(dune.getId()).rating(5).coverPath(dune.getCoverPath()).build();
+        manager.updateBook(dune, rated);
+        assertEquals(hash, database.loadThumbnailHashes(List.of(dune.getId())).get(dune.getId()));
+
+        Book recovered = new Book.Builder("Dune", "Frank Herbert").id(dune.getId()).coverPath(cover("blu.png", Color.BLUE)).build();
+        manager.updateBook(rated, recovered);
+        assertNotEquals(hash, database.loadThumbnailHashes(List.of(dune.getId())).get(dune.getId()));
+        detail = decode(database.loadThumbnails(List.of(dune.getId()), ThumbnailSize.DETAIL).get(dune.getId()));
+        assertTrue(new Color(detail.getRGB(60, 90)).getBlue() > 200);
+    }
+
+    @Test
+    public void testTriggersDropStaleThumbnails() throws IOException {
+        Book dune = new Book.Builder("Dune", "Frank Herbert").coverPath(cover("rossa.png", Color.RED)).build();
+        Book emma = new Book.Builder("Emma", "Jane Austen").coverPath(cover("verde.png", Color.GREEN)).build();
+        manager.addBooks(List.of(dune, emma));
+        assertEquals(2, database.loadThumbnailHashes(List.of(dune.getId(), emma.getId())).size());
+
+        //modifiche che non passano dal manager: il database elimina comunque le miniature non più valide
+        database.update(new Book.Builder("Emma", "Jane Austen").id(emma.getId()).coverPath("").build());
+        database.delete(dune);
+        assertTrue(database.loadThumbnailHashes(List.of(dune.getId(), emma.getId())).isEmpty());
+    }
+
+    @Test
+    public void testMissingThumbnailsAreBackfilledInOneRead() throws IOException {
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            books.add(new Book.Builder("Libro " + i, "Autore").coverPath(i % 3 == 0 ? cover("c" + i + ".png", Color.GRAY) : "").build());
+        }
+        books.add(new Book.Builder("Copertina mancante", "Autore").coverPath(folder.getRoot() + "/manca.png").build());
+        File broken = folder.newFile("rotta.png");
+        Files.writeString(broken.toPath(), "non è un'immagine");
+        books.add(new Book.Builder("Copertina rotta", "Autore").coverPath(broken.getAbsolutePath()).build());
+        //salvati senza passare dal manager, come in un database creato prima delle miniature
+        database.saveAll(books);
+
+        List<Book> listed = manager.getAllBook(SortCriteria.NONE);
+        Map<Integer, byte[]> thumbnails = manager.loadThumbnails(listed, ThumbnailSize.LIST);
+        assertEquals(10, thumbnails.size());
+        assertEquals(10, database.loadThumbnailHashes(listed.stream().map(Book::getId).toList()).size());
+
+        //la lettura successiva non tocca più i file
+        for (Book book : listed) {
+            if (!book.getCoverPath().isEmpty()) {
+                Files.deleteIfExists(new File(book.getCoverPath()).toPath());
+            }
+        }
+        assertEquals(10, manager.loadThumbnails(listed, ThumbnailSize.LIST).size());
+    }
+
+    @Test
+    public void testRepositoriesWithoutThumbnailTable() throws IOException {
+        ConcreteBookManager memory = new ConcreteBookManager(new InMemoryBookRepository());
+        Book dune = new Book.Builder("Dune", "Frank Herbert").coverPath(cover("rossa.png", Color.RED)).build();
+        memory.addBook(dune);
+        //nessuna tabella: le miniature vengono generate a ogni richiesta
+        assertEquals(1, memory.loadThumbnails(List.of(dune), ThumbnailSize.LIST).size());
+        assertTrue(new InMemoryBookRepository().loadThumbnails(List.of(1), ThumbnailSize.LIST).isEmpty());
+    }
+}
@@ -0,0 +1,123 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DatabaseBackupTest {
+
+    private static final int BOOKS = 2000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SQLiteConnectionPool pool;
+    private SQLiteBookRepository database;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new SQLiteConnectionPool.Builder("jdbc:sqlite:" + folder.newFile("books.db")).build();
+        database = new SQLiteBookRepository(pool);
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < BOOKS; i++) {
+            books.add(new Book.Builder("Titolo " + i, "Autore " + i % 50).genre("Genere " + i % 7).rating(i % 6).build());
+        }
+        database.saveAll(books);
+    }
+
+    @After
+    public void tearDown() {
+        database.closeStatements();
+        pool.close();
+    }
+
+    private static int count(Path file, String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    @Test
+    public void testBackupCopiesInStepsWithProgress() throws Exception {
+        Path target = folder.getRoot().toPath().resolve("export.db");
+        List<Integer> progress = new ArrayList<>();
+        DatabaseBackup.Result result = new DatabaseBackup.Builder(pool).pagesPerStep(8).build()
+                .backupTo(target, (copied, total) -> progress.add(copied));
+
+        assertTrue("copia divisa in più passi: " + result, result.steps() > 1);
+        assertEquals(result.pages(), (int) progress.get(progress.size() - 1));
+        for (int i = 1; i < progress.size(); i++) {
+            assertTrue(progress.get(i) >= progress.get(i - 1));
+        }
+        assertEquals(BOOKS, count(target, "SELECT COUNT(*) FROM books"));
+        assertEquals(0, count(target, "SELECT COUNT(*) FROM pragma_integrity_check WHERE integrity_check <> 'ok'"));
+        assertFalse(Files.exists(folder.getRoot().toPath().resolve("export.db.part")));
+    }
+
+    @Test
+    public void testWritesDuringBackupDoNotRestartIt() throws Exception {
+        Path target = folder.getRoot().toPath().resolve("export.db");
+        int[] calls = {0};
+        DatabaseBackup.Result result = new DatabaseBackup.Builder(pool).pagesPerStep(4).build()
+                .backupTo(target, (copied, total) -> {
+                    //una modifica a ogni passo, sulla connessione di scrittura
+                    database.save(new Book.Builder("Durante il backup " + calls[0]++, "Autore").build());
+                });
+
+        assertEquals(0, result.restarts());
+        assertEquals("la copia è la fotografia dell'inizio del backup", BOOKS, count(target, "SELECT COUNT(*) FROM books"));
+        assertEquals(BOOKS + calls[0], database.countBooks().getTotal());
+    }
+
+    @Test
+    public void testFailedBackupLeavesTargetUntouched() throws Exception {
+        Path target = folder.getRoot().toPath().resolve("export.db");
+        Files.writeString(target, "vecchio");
+        Path missingDirectory = folder.getRoot().toPath().resolve("manca").resolve("export.db");
+        DatabaseBackup backup = new DatabaseBackup.Builder(pool).build();
+        try {
+            backup.backupTo(missingDirectory, null);
+            fail("la cartella di destinazione non esiste");
+        } catch (SQLException expected) {
+            //atteso
+        }
+        assertFalse(Files.exists(missingDirectory));
+        assertEquals("vecchio", Files.readString(target));
+
+        backup.backupTo(target, null);
+        assertEquals(BOOKS, count(target, "SELECT COUNT(*) FROM books"));
+    }
+
+    @Test
+    public void testInMemoryDatabase() throws Exception {
+        SQLiteConnectionPool memory = new SQLiteConnectionPool.Builder("jdbc:sqlite::memory:").build();
+        SQLiteBookRepository repository = new SQLiteBookRepository(memory);
+        try {
+            repository.save(new Book.Builder("Dune", "Frank Herbert").build());
+            Path target = folder.getRoot().toPath().resolve("memory.db");
+            new DatabaseBackup.Builder(memory).build().backupTo(target, null);
+            assertEquals(1, count(target, "SELECT COUNT(*) FROM books"));
+        } finally {
+            repository.closeStatements();
+            memory.close();
+        }
+    }
+}
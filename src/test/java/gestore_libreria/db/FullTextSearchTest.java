@@ -0,0 +1,112 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.SearchResult;
+import gestore_libreria.model.SortCriteria;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FullTextSearchTest {
+
+    private Connection testConnection;
+    private SQLiteBookRepository repository;
+    private Book tolkien;
+    private Book calvino;
+    private Book orwell;
+
+    private class TestSQLiteBookRepository extends SQLiteBookRepository {
+        @Override
+        protected Connection getConnection() {
+            return testConnection;
+        }
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        testConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        repository = new TestSQLiteBookRepository();
+
+        tolkien = new Book.Builder("Il Signore degli Anelli", "J.R.R. Tolkien").genre("Fantasy").build();
+        calvino = new Book.Builder("Le città invisibili", "Italo Calvino").genre("Romanzo").build();
+        orwell = new Book.Builder("1984", "George Orwell").genre("Distopia fantastica").build();
+        repository.saveAll(Arrays.asList(tolkien, calvino, orwell));
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        testConnection.close();
+    }
+
+    @Test
+    public void testPrefixMatchAcrossFields() {
+        List<SearchResult> results = repository.fullTextSearch("fanta", SortCriteria.NONE);
+        assertEquals(2, results.size());
+        // il genere pesa meno del titolo, ma entrambi i libri hanno il termine solo nel genere
+        assertTrue(results.stream().allMatch(r -> r.getSnippet().contains("<b>")));
+    }
+
+    @Test
+    public void testAllTermsMustMatch() {
+        List<SearchResult> results = repository.fullTextSearch("signore tolk", SortCriteria.NONE);
+        assertEquals(1, results.size());
+        assertEquals(tolkien.getId(), results.get(0).getBook().getId());
+    }
+
+    @Test
+    public void testDiacriticsAreIgnored() {
+        List<SearchResult> results = repository.fullTextSearch("citta", SortCriteria.NONE);
+        assertEquals(1, results.size());
+        assertEquals("Le città invisibili", results.get(0).getBook().getTitle());
+    }
+
+    @Test
+    public void testTitleRanksAboveGenre() {
+        Book fantasyTitle = new Book.Builder("Fantasmi", "Autore").genre("Horror").build();
+        repository.save(fantasyTitle);
+
+        List<SearchResult> results = repository.fullTextSearch("fanta", SortCriteria.NONE);
+        assertEquals(fantasyTitle.getId(), results.get(0).getBook().getId());
+    }
+
+    @Test
+    public void testIndexFollowsUpdatesAndDeletes() {
+        Book renamed = new Book.Builder("Lo Hobbit", "J.R.R. Tolkien").id(tolkien.getId()).genre("Fantasy").build();
+        repository.update(renamed);
+        assertTrue(repository.fullTextSearch("signore", SortCriteria.NONE).isEmpty());
+        assertEquals(1, repository.fullTextSearch("hobbit", SortCriteria.NONE).size());
+
+        repository.delete(renamed);
+        assertTrue(repository.fullTextSearch("hobbit", SortCriteria.NONE).isEmpty());
+    }
+
+    @Test
+    public void testSortCriteriaOverridesRank() {
+        List<SearchResult> results = repository.fullTextSearch("fanta", SortCriteria.TITLE_ASC);
+        assertEquals("1984", results.get(0).getBook().getTitle());
+    }
+
+    @Test
+    public void testFtsSyntaxIsNotInjected() {
+        assertTrue(repository.fullTextSearch("\"", SortCriteria.NONE).isEmpty());
+        assertTrue(repository.fullTextSearch("title: OR NEAR(", SortCriteria.NONE).isEmpty());
+        assertEquals("\"near\"* \"x\"*", FullTextQuery.toMatchExpression("NEAR(x"));
+    }
+
+    @Test
+    public void testInMemoryMatchHighlightsTerms() {
+        List<String> tokens = FullTextQuery.tokens("CITTA");
+        SearchResult result = FullTextQuery.match(calvino, tokens);
+        assertNotNull(result);
+        assertEquals("Le <b>città</b> invisibili", result.getSnippet());
+        assertNull(FullTextQuery.match(orwell, tokens));
+    }
+}
@@ -0,0 +1,122 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.MergeResult;
+import gestore_libreria.model.SortCriteria;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ImportBooksTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path source;
+    private SQLiteConnectionPool pool;
+    private SQLiteBookRepository database;
+
+    @Before
+    public void setUp() throws Exception {
+        source = folder.newFile("amico.db").toPath();
+        SQLiteConnectionPool sourcePool = new SQLiteConnectionPool.Builder("jdbc:sqlite:" + source).build();
+        SQLiteBookRepository friend = new SQLiteBookRepository(sourcePool);
+        friend.saveAll(List.of(
+                //stesso ISBN scritto in un altro modo: completa il genere mancante
+                new Book.Builder("Dune (edizione tascabile)", "F. Herbert").isbn("978-88-347-1234-x").genre("Fantascienza")
+                        .rating(1).readingState("da leggere").build(),
+                //stessi titolo e autore senza ISBN: nulla da aggiungere
+                new Book.Builder(" emma ", "JANE AUSTEN").rating(2).build(),
+                new Book.Builder("Dracula", "Bram Stoker").isbn("9780141439846").genre("Horror").rating(4).readingState("letto").build(),
+                //doppione di Dracula nel file importato
+                new Book.Builder("Dracula", "Bram Stoker").genre("Gotico").build(),
+                new Book.Builder("Ivanhoe", "Walter Scott").build()));
+        friend.closeStatements();
+        sourcePool.close();
+
+        pool = new SQLiteConnectionPool.Builder("jdbc:sqlite:" + folder.newFile("libreria.db")).build();
+        database = new SQLiteBookRepository(pool);
+        database.saveAll(List.of(
+                new Book.Builder("Dune", "Frank Herbert").isbn("9788834712 34X").genre("").rating(5).readingState("LETTO").build(),
+                new Book.Builder("Emma", "Jane Austen").isbn("").genre("Romanzo").rating(3).readingState("in lettura").build()));
+    }
+
+    @After
+    public void tearDown() {
+        database.closeStatements();
+        pool.close();
+    }
+
+    private static List<String> view(BookRepositoryImplementor repository) {
+        return repository.loadAll(SortCriteria.NONE).stream().map(Book::toString).toList();
+    }
+
+    @Test
+    public void testMergeDedupesAndCompletesMissingData() {
+        MergeResult result = database.importBooks(source);
+        assertEquals(new MergeResult(2, 1, 2), result);
+        assertEquals(5, result.total());
+
+        List<Book> books = database.loadAll(SortCriteria.NONE);
+        assertEquals(List.of("Dune", "Emma", "Dracula", "Ivanhoe"), books.stream().map(Book::getTitle).toList());
+        Book dune = books.get(0);
+        assertEquals("genere completato", "Fantascienza", dune.getGenre());
+        assertEquals("valutazione personale invariata", 5, dune.getRating());
+        assertEquals("LETTO", dune.getReadingState());
+        assertEquals("Horror", books.get(2).getGenre());
+        //i nuovi libri sono anche nell'indice full-text
+        assertEquals(1, database.fullTextSearch("ivanhoe", SortCriteria.NONE).size());
+
+        //una seconda importazione non cambia nulla
+        assertEquals(new MergeResult(0, 0, 5), database.importBooks(source));
+        assertEquals(4, database.countBooks().getTotal());
+    }
+
+    @Test
+    public void testInMemoryMergeMatchesSql() {
+        InMemoryBookRepository memory = new InMemoryBookRepository(database.loadAll(SortCriteria.NONE));
+        MergeResult expected = database.importBooks(source);
+        assertEquals(expected, memory.importBooks(source));
+        assertEquals(view(database), view(memory));
+    }
+
+    @Test
+    public void testCacheSeesImportedBooks() {
+        CachingBookRepository cache = new CachingBookRepository(database);
+        assertEquals(2, cache.loadAll(SortCriteria.NONE).size());
+        cache.importBooks(source);
+        assertEquals(4, cache.loadAll(SortCriteria.NONE).size());
+        assertEquals(database.countBooks(), cache.countBooks());
+    }
+
+    @Test
+    public void testManagerNotifiesOnlyWhenLibraryChanges() {
+        ConcreteBookManager manager = new ConcreteBookManager(database);
+        int[] notifications = {0};
+        manager.attach(() -> notifications[0]++);
+        manager.importBooks(source);
+        assertEquals(1, notifications[0]);
+        manager.importBooks(source);
+        assertEquals(1, notifications[0]);
+    }
+
+    @Test
+    public void testInvalidSourceLeavesLibraryUnchanged() throws Exception {
+        Path empty = folder.newFile("vuoto.db").toPath();
+        Files.writeString(empty, "non è un database");
+        List<String> before = view(database);
+        assertNull(database.importBooks(empty));
+        assertNull(new InMemoryBookRepository().importBooks(empty));
+        assertEquals(before, view(database));
+        //la connessione resta utilizzabile e il file non è più collegato
+        assertEquals(new MergeResult(2, 1, 2), database.importBooks(source));
+    }
+}
@@ -0,0 +1,86 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SortCriteria;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * Confronta {@link InMemoryBookRepository} e {@link SQLiteBookRepository} (database in memoria, quindi senza disco)
+ * sulle stesse operazioni, in operazioni al secondo. Le prime letture di ogni operazione costruiscono gli array
+ * ordinati e scaldano la JIT e non vengono misurate.
+ * Non è un test: si esegue con {@code main}, facoltativamente passando il numero di libri.
+ */
+public class InMemoryBookRepositoryBenchmark {
+
+    private static final long MEASURE_NANOS = 1_000_000_000L;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        SQLiteConnectionPool pool = new SQLiteConnectionPool.Builder("jdbc:sqlite::memory:").build();
+        SQLiteBookRepository sqlite = new SQLiteBookRepository(pool);
+        InMemoryBookRepository memory = new InMemoryBookRepository();
+        sqlite.saveAll(books(size));
+        memory.saveAll(books(size));
+
+        System.out.printf("%,d libri%n", size);
+        System.out.printf("%-42s %14s %14s %8s%n", "operazione", "SQLite op/s", "memoria op/s", "x");
+        for (Map.Entry<String, ToIntFunction<BookRepositoryImplementor>> operation : operations().entrySet()) {
+            double sqliteRate = measure(sqlite, operation.getValue());
+            double memoryRate = measure(memory, operation.getValue());
+            System.out.printf("%-42s %,14.0f %,14.0f %8.1f%n", operation.getKey(), sqliteRate, memoryRate, memoryRate / sqliteRate);
+        }
+        sqlite.closeStatements();
+        pool.close();
+    }
+
+    private static List<Book> books(int size) {
+        String[] states = {"letto", "in lettura", "da leggere"};
+        List<Book> books = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            books.add(new Book.Builder("Titolo " + Integer.toHexString(i * 31), "Autore " + (i % 997))
+                    .genre("Genere " + (i % 20))
+                    .rating(i % 6)
+                    .readingState(states[i % 3])
+                    .build());
+        }
+        return books;
+    }
+
+    //ogni operazione restituisce il numero di libri letti, usato per evitare che la JIT la elimini
+    private static Map<String, ToIntFunction<BookRepositoryImplementor>> operations() {
+        Map<String, ToIntFunction<BookRepositoryImplementor>> operations = new LinkedHashMap<>();
+        operations.put("loadAll(TITLE_ASC)", repository -> repository.loadAll(SortCriteria.TITLE_ASC).size());
+        operations.put("findByRating(4, RATING_DESC)", repository -> repository.findByRating(4, SortCriteria.RATING_DESC).size());
+        operations.put("findByReadingState(letto, AUTHOR_ASC)",
+                repository -> repository.findByReadingState("letto", SortCriteria.AUTHOR_ASC).size());
+        operations.put("findByTitle(\"ab\", NONE)", repository -> repository.findByTitle("ab", SortCriteria.NONE).size());
+        operations.put("loadPage(TITLE_ASC, prima, 50)",
+                repository -> repository.loadPage(SortCriteria.TITLE_ASC, PageCursor.first(), 50).getBooks().size());
+        return operations;
+    }
+
+    private static double measure(BookRepositoryImplementor repository, ToIntFunction<BookRepositoryImplementor> operation) {
+        long sink = 0;
+        for (int i = 0; i < 5; i++) {
+            sink += operation.applyAsInt(repository);
+        }
+        long operations = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            sink += operation.applyAsInt(repository);
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NANOS);
+        if (sink == 42) {
+            System.out.print("");
+        }
+        return operations / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,157 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.Page;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SortCriteria;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class InMemoryBookRepositoryTest {
+
+    private SQLiteConnectionPool pool;
+    private SQLiteBookRepository database;
+    private InMemoryBookRepository memory;
+
+    @Before
+    public void setUp() {
+        pool = new SQLiteConnectionPool.Builder("jdbc:sqlite::memory:").build();
+        database = new SQLiteBookRepository(pool);
+        memory = new InMemoryBookRepository();
+    }
+
+    @After
+    public void tearDown() {
+        database.closeStatements();
+        pool.close();
+    }
+
+    //applica la stessa operazione ai due repository, ciascuno con la propria copia del libro
+    private void saveBoth(String title, String author, int rating, String state) {
+        database.save(new Book.Builder(title, author).rating(rating).readingState(state).build());
+        memory.save(new Book.Builder(title, author).rating(rating).readingState(state).build());
+    }
+
+    private static List<String> view(List<Book> books) {
+        List<String> view = new ArrayList<>();
+        for (Book book : books) {
+            view.add(book.toString());
+        }
+        return view;
+    }
+
+    private void assertSameAsDatabase() {
+        for (SortCriteria criteria : SortCriteria.values()) {
+            assertEquals(view(database.loadAll(criteria)), view(memory.loadAll(criteria)));
+            for (int rating = 0; rating <= 5; rating++) {
+                assertEquals(view(database.findByRating(rating, criteria)), view(memory.findByRating(rating, criteria)));
+            }
+            for (String state : new String[]{"letto", "IN LETTURA", " da leggere ", "altro"}) {
+                assertEquals(view(database.findByReadingState(state, criteria)), view(memory.findByReadingState(state, criteria)));
+            }
+            for (String text : new String[]{"d", "DUNE", "_", "e%a", "zz"}) {
+                assertEquals(view(database.findByTitle(text, criteria)), view(memory.findByTitle(text, criteria)));
+                assertEquals(view(database.findByAuthor(text, criteria)), view(memory.findByAuthor(text, criteria)));
+            }
+            Page databasePage = database.loadPage(criteria, PageCursor.first(), 3);
+            Page memoryPage = memory.loadPage(criteria, PageCursor.first(), 3);
+            while (databasePage.hasMore()) {
+                assertEquals(view(databasePage.getBooks()), view(memoryPage.getBooks()));
+                databasePage = database.loadPage(criteria, databasePage.getNextCursor(), 3);
+                memoryPage = memory.loadPage(criteria, memoryPage.getNextCursor(), 3);
+            }
+            assertEquals(view(databasePage.getBooks()), view(memoryPage.getBooks()));
+            assertFalse(memoryPage.hasMore());
+        }
+        assertEquals(database.fullTextSearch("dun", SortCriteria.TITLE_ASC).size(),
+                memory.fullTextSearch("dun", SortCriteria.TITLE_ASC).size());
+    }
+
+    @Test
+    public void testBehavesLikeSQLite() {
+        String[] titles = {"Dune", "dune", "Emma", "Über", "Zeta", "alpha", "Moby_Dick", "Mega Alpha"};
+        String[] states = {"letto", "LETTO", "in lettura", "da leggere", "letto", "da leggere", "In Lettura", "letto"};
+        for (int i = 0; i < titles.length; i++) {
+            saveBoth(titles[i], i % 2 == 0 ? "Herbert" : "Austen", i % 6, states[i]);
+        }
+        assertSameAsDatabase();
+
+        //stesse modifiche su entrambi, usando gli id assegnati
+        Book changed = new Book.Builder("Zzz", "Herbert").id(1).rating(5).readingState("da leggere").build();
+        database.update(changed);
+        memory.update(new Book.Builder("Zzz", "Herbert").id(1).rating(5).readingState("da leggere").build());
+        database.delete(database.loadAll(SortCriteria.NONE).get(2));
+        memory.delete(memory.loadAll(SortCriteria.NONE).get(2));
+        saveBoth("Nuovo", "Autore", 4, "in lettura");
+
+        List<Book> databaseBatch = List.of(new Book.Builder("Batch", "Uno").readingState("letto").build(),
+                new Book.Builder("batch", "Due").readingState("letto").build());
+        List<Book> memoryBatch = List.of(new Book.Builder("Batch", "Uno").readingState("letto").build(),
+                new Book.Builder("batch", "Due").readingState("letto").build());
+        database.saveAll(databaseBatch);
+        memory.saveAll(memoryBatch);
+        database.deleteAll(List.of(databaseBatch.get(0)));
+        memory.deleteAll(List.of(memoryBatch.get(0)));
+
+        assertSameAsDatabase();
+        assertEquals(database.loadAll(SortCriteria.NONE).size(), memory.size());
+    }
+
+    @Test
+    public void testIdsAreNotReused() {
+        Book first = new Book.Builder("Uno", "Autore").build();
+        Book second = new Book.Builder("Due", "Autore").build();
+        memory.save(first);
+        memory.delete(first);
+        memory.save(second);
+        assertEquals(1, first.getId());
+        assertEquals(2, second.getId());
+    }
+
+    @Test
+    public void testUpdateOfMissingBookIsIgnored() {
+        memory.update(new Book.Builder("Fantasma", "Autore").id(42).build());
+        assertEquals(0, memory.size());
+        assertTrue(memory.findByRating(0, SortCriteria.NONE).isEmpty());
+    }
+
+    @Test
+    public void testInitialBooksKeepTheirIds() {
+        List<Book> books = List.of(new Book.Builder("A", "Autore").id(10).build(),
+                new Book.Builder("B", "Autore").id(3).build());
+        InMemoryBookRepository repository = new InMemoryBookRepository(books);
+        Book next = new Book.Builder("C", "Autore").build();
+        repository.save(next);
+        assertEquals(11, next.getId());
+        assertEquals(List.of(3, 10, 11), repository.loadAll(SortCriteria.NONE).stream().map(Book::getId).toList());
+    }
+
+    @Test
+    public void testIntBookMapAgainstHashMap() {
+        IntBookMap map = new IntBookMap(4);
+        Map<Integer, Book> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            int id = 1 + random.nextInt(500);
+            if (random.nextBoolean()) {
+                Book book = new Book.Builder("T" + i, "A").id(id).build();
+                assertSame(expected.put(id, book), map.put(id, book));
+            } else {
+                assertSame(expected.remove(id), map.remove(id));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int id = 1; id <= 500; id++) {
+            assertSame(expected.get(id), map.get(id));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.MergeResult;
+import gestore_libreria.model.SortCriteria;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class IsbnUpsertTest {
+
+    private SQLiteConnectionPool pool;
+    private SQLiteBookRepository database;
+
+    @Before
+    public void setUp() {
+        pool = new SQLiteConnectionPool.Builder("jdbc:sqlite::memory:").build();
+        database = new SQLiteBookRepository(pool);
+    }
+
+    @After
+    public void tearDown() {
+        database.closeStatements();
+        pool.close();
+    }
+
+    //ISBN-13 valido con prefisso 978 e le nove cifre di n
+    private static String isbn(int n) {
+        String digits = "978" + String.format("%09d", n);
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            sum += (digits.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+        }
+        return digits + (10 - sum % 10) % 10;
+    }
+
+    private long upsertExecutions() {
+        for (Map.Entry<String, Long> entry : database.getStatementStatistics().entrySet()) {
+            if (entry.getKey().contains("ON CONFLICT")) {
+                return entry.getValue() + 1;
+            }
+        }
+        return 0;
+    }
+
+    @Test
+    public void testCanonicalIsbn() {
+        assertEquals("9780306406157", BookIdentity.isbnKey("0-306-40615-2"));
+        assertEquals("9780306406157", BookIdentity.isbnKey("978 0 306 40615 7"));
+        assertEquals(BookIdentity.isbnKey("978-0-8044-2957-3"), BookIdentity.isbnKey("0-8044-2957-x"));
+        assertEquals("9791234567896", BookIdentity.isbnKey("979-1-234-56789-6"));
+        assertNull("cifra di controllo errata", BookIdentity.isbnKey("0-306-40615-3"));
+        assertNull(BookIdentity.isbnKey("978-88-17"));
+        assertNull(BookIdentity.isbnKey(null));
+        assertEquals("gli ISBN non validi restano confrontabili", "97888X", BookIdentity.normalizeIsbn("978-88 x"));
+        assertEquals("9780306406157", BookIdentity.normalizeIsbn("0306406152"));
+    }
+
+    @Test
+    public void testUniqueIndexRejectsSameIsbnInOtherForm() {
+        database.save(new Book.Builder("Dune", "Frank Herbert").isbn("978-0-306-40615-7").build());
+        Book copy = new Book.Builder("Dune", "Frank Herbert").isbn("0306406152").build();
+        database.save(copy);
+        assertEquals(0, copy.getId());
+
+        //gli ISBN non validi non hanno chiave e non sono univoci
+        database.saveAll(List.of(new Book.Builder("A", "B").isbn("123").build(), new Book.Builder("C", "D").isbn("123").build()));
+        assertEquals(3, database.countBooks().getTotal());
+    }
+
+    @Test
+    public void testDuplicateLeftWithoutKeyByMigrationCanBeEdited() throws SQLException {
+        Book dune = new Book.Builder("Dune", "Frank Herbert").isbn("978-0-306-40615-7").build();
+        database.save(dune);
+        //come un doppione già presente prima della migrazione: stesso ISBN, chiave nulla
+        try (Statement statement = pool.getWriter().createStatement()) {
+            statement.execute("INSERT INTO books(title, author, isbn, isbn_key, rating, readingState)"
+                    + " VALUES ('Dune (copia)', 'Frank Herbert', '0306406152', NULL, 0, 'da leggere')");
+        }
+        Book copy = database.findByTitle("copia", SortCriteria.NONE).get(0);
+
+        Book rated = new Book.Builder("Dune (copia)", "Frank Herbert").id(copy.getId()).isbn("0306406152").rating(4).build();
+        assertTrue(database.update(rated));
+        assertEquals(4, database.findByTitle("copia", SortCriteria.NONE).get(0).getRating());
+
+        //un ISBN nuovo riceve la chiave, uno già usato da un altro libro viene rifiutato
+        Book moved = new Book.Builder("Dune (copia)", "Frank Herbert").id(copy.getId()).isbn(isbn(7)).build();
+        assertTrue(database.update(moved));
+        Book back = new Book.Builder("Dune (copia)", "Frank Herbert").id(copy.getId()).isbn("0306406152").build();
+        assertFalse(database.update(back));
+        assertEquals(isbn(7), database.findByTitle("copia", SortCriteria.NONE).get(0).getIsbn());
+        assertFalse(database.save(new Book.Builder("Dune", "Frank Herbert").isbn(isbn(7)).build()));
+        assertEquals(2, database.countBooks().getTotal());
+    }
+
+    @Test
+    public void testManagerReportsDuplicateIsbn() {
+        ConcreteBookManager manager = new ConcreteBookManager(database);
+        manager.addBook(new Book.Builder("Dune", "Frank Herbert").isbn("978-0-306-40615-7").build());
+        try {
+            manager.addBook(new Book.Builder("Dune", "Frank Herbert").isbn("0306406152").build());
+            fail("l'ISBN è già presente");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("ISBN"));
+        }
+        assertEquals(1, database.countBooks().getTotal());
+        manager.getHistoryManager().undo();
+        assertEquals("la cronologia contiene solo il primo libro", 0, database.countBooks().getTotal());
+    }
+
+    @Test
+    public void testUpsertInsertsNewBooksAndCompletesExistingOnes() {
+        Book dune = new Book.Builder("Dune", "Frank Herbert").isbn("0-306-40615-2").rating(5).readingState("letto").build();
+        database.save(dune);
+
+        Book rescanned = new Book.Builder("Dune (nuova edizione)", "F. Herbert").isbn("9780306406157").genre("Fantascienza").rating(1).build();
+        Book emma = new Book.Builder("Emma", "Jane Austen").isbn(isbn(1)).build();
+        Book emmaAgain = new Book.Builder("Emma", "Jane Austen").isbn(isbn(1)).genre("Romanzo").build();
+        Book noIsbn = new Book.Builder("Senza ISBN", "Anonimo").build();
+        MergeResult result = database.upsertAll(List.of(rescanned, emma, emmaAgain, noIsbn));
+
+        assertEquals(new MergeResult(2, 2, 0), result);
+        assertEquals(dune.getId(), rescanned.getId());
+        assertEquals(emma.getId(), emmaAgain.getId());
+        assertTrue(noIsbn.getId() > emma.getId());
+
+        List<Book> books = database.loadAll(SortCriteria.NONE);
+        assertEquals(3, books.size());
+        assertEquals("Dune", books.get(0).getTitle());
+        assertEquals("Fantascienza", books.get(0).getGenre());
+        assertEquals("valutazione personale invariata", 5, books.get(0).getRating());
+        assertEquals("Romanzo", books.get(1).getGenre());
+
+        //di nuovo gli stessi libri: nulla da completare, nessun doppione tranne il libro senza ISBN
+        assertEquals(new MergeResult(1, 0, 3), database.upsertAll(List.of(rescanned, emma, emmaAgain, noIsbn)));
+        assertEquals(4, database.countBooks().getTotal());
+    }
+
+    @Test
+    public void testBloomFilterSkipsConflictChecksForNewBooks() {
+        List<Book> existing = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            existing.add(new Book.Builder("Libro " + i, "Autore").isbn(isbn(i)).build());
+        }
+        database.saveAll(existing);
+
+        List<Book> incoming = new ArrayList<>();
+        for (int i = 495; i < 1500; i++) {
+            incoming.add(new Book.Builder("Libro " + i, "Autore").isbn(isbn(i)).genre("Saggio").build());
+        }
+        MergeResult result = database.upsertAll(incoming);
+        assertEquals(new MergeResult(1000, 5, 0), result);
+        assertEquals(1500, database.countBooks().getTotal());
+        long probes = upsertExecutions();
+        assertTrue("solo i libri forse presenti passano da ON CONFLICT: " + probes, probes >= 5 && probes < 30);
+    }
+
+    @Test
+    public void testIsbnWrittenBehindTheFilterIsStillDeduplicated() throws SQLException {
+        database.upsertAll(List.of(new Book.Builder("Emma", "Jane Austen").isbn(isbn(1)).build()));
+        //scritto senza passare dal repository: il filtro non lo conosce
+        try (Statement statement = pool.getWriter().createStatement()) {
+            statement.execute("INSERT INTO books(title, author, isbn, isbn_key, rating, readingState)"
+                    + " VALUES ('Dune', 'Frank Herbert', '" + isbn(2) + "', '" + isbn(2) + "', 0, 'da leggere')");
+        }
+        Book dune = new Book.Builder("Dune", "Frank Herbert").isbn(isbn(2)).genre("Fantascienza").build();
+        assertEquals(new MergeResult(1, 1, 0),
+                database.upsertAll(List.of(dune, new Book.Builder("Ivanhoe", "Walter Scott").isbn(isbn(3)).build())));
+        assertEquals(3, database.countBooks().getTotal());
+        assertEquals("Fantascienza", database.findByTitle("Dune", SortCriteria.NONE).get(0).getGenre());
+    }
+
+    @Test
+    public void testDefaultUpsertForRepositoriesWithoutIndex() {
+        InMemoryBookRepository memory = new InMemoryBookRepository();
+        Book dune = new Book.Builder("Dune", "Frank Herbert").isbn("0306406152").build();
+        memory.save(dune);
+        Book rescanned = new Book.Builder("Dune", "Frank Herbert").isbn("9780306406157").coverPath("dune.png").build();
+        assertEquals(new MergeResult(1, 1, 0), memory.upsertAll(List.of(rescanned, new Book.Builder("Emma", "Jane Austen").build())));
+        assertEquals(dune.getId(), rescanned.getId());
+        assertEquals("dune.png", memory.loadAll(SortCriteria.NONE).get(0).getCoverPath());
+    }
+}
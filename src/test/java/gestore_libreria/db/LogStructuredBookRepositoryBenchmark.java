@@ -0,0 +1,125 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Confronta {@link LogStructuredBookRepository} e {@link SQLiteBookRepository} su file in un carico di sole scritture,
+ * come la catalogazione di una collezione: inserimenti singoli, inserimenti a blocchi, aggiornamenti ed eliminazioni.
+ * Entrambi usano la configurazione predefinita, in cui i dati sopravvivono alla terminazione del processo
+ * ma non necessariamente a un'interruzione di corrente (WAL con synchronous=NORMAL per SQLite, nessun force per il log).
+ * Non è un test: si esegue con {@code main}, facoltativamente passando il numero di libri.
+ */
+public class LogStructuredBookRepositoryBenchmark {
+
+    private static final int BATCH_SIZE = 500;
+
+    public static void main(String[] args) throws IOException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        Path directory = Files.createTempDirectory("benchmark-log");
+        try {
+            //un primo giro a vuoto per la JIT
+            run(directory.resolve("warmup"), size / 10, false);
+            System.out.printf("%,d libri%n", size);
+            System.out.printf("%-28s %14s %14s %8s%n", "operazione", "SQLite op/s", "log op/s", "x");
+            run(directory.resolve("misura"), size, true);
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    private static void run(Path directory, int size, boolean print) throws IOException {
+        Files.createDirectories(directory);
+        SQLiteConnectionPool pool = new SQLiteConnectionPool.Builder("jdbc:sqlite:" + directory.resolve("libreria.db")).build();
+        SQLiteBookRepository sqlite = new SQLiteBookRepository(pool);
+        LogStructuredBookRepository log = new LogStructuredBookRepository.Builder(directory.resolve("log")).build();
+        try {
+            List<Book> sqliteBooks = new ArrayList<>();
+            List<Book> logBooks = new ArrayList<>();
+            report(print, "save singolo", size,
+                    time(() -> books(size, 0).forEach(book -> save(sqlite, sqliteBooks, book))),
+                    time(() -> books(size, 0).forEach(book -> save(log, logBooks, book))));
+            report(print, "saveAll a blocchi di " + BATCH_SIZE, size,
+                    time(() -> saveInBatches(sqlite, books(size, size))),
+                    time(() -> saveInBatches(log, books(size, size))));
+            report(print, "update", size,
+                    time(() -> sqliteBooks.forEach(book -> sqlite.update(rated(book)))),
+                    time(() -> logBooks.forEach(book -> log.update(rated(book)))));
+            report(print, "delete", size / 2,
+                    time(() -> sqliteBooks.subList(0, size / 2).forEach(sqlite::delete)),
+                    time(() -> logBooks.subList(0, size / 2).forEach(log::delete)));
+            long compaction = System.nanoTime();
+            log.compact();
+            if (print) {
+                System.out.printf("compattazione del log: %.1f ms, %d segmenti%n",
+                        (System.nanoTime() - compaction) / 1e6, log.getSegmentCount());
+            }
+        } finally {
+            log.close();
+            sqlite.closeStatements();
+            pool.close();
+        }
+    }
+
+    private static void save(BookRepositoryImplementor repository, List<Book> saved, Book book) {
+        repository.save(book);
+        saved.add(book);
+    }
+
+    private static void saveInBatches(BookRepositoryImplementor repository, List<Book> books) {
+        for (int start = 0; start < books.size(); start += BATCH_SIZE) {
+            repository.saveAll(books.subList(start, Math.min(books.size(), start + BATCH_SIZE)));
+        }
+    }
+
+    private static List<Book> books(int size, int offset) {
+        List<Book> books = new ArrayList<>(size);
+        for (int i = offset; i < offset + size; i++) {
+            books.add(new Book.Builder("Titolo " + Integer.toHexString(i * 31), "Autore " + (i % 997))
+                    .isbn(String.format("978%010d", i))
+                    .genre("Genere " + (i % 20))
+                    .rating(i % 6)
+                    .build());
+        }
+        return books;
+    }
+
+    private static Book rated(Book book) {
+        return new Book.Builder(book.getTitle(), book.getAuthor())
+                .id(book.getId())
+                .isbn(book.getIsbn())
+                .genre(book.getGenre())
+                .rating((book.getRating() + 1) % 6)
+                .readingState("letto")
+                .build();
+    }
+
+    private static long time(Runnable operation) {
+        long start = System.nanoTime();
+        operation.run();
+        return System.nanoTime() - start;
+    }
+
+    private static void report(boolean print, String operation, int count, long sqliteNanos, long logNanos) {
+        if (print) {
+            double sqliteRate = count * 1e9 / sqliteNanos;
+            double logRate = count * 1e9 / logNanos;
+            System.out.printf("%-28s %,14.0f %,14.0f %8.1f%n", operation, sqliteRate, logRate, logRate / sqliteRate);
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
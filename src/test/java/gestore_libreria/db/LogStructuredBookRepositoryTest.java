@@ -0,0 +1,416 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Author;
+import gestore_libreria.model.Book;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SortCriteria;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifica il motore a log e la riapertura dopo un crash.
+ * Un crash del processo viene simulato abbandonando il repository senza chiuderlo e riaprendo la stessa cartella:
+ * come dopo la terminazione del processo, restano solo i byte già scritti nei segmenti mappati.
+ */
+public class LogStructuredBookRepositoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private final List<LogStructuredBookRepository> opened = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("log").toPath();
+    }
+
+    @After
+    public void tearDown() {
+        opened.forEach(LogStructuredBookRepository::close);
+    }
+
+    //segmenti piccoli e compattazione solo esplicita, così i test sono deterministici
+    private LogStructuredBookRepository open() throws IOException {
+        LogStructuredBookRepository repository = new LogStructuredBookRepository.Builder(directory)
+                .segmentSize(1024)
+                .backgroundCompaction(false)
+                .build();
+        opened.add(repository);
+        return repository;
+    }
+
+    private static Book book(String title, int rating) {
+        return new Book.Builder(title, "Autore " + title).rating(rating).genre("Romanzo").readingState("letto").build();
+    }
+
+    //una nuova versione di un libro già salvato, con lo stesso id
+    private static Book version(Book book, int rating, String genre) {
+        return new Book.Builder(book.getTitle(), book.getAuthor()).id(book.getId()).rating(rating).genre(genre)
+                .readingState(book.getReadingState()).build();
+    }
+
+    private static Map<Integer, String> snapshot(LogStructuredBookRepository repository) {
+        Map<Integer, String> books = new HashMap<>();
+        for (Book book : repository.loadAll(SortCriteria.NONE)) {
+            books.put(book.getId(), book.getTitle() + "|" + book.getAuthor() + "|" + book.getRating()
+                    + "|" + book.getGenre() + "|" + book.getReadingState() + "|" + book.getIsbn());
+        }
+        return books;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    //posizione della fine dei dati validi nell'ultimo segmento: il primo int a zero dopo i record
+    private static int endOfData(Path segment) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "r")) {
+            int position = 0;
+            file.seek(0);
+            int length;
+            while (position + 8 <= file.length() && (length = file.readInt()) > 0) {
+                position += 8 + length;
+                file.seek(position);
+            }
+            return position;
+        }
+    }
+
+    @Test
+    public void testReopenRestoresBooksAndIds() throws IOException {
+        LogStructuredBookRepository repository = open();
+        Book dune = book("Dune", 5);
+        repository.save(dune);
+        repository.saveAll(List.of(book("Emma", 3), book("Ulisse", 4)));
+        repository.update(version(dune, 2, "Fantascienza"));
+        repository.delete(repository.findByTitle("Emma", SortCriteria.NONE).get(0));
+        Map<Integer, String> expected = snapshot(repository);
+
+        LogStructuredBookRepository reopened = open();   //il primo non è stato chiuso
+        assertEquals(expected, snapshot(reopened));
+        assertEquals(2, reopened.size());
+        assertEquals(2, reopened.findByTitle("Dune", SortCriteria.NONE).get(0).getRating());
+
+        Book next = book("Nuovo", 1);
+        reopened.save(next);
+        assertEquals("gli id non vengono riutilizzati", 4, next.getId());
+    }
+
+    @Test
+    public void testAssignsIdsAndIgnoresMissingBooks() throws IOException {
+        LogStructuredBookRepository repository = open();
+        Book first = book("A", 1);
+        Book second = book("B", 2);
+        repository.saveAll(List.of(first, second));
+        assertEquals(1, first.getId());
+        assertEquals(2, second.getId());
+
+        Book missing = book("Fantasma", 3);
+        missing.setId(99);
+        repository.update(missing);
+        repository.delete(missing);
+        assertEquals(2, repository.size());
+        assertTrue(repository.findByTitle("Fantasma", SortCriteria.NONE).isEmpty());
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws IOException {
+        LogStructuredBookRepository repository = open();
+        repository.save(book("Primo", 1));
+        repository.save(book("Secondo", 2));
+        Path segment = segmentFiles().get(segmentFiles().size() - 1);
+        int end = endOfData(segment);
+
+        //il processo termina mentre scrive il contenuto del terzo record: la lunghezza c'è, il CRC non torna
+        repository.save(book("Terzo", 3));
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(end + 20);
+            file.writeByte(file.readByte() ^ 0x5A);
+        }
+
+        LogStructuredBookRepository reopened = open();
+        assertEquals(2, reopened.size());
+        assertTrue(reopened.findByTitle("Terzo", SortCriteria.NONE).isEmpty());
+
+        //le scritture successive ripartono dal punto troncato e sopravvivono a una nuova riapertura
+        reopened.save(book("Quarto", 4));
+        Map<Integer, String> expected = snapshot(reopened);
+        assertEquals(expected, snapshot(open()));
+        assertEquals(3, expected.size());
+    }
+
+    @Test
+    public void testGarbageAfterLastRecordIsIgnored() throws IOException {
+        LogStructuredBookRepository repository = open();
+        repository.save(book("Primo", 1));
+        Path segment = segmentFiles().get(0);
+        int end = endOfData(segment);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(end);
+            file.writeInt(40);          //lunghezza plausibile
+            file.writeInt(0xCAFEBABE);  //CRC sbagliato
+            file.write(new byte[40]);
+        }
+
+        LogStructuredBookRepository reopened = open();
+        assertEquals(1, reopened.size());
+        reopened.save(book("Secondo", 2));
+        assertEquals(2, open().size());
+    }
+
+    @Test
+    public void testIncompleteBatchIsDiscardedAsAWhole() throws IOException {
+        LogStructuredBookRepository repository = open();
+        repository.save(book("Prima del batch", 1));
+        Path segment = segmentFiles().get(0);
+        int batchStart = endOfData(segment);
+        repository.saveAll(List.of(book("B1", 1), book("B2", 2), book("B3", 3)));
+        int batchEnd = endOfData(segment);
+        assertEquals(4, repository.size());
+
+        //il terzo record del batch non è mai arrivato su disco
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(batchStart);
+            int position = batchStart;
+            for (int record = 0; record < 3; record++) {   //intestazione del batch e primi due libri
+                position += 8 + file.readInt();
+                file.seek(position);
+            }
+            file.write(new byte[batchEnd - position]);
+        }
+
+        LogStructuredBookRepository reopened = open();
+        assertEquals(1, reopened.size());
+        assertEquals("Prima del batch", reopened.loadAll(SortCriteria.NONE).get(0).getTitle());
+
+        //i record validi del batch scartato non devono ricomparire dopo nuove scritture
+        reopened.save(book("Dopo", 5));
+        LogStructuredBookRepository again = open();
+        assertEquals(2, again.size());
+        assertTrue(again.findByTitle("B1", SortCriteria.NONE).isEmpty());
+    }
+
+    @Test
+    public void testFailedBatchIsRolledBack() throws IOException {
+        LogStructuredBookRepository repository = open();
+        Book first = book("Primo", 3);
+        repository.save(first);
+        //una cartella con il nome del prossimo segmento: il batch fallisce quando deve aprirlo
+        Path blocker = Files.createDirectory(directory.resolve("segment-00000002-0000.log"));
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            books.add(book("Libro " + i, i % 5));
+        }
+        Map<Integer, String> before = snapshot(repository);
+        List<Author> authors = repository.listAuthors();
+
+        assertFalse(repository.saveAll(books));
+        assertEquals(0, books.get(0).getId());
+        assertEquals(before, snapshot(repository));
+        assertEquals("anche gli autori del batch vengono tolti", authors, repository.listAuthors());
+        assertEquals(1, repository.getSegmentCount());
+
+        //le scritture successive non finiscono dentro il batch annullato
+        Files.delete(blocker);
+        Book second = book("Secondo", 4);
+        Book third = book("Terzo", 5);
+        assertTrue(repository.saveAll(List.of(second, third)));
+        assertEquals(first.getId() + 1, second.getId());
+        assertEquals(snapshot(repository), snapshot(open()));
+    }
+
+    @Test
+    public void testRollsSegmentsAndReplaysThemInOrder() throws IOException {
+        LogStructuredBookRepository repository = open();
+        Book book = book("Libro aggiornato spesso", 0);
+        repository.save(book);
+        for (int i = 0; i < 200; i++) {
+            repository.update(version(book, i % 6, "Genere " + i));
+        }
+        assertTrue(repository.getSegmentCount() > 1);
+        assertTrue(repository.getGarbageBytes() > 0);
+
+        LogStructuredBookRepository reopened = open();
+        assertEquals(1, reopened.size());
+        assertEquals("Genere 199", reopened.loadAll(SortCriteria.NONE).get(0).getGenre());
+    }
+
+    @Test
+    public void testBatchLargerThanSegmentIsKeptWhole() throws IOException {
+        LogStructuredBookRepository repository = open();
+        repository.save(book("Prima del batch", 1));
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            books.add(book("Libro " + i, i % 6));
+        }
+        assertTrue(repository.saveAll(books));
+        repository.save(book("Dopo il batch", 2));
+        Map<Integer, String> expected = snapshot(repository);
+        assertEquals(62, expected.size());
+
+        //il batch non entra in un segmento da 1024 byte: viene scritto per intero in un segmento più grande
+        repository.close();
+        LogStructuredBookRepository reopened = open();
+        assertEquals(expected, snapshot(reopened));
+        assertTrue(reopened.getSegmentCount() > 1);
+    }
+
+    @Test
+    public void testCompactionKeepsLiveBooksOnly() throws IOException {
+        LogStructuredBookRepository repository = open();
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            books.add(book("Libro " + i, i % 6));
+        }
+        repository.saveAll(books);
+        repository.deleteAll(books.subList(0, 30));
+        repository.save(book("Ultimo", 5));
+        int segmentsBefore = repository.getSegmentCount();
+        long garbageBefore = repository.getGarbageBytes();
+        Map<Integer, String> expected = snapshot(repository);
+
+        assertTrue(repository.compact());
+        assertEquals(expected, snapshot(repository));
+        assertTrue(repository.getSegmentCount() < segmentsBefore);
+        assertTrue(repository.getGarbageBytes() < garbageBefore);
+        assertEquals(1, repository.getCompactionCount());
+
+        LogStructuredBookRepository reopened = open();
+        assertEquals(expected, snapshot(reopened));
+        Book next = book("Nuovo", 1);
+        reopened.save(next);
+        assertEquals(42, next.getId());
+    }
+
+    @Test
+    public void testHighestIdIsNotReusedAfterCompaction() throws IOException {
+        LogStructuredBookRepository repository = open();
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            books.add(book("Libro " + i, 1));
+        }
+        repository.saveAll(books);
+        repository.save(book("Riempitivo", 2));     //apre un nuovo segmento: i precedenti possono essere compattati
+        repository.deleteAll(books);
+        assertTrue(repository.getSegmentCount() > 1);
+        assertTrue(repository.compact());
+
+        //i record DELETE sono stati eliminati dalla compattazione, l'ultimo id resta nell'intestazione
+        LogStructuredBookRepository reopened = open();
+        Book next = book("Nuovo", 3);
+        reopened.save(next);
+        assertEquals(32, next.getId());
+    }
+
+    @Test
+    public void testCrashDuringCompactionBeforeOldSegmentsAreDeleted() throws IOException {
+        LogStructuredBookRepository repository = open();
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            books.add(book("Libro " + i, i % 6));
+        }
+        repository.saveAll(books);
+        repository.deleteAll(books.subList(10, 40));
+        repository.save(book("Ultimo", 5));
+        Map<Integer, String> expected = snapshot(repository);
+
+        //copia dei segmenti prima della compattazione, per rimetterli al loro posto come se non fossero stati cancellati
+        Map<Path, byte[]> before = new HashMap<>();
+        for (Path segment : segmentFiles()) {
+            before.put(segment.getFileName(), Files.readAllBytes(segment));
+        }
+        assertTrue(repository.compact());
+        for (Map.Entry<Path, byte[]> segment : before.entrySet()) {
+            Path path = directory.resolve(segment.getKey());
+            if (!Files.exists(path)) {
+                Files.write(path, segment.getValue());
+            }
+        }
+        //anche un file temporaneo rimasto a metà deve essere ignorato
+        Files.write(directory.resolve("segment-00000099-0001.log.tmp"), new byte[]{1, 2, 3});
+
+        LogStructuredBookRepository reopened = open();
+        assertEquals("i libri cancellati non devono ricomparire", expected, snapshot(reopened));
+        assertEquals(repository.getSegmentCount(), reopened.getSegmentCount());
+        assertEquals(repository.getSegmentCount(), segmentFiles().size());
+    }
+
+    @Test
+    public void testWritesDuringCompactionAreKept() throws IOException {
+        LogStructuredBookRepository repository = new LogStructuredBookRepository.Builder(directory)
+                .segmentSize(1024)
+                .compactionThreshold(0.2)
+                .build();
+        opened.add(repository);
+        Book book = book("Conteso", 0);
+        repository.save(book);
+        for (int i = 0; i < 2000; i++) {
+            repository.update(version(book, i % 6, "Genere " + i));
+            if (i % 100 == 0) {
+                repository.save(book("Extra " + i, 1));
+            }
+        }
+        repository.close();
+        assertTrue(repository.getCompactionCount() > 0);
+
+        LogStructuredBookRepository reopened = open();
+        assertEquals(21, reopened.size());
+        assertEquals("Genere 1999", reopened.findByTitle("Conteso", SortCriteria.NONE).get(0).getGenre());
+    }
+
+    @Test
+    public void testQueriesMatchSQLiteRepository() throws IOException {
+        SQLiteConnectionPool pool = new SQLiteConnectionPool.Builder("jdbc:sqlite::memory:").build();
+        SQLiteBookRepository database = new SQLiteBookRepository(pool);
+        LogStructuredBookRepository log = open();
+        String[] titles = {"Dune", "dune messiah", "Emma", "Über", "_x", "a%b"};
+        String[] states = {"letto", "In lettura", "da leggere"};
+        for (int i = 0; i < titles.length * 3; i++) {
+            String title = titles[i % titles.length];
+            database.save(new Book.Builder(title, "Autore " + (i % 4)).rating(i % 6).readingState(states[i % 3]).build());
+            log.save(new Book.Builder(title, "Autore " + (i % 4)).rating(i % 6).readingState(states[i % 3]).build());
+        }
+        try {
+            for (SortCriteria criteria : SortCriteria.values()) {
+                assertEquals(ids(database.loadAll(criteria)), ids(log.loadAll(criteria)));
+                assertEquals(ids(database.findByTitle("dune", criteria)), ids(log.findByTitle("dune", criteria)));
+                assertEquals(ids(database.findByAuthor("_", criteria)), ids(log.findByAuthor("_", criteria)));
+                assertEquals(ids(database.findByRating(2, criteria)), ids(log.findByRating(2, criteria)));
+                assertEquals(ids(database.findByReadingState(" in lettura ", criteria)),
+                        ids(log.findByReadingState(" in lettura ", criteria)));
+                assertEquals(ids(database.loadPage(criteria, PageCursor.first(), 4).getBooks()),
+                        ids(log.loadPage(criteria, PageCursor.first(), 4).getBooks()));
+            }
+        } finally {
+            database.closeStatements();
+            pool.close();
+        }
+    }
+
+    private static List<Integer> ids(List<Book> books) {
+        return books.stream().map(Book::getId).toList();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderRejectsTinySegments() {
+        new LogStructuredBookRepository.Builder(directory).segmentSize(16);
+    }
+}
@@ -0,0 +1,164 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.Page;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SortCriteria;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PaginationTest {
+
+    private SQLiteConnectionPool pool;
+    private SQLiteBookRepository repository;
+
+    @Before
+    public void setUp() {
+        pool = new SQLiteConnectionPool.Builder("jdbc:sqlite::memory:").build();
+        repository = new SQLiteBookRepository(pool);
+        //titoli, autori e valutazioni ripetuti per verificare che l'id faccia da spareggio
+        String[] titles = {"Dune", "dune", "Emma", "Über", "élan", "Zeta", "alpha", "Alpha", "Dune", "Moby Dick", "emma"};
+        String[] authors = {"Herbert", "herbert", "Austen", "Zorn", "Éluard", "Ames", "Bell", "bell", "Herbert", "Melville", "Austen"};
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < titles.length; i++) {
+            books.add(new Book.Builder(titles[i], authors[i]).rating(i % 3 + 1).readingState("letto").build());
+        }
+        repository.saveAll(books);
+    }
+
+    @After
+    public void tearDown() {
+        repository.closeStatements();
+        pool.close();
+    }
+
+    private List<Book> readAllPages(SortCriteria criteria, int limit) {
+        List<Book> books = new ArrayList<>();
+        PageCursor cursor = PageCursor.first();
+        int pages = 0;
+        while (cursor != null) {
+            Page page = repository.loadPage(criteria, cursor, limit);
+            assertTrue(page.getBooks().size() <= limit);
+            books.addAll(page.getBooks());
+            cursor = page.getNextCursor();
+            assertTrue("troppe pagine, il cursore non avanza", ++pages <= 20);
+        }
+        return books;
+    }
+
+    private static List<Integer> ids(List<Book> books) {
+        List<Integer> ids = new ArrayList<>();
+        for (Book book : books) {
+            ids.add(book.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testPagesMatchLoadAllForEveryCriteria() {
+        for (SortCriteria criteria : SortCriteria.values()) {
+            List<Integer> expected = ids(repository.loadAll(criteria));
+            for (int limit : new int[]{1, 3, 4, 11, 50}) {
+                assertEquals(criteria + " limit " + limit, expected, ids(readAllPages(criteria, limit)));
+            }
+        }
+    }
+
+    @Test
+    public void testComparatorMatchesDatabaseOrder() {
+        for (SortCriteria criteria : SortCriteria.values()) {
+            List<Book> sorted = new ArrayList<>(repository.loadAll(SortCriteria.NONE));
+            sorted.sort(criteria.comparator());
+            assertEquals(criteria.toString(), ids(repository.loadAll(criteria)), ids(sorted));
+        }
+    }
+
+    @Test
+    public void testCursorPrecedesMatchesKeyset() {
+        for (SortCriteria criteria : SortCriteria.values()) {
+            Page first = repository.loadPage(criteria, PageCursor.first(), 4);
+            PageCursor cursor = first.getNextCursor();
+            List<Book> expected = new ArrayList<>();
+            for (Book book : repository.loadAll(criteria)) {
+                if (cursor.precedes(book)) {
+                    expected.add(book);
+                }
+            }
+            List<Book> rest = new ArrayList<>();
+            while (cursor != null) {
+                Page page = repository.loadPage(criteria, cursor, 4);
+                rest.addAll(page.getBooks());
+                cursor = page.getNextCursor();
+            }
+            assertEquals(criteria.toString(), ids(expected), ids(rest));
+        }
+    }
+
+    @Test
+    public void testLastPageHasNoCursor() {
+        Page page = repository.loadPage(SortCriteria.TITLE_ASC, PageCursor.first(), 11);
+        assertEquals(11, page.getBooks().size());
+        assertFalse(page.hasMore());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void testNewBookAfterCursorIsNotSkipped() {
+        Page first = repository.loadPage(SortCriteria.TITLE_ASC, PageCursor.first(), 3);
+        Book late = new Book.Builder("Zzz", "Autore").readingState("letto").build();
+        repository.save(late);
+        List<Integer> rest = new ArrayList<>();
+        PageCursor cursor = first.getNextCursor();
+        while (cursor != null) {
+            Page page = repository.loadPage(SortCriteria.TITLE_ASC, cursor, 3);
+            rest.addAll(ids(page.getBooks()));
+            cursor = page.getNextCursor();
+        }
+        //il libro inserito dopo la lettura della prima pagina compare una sola volta, nessun libro viene saltato
+        assertTrue(rest.contains(late.getId()));
+        assertEquals(12 - 3, rest.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCursorOfAnotherCriteriaIsRejected() {
+        Page page = repository.loadPage(SortCriteria.TITLE_ASC, PageCursor.first(), 2);
+        repository.loadPage(SortCriteria.AUTHOR_ASC, page.getNextCursor(), 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveLimitIsRejected() {
+        repository.loadPage(SortCriteria.NONE, PageCursor.first(), 0);
+    }
+
+    @Test
+    public void testKeysetQueriesUseIndexes() throws SQLException {
+        Connection connection = pool.getWriter();
+        String[] queries = {
+                "SELECT * FROM books WHERE (LOWER(title), id) > ('m', 3) ORDER BY LOWER(title) ASC, id ASC LIMIT 5",
+                "SELECT * FROM books WHERE (LOWER(author), id) < ('m', 3) ORDER BY LOWER(author) DESC, id DESC LIMIT 5",
+                "SELECT * FROM books WHERE (rating, LOWER(title), id) > (2, 'm', 3) ORDER BY rating ASC, LOWER(title) ASC, id ASC LIMIT 5",
+                "SELECT * FROM books WHERE rating <= 2 AND (rating < 2 OR (LOWER(title), id) > ('m', 3)) ORDER BY rating DESC, LOWER(title) ASC, id ASC LIMIT 5",
+        };
+        for (String sql : queries) {
+            StringBuilder plan = new StringBuilder();
+            try (PreparedStatement preparedStatement = connection.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+                 ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    plan.append(resultSet.getString("detail")).append('\n');
+                }
+            }
+            assertTrue(sql + "\n" + plan, plan.toString().contains("USING INDEX"));
+            assertFalse(sql + "\n" + plan, plan.toString().contains("TEMP B-TREE"));
+        }
+    }
+}
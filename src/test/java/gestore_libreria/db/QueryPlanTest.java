@@ -0,0 +1,206 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.Page;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SortCriteria;
+import gestore_libreria.model.ThumbnailSize;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Verifica con EXPLAIN QUERY PLAN che ogni query di lettura di SQLiteBookRepository usi un indice e non ordini
+ * con un B-tree temporaneo. Le query non sono elencate a mano: il repository esegue tutte le letture con ogni
+ * criterio di ordinamento su un database popolato e le forme SQL vengono raccolte da QueryStatistics, così anche
+ * un nuovo criterio o un nuovo filtro viene controllato appena passa da uno dei metodi chiamati in workload().
+ * Un piano che peggiora in una scansione completa o in un ordinamento temporaneo fa fallire la build.
+ */
+public class QueryPlanTest {
+
+    private static final int BOOKS = 2000;
+    private static final String[] STATES = {"Letto", "Da leggere", "In lettura"};
+
+    //piani accettati perché nessun indice può evitarli
+    private record Allowance(Pattern sql, Pattern detail, String reason) {
+
+        boolean allows(String shape, String planDetail) {
+            return sql.matcher(shape).find() && detail.matcher(planDetail).matches();
+        }
+    }
+
+    private static final List<Allowance> ALLOWANCES = List.of(
+            new Allowance(Pattern.compile("books_fts MATCH"), Pattern.compile("USE TEMP B-TREE FOR ORDER BY"),
+                    "i risultati full-text vanno ordinati per rilevanza o per il criterio scelto: FTS5 non ha un ordine B-tree"),
+            new Allowance(Pattern.compile("^SELECT \\* FROM books ORDER BY id ASC( LIMIT \\?)?$"), Pattern.compile("SCAN books"),
+                    "lettura di tutti i libri in ordine di id: la tabella è già il B-tree sul rowid"),
+            new Allowance(Pattern.compile("^SELECT \\* FROM books WHERE LOWER\\(\\w+\\) LIKE LOWER\\(\\?\\)( AND LOWER\\(\\w+\\) LIKE LOWER\\(\\?\\))* ORDER BY "),
+                    Pattern.compile("SCAN books"),
+                    "un contenimento LIKE '%...%' non può usare un indice B-tree: per questo c'è la ricerca full-text"));
+
+    //una scansione completa: la tabella viene letta tutta senza indice
+    private static final Pattern FULL_SCAN = Pattern.compile("SCAN [^\\s(]+");
+
+    @TempDir
+    static Path folder;
+
+    private static QueryStatistics statistics;
+    private static SQLiteConnectionPool pool;
+    private static SQLiteBookRepository database;
+    private static List<String> shapes;
+
+    @BeforeAll
+    static void setUp() throws SQLException {
+        statistics = new QueryStatistics();
+        pool = new SQLiteConnectionPool.Builder("jdbc:sqlite:" + folder.resolve("plans.db"))
+                .statistics(statistics)
+                .build();
+        database = new SQLiteBookRepository(pool);
+
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < BOOKS; i++) {
+            books.add(new Book.Builder("Titolo " + i, "Autore " + (i % 200))
+                    .isbn(String.format("978%010d", i))
+                    .genre("Genere " + (i % 12))
+                    .rating(i % 6)
+                    .readingState(STATES[i % STATES.length])
+                    .build());
+        }
+        database.saveAll(books);
+        //statistiche degli indici come dopo il PRAGMA optimize di una libreria in uso
+        try (Statement statement = pool.getWriter().createStatement()) {
+            statement.execute("ANALYZE");
+        }
+
+        statistics.reset();
+        workload();
+        shapes = statistics.snapshot().stream()
+                .map(QueryStatistics.Snapshot::sql)
+                .filter(sql -> sql.regionMatches(true, 0, "SELECT", 0, 6) || sql.regionMatches(true, 0, "WITH", 0, 4))
+                .sorted()
+                .toList();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        database.closeStatements();
+        pool.close();
+    }
+
+    //tutte le letture del repository, con ogni criterio di ordinamento e con i filtri combinati dall'interfaccia
+    private static void workload() {
+        List<SortCriteria> sorts = new ArrayList<>(Arrays.asList(SortCriteria.values()));
+        sorts.add(null);
+        for (SortCriteria sort : sorts) {
+            database.loadAll(sort);
+            database.findByTitle("%tolo 1%", sort);
+            database.findByRating(3, sort);
+            database.findByReadingState("letto", sort);
+            database.findByAuthor("%autore 1%", sort);
+            database.findByAuthorId(1, sort);
+            database.fullTextSearch("titolo", sort);
+            //ogni stream tiene una connessione di lettura finché non viene chiuso: uno alla volta
+            consume(database.streamAll(sort));
+            consume(database.streamByTitle("%tolo%", sort));
+            consume(database.streamByRating(2, sort));
+            consume(database.streamByReadingState("letto", sort));
+            consume(database.streamByAuthor("%autore%", sort));
+            for (BookQuery.Field text : List.of(BookQuery.Field.TITLE, BookQuery.Field.AUTHOR)) {
+                database.find(new BookQuery.Builder().sortBy(sort).equalTo(BookQuery.Field.READING_STATE, "letto").build());
+                database.find(new BookQuery.Builder().sortBy(sort).equalTo(BookQuery.Field.RATING, 4).build());
+                database.find(new BookQuery.Builder().sortBy(sort).equalTo(BookQuery.Field.READING_STATE, "letto")
+                        .equalTo(BookQuery.Field.RATING, 4).build());
+                database.find(new BookQuery.Builder().sortBy(sort).contains(text, "1").build());
+                database.find(new BookQuery.Builder().sortBy(sort).equalTo(BookQuery.Field.READING_STATE, "letto")
+                        .contains(text, "1").build());
+                database.find(new BookQuery.Builder().sortBy(sort).equalTo(BookQuery.Field.RATING, 4)
+                        .contains(text, "1").build());
+                database.find(new BookQuery.Builder().sortBy(sort).equalTo(BookQuery.Field.READING_STATE, "letto")
+                        .equalTo(BookQuery.Field.RATING, 4).contains(text, "1").build());
+            }
+            if (sort != null) {
+                Page first = database.loadPage(sort, PageCursor.first(), 50);
+                database.loadPage(sort, first.getNextCursor(), 50);
+            }
+        }
+        database.countBooks();
+        database.listAuthors();
+        database.listGenres();
+        database.loadThumbnails(List.of(1, 2, 3), ThumbnailSize.LIST);
+        database.loadThumbnails(List.of(1, 2, 3), ThumbnailSize.DETAIL);
+        database.loadThumbnailHashes(List.of(1, 2, 3));
+    }
+
+    private static void consume(Stream<Book> books) {
+        try (books) {
+            books.forEach(book -> { });
+        }
+    }
+
+    private static List<String> plan(String sql) throws SQLException {
+        List<String> details = new ArrayList<>();
+        try (Statement statement = pool.getWriter().createStatement();
+             ResultSet resultSet = statement.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (resultSet.next()) {
+                details.add(resultSet.getString("detail"));
+            }
+        }
+        return details;
+    }
+
+    //le righe del piano che indicano una scansione completa o un ordinamento temporaneo non giustificati
+    private static List<String> violations(String sql) throws SQLException {
+        List<String> violations = new ArrayList<>();
+        for (String detail : plan(sql)) {
+            boolean degraded = detail.contains("USE TEMP B-TREE") || FULL_SCAN.matcher(detail).matches();
+            if (degraded && ALLOWANCES.stream().noneMatch(allowance -> allowance.allows(sql, detail))) {
+                violations.add(detail);
+            }
+        }
+        return violations;
+    }
+
+    @TestFactory
+    Stream<DynamicTest> testEveryQueryUsesAnIndex() {
+        return shapes.stream().map(sql -> DynamicTest.dynamicTest(sql, () -> {
+            List<String> violations = violations(sql);
+            List<String> plan = plan(sql);
+            assertTrue(violations.isEmpty(), () -> "Piano degradato per " + sql + ": " + violations
+                    + "\nPiano completo: " + plan);
+        }));
+    }
+
+    @Test
+    void testWorkloadCoversEveryShape() {
+        //ogni criterio di ordinamento produce la propria query su tutti i libri (NONE e null coincidono)
+        long loadAll = shapes.stream().filter(sql -> sql.matches("SELECT \\* FROM books ORDER BY [^?]*")).count();
+        assertEquals(SortCriteria.values().length, loadAll);
+        assertTrue(shapes.stream().anyMatch(sql -> sql.contains("books_fts MATCH")));
+        assertTrue(shapes.stream().anyMatch(sql -> sql.contains("author_id = ?")));
+        assertTrue(shapes.stream().anyMatch(sql -> sql.contains("book_thumbnails")));
+    }
+
+    @Test
+    void testDegradedPlansAreDetected() throws SQLException {
+        //nessun indice su LOWER(isbn) né sull'ordine per genere: il controllo deve accorgersene
+        assertFalse(violations("SELECT * FROM books WHERE LOWER(isbn) = LOWER(?)").isEmpty());
+        assertFalse(violations("SELECT * FROM books WHERE rating = ? ORDER BY genre").isEmpty());
+        assertFalse(violations("SELECT * FROM books_fts JOIN books b ON b.id = books_fts.rowid ORDER BY b.genre").isEmpty());
+        assertTrue(violations("SELECT * FROM books WHERE rating = ? ORDER BY id ASC").isEmpty());
+    }
+}
@@ -0,0 +1,155 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.SortCriteria;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sqlite.SQLiteConnection;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QueryStatisticsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private QueryStatistics statistics;
+    private SQLiteConnectionPool pool;
+    private SQLiteBookRepository database;
+
+    @Before
+    public void setUp() throws IOException {
+        statistics = new QueryStatistics();
+        pool = new SQLiteConnectionPool.Builder("jdbc:sqlite:" + folder.newFile("stats.db").getAbsolutePath())
+                .readers(2)
+                .statistics(statistics)
+                .build();
+        database = new SQLiteBookRepository(pool);
+    }
+
+    @After
+    public void tearDown() {
+        database.closeStatements();
+        pool.close();
+    }
+
+    @Test
+    public void testShapeNormalizesLiteralsAndWhitespace() {
+        assertEquals("SELECT * FROM books WHERE id = ? AND title = ?",
+                QueryStatistics.shape("SELECT *\n   FROM books\tWHERE id = 42 AND title = 'L''isola'"));
+        assertEquals("SELECT * FROM books WHERE id IN (?) LIMIT ?",
+                QueryStatistics.shape("SELECT * FROM books WHERE id IN (?, ?, ?) LIMIT 10"));
+        assertEquals("SELECT * FROM idx_books_2 WHERE rating >= ?",
+                QueryStatistics.shape("SELECT * FROM idx_books_2 WHERE rating >= 3.5"));
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        for (long micros = 1; micros <= 1000; micros++) {
+            statistics.record("q", micros * 1000, 1, false);
+        }
+        QueryStatistics.Snapshot snapshot = statistics.get("q");
+        assertEquals(1000, snapshot.calls());
+        assertEquals(1000, snapshot.rows());
+        assertEquals(1_000_000, snapshot.maxNanos());
+        assertEquals(500_000, snapshot.p50Nanos(), 500_000 * 0.125);
+        assertEquals(950_000, snapshot.p95Nanos(), 950_000 * 0.125);
+        assertEquals(990_000, snapshot.p99Nanos(), 990_000 * 0.125);
+        assertTrue(snapshot.p50Nanos() <= snapshot.p95Nanos() && snapshot.p95Nanos() <= snapshot.p99Nanos());
+
+        for (int i = 0; i < 16; i++) {
+            assertEquals(i, LatencyHistogram.upperBound(LatencyHistogram.index(i)));
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LatencyHistogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testRepositoryQueriesAreMeasured() throws SQLException {
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            books.add(new Book.Builder("Libro " + i, "Autore " + (i % 4)).build());
+        }
+        database.saveAll(books);
+        statistics.reset();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(5, database.findByAuthor("Autore 1", SortCriteria.NONE).size());
+        }
+        List<QueryStatistics.Snapshot> snapshots = statistics.snapshot();
+        assertFalse(snapshots.isEmpty());
+        QueryStatistics.Snapshot byAuthor = snapshots.stream().filter(s -> s.rows() == 15).findFirst().orElseThrow();
+        assertEquals(3, byAuthor.calls());
+        assertEquals(0, byAuthor.errors());
+        assertTrue(byAuthor.totalNanos() > 0);
+
+        //le connessioni restano quelle del pool e raggiungono le API del driver
+        Connection writer = pool.getWriter();
+        assertSame(writer, pool.getWriter());
+        assertTrue(pool.isWriter(writer));
+        assertTrue(writer.isWrapperFor(SQLiteConnection.class));
+        assertNotNull(writer.unwrap(SQLiteConnection.class));
+
+        try (PreparedStatement statement = writer.prepareStatement("SELECT COUNT(*) FROM books WHERE rating > ?")) {
+            assertSame(writer, statement.getConnection());
+            statement.setInt(1, 0);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                assertTrue(resultSet.next());
+            }
+        }
+        assertEquals(1, statistics.get("SELECT COUNT(*) FROM books WHERE rating > 7").calls());
+
+        try {
+            writer.prepareStatement("SELECT * FROM tabella_inesistente").close();
+            fail("la tabella non esiste");
+        } catch (SQLException expected) {
+            //la preparazione fallisce prima dell'esecuzione: nessuna statistica
+        }
+        try (Statement statement = writer.createStatement()) {
+            assertEquals(5, statement.executeUpdate("UPDATE books SET rating = 4 WHERE author = 'Autore 2'"));
+        }
+        assertEquals(5, statistics.get("UPDATE books SET rating = ? WHERE author = ?").rows());
+    }
+
+    @Test
+    public void testDumpAndMBean() throws Exception {
+        database.saveAll(List.of(new Book.Builder("Dune", "Frank Herbert").build()));
+        database.loadAll(SortCriteria.NONE);
+
+        Path dump = folder.getRoot().toPath().resolve("statistiche.txt");
+        statistics.dump(dump);
+        String report = Files.readString(dump);
+        assertTrue(report.contains("p95 ms"));
+        assertTrue(report.contains("FROM books"));
+
+        ObjectName name = statistics.registerMBean("test");
+        assertNotNull(name);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals(statistics.getTotalCalls(), server.getAttribute(name, "TotalCalls"));
+            Path viaJmx = folder.getRoot().toPath().resolve("jmx.txt");
+            server.invoke(name, "dumpTo", new Object[]{viaJmx.toString()}, new String[]{String.class.getName()});
+            assertTrue(Files.readString(viaJmx).contains("FROM books"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0, statistics.getShapeCount());
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.SortCriteria;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class SQLiteConnectionPoolTest {
+
+    private File dbFile;
+    private SQLiteConnectionPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        dbFile = File.createTempFile("pool_test", ".db");
+        pool = new SQLiteConnectionPool.Builder("jdbc:sqlite:" + dbFile.getAbsolutePath())
+                .readers(2)
+                .synchronous("normal")
+                .cacheSize(-4000)
+                .tempStore("memory")
+                .busyTimeout(200)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+        dbFile.delete();
+        new File(dbFile.getPath() + "-wal").delete();
+        new File(dbFile.getPath() + "-shm").delete();
+    }
+
+    private static String pragma(Connection connection, String name) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA " + name)) {
+            return resultSet.next() ? resultSet.getString(1) : null;
+        }
+    }
+
+    @Test
+    public void testPragmasAreApplied() throws SQLException {
+        Connection writer = pool.getWriter();
+        assertEquals("wal", pragma(writer, "journal_mode"));
+        assertEquals("1", pragma(writer, "synchronous"));       // NORMAL
+        assertEquals("-4000", pragma(writer, "cache_size"));
+        assertEquals("2", pragma(writer, "temp_store"));        // MEMORY
+
+        Connection reader = pool.borrowReader();
+        assertEquals("wal", pragma(reader, "journal_mode"));
+        assertEquals("1", pragma(reader, "query_only"));
+        pool.release(reader);
+    }
+
+    @Test
+    public void testReaderIsNotBlockedByOpenWriteTransaction() throws SQLException {
+        Connection writer = pool.getWriter();
+        try (Statement statement = writer.createStatement()) {
+            statement.execute("CREATE TABLE t(x INTEGER)");
+            statement.execute("INSERT INTO t VALUES (1)");
+        }
+
+        writer.setAutoCommit(false);
+        try (Statement statement = writer.createStatement()) {
+            statement.execute("INSERT INTO t VALUES (2)");
+
+            // il lettore vede l'ultimo stato confermato senza attendere la fine della transazione
+            Connection reader = pool.borrowReader();
+            try (Statement read = reader.createStatement();
+                 ResultSet resultSet = read.executeQuery("SELECT COUNT(*) FROM t")) {
+                assertEquals(1, resultSet.getInt(1));
+            } finally {
+                pool.release(reader);
+            }
+            writer.commit();
+        } finally {
+            writer.setAutoCommit(true);
+        }
+    }
+
+    @Test
+    public void testReadersAreBoundedAndReused() throws SQLException {
+        Connection first = pool.borrowReader();
+        Connection second = pool.borrowReader();
+        assertNotSame(first, second);
+        assertNotSame(pool.getWriter(), first);
+
+        try {
+            pool.borrowReader();
+            fail("Il pool non dovrebbe aprire più lettori di quelli configurati");
+        } catch (SQLException expected) {
+            // nessun lettore libero entro il busy timeout
+        }
+
+        pool.release(first);
+        assertSame(first, pool.borrowReader());
+        pool.release(first);
+        pool.release(second);
+    }
+
+    @Test
+    public void testInMemoryPoolUsesWriterForReads() throws SQLException {
+        SQLiteConnectionPool memoryPool = new SQLiteConnectionPool.Builder("jdbc:sqlite::memory:").readers(4).build();
+        assertEquals(0, memoryPool.getReaderCount());
+        assertSame(memoryPool.getWriter(), memoryPool.borrowReader());
+        memoryPool.close();
+    }
+
+    @Test
+    public void testConcurrentReadsThroughRepository() throws Exception {
+        SQLiteBookRepository repository = new SQLiteBookRepository(pool);
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            books.add(new Book.Builder("Titolo " + i, "Autore " + (i % 5)).rating(i % 5 + 1).build());
+        }
+        repository.saveAll(books);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                results.add(executor.submit(() -> repository.loadAll(SortCriteria.TITLE_ASC).size()));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(Integer.valueOf(50), result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSynchronous() {
+        new SQLiteConnectionPool.Builder("jdbc:sqlite:x.db").synchronous("SOMETIMES");
+    }
+}
@@ -0,0 +1,173 @@
+package gestore_libreria.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SchemaMigratorTest {
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    private List<String> indexNames() throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = 'books'")) {
+            while (resultSet.next()) {
+                names.add(resultSet.getString(1));
+            }
+        }
+        return names;
+    }
+
+    private String plan(String sql) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (resultSet.next()) {
+                plan.append(resultSet.getString("detail")).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+
+    @Test
+    public void testFreshDatabaseReachesLatestVersion() throws SQLException {
+        SchemaMigrator migrator = new SchemaMigrator();
+        int applied = migrator.migrate(connection);
+
+        assertEquals(migrator.getMigrations().size(), applied);
+        assertEquals(migrator.getLatestVersion(), SchemaMigrator.getVersion(connection));
+        assertTrue(indexNames().contains("idx_books_title"));
+    }
+
+    @Test
+    public void testMigrationIsIdempotent() throws SQLException {
+        SchemaMigrator migrator = new SchemaMigrator();
+        migrator.migrate(connection);
+        assertEquals(0, migrator.migrate(connection));
+    }
+
+    @Test
+    public void testLegacyDatabaseIsUpgradedInPlace() throws SQLException {
+        // schema creato dalle versioni precedenti, senza indici e con user_version = 0
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE books(id INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT NOT NULL, author TEXT NOT NULL, "
+                    + "isbn TEXT, genre TEXT, rating INTEGER, readingState TEXT, coverPath TEXT)");
+            statement.execute("INSERT INTO books(title, author, rating, readingState) VALUES ('1984', 'George Orwell', 4, 'letto')");
+        }
+
+        new SchemaMigrator().migrate(connection);
+
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM books")) {
+            assertEquals(1, resultSet.getInt(1));
+        }
+        assertFalse(indexNames().isEmpty());
+    }
+
+    @Test
+    public void testFailedMigrationIsRolledBack() throws SQLException {
+        List<SchemaMigrator.Migration> migrations = new ArrayList<>(SchemaMigrator.bookMigrations());
+        migrations.add(SchemaMigrator.sql(100, "migrazione errata", "CREATE TABLE extra(x INTEGER)", "NOT VALID SQL"));
+        SchemaMigrator migrator = new SchemaMigrator(migrations);
+
+        try {
+            migrator.migrate(connection);
+            fail("La migrazione errata dovrebbe fallire");
+        } catch (SQLException expected) {
+            // le migrazioni precedenti restano applicate, quella errata no
+        }
+        assertEquals(new SchemaMigrator().getLatestVersion(), SchemaMigrator.getVersion(connection));
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM sqlite_master WHERE name = 'extra'")) {
+            assertEquals(0, resultSet.getInt(1));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateVersionsAreRejected() {
+        new SchemaMigrator(List.of(SchemaMigrator.sql(1, "a"), SchemaMigrator.sql(1, "b")));
+    }
+
+    @Test
+    public void testSortedQueriesUseIndexes() throws SQLException {
+        new SchemaMigrator().migrate(connection);
+
+        String byTitle = plan("SELECT * FROM books ORDER BY LOWER(title) ASC");
+        assertTrue(byTitle, byTitle.contains("idx_books_title"));
+        assertFalse(byTitle, byTitle.contains("TEMP B-TREE"));
+
+        String byRating = plan("SELECT * FROM books WHERE rating = 5 ORDER BY LOWER(author) ASC");
+        assertTrue(byRating, byRating.contains("idx_books_rating_author"));
+        assertFalse(byRating, byRating.contains("TEMP B-TREE"));
+
+        String ratingDesc = plan("SELECT * FROM books ORDER BY rating DESC, LOWER(title) ASC");
+        assertFalse(ratingDesc, ratingDesc.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void testAuthorsAndGenresAreNormalizedOnUpgrade() throws SQLException {
+        new SchemaMigrator(SchemaMigrator.bookMigrations().subList(0, 4)).migrate(connection);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO books(title, author, genre) VALUES ('Emma', 'Jane Austen', 'Romanzo'),"
+                    + " ('Persuasione', 'Jane Austen', ''), ('Dune', 'Frank Herbert', NULL)");
+        }
+
+        new SchemaMigrator().migrate(connection);
+
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT (SELECT COUNT(*) FROM authors), (SELECT COUNT(*) FROM genres),"
+                     + " (SELECT COUNT(*) FROM books WHERE author_id IS NULL), (SELECT COUNT(*) FROM books WHERE genre_id IS NULL)")) {
+            assertEquals(2, resultSet.getInt(1));
+            assertEquals(1, resultSet.getInt(2));
+            assertEquals(0, resultSet.getInt(3));
+            assertEquals("genere vuoto o NULL", 2, resultSet.getInt(4));
+        }
+        String byAuthor = plan("SELECT * FROM books WHERE author_id = 1 ORDER BY LOWER(title) ASC, id ASC");
+        assertTrue(byAuthor, byAuthor.contains("idx_books_author_id_title"));
+        assertFalse(byAuthor, byAuthor.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void testExistingDuplicateIsbnsKeepTheKeyOnTheFirstBook() throws SQLException {
+        new SchemaMigrator(SchemaMigrator.bookMigrations().subList(0, 5)).migrate(connection);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO books(title, author, isbn) VALUES ('Dune', 'Frank Herbert', '0-306-40615-2'),"
+                    + " ('Dune', 'Frank Herbert', '9780306406157'), ('Emma', 'Jane Austen', '978-88-17')");
+        }
+
+        new SchemaMigrator().migrate(connection);
+
+        List<String> keys = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT isbn_key FROM books ORDER BY id")) {
+            while (resultSet.next()) {
+                keys.add(resultSet.getString(1));
+            }
+        }
+        assertEquals(Arrays.asList("9780306406157", null, null), keys);
+        String byIsbn = plan("SELECT id FROM books WHERE isbn_key = '9780306406157'");
+        assertTrue(byIsbn, byIsbn.contains("idx_books_isbn_key"));
+    }
+}
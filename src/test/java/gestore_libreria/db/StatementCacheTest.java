@@ -0,0 +1,101 @@
+package gestore_libreria.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class StatementCacheTest {
+
+    private Connection connection;
+    private StatementCache cache;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE items(id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT)");
+        }
+        cache = new StatementCache(connection);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        cache.close();
+        connection.close();
+    }
+
+    @Test
+    public void testStatementIsReused() throws SQLException {
+        String sql = "SELECT name FROM items WHERE id = ?";
+        PreparedStatement first = cache.prepare(sql);
+        PreparedStatement second = cache.prepare(sql);
+
+        assertSame(first, second);
+        assertEquals(1, cache.getReuseCount(sql));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testInsertAndQuery() throws SQLException {
+        String insert = "INSERT INTO items(name) VALUES (?)";
+        long firstId = cache.insert(insert, preparedStatement -> preparedStatement.setString(1, "uno"));
+        long secondId = cache.insert(insert, preparedStatement -> preparedStatement.setString(1, "due"));
+
+        assertEquals(firstId + 1, secondId);
+        assertEquals(1, cache.getReuseCount(insert));
+
+        List<String> names = cache.query("SELECT name FROM items ORDER BY id", resultSet -> resultSet.getString(1));
+        assertEquals(List.of("uno", "due"), names);
+    }
+
+    @Test
+    public void testResultSetIsClosedAfterQuery() throws SQLException {
+        cache.insert("INSERT INTO items(name) VALUES (?)", preparedStatement -> preparedStatement.setString(1, "uno"));
+        List<ResultSet> seen = cache.query("SELECT name FROM items", resultSet -> resultSet);
+        assertEquals(1, seen.size());
+        assertTrue(seen.get(0).isClosed());
+    }
+
+    @Test
+    public void testCloseReleasesStatements() throws SQLException {
+        PreparedStatement statement = cache.prepare("SELECT 1");
+        cache.close();
+
+        assertTrue(statement.isClosed());
+        assertEquals(0, cache.size());
+        assertTrue(cache.isValid());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedStatementIsClosed() throws SQLException {
+        StatementCache bounded = new StatementCache(connection, 2);
+        PreparedStatement first = bounded.prepare("SELECT 1");
+        PreparedStatement second = bounded.prepare("SELECT 2");
+        bounded.prepare("SELECT 1");        //ora la meno recente è SELECT 2
+        bounded.prepare("SELECT 3");
+
+        assertEquals(2, bounded.size());
+        assertEquals(1, bounded.getEvictionCount());
+        assertTrue(second.isClosed());
+        assertFalse(first.isClosed());
+        assertEquals(Set.of("SELECT 1", "SELECT 3"), bounded.getReuseStatistics().keySet());
+        for (int i = 4; i < 100; i++) {
+            bounded.prepare("SELECT " + i);
+        }
+        assertEquals("le statistiche non crescono oltre la cache", 2, bounded.getReuseStatistics().size());
+        //un'istruzione uscita dalla cache viene ripreparata al bisogno
+        assertEquals(List.of(2), bounded.query("SELECT 2", resultSet -> resultSet.getInt(1)));
+        bounded.close();
+    }
+}
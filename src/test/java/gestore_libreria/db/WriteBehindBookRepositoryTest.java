@@ -0,0 +1,270 @@
+package gestore_libreria.db;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.PageCursor;
+import gestore_libreria.model.SortCriteria;
+import gestore_libreria.observer.BookObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindBookRepositoryTest {
+
+    //repository in memoria che registra le chiamate ad applyChanges e può simulare un errore
+    private static class RecordingRepository extends InMemoryBookRepository {
+        final List<String> calls = new ArrayList<>();
+        boolean failing;
+        String rejectedTitle;       //le modifiche che contengono un libro con questo titolo vengono sempre rifiutate
+
+        @Override
+        public boolean applyChanges(Collection<Book> inserts, Collection<Book> updates, Collection<Book> deletes) {
+            calls.add(inserts.size() + "/" + updates.size() + "/" + deletes.size());
+            boolean rejected = Stream.of(inserts, updates, deletes).flatMap(Collection::stream)
+                    .anyMatch(book -> book.getTitle().equals(rejectedTitle));
+            return !failing && !rejected && super.applyChanges(inserts, updates, deletes);
+        }
+    }
+
+    private RecordingRepository delegate;
+    private WriteBehindBookRepository repository;
+
+    @Before
+    public void setUp() {
+        delegate = new RecordingRepository();
+        delegate.save(new Book.Builder("Dune", "Frank Herbert").rating(5).readingState("LETTO").build());
+        delegate.save(new Book.Builder("Emma", "Jane Austen").rating(3).build());
+        repository = new WriteBehindBookRepository.Builder(delegate)
+                .flushInterval(Duration.ZERO)
+                .maxPendingChanges(1000)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        repository.close();
+    }
+
+    private static Book version(int id, String title, int rating) {
+        return new Book.Builder(title, "Autore").id(id).rating(rating).build();
+    }
+
+    private static List<String> titles(List<Book> books) {
+        return books.stream().map(Book::getTitle).toList();
+    }
+
+    @Test
+    public void testRepeatedUpdatesAreCoalesced() {
+        for (int rating = 1; rating <= 5; rating++) {
+            repository.update(version(2, "Emma", rating));
+        }
+        assertEquals(1, repository.getPendingCount());
+        assertEquals(4, repository.getCoalescedCount());
+        assertTrue(delegate.calls.isEmpty());
+
+        WriteBehindBookRepository.FlushResult result = repository.flush();
+        assertEquals(new WriteBehindBookRepository.FlushResult(0, 1, 0), result);
+        assertEquals(List.of("0/1/0"), delegate.calls);
+        assertEquals(5, delegate.findByTitle("Emma", SortCriteria.NONE).get(0).getRating());
+        assertNull("nulla da scrivere", repository.flush());
+    }
+
+    @Test
+    public void testReadsSeePendingChanges() {
+        Book nuovo = new Book.Builder("Dracula", "Bram Stoker").rating(5).build();
+        repository.save(nuovo);
+        assertTrue("id provvisorio", nuovo.getId() < 0);
+        repository.update(version(2, "Emma aggiornata", 5));
+        repository.delete(version(1, "Dune", 5));
+
+        assertEquals(List.of("Emma aggiornata", "Dracula"), titles(repository.loadAll(SortCriteria.NONE)));
+        assertEquals(List.of("Dracula", "Emma aggiornata"), titles(repository.loadAll(SortCriteria.TITLE_ASC)));
+        assertEquals(List.of("Emma aggiornata", "Dracula"), titles(repository.findByRating(5, SortCriteria.NONE)));
+        assertTrue(repository.findByRating(3, SortCriteria.NONE).isEmpty());
+        assertTrue(repository.findByTitle("dune", SortCriteria.NONE).isEmpty());
+        assertEquals(List.of("Dracula"), titles(repository.findByAuthor("stoker", SortCriteria.NONE)));
+        assertTrue(delegate.calls.isEmpty());
+
+        repository.flush();
+        assertEquals(List.of("1/1/1"), delegate.calls);
+        assertEquals(3, nuovo.getId());
+        assertEquals(titles(delegate.loadAll(SortCriteria.NONE)), titles(repository.loadAll(SortCriteria.NONE)));
+    }
+
+    @Test
+    public void testInsertThenDeleteNeverReachesDelegate() {
+        Book temporaneo = new Book.Builder("Bozza", "Autore").build();
+        repository.save(temporaneo);
+        repository.update(version(temporaneo.getId(), "Bozza rivista", 2));
+        repository.delete(temporaneo);
+        assertEquals(0, repository.getPendingCount());
+        assertNull(repository.flush());
+        assertTrue(delegate.calls.isEmpty());
+    }
+
+    @Test
+    public void testUpdateOfPendingInsertIsWrittenAsInsert() {
+        Book nuovo = new Book.Builder("Bozza", "Autore").build();
+        repository.save(nuovo);
+        Book rivisto = version(nuovo.getId(), "Definitivo", 4);
+        repository.update(rivisto);
+        repository.flush();
+
+        assertEquals(List.of("1/0/0"), delegate.calls);
+        //tutte le istanze ricevono l'id definitivo, così un undo successivo trova il libro
+        assertEquals(3, nuovo.getId());
+        assertEquals(3, rivisto.getId());
+        assertEquals("Definitivo", delegate.findByRating(4, SortCriteria.NONE).get(0).getTitle());
+    }
+
+    @Test
+    public void testDeleteReplacesPendingUpdate() {
+        repository.update(version(1, "Dune 2", 1));
+        repository.delete(version(1, "Dune 2", 1));
+        repository.update(version(1, "Dune 3", 1));     //ignorato: il libro è eliminato
+        repository.flush();
+        assertEquals(List.of("0/0/1"), delegate.calls);
+        assertEquals(1, delegate.size());
+    }
+
+    @Test
+    public void testFailedFlushKeepsChanges() {
+        delegate.failing = true;
+        repository.update(version(2, "Emma", 1));
+        assertNull(repository.flush());
+        assertEquals(1, repository.getPendingCount());
+        assertEquals(1, repository.getFailedFlushCount());
+
+        delegate.failing = false;
+        assertNotNull(repository.flush());
+        assertEquals(0, repository.getPendingCount());
+        assertEquals(1, delegate.findByRating(1, SortCriteria.NONE).size());
+    }
+
+    @Test
+    public void testRejectedChangeDoesNotBlockTheOthers() {
+        delegate.rejectedTitle = "Illeggibile";
+        List<WriteBehindBookRepository.FlushResult> notified = new ArrayList<>();
+        repository.setFlushListener(notified::add);
+        Book nuovo = new Book.Builder("Dracula", "Bram Stoker").build();
+        repository.save(nuovo);
+        repository.update(version(2, "Illeggibile", 1));
+        repository.update(version(1, "Dune", 4));
+
+        //le altre modifiche vengono scritte una per una, quella rifiutata resta in attesa
+        assertEquals(new WriteBehindBookRepository.FlushResult(1, 1, 0), repository.flush());
+        assertEquals(List.of("1/2/0", "1/0/0", "0/1/0", "0/1/0"), delegate.calls);
+        assertEquals(3, nuovo.getId());
+        assertEquals(4, delegate.findByTitle("Dune", SortCriteria.NONE).get(0).getRating());
+        assertEquals(1, repository.getPendingCount());
+        assertEquals(1, repository.getFailedFlushCount());
+
+        //dopo il numero massimo di tentativi viene scartata e riportata al listener
+        assertNull(repository.flush());
+        WriteBehindBookRepository.FlushResult last = repository.flush();
+        assertEquals(List.of("Illeggibile"), titles(last.rejected()));
+        assertEquals(0, repository.getPendingCount());
+        assertEquals(1, repository.getRejectedCount());
+        assertEquals(List.of(last), notified.subList(1, notified.size()));
+        assertEquals("Emma", delegate.findByRating(3, SortCriteria.NONE).get(0).getTitle());
+        assertNull(repository.flush());
+    }
+
+    @Test
+    public void testThresholdTriggersFlush() {
+        WriteBehindBookRepository small = new WriteBehindBookRepository.Builder(delegate)
+                .flushInterval(Duration.ZERO)
+                .maxPendingChanges(3)
+                .build();
+        small.save(new Book.Builder("A", "Autore").build());
+        small.save(new Book.Builder("B", "Autore").build());
+        assertTrue(delegate.calls.isEmpty());
+        small.save(new Book.Builder("C", "Autore").build());
+        assertEquals(List.of("3/0/0"), delegate.calls);
+        assertEquals(0, small.getPendingCount());
+        small.close();
+    }
+
+    @Test
+    public void testTimerFlushesPendingChanges() throws InterruptedException {
+        CountDownLatch flushed = new CountDownLatch(1);
+        WriteBehindBookRepository timed = new WriteBehindBookRepository.Builder(delegate)
+                .flushInterval(Duration.ofMillis(20))
+                .build();
+        timed.setFlushListener(result -> flushed.countDown());
+        timed.update(version(1, "Dune", 2));
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        assertEquals(2, delegate.findByTitle("Dune", SortCriteria.NONE).get(0).getRating());
+        timed.close();
+    }
+
+    @Test
+    public void testPagingFlushesFirst() {
+        repository.save(new Book.Builder("Zeta", "Autore").build());
+        assertEquals(3, repository.loadPage(SortCriteria.TITLE_ASC, PageCursor.first(), 10).getBooks().size());
+        assertEquals(0, repository.getPendingCount());
+    }
+
+    @Test
+    public void testManagerNotifiesOncePerFlush() {
+        ConcreteBookManager manager = new ConcreteBookManager(repository);
+        AtomicInteger notifications = new AtomicInteger();
+        BookObserver observer = notifications::incrementAndGet;
+        manager.attach(observer);
+
+        for (int rating = 1; rating <= 5; rating++) {
+            Book old = manager.findBookByTitle("Emma", SortCriteria.NONE).get(0);
+            manager.updateBook(old, version(2, "Emma", rating));
+        }
+        Book nuovo = new Book.Builder("Nuovo", "Autore").build();
+        manager.addBook(nuovo);
+        assertEquals(0, notifications.get());
+        assertEquals(3, manager.getAllBook(SortCriteria.NONE).size());
+
+        manager.flushPendingChanges();
+        assertEquals(1, notifications.get());
+        assertEquals(List.of("1/1/0"), delegate.calls);
+
+        //l'undo dell'inserimento, dopo il flush, elimina il libro con l'id definitivo
+        manager.getHistoryManager().undo();
+        manager.flushPendingChanges();
+        assertEquals(2, notifications.get());
+        assertEquals(2, delegate.size());
+        assertTrue(delegate.findByTitle("Nuovo", SortCriteria.NONE).isEmpty());
+    }
+
+    @Test
+    public void testFlushOnSQLiteAppliesAllChanges() {
+        SQLiteConnectionPool pool = new SQLiteConnectionPool.Builder("jdbc:sqlite::memory:").build();
+        SQLiteBookRepository database = new SQLiteBookRepository(pool);
+        try {
+            database.saveAll(List.of(new Book.Builder("Dune", "Frank Herbert").build(),
+                    new Book.Builder("Emma", "Jane Austen").build()));
+            WriteBehindBookRepository unitOfWork = new WriteBehindBookRepository.Builder(database)
+                    .flushInterval(Duration.ZERO)
+                    .build();
+            Book nuovo = new Book.Builder("Dracula", "Bram Stoker").build();
+            unitOfWork.save(nuovo);
+            unitOfWork.update(version(2, "Emma aggiornata", 4));
+            unitOfWork.delete(version(1, "Dune", 0));
+            assertEquals(List.of("Dune", "Emma"), titles(database.loadAll(SortCriteria.NONE)));
+
+            unitOfWork.close();
+            assertEquals(3, nuovo.getId());
+            assertEquals(List.of("Emma aggiornata", "Dracula"), titles(database.loadAll(SortCriteria.NONE)));
+        } finally {
+            database.closeStatements();
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package gestore_libreria.io;
+
+import gestore_libreria.db.ConcreteBookManager;
+import gestore_libreria.db.InMemoryBookRepository;
+import gestore_libreria.db.SQLiteBookRepository;
+import gestore_libreria.db.SQLiteConnectionPool;
+import gestore_libreria.model.Book;
+import gestore_libreria.model.SortCriteria;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class BookImportExportTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SQLiteConnectionPool pool;
+    private ConcreteBookManager source;
+
+    @Before
+    public void setUp() {
+        pool = new SQLiteConnectionPool.Builder("jdbc:sqlite::memory:").build();
+        source = new ConcreteBookManager(new SQLiteBookRepository(pool));
+        List<Book> books = new ArrayList<>(List.of(
+                new Book.Builder("Guerra, e pace", "Lev \"Tolstoj\"").isbn("978-88-17").genre("Classico").rating(5).readingState("letto").build(),
+                new Book.Builder("Righe\nsu più\r\nrighe", "Autore, Anonimo").genre("Città \\ Ñandú").coverPath("C:\\copertine\\a.png").build(),
+                new Book.Builder("  spazi  ", "\"").rating(2).readingState("in lettura").build()));
+        for (int i = 0; i < 40; i++) {
+            books.add(new Book.Builder("Libro " + i, "Autore " + i % 3).rating(i % 6).build());
+        }
+        source.addBooks(books);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    private static List<String> view(ConcreteBookManager manager) {
+        return manager.getAllBook(SortCriteria.NONE).stream().map(Book::toString).toList();
+    }
+
+    private Path roundTrip(String fileName) throws IOException {
+        Path file = folder.getRoot().toPath().resolve(fileName);
+        BookExporter.Result exported = new BookExporter.Builder(source).build().exportTo(file, null);
+        assertEquals(43, exported.books());
+        assertEquals(Files.size(file), exported.bytes());
+
+        ConcreteBookManager target = new ConcreteBookManager(new InMemoryBookRepository());
+        BookImporter.Result imported = new BookImporter.Builder(target).batchSize(7).queueCapacity(4).build().importFrom(file, null);
+        assertEquals(43, imported.inserted());
+        assertEquals(0, imported.rejected());
+        assertEquals(view(source), view(target));
+        return file;
+    }
+
+    @Test
+    public void testCsvRoundTripWithGzip() throws IOException {
+        Path file = roundTrip("libri.csv.gz");
+        try (InputStream in = Files.newInputStream(file)) {
+            assertEquals(0x1f, in.read());
+            assertEquals(0x8b, in.read());
+        }
+        assertFalse(Files.exists(folder.getRoot().toPath().resolve("libri.csv.gz.part")));
+    }
+
+    @Test
+    public void testJsonLinesRoundTrip() throws IOException {
+        Path file = roundTrip("libri.jsonl");
+        List<String> lines = Files.readAllLines(file);
+        assertEquals("un oggetto per riga, anche con a capo nei titoli", 43, lines.size());
+        assertTrue(lines.get(0).contains("\"rating\":5"));
+    }
+
+    @Test
+    public void testInvalidRecordsAreRejectedAndReported() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("altri.csv");
+        Files.writeString(file, "\uFEFFAuthor,TITLE,rating,prezzo,readingState\r\n"
+                + "Bram Stoker,Dracula,4,10,letto\r\n"
+                + ",Senza autore,1,,\r\n"
+                + "Jane Austen,Emma,9,,\r\n"
+                + "\r\n"
+                + "Walter Scott,Ivanhoe,tre,,\r\n"
+                + "Colonne,Mancanti\r\n"
+                + "\"Herbert, Frank\",\"Dune \"\"1965\"\"\",,,\r\n", StandardCharsets.UTF_8);
+
+        ConcreteBookManager target = new ConcreteBookManager(new InMemoryBookRepository());
+        BookImporter.Result result = new BookImporter.Builder(target).build().importFrom(file, null);
+        assertEquals(2, result.inserted());
+        assertEquals(4, result.rejected());
+        assertEquals(List.of(
+                "record 2 (riga 3): autore mancante",
+                "record 3 (riga 4): Valore non valido, rating compreso tra 0 e 5",
+                "record 4 (riga 6): valutazione non numerica: tre",
+                "record 5 (riga 7): attese 5 colonne, trovate 2"), result.errors());
+
+        List<Book> books = target.getAllBook(SortCriteria.NONE);
+        assertEquals("Dracula", books.get(0).getTitle());
+        assertEquals("letto", books.get(0).getReadingState());
+        assertEquals("Dune \"1965\"", books.get(1).getTitle());
+        assertEquals("Herbert, Frank", books.get(1).getAuthor());
+        assertEquals("da leggere", books.get(1).getReadingState());
+    }
+
+    @Test
+    public void testMalformedJsonLineDoesNotStopImport() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("altri.jsonl.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write(("{\"title\":\"Dune\",\"author\":\"Frank Herbert\",\"rating\":4,\"extra\":true}\n"
+                    + "{\"title\":\"Rotto\",\"author\":\n"
+                    + "{\"title\":\"Nidificato\",\"author\":{\"name\":\"x\"}}\n"
+                    + "{\"title\":\"Emma\",\"author\":\"Jane Austen\",\"genre\":null,\"isbn\":\"\\u00e8\"}\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        ConcreteBookManager target = new ConcreteBookManager(new InMemoryBookRepository());
+        BookImporter.Result result = new BookImporter.Builder(target).build().importFrom(file, null);
+        assertEquals(2, result.inserted());
+        assertEquals(2, result.rejected());
+        List<Book> books = target.getAllBook(SortCriteria.NONE);
+        assertEquals(4, books.get(0).getRating());
+        assertEquals("è", books.get(1).getIsbn());
+        assertEquals("", books.get(1).getGenre());
+    }
+
+    @Test
+    public void testResumeFromCheckpointAfterFailure() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("libri.csv");
+        new BookExporter.Builder(source).build().exportTo(file, null);
+        Path checkpoint = folder.getRoot().toPath().resolve("libri.csv.checkpoint");
+        InMemoryBookRepository repository = new InMemoryBookRepository();
+
+        //il terzo blocco non viene scritto
+        int[] calls = {0};
+        ConcreteBookManager failing = new ConcreteBookManager(repository) {
+            @Override
+            public boolean appendBooks(Collection<Book> books) {
+                return ++calls[0] != 3 && super.appendBooks(books);
+            }
+        };
+        BookImporter.Builder builder = new BookImporter.Builder(failing).batchSize(10).checkpoint(checkpoint);
+        try {
+            builder.build().importFrom(file, null);
+            fail("il terzo blocco non è stato scritto");
+        } catch (IOException expected) {
+            //atteso
+        }
+        assertEquals(20, repository.loadAll(SortCriteria.NONE).size());
+        assertTrue(Files.exists(checkpoint));
+
+        ConcreteBookManager target = new ConcreteBookManager(repository);
+        List<Long> progress = new ArrayList<>();
+        BookImporter.Result result = new BookImporter.Builder(target).batchSize(10).checkpoint(checkpoint).build()
+                .importFrom(file, (done, total) -> progress.add(done));
+        assertEquals(20, result.resumedFrom());
+        assertEquals(43, result.inserted());
+        assertEquals("nessun libro inserito due volte", view(source), view(target));
+        assertFalse(Files.exists(checkpoint));
+        assertEquals(Files.size(file), (long) progress.get(progress.size() - 1));
+    }
+
+    //più record della capacità delle code: quando il blocco fallisce lettura e validazione sono ferme sulle code piene
+    @Test(timeout = 10_000)
+    public void testFailedAppendWithFullQueuesDoesNotHang() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("grande.csv");
+        StringBuilder csv = new StringBuilder("title,author\n");
+        for (int i = 0; i < 5000; i++) {
+            csv.append("Libro ").append(i).append(",Autore\n");
+        }
+        Files.writeString(file, csv);
+
+        InMemoryBookRepository repository = new InMemoryBookRepository();
+        int[] calls = {0};
+        ConcreteBookManager failing = new ConcreteBookManager(repository) {
+            @Override
+            public boolean appendBooks(Collection<Book> books) {
+                return ++calls[0] != 3 && super.appendBooks(books);
+            }
+        };
+        try {
+            new BookImporter.Builder(failing).batchSize(10).queueCapacity(100).build().importFrom(file, null);
+            fail("il terzo blocco non è stato scritto");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("record 30"));
+        }
+        assertEquals(20, repository.size());
+    }
+
+    @Test
+    public void testCheckpointOfAnotherFileIsIgnored() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("libri.jsonl");
+        new BookExporter.Builder(source).build().exportTo(file, null);
+        Path checkpoint = folder.getRoot().toPath().resolve("libri.checkpoint");
+        ImportCheckpoint.at(file, 30, 30, 0).save(checkpoint);
+        Files.writeString(file, "{\"title\":\"Dune\",\"author\":\"Frank Herbert\"}\n",
+                java.nio.file.StandardOpenOption.APPEND);
+
+        ConcreteBookManager target = new ConcreteBookManager(new InMemoryBookRepository());
+        BookImporter.Result result = new BookImporter.Builder(target).checkpoint(checkpoint).build().importFrom(file, null);
+        assertEquals(0, result.resumedFrom());
+        assertEquals(44, result.inserted());
+    }
+
+    @Test
+    public void testUnterminatedQuoteStopsAfterLastCompleteBatch() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("rotto.csv");
+        StringBuilder csv = new StringBuilder("title,author\n");
+        for (int i = 0; i < 25; i++) {
+            csv.append("Libro ").append(i).append(",Autore\n");
+        }
+        csv.append("\"Senza fine,Autore\n").append("x".repeat(200));
+        Files.writeString(file, csv);
+
+        ConcreteBookManager target = new ConcreteBookManager(new InMemoryBookRepository());
+        try {
+            new BookImporter.Builder(target).batchSize(10).maxRecordLength(100).build().importFrom(file, null);
+            fail("il record non termina");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("riga 27"));
+        }
+        assertEquals("i record validi prima dell'errore sono stati scritti", 25, target.getAllBook(SortCriteria.NONE).size());
+    }
+
+    @Test
+    public void testUnknownExtension() {
+        try {
+            BookFormat.of(Path.of("libri.xlsx"));
+            fail("formato non supportato");
+        } catch (IllegalArgumentException expected) {
+            //atteso
+        }
+        assertEquals(BookFormat.JSON_LINES, BookFormat.of(Path.of("LIBRI.NDJSON.GZ")));
+        assertTrue(BookFormat.isCompressed(Path.of("libri.csv.GZ")));
+    }
+}
@@ -5,6 +5,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.jupiter.api.BeforeEach;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 import static org.junit.Assert.*;
 
 public class BookMementoTest {
@@ -66,4 +69,18 @@ public class BookMementoTest {
     public void getPreviousBookState() {
         assertEquals(testBookOld, memento2.getPreviousBookState());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBatchMemento() {
+        BookMemento batch = new BookMemento(Arrays.asList(testBook1, testBookNew), BookMemento.OperationType.ADD);
+        assertTrue(batch.isBatch());
+        assertEquals(2, batch.getBookStates().size());
+        assertEquals(testBook1, batch.getBookState());
+        assertFalse(memento1.isBatch());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBatchUpdateSizeMismatch() {
+        new BookMemento(Arrays.asList(testBook1, testBookNew), BookMemento.OperationType.UPDATE, Collections.singletonList(testBookOld));
+    }
+}
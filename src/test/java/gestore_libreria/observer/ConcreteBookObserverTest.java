@@ -2,6 +2,8 @@ package gestore_libreria.observer;
 
 import gestore_libreria.db.ConcreteBookManager;
 import gestore_libreria.model.Book;
+import gestore_libreria.model.Page;
+import gestore_libreria.model.PageCursor;
 import gestore_libreria.model.SortCriteria;
 import gestore_libreria.ui.BooksPanelUI;
 import gestore_libreria.ui.GestoreLibreriaUI;
@@ -61,6 +63,11 @@ class ConcreteBookObserverTest {
             return new ArrayList<>(books);
         }
 
+        @Override
+        public Page loadPage(SortCriteria criteria, PageCursor cursor, int limit) {
+            return new Page(new ArrayList<>(books), null);
+        }
+
         @Override
         public void attach(BookObserver observer) {
             if (!observers.contains(observer)) {
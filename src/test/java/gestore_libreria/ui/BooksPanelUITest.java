@@ -0,0 +1,130 @@
+package gestore_libreria.ui;
+
+import gestore_libreria.model.Book;
+import gestore_libreria.model.BookChangeSet;
+import gestore_libreria.model.Page;
+import gestore_libreria.model.SortCriteria;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Component;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BooksPanelUITest {
+
+    private BooksPanelUI panel;
+    private final List<Book> library = new ArrayList<>();
+    //i caricamenti delle pagine successive pianificati dal pannello: i test non sono sull'EDT e li eseguono solo se serve
+    private final List<Runnable> prefetches = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        panel = new BooksPanelUI(null);
+        panel.setPrefetchExecutor(prefetches::add);
+        String[] titles = {"Emma", "Dune", "Ulisse", "Odissea", "Beloved", "Ivanhoe"};
+        for (int i = 0; i < titles.length; i++) {
+            library.add(new Book.Builder(titles[i], "Autore").id(i + 1).rating(i % 5).build());
+        }
+    }
+
+    //legge le pagine dalla lista in memoria, ordinata come farebbe il database
+    private void display(SortCriteria criteria, int pageSize) {
+        List<Book> sorted = new ArrayList<>(library);
+        sorted.sort(criteria.comparator());
+        panel.displayPagedBooks(criteria, cursor -> Page.of(
+                sorted.stream().filter(cursor::precedes).limit(pageSize + 1L).toList(), pageSize, criteria));
+    }
+
+    private List<String> titles() {
+        return panel.getDisplayedBooks().stream().map(Book::getTitle).toList();
+    }
+
+    @Test
+    public void testChangesPatchOnlyTheAffectedRows() {
+        display(SortCriteria.TITLE_ASC, 50);
+        assertEquals(List.of("Beloved", "Dune", "Emma", "Ivanhoe", "Odissea", "Ulisse"), titles());
+        Component emma = panel.getRow(2);
+        Component ulisse = panel.getRow(5);
+
+        Book dune = new Book.Builder("Walden", "Autore").id(2).build();
+        Book added = new Book.Builder("Candido", "Autore").id(7).build();
+        assertTrue(panel.applyChanges(new BookChangeSet(List.of(added), List.of(library.get(4)), List.of(dune)),
+                SortCriteria.TITLE_ASC));
+
+        assertEquals(List.of("Candido", "Emma", "Ivanhoe", "Odissea", "Ulisse", "Walden"), titles());
+        //le righe dei libri non coinvolti non vengono ricostruite
+        assertSame(emma, panel.getRow(1));
+        assertSame(ulisse, panel.getRow(4));
+    }
+
+    @Test
+    public void testBooksOfPagesNotYetLoadedAreLeftToScrolling() {
+        display(SortCriteria.TITLE_ASC, 3);
+        assertEquals(List.of("Beloved", "Dune", "Emma"), titles());
+        assertTrue(panel.hasMorePages());
+        assertEquals(1, prefetches.size());
+
+        Book late = new Book.Builder("Zanna Bianca", "Autore").id(7).build();
+        Book early = new Book.Builder("Amleto", "Autore").id(8).build();
+        assertTrue(panel.applyChanges(BookChangeSet.added(List.of(late, early)), SortCriteria.TITLE_ASC));
+        assertEquals(List.of("Amleto", "Beloved", "Dune", "Emma"), titles());
+
+        //l'ultima riga caricata cambia titolo e finisce nelle pagine successive
+        Book emma = new Book.Builder("Tristram Shandy", "Autore").id(1).build();
+        assertTrue(panel.applyChanges(BookChangeSet.updated(List.of(emma)), SortCriteria.TITLE_ASC));
+        assertEquals(List.of("Amleto", "Beloved", "Dune"), titles());
+
+        //lo scorrimento porta la pagina successiva, che parte dopo l'ultima riga caricata
+        assertEquals(3, panel.loadNextPage().join().intValue());
+        assertEquals(List.of("Amleto", "Beloved", "Dune", "Ivanhoe", "Odissea", "Ulisse"), titles());
+    }
+
+    @Test
+    public void testEmptyLibraryAndFallbacks() {
+        library.clear();
+        display(SortCriteria.RATING_DESC, 50);
+        Book first = new Book.Builder("Dune", "Frank Herbert").id(1).rating(5).build();
+        assertTrue(panel.applyChanges(BookChangeSet.added(List.of(first)), SortCriteria.RATING_DESC));
+        assertEquals(List.of("Dune"), titles());
+        assertTrue(panel.applyChanges(BookChangeSet.removed(List.of(first)), SortCriteria.RATING_DESC));
+        assertTrue(titles().isEmpty());
+
+        //con un altro ordinamento o con il risultato di una ricerca la lista va ricaricata
+        assertFalse(panel.applyChanges(BookChangeSet.added(List.of(first)), SortCriteria.TITLE_ASC));
+        panel.displayBooks(List.of(first));
+        assertFalse(panel.applyChanges(BookChangeSet.removed(List.of(first)), SortCriteria.RATING_DESC));
+        assertEquals(List.of("Dune"), titles());
+    }
+
+    @Test
+    public void testPatchedListMatchesReloadedList() {
+        for (int i = library.size() + 1; i <= 300; i++) {
+            library.add(new Book.Builder("Libro " + (i * 37 % 300), "Autore").id(i).rating(i % 6).build());
+        }
+        display(SortCriteria.RATING_DESC, 500);
+
+        //ogni modifica cambia la chiave di ordinamento: la riga va trovata con la versione mostrata, non con quella nuova
+        List<Book> updated = new ArrayList<>();
+        List<Book> removed = new ArrayList<>();
+        for (int i = 0; i < library.size(); i += 7) {
+            Book book = library.get(i);
+            Book changed = new Book.Builder("Rivisto " + book.getTitle(), "Autore").id(book.getId())
+                    .rating((book.getRating() + 3) % 6).build();
+            updated.add(changed);
+            library.set(i, changed);
+        }
+        for (int i = 3; i < library.size(); i += 11) {
+            removed.add(library.get(i));
+        }
+        library.removeAll(removed);
+        updated.removeAll(removed);
+        assertTrue(panel.applyChanges(new BookChangeSet(List.of(), removed, updated), SortCriteria.RATING_DESC));
+
+        List<Book> expected = new ArrayList<>(library);
+        expected.sort(SortCriteria.RATING_DESC.comparator());
+        assertEquals(expected, panel.getDisplayedBooks());
+    }
+}